@@ -13,34 +13,59 @@ import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.text.method.ScrollingMovementMethod;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
+import android.widget.ListView;
+import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
 
+import org.ets.halefsdk.core.DialogApp;
+import org.ets.halefsdk.core.FeedbackBatch;
+import org.ets.halefsdk.core.SetupHandle;
 import org.ets.halefsdk.SipClientService;
 import org.ets.halefsdk.SipClientService.LocalBinder;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
-public class DemoActivity extends AppCompatActivity implements SipClientService.Callbacks {
+
+public class DemoActivity extends AppCompatActivity
+        implements SipClientService.Callbacks, SipClientService.FeedbackBatchCallbacks,
+                   SipClientService.CatalogCallbacks {
 
     private static final String TAG = "DemoActivity";
 
     private static final int HALEF_PERMISSIONS = 0;
+    private static final String[] PERMISSIONS = {
+            Manifest.permission.INTERNET,
+            Manifest.permission.USE_SIP,
+            Manifest.permission.RECORD_AUDIO,
+            Manifest.permission.WAKE_LOCK,
+            Manifest.permission.VIBRATE,
+            Manifest.permission.ACCESS_WIFI_STATE,
+            Manifest.permission.MODIFY_AUDIO_SETTINGS };
+    // Rows kept in memory per log; older rows are spilled to the cache directory.
+    private static final int LOG_CAPACITY = 500;
     private SipClientService mSipClientService;
     private boolean mSipClientBound;
+    private boolean mPermitted;
 
     private Button callButton, hangupButton;
-    private TextView registerStatusText, callStatusText, feedbackArea, debugArea;
+    private TextView registerStatusText, callStatusText;
+    private ListView feedbackArea, debugArea;
+    private LogAdapter feedbackLog, debugLog;
     private RadioGroup rgItems;
     public static final String PREFS_NAME = "HalefPrefs";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Gets the SDK going in the background while we inflate and ask for permissions.
+        SipClientService.warmUp(this);
         setContentView(R.layout.activity_demo);
         // Stop screen sleep
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -50,14 +75,16 @@ public class DemoActivity extends AppCompatActivity implements SipClientService.
         hangupButton = (Button) findViewById(R.id.btnHangup);
         registerStatusText = (TextView) findViewById(R.id.registerStatusText);
         callStatusText = (TextView) findViewById(R.id.callStatusText);
-        feedbackArea = (TextView) findViewById(R.id.feedbackArea);
-        debugArea = (TextView) findViewById(R.id.debugArea);
+        feedbackArea = (ListView) findViewById(R.id.feedbackArea);
+        debugArea = (ListView) findViewById(R.id.debugArea);
         rgItems = (RadioGroup) findViewById(R.id.rgItems);
         callButton.setEnabled(false);
         hangupButton.setEnabled(false);
 
-        debugArea.setMovementMethod(new ScrollingMovementMethod());
-        feedbackArea.setMovementMethod(new ScrollingMovementMethod());
+        feedbackLog = new LogAdapter(this, LOG_CAPACITY, new File(getCacheDir(), "feedback.log"));
+        debugLog = new LogAdapter(this, LOG_CAPACITY, new File(getCacheDir(), "debug.log"));
+        feedbackArea.setAdapter(feedbackLog);
+        debugArea.setAdapter(debugLog);
 
         // Restore preferences
         SharedPreferences settings = getSharedPreferences(PREFS_NAME, 0);
@@ -68,43 +95,55 @@ public class DemoActivity extends AppCompatActivity implements SipClientService.
     @Override
     protected void onStart() {
         super.onStart();
-
-        if ((ContextCompat.checkSelfPermission(this, Manifest.permission.INTERNET) != PackageManager.PERMISSION_GRANTED)
-                || (ContextCompat.checkSelfPermission(this, Manifest.permission.USE_SIP) != PackageManager.PERMISSION_GRANTED)
-                || (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED)
-                || (ContextCompat.checkSelfPermission(this, Manifest.permission.WAKE_LOCK) != PackageManager.PERMISSION_GRANTED)
-                || (ContextCompat.checkSelfPermission(this, Manifest.permission.VIBRATE) != PackageManager.PERMISSION_GRANTED)
-                || (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_WIFI_STATE) != PackageManager.PERMISSION_GRANTED)
-                || (ContextCompat.checkSelfPermission(this, Manifest.permission.MODIFY_AUDIO_SETTINGS) != PackageManager.PERMISSION_GRANTED)) {
-            // We need the permissions. Wait for callback before we go on.
-            ActivityCompat.requestPermissions(
-                    this,
-                    new String[]{ Manifest.permission.INTERNET,
-                            Manifest.permission.USE_SIP,
-                            Manifest.permission.RECORD_AUDIO,
-                            Manifest.permission.WAKE_LOCK,
-                            Manifest.permission.VIBRATE,
-                            Manifest.permission.ACCESS_WIFI_STATE,
-                            Manifest.permission.MODIFY_AUDIO_SETTINGS},
-                    HALEF_PERMISSIONS);
+        // Bind right away; only registering has to wait for the permissions.
+        bindService(new Intent(this, SipClientService.class), mSipClientServiceConnection, Context.BIND_AUTO_CREATE);
+        List<String> missing = new ArrayList<String>();
+        for (String permission : PERMISSIONS) {
+            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                missing.add(permission);
+            }
+        }
+        if (missing.isEmpty()) {
+            mPermitted = true;
+            startRegistration();
         } else {
-            // We have the permissions. Go ahead.
-            Intent i = new Intent(this, SipClientService.class);
-            startService(i);
-            bindService(i, mSipClientServiceConnection, Context.BIND_AUTO_CREATE);
-            callButton.setEnabled(true);
+            // Only ask for what we lack, all at once, and wait for the callback.
+            ActivityCompat.requestPermissions(this, missing.toArray(new String[missing.size()]), HALEF_PERMISSIONS);
+        }
+    }
+
+    /** Registers once we are both bound and permitted, whichever comes last. */
+    private void startRegistration() {
+        if (!mSipClientBound || !mPermitted) {
+            return;
         }
+        String asteriskDomain = getResources().getString(R.string.asteriskDomain);
+        String asteriskUsername = getResources().getString(R.string.asteriskUsername);
+        String asteriskPassword = getResources().getString(R.string.asteriskPassword);
+        mSipClientService.register(asteriskDomain, asteriskUsername, asteriskPassword);
+        callButton.setEnabled(true);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        feedbackLog.close();
+        debugLog.close();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        // Unbind from SipClientService
+        // Unbind from SipClientService, keeping the registration warm for when we come back.
         if (mSipClientBound) {
             hangup();
-            mSipClientService.unregister();
+            mSipClientService.standby();
+            mSipClientService.unregisterActivity(this);
             unbindService(mSipClientServiceConnection);
             mSipClientBound = false;
+        } else {
+            // Still binding: let go of the connection all the same.
+            unbindService(mSipClientServiceConnection);
         }
         // We need an Editor object to make preference changes.
         // All objects are from android.context.Context
@@ -117,21 +156,40 @@ public class DemoActivity extends AppCompatActivity implements SipClientService.
 
     }
 
+    /** Adds a button for each application the catalog lists beyond the built-in ones. */
+    @Override
+    public void catalogChanged(List<DialogApp> apps) {
+        for (DialogApp app : apps) {
+            if (rgItems.findViewWithTag(app.getExtension()) == null) {
+                RadioButton button = new RadioButton(this);
+                button.setText(app.getName());
+                button.setTag(app.getExtension());
+                rgItems.addView(button);
+            }
+        }
+    }
+
     public void onCall(View v){
         if (mSipClientBound) {
-            int selectedItem = rgItems.getCheckedRadioButtonId();
-            String extension = "";
-            if (selectedItem == R.id.rbCoffeeShop){
-                extension = "7801";
-            } else if (selectedItem == R.id.rbInterview){
-                extension = "7804";
-            } else if (selectedItem == R.id.rbGrammarTasks){
-                extension = "7725";
-            }
-            int status = mSipClientService.call(extension);
+            // Each application's button is tagged with its extension.
+            View selected = rgItems.findViewById(rgItems.getCheckedRadioButtonId());
+            String extension = selected != null ? (String) selected.getTag() : "";
             callButton.setEnabled(false);
             hangupButton.setEnabled(true);
-            Log.d(TAG, "Call status:  " + Integer.toString(status));
+            mSipClientService.call(extension).then(new SetupHandle.Listener() {
+                @Override
+                public void onSucceeded(SetupHandle call) {
+                    Log.d(TAG, "Call " + call.getId() + " established.");
+                }
+
+                @Override
+                public void onFailed(SetupHandle call, Exception cause) {
+                    // Nothing to hang up; let the user try again.
+                    debugLog.add("Call failed: " + cause.getMessage());
+                    hangupButton.setEnabled(false);
+                    callButton.setEnabled(true);
+                }
+            });
         }
     }
 
@@ -159,12 +217,12 @@ public class DemoActivity extends AppCompatActivity implements SipClientService.
             mSipClientBound = true;
             Log.d(TAG, "SipClientService bound");
 
-            // Initialize service with connection information
-            String asteriskDomain = getResources().getString(R.string.asteriskDomain);
-            String asteriskUsername = getResources().getString(R.string.asteriskUsername);
-            String asteriskPassword = getResources().getString(R.string.asteriskPassword);
             mSipClientService.registerActivity(DemoActivity.this);
-            mSipClientService.register(asteriskDomain, asteriskUsername, asteriskPassword);
+            mSipClientService.registerCatalogListener(DemoActivity.this);
+            catalogChanged(mSipClientService.getCatalog().getApps());
+            // Keep each call's feedback and status beyond this activity's lifetime.
+            mSipClientService.setHistoryDirectory(new File(getFilesDir(), "history"));
+            startRegistration();
         }
 
         @Override
@@ -178,19 +236,14 @@ public class DemoActivity extends AppCompatActivity implements SipClientService.
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         switch (requestCode) {
             case HALEF_PERMISSIONS: {
-                if (grantResults.length > 0
-                        && grantResults[0] == PackageManager.PERMISSION_GRANTED
-                        && grantResults[1] == PackageManager.PERMISSION_GRANTED
-                        && grantResults[2] == PackageManager.PERMISSION_GRANTED
-                        && grantResults[3] == PackageManager.PERMISSION_GRANTED
-                        && grantResults[4] == PackageManager.PERMISSION_GRANTED
-                        && grantResults[5] == PackageManager.PERMISSION_GRANTED
-                        && grantResults[6] == PackageManager.PERMISSION_GRANTED) {
+                boolean granted = grantResults.length > 0;
+                for (int result : grantResults) {
+                    granted &= result == PackageManager.PERMISSION_GRANTED;
+                }
+                if (granted) {
                     // We got the permissions. Go ahead.
-                    Intent i = new Intent(this, SipClientService.class);
-                    startService(i);
-                    bindService(i, mSipClientServiceConnection, Context.BIND_AUTO_CREATE);
-                    callButton.setEnabled(true);
+                    mPermitted = true;
+                    startRegistration();
                 } else {
                     Log.d(TAG, "User didn't give use the permissions. What should we do?");
                 }
@@ -198,46 +251,33 @@ public class DemoActivity extends AppCompatActivity implements SipClientService.
         }
     }
 
+    // SipClientService delivers every callback on the main thread, in order.
     @Override
-
-    public void feedbackMessage(final String message){
+    public void feedbackMessage(String message){
         Log.d(TAG, message);
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                feedbackArea.append("\n" + message);
-            }
-        });
+        feedbackLog.add(message);
+    }
+
+    @Override
+    public void feedbackBatch(FeedbackBatch batch){
+        // Once per frame: one list update for the whole batch.
+        feedbackLog.addAll(batch);
     }
 
-    public void debugMessage(final String message){
+    @Override
+    public void debugMessage(String message){
         Log.d(TAG, message);
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                debugArea.append("\n" + message);
-            }
-        });
+        debugLog.add(message);
     }
 
     @Override
     public void callStatus(int status){
         switch(status) {
             case SipClientService.CALL_INPROGRESS:
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        callStatusText.setText(getResources().getString(R.string.call_inprogress));
-                    }
-                });
+                callStatusText.setText(getResources().getString(R.string.call_inprogress));
                 break;
             case SipClientService.CALL_ENDED:
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        callStatusText.setText(getResources().getString(R.string.call_ended));
-                    }
-                });
+                callStatusText.setText(getResources().getString(R.string.call_ended));
                 break;
         }
     }
@@ -246,28 +286,13 @@ public class DemoActivity extends AppCompatActivity implements SipClientService.
     public void registerStatus(int status) {
         switch(status) {
             case SipClientService.REGISTERING:
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        registerStatusText.setText(getResources().getString(R.string.registering));
-                    }
-                });
+                registerStatusText.setText(getResources().getString(R.string.registering));
                 break;
             case SipClientService.REGISTERED:
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        registerStatusText.setText(getResources().getString(R.string.ready));
-                    }
-                });
+                registerStatusText.setText(getResources().getString(R.string.ready));
                 break;
             case SipClientService.REGISTERING_FAILED:
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        registerStatusText.setText(getResources().getString(R.string.registering_failed));
-                    }
-                });
+                registerStatusText.setText(getResources().getString(R.string.registering_failed));
                 break;
         }
     }
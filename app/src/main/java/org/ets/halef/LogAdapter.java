@@ -0,0 +1,98 @@
+package org.ets.halef;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import org.ets.halefsdk.core.FeedbackBatch;
+
+import java.io.File;
+
+/**
+ * List adapter for a bounded log. The newest {@code capacity} entries live in memory; older
+ * ones are spilled to {@code spillFile} and paged back in when scrolled to. Rows are
+ * recycled by the list, so only the visible entries are ever laid out.
+ *
+ * Must be used from the main thread.
+ */
+class LogAdapter extends BaseAdapter implements LogSpill.Listener {
+    private static final String PLACEHOLDER = "\u2026";
+
+    private final LayoutInflater inflater;
+    private final LogRing ring;
+    private final LogSpill spill;
+
+    LogAdapter(Context context, int capacity, File spillFile) {
+        inflater = LayoutInflater.from(context);
+        ring = new LogRing(capacity);
+        spill = spillFile == null ? null : new LogSpill(spillFile, this);
+    }
+
+    void add(String entry) {
+        append(entry);
+        notifyDataSetChanged();
+    }
+
+    void addAll(FeedbackBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            append(batch.getMessage(i));
+        }
+        notifyDataSetChanged();
+    }
+
+    void close() {
+        ring.clear();
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    private void append(String entry) {
+        String evicted = ring.add(entry);
+        if (evicted != null && spill != null) {
+            spill.append(evicted);
+        }
+    }
+
+    private int spilled() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    @Override
+    public int getCount() {
+        return spilled() + ring.size();
+    }
+
+    @Override
+    public String getItem(int position) {
+        int spilled = spilled();
+        if (position >= spilled) {
+            return ring.get(position - spilled);
+        }
+        String entry = spill.get(position);
+        return entry == null ? PLACEHOLDER : entry;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView row = (TextView) convertView;
+        if (row == null) {
+            row = (TextView) inflater.inflate(R.layout.log_row, parent, false);
+        }
+        row.setText(getItem(position));
+        return row;
+    }
+
+    @Override
+    public void onPageLoaded() {
+        notifyDataSetChanged();
+    }
+}
@@ -0,0 +1,42 @@
+package org.ets.halef;
+
+/** Fixed-capacity ring of log entries, oldest first. Adding to a full ring evicts the oldest. */
+class LogRing {
+    private final String[] entries;
+    private int head;
+    private int size;
+
+    LogRing(int capacity) {
+        entries = new String[capacity];
+    }
+
+    /** @return the evicted entry, or null if there was still room */
+    String add(String entry) {
+        String evicted = null;
+        if (size == entries.length) {
+            evicted = entries[head];
+            entries[head] = entry;
+            head = (head + 1) % entries.length;
+        } else {
+            entries[(head + size) % entries.length] = entry;
+            size++;
+        }
+        return evicted;
+    }
+
+    String get(int index) {
+        return entries[(head + index) % entries.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,187 @@
+package org.ets.halef;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Append-only scrollback file for entries evicted from a {@link LogRing}. Writes and page
+ * reads share one background thread, so a read always sees every earlier write. Reads are
+ * served from a small cache of pages; a miss returns null and loads the page in the
+ * background, then tells the {@link Listener} on the main thread.
+ *
+ * All public methods must be called on the main thread.
+ */
+class LogSpill {
+    private static final String TAG = "LogSpill";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int PAGE_SIZE = 64;
+    private static final int CACHED_PAGES = 4;
+
+    interface Listener {
+        void onPageLoaded();
+    }
+
+    private final File file;
+    private final Listener listener;
+    private final Executor main;
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+    private final Set<Integer> loading = new HashSet<Integer>();
+    private final Map<Integer, String[]> pages =
+            new LinkedHashMap<Integer, String[]>(CACHED_PAGES + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+                    return size() > CACHED_PAGES;
+                }
+            };
+    private int count;
+
+    // Owned by the io thread.
+    private RandomAccessFile raf;
+    private long[] pageOffsets = new long[16];
+    private int written;
+
+    LogSpill(File file, Listener listener) {
+        this(file, listener, new Executor() {
+            private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable task) {
+                mainHandler.post(task);
+            }
+        });
+    }
+
+    /** @param main runs page loads' completions; the main thread outside of tests */
+    LogSpill(File file, Listener listener, Executor main) {
+        this.file = file;
+        this.listener = listener;
+        this.main = main;
+        file.delete();
+    }
+
+    int size() {
+        return count;
+    }
+
+    void append(final String entry) {
+        count++;
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(entry);
+            }
+        });
+    }
+
+    /** @return the entry, or null while its page is being loaded */
+    String get(int index) {
+        int page = index / PAGE_SIZE;
+        String[] entries = pages.get(page);
+        if (entries != null && entries[index % PAGE_SIZE] != null) {
+            return entries[index % PAGE_SIZE];
+        }
+        load(page);
+        return null;
+    }
+
+    void close() {
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeFile();
+                file.delete();
+            }
+        });
+        io.shutdown();
+    }
+
+    private void load(final int page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String[] entries = read(page);
+                main.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        loading.remove(page);
+                        if (entries != null) {
+                            pages.put(page, entries);
+                            listener.onPageLoaded();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void write(String entry) {
+        try {
+            if (raf == null) {
+                raf = new RandomAccessFile(file, "rw");
+            }
+            if (written % PAGE_SIZE == 0) {
+                int page = written / PAGE_SIZE;
+                if (page == pageOffsets.length) {
+                    pageOffsets = Arrays.copyOf(pageOffsets, page * 2);
+                }
+                pageOffsets[page] = raf.length();
+            }
+            byte[] bytes = entry.getBytes(UTF8);
+            raf.seek(raf.length());
+            raf.writeInt(bytes.length);
+            raf.write(bytes);
+            written++;
+        } catch (IOException e) {
+            Log.e(TAG, "Spilling log entry failed", e);
+        }
+    }
+
+    private String[] read(int page) {
+        int first = page * PAGE_SIZE;
+        if (raf == null || first >= written) {
+            return null;
+        }
+        String[] entries = new String[PAGE_SIZE];
+        try {
+            raf.seek(pageOffsets[page]);
+            int available = Math.min(PAGE_SIZE, written - first);
+            for (int i = 0; i < available; i++) {
+                byte[] bytes = new byte[raf.readInt()];
+                raf.readFully(bytes);
+                entries[i] = new String(bytes, UTF8);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Reading log page failed", e);
+            return null;
+        }
+        return entries;
+    }
+
+    private void closeFile() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Closing log file failed", e);
+            }
+            raf = null;
+        }
+    }
+}
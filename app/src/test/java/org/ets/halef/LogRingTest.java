@@ -0,0 +1,44 @@
+package org.ets.halef;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LogRingTest {
+
+    @Test
+    public void keepsOrderUntilFullThenEvictsOldestFirst() {
+        LogRing ring = new LogRing(3);
+        assertNull(ring.add("a"));
+        assertNull(ring.add("b"));
+        assertNull(ring.add("c"));
+        assertEquals(3, ring.size());
+        assertEquals("a", ring.get(0));
+        assertEquals("c", ring.get(2));
+
+        assertEquals("a", ring.add("d"));
+        assertEquals("b", ring.add("e"));
+        assertEquals(3, ring.size());
+        assertEquals("c", ring.get(0));
+        assertEquals("d", ring.get(1));
+        assertEquals("e", ring.get(2));
+    }
+
+    @Test
+    public void wrapsAroundMoreThanOnce() {
+        LogRing ring = new LogRing(3);
+        for (int i = 0; i < 10; i++) {
+            String evicted = ring.add(Integer.toString(i));
+            assertEquals(i < 3 ? null : Integer.toString(i - 3), evicted);
+        }
+        assertEquals("7", ring.get(0));
+        assertEquals("8", ring.get(1));
+        assertEquals("9", ring.get(2));
+
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertNull(ring.add("x"));
+        assertEquals("x", ring.get(0));
+    }
+}
@@ -0,0 +1,104 @@
+package org.ets.halef;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class LogSpillTest {
+
+    private File file;
+    private LogSpill spill;
+    private int pagesLoaded;
+    /** What the spill hands the main thread; the test thread plays the main thread. */
+    private final BlockingQueue<Runnable> mainThread = new LinkedBlockingQueue<Runnable>();
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("logspill", ".bin");
+        spill = new LogSpill(file, new LogSpill.Listener() {
+            @Override
+            public void onPageLoaded() {
+                pagesLoaded++;
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                mainThread.add(task);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        spill.close();
+        file.delete();
+    }
+
+    /** Misses, waits for the page to come in, then reads it from the cache. */
+    private String load(int index) throws InterruptedException {
+        if (spill.get(index) == null) {
+            Runnable loaded = mainThread.poll(2, TimeUnit.SECONDS);
+            assertNotNull(loaded);
+            loaded.run();
+        }
+        return spill.get(index);
+    }
+
+    @Test
+    public void pagesAreReadBackInOrder() throws Exception {
+        for (int i = 0; i < 150; i++) {
+            spill.append("entry " + i + " \u00e9");
+        }
+        assertEquals(150, spill.size());
+
+        assertNull(spill.get(0));
+        // A second miss on a page already on its way does not load it twice.
+        assertNull(spill.get(10));
+        mainThread.poll(2, TimeUnit.SECONDS).run();
+        assertEquals(1, pagesLoaded);
+        assertEquals(0, mainThread.size());
+        assertEquals("entry 0 \u00e9", spill.get(0));
+        assertEquals("entry 63 \u00e9", spill.get(63));
+
+        assertEquals("entry 64 \u00e9", load(64));
+        // The last page is only partly filled.
+        assertEquals("entry 149 \u00e9", load(149));
+        assertEquals(3, pagesLoaded);
+    }
+
+    @Test
+    public void leastRecentlyUsedPageIsEvicted() throws Exception {
+        for (int i = 0; i < 5 * 64; i++) {
+            spill.append(Integer.toString(i));
+        }
+        for (int page = 0; page < 5; page++) {
+            assertEquals(Integer.toString(page * 64), load(page * 64));
+        }
+        assertEquals(5, pagesLoaded);
+        // Four pages are cached: the first one has to be read again, the last one does not.
+        assertEquals("256", spill.get(256));
+        assertNull(spill.get(0));
+        assertEquals("0", load(0));
+        assertEquals(6, pagesLoaded);
+    }
+
+    @Test
+    public void pageBeyondTheEndIsNotReported() throws Exception {
+        spill.append("only");
+        assertNull(spill.get(64));
+        Runnable loaded = mainThread.poll(2, TimeUnit.SECONDS);
+        loaded.run();
+        assertEquals(0, pagesLoaded);
+        assertEquals("only", load(0));
+    }
+}
@@ -0,0 +1,89 @@
+package org.ets.halefsdk.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two JMH JSON result files (average-time mode) and exits non-zero if any
+ * benchmark got slower by more than the threshold percentage.
+ *
+ * Usage: BenchmarkDiff baseline.json current.json [thresholdPercent]
+ */
+public final class BenchmarkDiff {
+    private static final Pattern RESULT = Pattern.compile(
+            "\"benchmark\"\\s*:\\s*\"([^\"]+)\"(.*?)\"primaryMetric\"\\s*:\\s*\\{\\s*\"score\"\\s*:\\s*([-0-9.eE]+)",
+            Pattern.DOTALL);
+    private static final Pattern PARAMS = Pattern.compile("\"params\"\\s*:\\s*\\{([^}]*)\\}");
+
+    private BenchmarkDiff() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkDiff baseline.json current.json [thresholdPercent]");
+            System.exit(2);
+        }
+        Map<String, Double> baseline = read(new File(args[0]));
+        Map<String, Double> current = read(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        int regressions = 0;
+        for (Map.Entry<String, Double> entry : current.entrySet()) {
+            Double before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-70s %12.2f  (new)%n", entry.getKey(), entry.getValue());
+                continue;
+            }
+            double change = (entry.getValue() - before) / before * 100;
+            boolean regressed = change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-70s %12.2f -> %12.2f  %+7.1f%%%s%n", entry.getKey(), before,
+                    entry.getValue(), change, regressed ? "  REGRESSION" : "");
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    static Map<String, Double> read(File file) throws IOException {
+        String json = readFully(file);
+        Map<String, Double> scores = new LinkedHashMap<String, Double>();
+        Matcher m = RESULT.matcher(json);
+        while (m.find()) {
+            String name = m.group(1);
+            Matcher params = PARAMS.matcher(m.group(2));
+            if (params.find()) {
+                name += "{" + params.group(1).replaceAll("[\\s\"]", "") + "}";
+            }
+            scores.put(name, Double.parseDouble(m.group(3)));
+        }
+        return scores;
+    }
+
+    private static String readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.ets.halefsdk.bench;
+
+import org.ets.halefsdk.core.CallIds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Call ID generation: {@link CallIds} against the original per-digit implementation. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class CallIdBenchmark {
+    private final CallIds callIds = new CallIds(new Random(42));
+
+    @Benchmark
+    public String callIds() {
+        return callIds.next();
+    }
+
+    /** What SipClientService.getCallUUID() used to do, kept as the baseline. */
+    @Benchmark
+    public String legacy() {
+        String randomCode = "";
+        Random randomGenerator = new Random();
+        for (int idx = 0; idx < 9; ++idx) {
+            int randomInt = randomGenerator.nextInt(10);
+            randomCode += String.valueOf(randomInt);
+        }
+        return randomCode;
+    }
+}
@@ -0,0 +1,31 @@
+package org.ets.halefsdk.bench;
+
+import org.ets.halefsdk.core.CallState;
+import org.ets.halefsdk.core.CallStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** A full call lifecycle, including the duplicate onCallEnded the SIP stack sometimes sends. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class CallStateBenchmark {
+
+    @Benchmark
+    public boolean lifecycle() {
+        CallStateMachine state = new CallStateMachine();
+        state.moveTo(CallState.CALLING);
+        state.moveTo(CallState.IN_PROGRESS);
+        state.moveTo(CallState.ENDED);
+        return state.moveTo(CallState.ENDED);
+    }
+}
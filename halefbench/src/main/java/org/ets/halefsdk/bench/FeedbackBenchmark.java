@@ -0,0 +1,76 @@
+package org.ets.halefsdk.bench;
+
+import org.ets.halefsdk.core.FeedbackBatch;
+import org.ets.halefsdk.core.FeedbackBatcher;
+import org.ets.halefsdk.core.FeedbackEvent;
+import org.ets.halefsdk.core.FeedbackParser;
+import org.ets.halefsdk.core.FrameScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Feedback message parsing and frame-batched dispatch. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class FeedbackBenchmark {
+    private static final int MESSAGES_PER_FRAME = 16;
+
+    @Param({"prompt", "partial", "score"})
+    public String kind;
+
+    private String message;
+    private final FeedbackParser parser = new FeedbackParser();
+    private final FeedbackEvent event = new FeedbackEvent();
+    private Runnable frame;
+    private FeedbackBatcher batcher;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole bh) {
+        blackhole = bh;
+        message = Messages.sample(kind);
+        batcher = new FeedbackBatcher(new FrameScheduler() {
+            @Override
+            public void scheduleFrame(Runnable task) {
+                frame = task;
+            }
+        }, new FeedbackBatcher.Sink() {
+            @Override
+            public void onBatch(FeedbackBatch batch) {
+                blackhole.consume(batch.size());
+            }
+        }, 256);
+    }
+
+    @Benchmark
+    public FeedbackEvent parse() {
+        parser.parse(message, event);
+        return event;
+    }
+
+    /** One frame's worth of messages offered from the socket thread, then flushed. */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_FRAME)
+    public void dispatch() {
+        for (int i = 0; i < MESSAGES_PER_FRAME; i++) {
+            batcher.offer("042137958", message);
+        }
+        frame.run();
+    }
+}
@@ -0,0 +1,58 @@
+package org.ets.halefsdk.bench;
+
+import org.ets.halefsdk.core.Cbor;
+import org.ets.halefsdk.core.FeedbackEvent;
+import org.ets.halefsdk.core.FeedbackParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a feedback message into an event, JSON against CBOR framing. The wire size of
+ * the two is reported by the load harness ({@code --framing}), against the stand-in server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class FeedbackFramingBenchmark {
+
+    @Param({"json", "cbor"})
+    public String framing;
+
+    @Param({"prompt", "partial", "score"})
+    public String kind;
+
+    private String json;
+    private byte[] cbor;
+    private final FeedbackParser parser = new FeedbackParser();
+    private final FeedbackEvent event = new FeedbackEvent();
+
+    @Setup
+    public void setUp() {
+        json = Messages.sample(kind);
+        cbor = "cbor".equals(framing) ? Cbor.fromJson(json) : null;
+    }
+
+    @Benchmark
+    public FeedbackEvent decode() {
+        if (cbor != null) {
+            parser.parse(cbor, event);
+        } else {
+            parser.parse(json, event);
+        }
+        return event;
+    }
+}
@@ -0,0 +1,77 @@
+package org.ets.halefsdk.bench;
+
+import org.ets.halefsdk.core.media.AudioDevice;
+import org.ets.halefsdk.core.media.JitterBuffer;
+import org.ets.halefsdk.core.media.PacketTrace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a packet trace through a fresh {@link JitterBuffer}: 3000 synthetic packets at
+ * the given jitter, or a trace recorded with {@code RtpSession.recordTo} passed as
+ * {@code -p trace=<file>}. The replay result (concealed frames, mean buffered delay) is
+ * printed at the end of each trial, so tuning runs show quality next to cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class JitterBufferBenchmark {
+
+    @Param({"5", "40", "120"})
+    public int jitterMillis;
+
+    @Param({"40"})
+    public int minDelayMillis;
+
+    @Param({""})
+    public String trace;
+
+    private PacketTrace packets;
+    private final short[] frame = new short[AudioDevice.FRAME_SAMPLES];
+    private PacketTrace.Result last;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (trace.length() > 0) {
+            FileReader reader = new FileReader(trace);
+            try {
+                packets = PacketTrace.read(reader);
+            } finally {
+                reader.close();
+            }
+        } else {
+            packets = PacketTrace.synthetic(3000, jitterMillis, 0.01, new Random(42));
+        }
+    }
+
+    @Benchmark
+    public PacketTrace.Result replay() {
+        JitterBuffer buffer = new JitterBuffer(JitterBuffer.DEFAULT_CAPACITY_FRAMES, minDelayMillis,
+                JitterBuffer.DEFAULT_MAX_DELAY_MILLIS, JitterBuffer.DEFAULT_JITTER_FACTOR);
+        last = packets.replay(buffer, frame);
+        return last;
+    }
+
+    @TearDown
+    public void report() {
+        System.out.println("jitter=" + jitterMillis + "ms: " + last);
+    }
+}
@@ -0,0 +1,23 @@
+package org.ets.halefsdk.bench;
+
+/** Representative feedback payloads, shaped like what the HALEF messenger sends. */
+final class Messages {
+    private Messages() {
+    }
+
+    static String sample(String kind) {
+        if ("prompt".equals(kind)) {
+            return "{\"user\":\"042137958\",\"type\":\"prompt\",\"text\":\"Welcome to the coffee"
+                    + " shop. What would you like to order today?\",\"meta\":{\"turn\":3}}";
+        }
+        if ("partial".equals(kind)) {
+            return "{\"user\":\"042137958\",\"type\":\"partial\",\"result\":\"I would like a"
+                    + " medium latte\",\"confidence\":0.82}";
+        }
+        if ("score".equals(kind)) {
+            return "{\"user\":\"042137958\",\"type\":\"score\",\"name\":\"fluency\",\"score\":3.5,"
+                    + "\"detail\":[1,2,{\"a\":\"b\"}]}";
+        }
+        throw new IllegalArgumentException(kind);
+    }
+}
@@ -0,0 +1,69 @@
+package org.ets.halefsdk.bench;
+
+import org.ets.halefsdk.core.media.AudioDevice;
+import org.ets.halefsdk.core.media.VoiceActivityDetector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of {@link VoiceActivityDetector}, the budget it takes out of every 20 ms
+ * of audio thread time. The frames cycle through ten seconds of noise with a one-second
+ * tone every three seconds, so both the adaptive floor and the transitions are exercised.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class VoiceActivityBenchmark {
+
+    private static final int FRAMES = 500;
+
+    private short[][] frames;
+    private VoiceActivityDetector detector;
+    private int next;
+    private long nanos;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        frames = new short[FRAMES][AudioDevice.FRAME_SAMPLES];
+        for (int f = 0; f < FRAMES; f++) {
+            boolean speech = f % 150 >= 100;
+            for (int i = 0; i < AudioDevice.FRAME_SAMPLES; i++) {
+                double t = (double) (f * AudioDevice.FRAME_SAMPLES + i) / AudioDevice.SAMPLE_RATE;
+                double tone = speech ? 6000 * Math.sin(2 * Math.PI * 220 * t) : 0;
+                frames[f][i] = (short) (tone + 300 * (2 * random.nextDouble() - 1));
+            }
+        }
+        detector = new VoiceActivityDetector(new VoiceActivityDetector.Listener() {
+            @Override
+            public void onSpeechStart(long nanos) {
+            }
+
+            @Override
+            public void onSpeechEnd(long nanos, long speechMillis) {
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean frame() {
+        short[] frame = frames[next];
+        next = next + 1 == FRAMES ? 0 : next + 1;
+        nanos += AudioDevice.FRAME_MILLIS * 1000000L;
+        return detector.process(frame, AudioDevice.FRAME_SAMPLES, nanos);
+    }
+}
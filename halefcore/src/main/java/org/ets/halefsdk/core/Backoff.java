@@ -0,0 +1,43 @@
+package org.ets.halefsdk.core;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter: the n-th delay is drawn uniformly from the upper half of
+ * {@code min(max, base * 2^n)}. The jitter keeps a fleet of clients that failed together
+ * from retrying in lockstep.
+ */
+public class Backoff {
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+    private int attempts;
+
+    public Backoff(long baseMillis, long maxMillis) {
+        this(baseMillis, maxMillis, new Random());
+    }
+
+    public Backoff(long baseMillis, long maxMillis, Random random) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    public synchronized long nextDelayMillis() {
+        long ceiling = maxMillis;
+        if (attempts < 62 && baseMillis <= maxMillis >> attempts) {
+            ceiling = baseMillis << attempts;
+        }
+        attempts++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half + 1));
+    }
+
+    public synchronized void reset() {
+        attempts = 0;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,84 @@
+package org.ets.halefsdk.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle to one call. It succeeds when the call is established and fails if the call ends,
+ * errors out, times out or is cancelled before that. Besides the outcome it streams every
+ * {@link CallState} the call goes through, so clients can react to each step without
+ * polling or global status codes.
+ */
+public class CallHandle extends SetupHandle {
+
+    public interface StateListener {
+        void onStateChanged(CallHandle call, CallState state);
+    }
+
+    private final List<StateListener> stateListeners = new CopyOnWriteArrayList<StateListener>();
+    private CallState state = CallState.IDLE;
+
+    public CallHandle(String id, Executor notifier) {
+        super(id, notifier);
+    }
+
+    public synchronized CallState getState() {
+        return state;
+    }
+
+    /** Streams state changes to {@code listener}, starting with the current state. */
+    public CallHandle addStateListener(StateListener listener) {
+        // Queued under the lock, like stateChanged(), so the current state cannot arrive
+        // after a later transition.
+        synchronized (this) {
+            stateListeners.add(listener);
+            notifyState(listener, state);
+        }
+        return this;
+    }
+
+    public void removeStateListener(StateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    @Override
+    public CallHandle then(Listener listener) {
+        super.then(listener);
+        return this;
+    }
+
+    @Override
+    public CallHandle timeoutAfter(long delay, TimeUnit unit, ScheduledExecutorService scheduler) {
+        super.timeoutAfter(delay, unit, scheduler);
+        return this;
+    }
+
+    /** For {@link CallSession}: reports a transition and completes the handle where due. */
+    void stateChanged(CallState next) {
+        synchronized (this) {
+            state = next;
+            for (StateListener listener : stateListeners) {
+                notifyState(listener, next);
+            }
+        }
+        if (next == CallState.IN_PROGRESS) {
+            succeed();
+        } else if (next == CallState.ENDED) {
+            fail(new SetupException("Call ended before it was established"));
+        } else if (next == CallState.FAILED) {
+            fail(new SetupException("Call failed"));
+        }
+    }
+
+    private void notifyState(final StateListener listener, final CallState state) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                listener.onStateChanged(CallHandle.this, state);
+            }
+        });
+    }
+}
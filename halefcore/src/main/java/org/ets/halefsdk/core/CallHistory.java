@@ -0,0 +1,699 @@
+package org.ets.halefsdk.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Durable history of calls: each call's feedback messages, state transitions and metrics,
+ * appended to a segmented log in one directory and indexed in memory by call UUID and
+ * time. {@link #append} only queues the record, so it never blocks message dispatch; a
+ * background thread writes what is queued in batches, starts a new segment file every
+ * {@code segmentBytes} and deletes the oldest one past {@code maxSegments}. When the
+ * queue is full the record is dropped and counted.
+ *
+ * Every record is framed with its length and a CRC32, so a tail torn by a crash is cut
+ * off when the directory is opened again. The index is rebuilt then, on the writer
+ * thread, by scanning the segments; calls from earlier runs are listed once that is done.
+ * Readers page through one call at a time with {@link #read}, loading only the records
+ * on the page.
+ */
+public class CallHistory {
+
+    public enum Kind {
+        FEEDBACK,
+        STATE,
+        METRICS
+    }
+
+    public static final long DEFAULT_SEGMENT_BYTES = 1 << 20;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final int BATCH = 256;
+    private static final int MAX_RECORD_BYTES = 16 << 20;
+    /** Time, kind and the call UUID's length. */
+    private static final int HEADER_BYTES = 8 + 1 + 2;
+    private static final String SUFFIX = ".log";
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final BlockingQueue<Record> queue;
+    private final ConcurrentMap<String, CallIndex> calls = new ConcurrentHashMap<String, CallIndex>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object progress = new Object();
+    private long written;
+    private volatile boolean closed;
+    private volatile boolean recovered;
+    private volatile int firstSegment;
+    private volatile IOException error;
+    private Thread thread;
+    // Writer thread only.
+    private int segment;
+    private long segmentSize;
+    private OutputStream out;
+    private byte[] frame = new byte[512];
+    private long[] positions = new long[BATCH];
+    private final CRC32 crc = new CRC32();
+
+    public CallHistory(File directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public CallHistory(File directory, long segmentBytes, int maxSegments, int queueCapacity) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(2, maxSegments);
+        this.queue = new ArrayBlockingQueue<Record>(queueCapacity);
+    }
+
+    /**
+     * Starts the writer, which first picks up what earlier runs left in the directory.
+     * Records appended before this wait in the queue until then.
+     */
+    public synchronized void open() {
+        if (thread == null && !closed) {
+            thread = new Thread(writer, "HalefHistory");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Writes what is still queued and stops the writer; waits up to five seconds for it. */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = thread;
+            thread = null;
+        }
+        if (t == null) {
+            return;
+        }
+        t.interrupt();
+        try {
+            t.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a record stamped with the current time. Never blocks.
+     *
+     * @return false if the history is closed or the queue is full
+     */
+    public boolean append(String callUUID, Kind kind, String payload) {
+        if (closed || !queue.offer(new Record(callUUID, kind, System.currentTimeMillis(), payload))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Waits until everything appended so far is written (or failed to be).
+     *
+     * @return false on timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = accepted.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (progress) {
+            while (written < target) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                progress.wait(left);
+            }
+        }
+        return true;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** Whether calls from earlier runs are indexed yet. */
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    /** Records dropped because the queue was full or the history closed. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** The last write error, if any; writing carries on with the next batch. */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Calls with at least one record between {@code fromMillis} and {@code toMillis},
+     * most recent first.
+     */
+    public List<CallSummary> getCalls(long fromMillis, long toMillis) {
+        List<CallSummary> result = new ArrayList<CallSummary>();
+        for (CallIndex index : calls.values()) {
+            CallSummary summary = index.summary(firstSegment);
+            if (summary != null && summary.firstMillis <= toMillis && summary.lastMillis >= fromMillis) {
+                result.add(summary);
+            }
+        }
+        Collections.sort(result, new Comparator<CallSummary>() {
+            @Override
+            public int compare(CallSummary a, CallSummary b) {
+                return a.lastMillis < b.lastMillis ? 1 : (a.lastMillis == b.lastMillis ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The first page of {@code callUUID}'s records from {@code fromMillis} on, in the order
+     * they were appended. Reads from disk; keep it off the main thread.
+     */
+    public Page read(String callUUID, long fromMillis, int limit) throws IOException {
+        CallIndex index = calls.get(callUUID);
+        if (index == null) {
+            return new Page(callUUID, Collections.<Record>emptyList(), -1, limit);
+        }
+        return readPage(callUUID, index, index.search(fromMillis), limit);
+    }
+
+    private Page readPage(String callUUID, CallIndex index, int start, int limit) throws IOException {
+        List<Record> records = new ArrayList<Record>(Math.min(limit, 64));
+        RandomAccessFile file = null;
+        int fileSegment = -1;
+        int i = start;
+        try {
+            int size = index.size();
+            for (; i < size && records.size() < limit; i++) {
+                long position = index.position(i);
+                int seg = (int) (position >>> 32);
+                if (seg < firstSegment) {
+                    continue;
+                }
+                if (seg != fileSegment) {
+                    if (file != null) {
+                        file.close();
+                        file = null;
+                    }
+                    fileSegment = seg;
+                    try {
+                        file = new RandomAccessFile(segmentFile(seg), "r");
+                    } catch (FileNotFoundException e) {
+                        // Deleted by retention since we looked.
+                        continue;
+                    }
+                }
+                if (file != null) {
+                    file.seek(position & 0xffffffffL);
+                    records.add(readRecord(file));
+                }
+            }
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+        return new Page(callUUID, records, i < index.size() ? i : -1, limit);
+    }
+
+    private Record readRecord(RandomAccessFile file) throws IOException {
+        int length = file.readInt();
+        int checksum = file.readInt();
+        if (length < HEADER_BYTES || length > MAX_RECORD_BYTES) {
+            throw new IOException("Corrupt record length " + length);
+        }
+        byte[] body = new byte[length];
+        file.readFully(body);
+        CRC32 check = new CRC32();
+        check.update(body, 0, length);
+        if ((int) check.getValue() != checksum) {
+            throw new IOException("Corrupt record at " + (file.getFilePointer() - length - 8));
+        }
+        return decode(body, length);
+    }
+
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                recover();
+                recovered = true;
+            } catch (IOException e) {
+                error = e;
+            }
+            List<Record> batch = new ArrayList<Record>(BATCH);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    queue.drainTo(batch);
+                    write(batch);
+                    closeSegment();
+                    return;
+                }
+                queue.drainTo(batch, BATCH - 1);
+                write(batch);
+                batch.clear();
+            }
+        }
+    };
+
+    private void write(List<Record> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (positions.length < batch.size()) {
+            positions = new long[batch.size()];
+        }
+        int done = 0;
+        try {
+            if (out == null) {
+                throw new IOException("History directory is not writable: " + directory);
+            }
+            for (Record record : batch) {
+                if (segmentSize >= segmentBytes) {
+                    roll();
+                }
+                int n = encode(record);
+                out.write(frame, 0, n);
+                positions[done++] = ((long) segment << 32) | segmentSize;
+                segmentSize += n;
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        try {
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            error = e;
+            done = 0;
+        }
+        // Indexed only once flushed, so readers never see a record they cannot read yet.
+        for (int i = 0; i < done; i++) {
+            Record record = batch.get(i);
+            index(record.callUUID, positions[i], record.timeMillis);
+        }
+        synchronized (progress) {
+            written += batch.size();
+            progress.notifyAll();
+        }
+    }
+
+    private void index(String callUUID, long position, long timeMillis) {
+        CallIndex index = calls.get(callUUID);
+        if (index == null) {
+            CallIndex fresh = new CallIndex(callUUID);
+            index = calls.putIfAbsent(callUUID, fresh);
+            if (index == null) {
+                index = fresh;
+            }
+        }
+        index.add(position, timeMillis);
+    }
+
+    /** Scans the segments left in the directory, cuts off a torn tail and reopens the last one. */
+    private void recover() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        int[] segments = listSegments();
+        if (segments.length == 0) {
+            firstSegment = 0;
+            openSegment(0, 0);
+            return;
+        }
+        firstSegment = segments[0];
+        long size = 0;
+        for (int seg : segments) {
+            size = scan(seg);
+        }
+        openSegment(segments[segments.length - 1], size);
+        if (segmentSize >= segmentBytes) {
+            roll();
+        }
+    }
+
+    /** Indexes one segment; returns how many bytes of it are good. */
+    private long scan(int seg) throws IOException {
+        File file = segmentFile(seg);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long offset = 0;
+        CRC32 check = new CRC32();
+        byte[] body = new byte[512];
+        try {
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < HEADER_BYTES || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    if (body.length < length) {
+                        body = new byte[Math.max(length, body.length * 2)];
+                    }
+                    in.readFully(body, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                check.reset();
+                check.update(body, 0, length);
+                if ((int) check.getValue() != checksum) {
+                    break;
+                }
+                Record record = decodeHeader(body);
+                index(record.callUUID, ((long) seg << 32) | offset, record.timeMillis);
+                offset += 8 + length;
+            }
+        } finally {
+            in.close();
+        }
+        if (offset < file.length()) {
+            RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+            try {
+                truncate.setLength(offset);
+            } finally {
+                truncate.close();
+            }
+        }
+        return offset;
+    }
+
+    private void roll() throws IOException {
+        closeSegment();
+        openSegment(segment + 1, 0);
+        while (segment - firstSegment + 1 > maxSegments) {
+            int oldest = firstSegment;
+            firstSegment = oldest + 1;
+            if (!segmentFile(oldest).delete()) {
+                error = new IOException("Cannot delete " + segmentFile(oldest));
+            }
+        }
+        for (Iterator<CallIndex> it = calls.values().iterator(); it.hasNext(); ) {
+            if (it.next().expired(firstSegment)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void openSegment(int seg, long size) throws IOException {
+        segment = seg;
+        segmentSize = size;
+        out = new BufferedOutputStream(new FileOutputStream(segmentFile(seg), true), 16 * 1024);
+    }
+
+    private void closeSegment() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            error = e;
+        }
+        out = null;
+    }
+
+    private int[] listSegments() {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new int[0];
+        }
+        int[] segments = new int[names.length];
+        int n = 0;
+        for (String name : names) {
+            try {
+                segments[n] = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                n++;
+            } catch (NumberFormatException e) {
+                // Not one of ours.
+            }
+        }
+        segments = Arrays.copyOf(segments, n);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(int seg) {
+        return new File(directory, String.format("%08d%s", seg, SUFFIX));
+    }
+
+    /** Frames {@code record} into {@link #frame}; returns its length. */
+    private int encode(Record record) {
+        byte[] id = record.callUUID.getBytes(UTF_8);
+        byte[] payload = record.payload == null ? new byte[0] : record.payload.getBytes(UTF_8);
+        int length = HEADER_BYTES + id.length + payload.length;
+        if (frame.length < 8 + length) {
+            frame = new byte[Math.max(8 + length, frame.length * 2)];
+        }
+        putInt(frame, 0, length);
+        long time = record.timeMillis;
+        putInt(frame, 8, (int) (time >>> 32));
+        putInt(frame, 12, (int) time);
+        frame[16] = (byte) record.kind.ordinal();
+        frame[17] = (byte) (id.length >>> 8);
+        frame[18] = (byte) id.length;
+        System.arraycopy(id, 0, frame, 19, id.length);
+        System.arraycopy(payload, 0, frame, 19 + id.length, payload.length);
+        crc.reset();
+        crc.update(frame, 8, length);
+        putInt(frame, 4, (int) crc.getValue());
+        return 8 + length;
+    }
+
+    private static Record decodeHeader(byte[] body) {
+        return decode(body, -1);
+    }
+
+    /** @param length the body length, or -1 to skip the payload */
+    private static Record decode(byte[] body, int length) {
+        long time = ((long) getInt(body, 0) << 32) | (getInt(body, 4) & 0xffffffffL);
+        Kind[] kinds = Kind.values();
+        int ordinal = body[8] & 0xff;
+        Kind kind = ordinal < kinds.length ? kinds[ordinal] : null;
+        int idLength = ((body[9] & 0xff) << 8) | (body[10] & 0xff);
+        String callUUID = new String(body, HEADER_BYTES, idLength, UTF_8);
+        String payload = null;
+        if (length >= 0) {
+            int start = HEADER_BYTES + idLength;
+            payload = new String(body, start, length - start, UTF_8);
+        }
+        return new Record(callUUID, kind, time, payload);
+    }
+
+    private static void putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8)
+                | (b[pos + 3] & 0xff);
+    }
+
+    /** One entry of a call's history. */
+    public static final class Record {
+        private final String callUUID;
+        private final Kind kind;
+        private final long timeMillis;
+        private final String payload;
+
+        Record(String callUUID, Kind kind, long timeMillis, String payload) {
+            this.callUUID = callUUID;
+            this.kind = kind;
+            this.timeMillis = timeMillis;
+            this.payload = payload;
+        }
+
+        public String getCallUUID() {
+            return callUUID;
+        }
+
+        /** Null for a kind written by a newer version of the SDK. */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /** Wall-clock time it was appended. */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /** The feedback message, the state's name or the metrics as JSON. */
+        public String getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "@" + timeMillis + "(" + payload + ")";
+        }
+    }
+
+    /** What the index knows about one call, without reading any of its records. */
+    public static final class CallSummary {
+        private final String callUUID;
+        private final long firstMillis;
+        private final long lastMillis;
+        private final int records;
+
+        CallSummary(String callUUID, long firstMillis, long lastMillis, int records) {
+            this.callUUID = callUUID;
+            this.firstMillis = firstMillis;
+            this.lastMillis = lastMillis;
+            this.records = records;
+        }
+
+        public String getCallUUID() {
+            return callUUID;
+        }
+
+        public long getFirstMillis() {
+            return firstMillis;
+        }
+
+        public long getLastMillis() {
+            return lastMillis;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+    }
+
+    /** Up to {@code limit} records of one call, and the way to the next ones. */
+    public final class Page {
+        private final String callUUID;
+        private final List<Record> records;
+        private final int next;
+        private final int limit;
+
+        Page(String callUUID, List<Record> records, int next, int limit) {
+            this.callUUID = callUUID;
+            this.records = records;
+            this.next = next;
+            this.limit = limit;
+        }
+
+        public List<Record> getRecords() {
+            return records;
+        }
+
+        /** Whether the call had more records when this page was read. */
+        public boolean hasMore() {
+            return next >= 0;
+        }
+
+        /** The page after this one, of the same size; reads from disk. */
+        public Page next() throws IOException {
+            CallIndex index = calls.get(callUUID);
+            if (next < 0 || index == null) {
+                return new Page(callUUID, Collections.<Record>emptyList(), -1, limit);
+            }
+            return readPage(callUUID, index, next, limit);
+        }
+    }
+
+    /** Where one call's records are, in append order, with their times. */
+    private static final class CallIndex {
+        private final String callUUID;
+        private long[] positions = new long[8];
+        private long[] times = new long[8];
+        private int size;
+
+        CallIndex(String callUUID) {
+            this.callUUID = callUUID;
+        }
+
+        synchronized void add(long position, long timeMillis) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            positions[size] = position;
+            times[size] = timeMillis;
+            size++;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long position(int i) {
+            return positions[i];
+        }
+
+        /** The first record at or after {@code fromMillis}; appends are in time order. */
+        synchronized int search(long fromMillis) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < fromMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        synchronized boolean expired(int firstSegment) {
+            return size == 0 || (int) (positions[size - 1] >>> 32) < firstSegment;
+        }
+
+        synchronized CallSummary summary(int firstSegment) {
+            int first = 0;
+            while (first < size && (int) (positions[first] >>> 32) < firstSegment) {
+                first++;
+            }
+            if (first == size) {
+                return null;
+            }
+            return new CallSummary(callUUID, times[first], times[size - 1], size - first);
+        }
+    }
+}
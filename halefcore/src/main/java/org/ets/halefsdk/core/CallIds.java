@@ -0,0 +1,33 @@
+package org.ets.halefsdk.core;
+
+import java.util.Random;
+
+/**
+ * Generates the 9-digit call IDs that tie a SIP call to its feedback session. One random
+ * draw per ID, written straight into a char array, instead of nine draws and nine string
+ * concatenations.
+ */
+public final class CallIds {
+    public static final int LENGTH = 9;
+    private static final int BOUND = 1000000000;
+
+    private final Random random;
+
+    public CallIds() {
+        this(new Random());
+    }
+
+    public CallIds(Random random) {
+        this.random = random;
+    }
+
+    public String next() {
+        char[] digits = new char[LENGTH];
+        int value = random.nextInt(BOUND);
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
+}
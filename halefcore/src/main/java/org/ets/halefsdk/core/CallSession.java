@@ -0,0 +1,64 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Everything that belongs to one call: its ID (also the feedback routing key), state and
+ * setup timeline. Platforms subclass it to hang on to their own call objects.
+ */
+public class CallSession {
+    private final String id;
+    private final String extension;
+    private final CallStateMachine state = new CallStateMachine();
+    private final SetupTimeline timeline;
+    private final CallHandle handle;
+
+    public CallSession(String id, String extension) {
+        this(id, extension, null);
+    }
+
+    /** @param notifier where the {@link CallHandle} listeners run; null for the calling thread */
+    public CallSession(String id, String extension, Executor notifier) {
+        this.id = id;
+        this.extension = extension;
+        this.timeline = new SetupTimeline(id, SetupStage.CALL);
+        this.handle = new CallHandle(id, notifier);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public CallState getState() {
+        return state.get();
+    }
+
+    /** @see CallStateMachine#moveTo(CallState) */
+    public boolean moveTo(CallState next) {
+        // Serialised so the handle streams transitions in the order they won.
+        synchronized (handle) {
+            if (!state.moveTo(next)) {
+                return false;
+            }
+            handle.stateChanged(next);
+        }
+        return true;
+    }
+
+    public CallHandle getHandle() {
+        return handle;
+    }
+
+    public SetupTimeline getTimeline() {
+        return timeline;
+    }
+
+    @Override
+    public String toString() {
+        return "CallSession(" + id + ", " + extension + ", " + state.get() + ")";
+    }
+}
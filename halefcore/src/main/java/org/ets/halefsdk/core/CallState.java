@@ -0,0 +1,27 @@
+package org.ets.halefsdk.core;
+
+/** Lifecycle of a single call. {@link #ENDED} and {@link #FAILED} are terminal. */
+public enum CallState {
+    IDLE,
+    CALLING,
+    IN_PROGRESS,
+    ENDED,
+    FAILED;
+
+    public boolean canMoveTo(CallState next) {
+        switch (this) {
+            case IDLE:
+                return next == CALLING || next == FAILED;
+            case CALLING:
+                return next == IN_PROGRESS || next == ENDED || next == FAILED;
+            case IN_PROGRESS:
+                return next == ENDED || next == FAILED;
+            default:
+                return false;
+        }
+    }
+
+    public boolean isTerminal() {
+        return this == ENDED || this == FAILED;
+    }
+}
@@ -0,0 +1,29 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe holder of a call's {@link CallState}. SIP callbacks arrive on several threads
+ * and sometimes twice (e.g. onCallEnded after an error); only legal transitions win, so
+ * each state change is reported exactly once.
+ */
+public class CallStateMachine {
+    private final AtomicReference<CallState> state = new AtomicReference<CallState>(CallState.IDLE);
+
+    public CallState get() {
+        return state.get();
+    }
+
+    /** @return true if the call moved to {@code next}, false if that transition is illegal now */
+    public boolean moveTo(CallState next) {
+        while (true) {
+            CallState current = state.get();
+            if (!current.canMoveTo(next)) {
+                return false;
+            }
+            if (state.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
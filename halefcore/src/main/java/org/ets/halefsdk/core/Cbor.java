@@ -0,0 +1,650 @@
+package org.ets.halefsdk.core;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Just enough CBOR (RFC 7049) for feedback framing: converting the JSON payloads we
+ * already build to CBOR and back, and finding top-level members of a CBOR map in place.
+ * Maps and arrays converted from JSON use indefinite lengths, so no count is needed up
+ * front; numbers without a fraction or exponent become integers, everything else a
+ * float, in single precision when that loses nothing. Byte strings and tags are skipped
+ * where they appear inside a value we do not read, and rejected by {@link #toJson}.
+ *
+ * Malformed input makes every method here throw {@link IllegalArgumentException}.
+ */
+public final class Cbor {
+    static final int UNSIGNED = 0;
+    static final int NEGATIVE = 1;
+    static final int BYTES = 2;
+    static final int TEXT = 3;
+    static final int ARRAY = 4;
+    static final int MAP = 5;
+    static final int TAG = 6;
+    static final int SIMPLE = 7;
+
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int HALF = 0xf9;
+    private static final int FLOAT = 0xfa;
+    private static final int DOUBLE = 0xfb;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Cbor() {
+    }
+
+    /** Encodes a JSON document as CBOR. */
+    public static byte[] fromJson(String json) {
+        JsonReader reader = new JsonReader(json);
+        Writer out = new Writer(json.length());
+        reader.value(out);
+        reader.skipWhitespace();
+        if (reader.pos != json.length()) {
+            throw new IllegalArgumentException("Trailing characters at " + reader.pos);
+        }
+        return out.toByteArray();
+    }
+
+    /** Renders a CBOR item as JSON. */
+    public static String toJson(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length + data.length / 2);
+        try {
+            if (toJson(data, 0, sb) != data.length) {
+                throw new IllegalArgumentException("Trailing bytes");
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated CBOR");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Where the value of the top-level member {@code key} starts, or -1 if {@code data} is
+     * not a map or has no such member. {@code key} must be ASCII.
+     */
+    static int member(byte[] data, String key) {
+        return data.length == 0 ? -1 : member(data, 0, key);
+    }
+
+    /** Like {@link #member(byte[], String)}, for the map starting at {@code map}. */
+    static int member(byte[] data, int map, String key) {
+        try {
+            if (major(data, map) != MAP) {
+                return -1;
+            }
+            long entries = argument(data, map);
+            int pos = map + headerLength(data, map);
+            for (long i = 0; entries < 0 || i < entries; i++) {
+                if (entries < 0 && isBreak(data, pos)) {
+                    return -1;
+                }
+                int value = skip(data, pos);
+                if (major(data, pos) == TEXT && textEquals(data, pos, key)) {
+                    return value;
+                }
+                pos = skip(data, value);
+            }
+            return -1;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated CBOR");
+        }
+    }
+
+    /** The top-level member {@code key} if it is a text string, else null. */
+    public static String textMember(byte[] data, String key) {
+        int pos = member(data, key);
+        return pos >= 0 && major(data, pos) == TEXT ? text(data, pos) : null;
+    }
+
+    /** The top-level member {@code key} if it is a non-negative integer, else -1. */
+    public static long longMember(byte[] data, String key) {
+        int pos = member(data, key);
+        return pos >= 0 && major(data, pos) == UNSIGNED ? argument(data, pos) : -1;
+    }
+
+    /** Whether {@code pos} holds the end of an indefinite-length item. */
+    static boolean isBreak(byte[] data, int pos) {
+        return (data[pos] & 0xff) == BREAK;
+    }
+
+    static int major(byte[] data, int pos) {
+        return (data[pos] & 0xff) >>> 5;
+    }
+
+    /** The head's argument: a value, a length, or -1 for an indefinite length. */
+    static long argument(byte[] data, int pos) {
+        int info = data[pos] & 0x1f;
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return data[pos + 1] & 0xff;
+            case 25:
+                return ((data[pos + 1] & 0xff) << 8) | (data[pos + 2] & 0xff);
+            case 26:
+                return ((long) readInt(data, pos + 1)) & 0xffffffffL;
+            case 27:
+                long value = ((long) readInt(data, pos + 1) << 32) | (readInt(data, pos + 5) & 0xffffffffL);
+                if (value < 0 && major(data, pos) != SIMPLE) {
+                    throw new IllegalArgumentException("Integer out of range at " + pos);
+                }
+                return value;
+            case INDEFINITE:
+                return -1;
+            default:
+                throw new IllegalArgumentException("Reserved additional information at " + pos);
+        }
+    }
+
+    static int headerLength(byte[] data, int pos) {
+        int info = data[pos] & 0x1f;
+        switch (info) {
+            case 24:
+                return 2;
+            case 25:
+                return 3;
+            case 26:
+                return 5;
+            case 27:
+                return 9;
+            default:
+                return 1;
+        }
+    }
+
+    /** Where the item starting at {@code pos} ends. */
+    static int skip(byte[] data, int pos) {
+        int major = major(data, pos);
+        long n = argument(data, pos);
+        int header = headerLength(data, pos);
+        switch (major) {
+            case BYTES:
+            case TEXT:
+                if (n >= 0) {
+                    return checkedEnd(data, pos + header, n);
+                }
+                return skipUntilBreak(data, pos + header);
+            case ARRAY:
+            case MAP:
+                if (n < 0) {
+                    return skipUntilBreak(data, pos + header);
+                }
+                int p = pos + header;
+                long items = major == MAP ? n * 2 : n;
+                for (long i = 0; i < items; i++) {
+                    p = skip(data, p);
+                }
+                return p;
+            case TAG:
+                return skip(data, pos + header);
+            default:
+                return pos + header;
+        }
+    }
+
+    static String text(byte[] data, int pos) {
+        long n = argument(data, pos);
+        if (n < 0) {
+            throw new IllegalArgumentException("Chunked text at " + pos);
+        }
+        int start = pos + headerLength(data, pos);
+        return new String(data, start, checkedEnd(data, start, n) - start, UTF_8);
+    }
+
+    /** Whether the text string at {@code pos} equals {@code ascii}. */
+    static boolean textEquals(byte[] data, int pos, String ascii) {
+        long n = argument(data, pos);
+        return n == ascii.length() && regionEquals(data, pos + headerLength(data, pos), ascii);
+    }
+
+    static boolean regionEquals(byte[] data, int start, String ascii) {
+        if (start + ascii.length() > data.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (data[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The integer or float at {@code pos}, NaN if it is neither. */
+    static double number(byte[] data, int pos) {
+        switch (major(data, pos)) {
+            case UNSIGNED:
+                return argument(data, pos);
+            case NEGATIVE:
+                return -1.0 - argument(data, pos);
+            case SIMPLE:
+                switch (data[pos] & 0xff) {
+                    case HALF:
+                        return halfToDouble(((data[pos + 1] & 0xff) << 8) | (data[pos + 2] & 0xff));
+                    case FLOAT:
+                        return Float.intBitsToFloat(readInt(data, pos + 1));
+                    case DOUBLE:
+                        return Double.longBitsToDouble(((long) readInt(data, pos + 1) << 32)
+                                | (readInt(data, pos + 5) & 0xffffffffL));
+                    default:
+                        return Double.NaN;
+                }
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static int toJson(byte[] data, int pos, StringBuilder sb) {
+        int major = major(data, pos);
+        long n = argument(data, pos);
+        int p = pos + headerLength(data, pos);
+        switch (major) {
+            case UNSIGNED:
+                sb.append(n);
+                return p;
+            case NEGATIVE:
+                sb.append(-1 - n);
+                return p;
+            case TEXT:
+                Json.quote(sb, text(data, pos));
+                return skip(data, pos);
+            case ARRAY:
+            case MAP:
+                boolean map = major == MAP;
+                sb.append(map ? '{' : '[');
+                for (long i = 0; n < 0 || i < n; i++) {
+                    if (n < 0 && isBreak(data, p)) {
+                        p++;
+                        break;
+                    }
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    if (map) {
+                        if (major(data, p) != TEXT) {
+                            throw new IllegalArgumentException("Map key is not text at " + p);
+                        }
+                        p = toJson(data, p, sb);
+                        sb.append(':');
+                    }
+                    p = toJson(data, p, sb);
+                }
+                sb.append(map ? '}' : ']');
+                return p;
+            case SIMPLE:
+                int b = data[pos] & 0xff;
+                if (b == FALSE || b == TRUE) {
+                    sb.append(b == TRUE);
+                    return p;
+                }
+                if (b == NULL) {
+                    sb.append("null");
+                    return p;
+                }
+                double d = number(data, pos);
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    if (b != HALF && b != FLOAT && b != DOUBLE) {
+                        throw new IllegalArgumentException("Unsupported simple value at " + pos);
+                    }
+                    sb.append("null");
+                } else {
+                    sb.append(d);
+                }
+                return p;
+            default:
+                throw new IllegalArgumentException("Unsupported major type " + major + " at " + pos);
+        }
+    }
+
+    private static int skipUntilBreak(byte[] data, int pos) {
+        while (!isBreak(data, pos)) {
+            pos = skip(data, pos);
+        }
+        return pos + 1;
+    }
+
+    private static int checkedEnd(byte[] data, int start, long length) {
+        if (length > data.length - start) {
+            throw new IllegalArgumentException("Truncated CBOR");
+        }
+        return start + (int) length;
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16)
+                | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+    }
+
+    private static double halfToDouble(int half) {
+        int exponent = (half >> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        double value;
+        if (exponent == 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        } else {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+    /** Growable output buffer with the item heads we emit. */
+    private static final class Writer {
+        private byte[] buf;
+        private int size;
+
+        Writer(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        void head(int major, long argument) {
+            ensure(9);
+            int type = major << 5;
+            if (argument < 24) {
+                buf[size++] = (byte) (type | argument);
+            } else if (argument < 0x100) {
+                buf[size++] = (byte) (type | 24);
+                buf[size++] = (byte) argument;
+            } else if (argument < 0x10000) {
+                buf[size++] = (byte) (type | 25);
+                buf[size++] = (byte) (argument >>> 8);
+                buf[size++] = (byte) argument;
+            } else if (argument < 0x100000000L) {
+                buf[size++] = (byte) (type | 26);
+                putInt((int) argument);
+            } else {
+                buf[size++] = (byte) (type | 27);
+                putInt((int) (argument >>> 32));
+                putInt((int) argument);
+            }
+        }
+
+        void startIndefinite(int major) {
+            ensure(1);
+            buf[size++] = (byte) ((major << 5) | INDEFINITE);
+        }
+
+        void simple(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void integer(long value) {
+            if (value >= 0) {
+                head(UNSIGNED, value);
+            } else {
+                head(NEGATIVE, -1 - value);
+            }
+        }
+
+        void decimal(double value) {
+            ensure(9);
+            float f = (float) value;
+            if (f == value) {
+                buf[size++] = (byte) FLOAT;
+                putInt(Float.floatToIntBits(f));
+            } else {
+                long bits = Double.doubleToLongBits(value);
+                buf[size++] = (byte) DOUBLE;
+                putInt((int) (bits >>> 32));
+                putInt((int) bits);
+            }
+        }
+
+        /** Text from {@code s[start, end)}, UTF-8 encoded in place. */
+        void text(CharSequence s, int start, int end) {
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 3;
+                }
+            }
+            head(TEXT, length);
+            ensure(length);
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[size++] = (byte) (0xc0 | (c >> 6));
+                    buf[size++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[size++] = (byte) (0xf0 | (cp >> 18));
+                    buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[size++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    // A lone surrogate gets three bytes of its own, as in modified UTF-8.
+                    buf[size++] = (byte) (0xe0 | (c >> 12));
+                    buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[size++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void putInt(int v) {
+            buf[size++] = (byte) (v >>> 24);
+            buf[size++] = (byte) (v >>> 16);
+            buf[size++] = (byte) (v >>> 8);
+            buf[size++] = (byte) v;
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+    }
+
+    /** Recursive-descent JSON reader writing each value straight to a {@link Writer}. */
+    private static final class JsonReader {
+        private final String in;
+        private final StringBuilder scratch = new StringBuilder(64);
+        int pos;
+
+        JsonReader(String in) {
+            this.in = in;
+        }
+
+        void value(Writer out) {
+            skipWhitespace();
+            char c = next();
+            switch (c) {
+                case '{':
+                    out.startIndefinite(MAP);
+                    skipWhitespace();
+                    if (peek() == '}') {
+                        pos++;
+                    } else {
+                        do {
+                            skipWhitespace();
+                            expect('"');
+                            string(out);
+                            skipWhitespace();
+                            expect(':');
+                            value(out);
+                            skipWhitespace();
+                        } while (separator('}'));
+                    }
+                    out.simple(BREAK);
+                    return;
+                case '[':
+                    out.startIndefinite(ARRAY);
+                    skipWhitespace();
+                    if (peek() == ']') {
+                        pos++;
+                    } else {
+                        do {
+                            value(out);
+                            skipWhitespace();
+                        } while (separator(']'));
+                    }
+                    out.simple(BREAK);
+                    return;
+                case '"':
+                    string(out);
+                    return;
+                case 't':
+                    literal("rue");
+                    out.simple(TRUE);
+                    return;
+                case 'f':
+                    literal("alse");
+                    out.simple(FALSE);
+                    return;
+                case 'n':
+                    literal("ull");
+                    out.simple(NULL);
+                    return;
+                default:
+                    pos--;
+                    number(out);
+            }
+        }
+
+        /** Consumes a {@code ,} (more to come) or {@code close} (done). */
+        private boolean separator(char close) {
+            char c = next();
+            if (c == ',') {
+                return true;
+            }
+            if (c != close) {
+                throw new IllegalArgumentException("Expected , or " + close + " at " + (pos - 1));
+            }
+            return false;
+        }
+
+        private void string(Writer out) {
+            int start = pos;
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    out.text(in, start, pos - 1);
+                    return;
+                }
+                if (c == '\\') {
+                    break;
+                }
+            }
+            pos--;
+            scratch.setLength(0);
+            scratch.append(in, start, pos);
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    out.text(scratch, 0, scratch.length());
+                    return;
+                }
+                if (c != '\\') {
+                    scratch.append(c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                    case 'n':
+                        scratch.append('\n');
+                        break;
+                    case 't':
+                        scratch.append('\t');
+                        break;
+                    case 'r':
+                        scratch.append('\r');
+                        break;
+                    case 'b':
+                        scratch.append('\b');
+                        break;
+                    case 'f':
+                        scratch.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > in.length()) {
+                            throw new IllegalArgumentException("Truncated escape at " + pos);
+                        }
+                        scratch.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        scratch.append(c);
+                }
+            }
+        }
+
+        private void number(Writer out) {
+            int start = pos;
+            boolean integral = true;
+            while (pos < in.length()) {
+                char c = in.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    integral = false;
+                } else if (!((c >= '0' && c <= '9') || c == '-' || c == '+')) {
+                    break;
+                }
+                pos++;
+            }
+            if (start == pos) {
+                throw new IllegalArgumentException("Unexpected character at " + pos);
+            }
+            String s = in.substring(start, pos);
+            if (integral) {
+                try {
+                    out.integer(Long.parseLong(s));
+                    return;
+                } catch (NumberFormatException e) {
+                    // Too large for a long; keep it as a float.
+                }
+            }
+            out.decimal(Double.parseDouble(s));
+        }
+
+        private void literal(String rest) {
+            if (!in.startsWith(rest, pos)) {
+                throw new IllegalArgumentException("Unexpected literal at " + (pos - 1));
+            }
+            pos += rest.length();
+        }
+
+        void skipWhitespace() {
+            while (pos < in.length() && Character.isWhitespace(in.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= in.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return in.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + (pos - 1));
+            }
+        }
+    }
+}
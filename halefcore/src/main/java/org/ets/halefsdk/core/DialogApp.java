@@ -0,0 +1,72 @@
+package org.ets.halefsdk.core;
+
+/**
+ * One HALEF dialog application: the extension that starts it and how to show it. The
+ * dial string prefix is built once, so placing a call only appends the call ID and domain.
+ */
+public final class DialogApp {
+    private final String extension;
+    private final String name;
+    private final String description;
+    private final String prefix;
+
+    public DialogApp(String extension, String name, String description) {
+        this.extension = extension;
+        this.name = name != null ? name : extension;
+        this.description = description;
+        this.prefix = extension + "0000";
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** May be null. */
+    public String getDescription() {
+        return description;
+    }
+
+    /** The SIP user and domain that start this dialog for call {@code callId}. */
+    public String dialString(String callId, String domain) {
+        return new StringBuilder(prefix.length() + callId.length() + 1 + domain.length())
+                .append(prefix).append(callId).append('@').append(domain).toString();
+    }
+
+    /** Extensions go into the SIP URI as they are, so only digits are accepted. */
+    static boolean isValidExtension(String extension) {
+        if (extension == null || extension.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < extension.length(); i++) {
+            char c = extension.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DialogApp)) {
+            return false;
+        }
+        DialogApp other = (DialogApp) o;
+        return extension.equals(other.extension) && name.equals(other.name)
+                && (description == null ? other.description == null : description.equals(other.description));
+    }
+
+    @Override
+    public int hashCode() {
+        return extension.hashCode() * 31 + name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "DialogApp(" + extension + ", " + name + ")";
+    }
+}
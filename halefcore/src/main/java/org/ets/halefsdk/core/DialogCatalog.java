@@ -0,0 +1,415 @@
+package org.ets.halefsdk.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The HALEF dialog applications available to call, loaded from a {@link Source} and kept
+ * in memory and in a cache file. Lookups never block: {@link #getApps()} answers from
+ * memory and, once the catalog is past its max age, revalidates it in the background
+ * with the validator of the last fetch (an ETag, say), so an unchanged catalog costs the
+ * source next to nothing. A catalog that could not be revalidated for
+ * {@code maxStaleMillis} is evicted, from memory and disk, rather than served.
+ *
+ * The source returns JSON, either an array of applications or an object with an
+ * {@code apps} array. Each application has an {@code extension} (digits only) and
+ * optionally a {@code name} and {@code description}; anything else is ignored.
+ */
+public class DialogCatalog {
+
+    public interface Source {
+        /**
+         * @param validator what the last successful fetch returned, or null for a full fetch
+         */
+        Fetch fetch(String validator) throws IOException;
+    }
+
+    public interface Listener {
+        /** Called on the thread that loaded the catalog, whenever its contents changed. */
+        void onCatalogChanged(List<DialogApp> apps);
+    }
+
+    /** What a {@link Source} returned. */
+    public static final class Fetch {
+        final String json;
+        final String validator;
+        final long maxAgeMillis;
+
+        private Fetch(String json, String validator, long maxAgeMillis) {
+            this.json = json;
+            this.validator = validator;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        /** A new catalog; {@code validator} may be null if the source has none. */
+        public static Fetch of(String json, String validator, long maxAgeMillis) {
+            return new Fetch(json, validator, maxAgeMillis);
+        }
+
+        /** The catalog we have is still current. */
+        public static Fetch notModified(long maxAgeMillis) {
+            return new Fetch(null, null, maxAgeMillis);
+        }
+    }
+
+    /** A source that always serves {@code json}, for built-in catalogs and tests. */
+    public static Source fixed(final String json, final long maxAgeMillis) {
+        return new Source() {
+            @Override
+            public Fetch fetch(String validator) {
+                String tag = Integer.toHexString(json.hashCode());
+                return tag.equals(validator) ? Fetch.notModified(maxAgeMillis) : Fetch.of(json, tag, maxAgeMillis);
+            }
+        };
+    }
+
+    public static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final String CACHE_MAGIC = "halef-catalog 1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File cacheFile;
+    private final Listener listener;
+    private final long maxStaleMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Source source;
+    /** Bumped, under the lock, on every {@link #setSource}; fetches from before are discarded. */
+    private volatile int generation;
+    private volatile Entry entry;
+    private volatile boolean loaded;
+    private volatile IOException error;
+
+    /**
+     * @param cacheFile where to keep the catalog between runs; null keeps it in memory only
+     * @param listener may be null
+     */
+    public DialogCatalog(Source source, File cacheFile, Listener listener) {
+        this(source, cacheFile, listener, DEFAULT_MAX_STALE_MILLIS);
+    }
+
+    public DialogCatalog(Source source, File cacheFile, Listener listener, long maxStaleMillis) {
+        this.source = source;
+        this.cacheFile = cacheFile;
+        this.listener = listener;
+        this.maxStaleMillis = maxStaleMillis;
+    }
+
+    /**
+     * Loads the cache file and, unless what it held is still fresh, the source, on a
+     * background thread. Call it at startup so the catalog is ready by the time it is needed.
+     */
+    public void prefetch() {
+        refreshInBackground();
+    }
+
+    /** Switches to another source and fetches from it in the background. */
+    public void setSource(Source source) {
+        synchronized (this) {
+            this.source = source;
+            generation++;
+            Entry current = entry;
+            if (current != null) {
+                // Validators from the old source mean nothing to the new one.
+                entry = current.withValidator(null, 0);
+            }
+        }
+        refreshInBackground();
+    }
+
+    /** The applications we know of, possibly none yet. Never blocks. */
+    public List<DialogApp> getApps() {
+        Entry current = current();
+        return current == null ? Collections.<DialogApp>emptyList() : current.apps;
+    }
+
+    /** The application with {@code extension}, or null if the catalog does not list it. */
+    public DialogApp find(String extension) {
+        Entry current = current();
+        return current == null ? null : current.byExtension.get(extension);
+    }
+
+    /** Like {@link #find}, but makes up an entry for an extension the catalog does not list. */
+    public DialogApp resolve(String extension) {
+        DialogApp app = find(extension);
+        return app != null ? app : new DialogApp(extension, extension, null);
+    }
+
+    /** The last error loading or saving the catalog, if the last attempt failed. */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Fetches from the source now, on this thread, and on first use loads the cache file
+     * before that. What comes back is dropped if {@link #setSource} switched sources in the
+     * meantime.
+     *
+     * @return whether the catalog changed
+     */
+    public boolean refresh() throws IOException {
+        boolean changed = false;
+        if (!loaded) {
+            loaded = true;
+            changed = loadCache();
+            Entry cached = entry;
+            if (cached != null && cached.expiresAtMillis > System.currentTimeMillis()) {
+                notifyChanged(changed);
+                return changed;
+            }
+        }
+        int fetchedFor;
+        Source from;
+        Entry current;
+        synchronized (this) {
+            fetchedFor = generation;
+            from = source;
+            current = entry;
+        }
+        Fetch fetch;
+        try {
+            fetch = from.fetch(current != null ? current.validator : null);
+        } catch (IOException e) {
+            if (fetchedFor == generation) {
+                error = e;
+            }
+            notifyChanged(changed);
+            throw e;
+        }
+        long now = System.currentTimeMillis();
+        List<DialogApp> apps = fetch.json == null ? null : parse(fetch.json);
+        Entry saved;
+        synchronized (this) {
+            if (fetchedFor != generation) {
+                // The refresh setSource started fetches from the new source.
+                saved = null;
+            } else if (fetch.json == null) {
+                if (current == null) {
+                    error = new IOException("Source answered not modified to a full fetch");
+                    throw error;
+                }
+                saved = current.revalidated(now, fetch.maxAgeMillis);
+            } else {
+                saved = new Entry(apps, fetch.json, fetch.validator, now, now + fetch.maxAgeMillis);
+                changed |= current == null || !current.apps.equals(saved.apps);
+            }
+            if (saved != null) {
+                entry = saved;
+                error = null;
+            }
+        }
+        saveCache(saved);
+        notifyChanged(changed);
+        return changed;
+    }
+
+    private void notifyChanged(boolean changed) {
+        if (changed && listener != null) {
+            listener.onCatalogChanged(getApps());
+        }
+    }
+
+    /** The entry to serve: triggers revalidation once stale, evicts it once too stale. */
+    private Entry current() {
+        Entry current = entry;
+        long now = System.currentTimeMillis();
+        if (current == null || current.expiresAtMillis <= now) {
+            refreshInBackground();
+        }
+        if (current != null && now - current.validatedAtMillis > maxStaleMillis) {
+            evict(current);
+            return null;
+        }
+        return current;
+    }
+
+    private void evict(Entry stale) {
+        synchronized (this) {
+            if (entry != stale) {
+                return;
+            }
+            entry = null;
+        }
+        if (cacheFile != null && cacheFile.exists() && !cacheFile.delete()) {
+            error = new IOException("Cannot delete " + cacheFile);
+        }
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int fetchedFor;
+                try {
+                    do {
+                        fetchedFor = generation;
+                        try {
+                            refresh();
+                        } catch (IOException e) {
+                            // Kept in error; we try again the next time someone asks.
+                        }
+                        // A setSource while we were at it found us busy: go again, for it.
+                    } while (fetchedFor != generation);
+                } finally {
+                    refreshing.set(false);
+                }
+                if (fetchedFor != generation) {
+                    // Switched between our last look and letting go.
+                    refreshInBackground();
+                }
+            }
+        }, "HalefCatalog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** @return whether a usable catalog was loaded */
+    private boolean loadCache() {
+        if (cacheFile == null || !cacheFile.exists()) {
+            return false;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), UTF_8));
+            try {
+                if (!CACHE_MAGIC.equals(in.readLine())) {
+                    return false;
+                }
+                String validator = in.readLine();
+                long validatedAt = Long.parseLong(in.readLine());
+                long expiresAt = Long.parseLong(in.readLine());
+                StringBuilder json = new StringBuilder();
+                char[] buf = new char[4096];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    json.append(buf, 0, n);
+                }
+                if (System.currentTimeMillis() - validatedAt > maxStaleMillis) {
+                    return false;
+                }
+                String body = json.toString();
+                entry = new Entry(parse(body), body, validator.isEmpty() ? null : validator, validatedAt, expiresAt);
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            // Truncated or otherwise unreadable; the source will replace it.
+            error = new IOException("Unreadable catalog cache: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private void saveCache(Entry saved) {
+        if (cacheFile == null || saved == null) {
+            return;
+        }
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        File temp = new File(parent, cacheFile.getName() + ".tmp");
+        try {
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            Writer out = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+            try {
+                out.write(CACHE_MAGIC);
+                out.write('\n');
+                out.write(saved.validator != null ? saved.validator : "");
+                out.write('\n');
+                out.write(Long.toString(saved.validatedAtMillis));
+                out.write('\n');
+                out.write(Long.toString(saved.expiresAtMillis));
+                out.write('\n');
+                out.write(saved.json);
+            } finally {
+                out.close();
+            }
+            // Replaced in one step, so a crash leaves the old catalog or the new one.
+            if (!temp.renameTo(cacheFile)) {
+                throw new IOException("Cannot replace " + cacheFile);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /** Reads the applications out of a catalog; invalid entries are skipped. */
+    static List<DialogApp> parse(String json) {
+        byte[] data = Cbor.fromJson(json);
+        int list = 0;
+        if (Cbor.major(data, 0) == Cbor.MAP) {
+            list = Cbor.member(data, 0, "apps");
+        }
+        if (list < 0 || Cbor.major(data, list) != Cbor.ARRAY) {
+            throw new IllegalArgumentException("No apps array in the catalog");
+        }
+        List<DialogApp> apps = new ArrayList<DialogApp>();
+        long items = Cbor.argument(data, list);
+        int pos = list + Cbor.headerLength(data, list);
+        for (long i = 0; items < 0 || i < items; i++) {
+            if (items < 0 && Cbor.isBreak(data, pos)) {
+                break;
+            }
+            if (Cbor.major(data, pos) == Cbor.MAP) {
+                String extension = textMember(data, pos, "extension");
+                if (DialogApp.isValidExtension(extension)) {
+                    apps.add(new DialogApp(extension, textMember(data, pos, "name"),
+                            textMember(data, pos, "description")));
+                }
+            }
+            pos = Cbor.skip(data, pos);
+        }
+        return Collections.unmodifiableList(apps);
+    }
+
+    private static String textMember(byte[] data, int map, String key) {
+        int pos = Cbor.member(data, map, key);
+        return pos >= 0 && Cbor.major(data, pos) == Cbor.TEXT ? Cbor.text(data, pos) : null;
+    }
+
+    private static final class Entry {
+        final List<DialogApp> apps;
+        final Map<String, DialogApp> byExtension;
+        final String json;
+        final String validator;
+        final long validatedAtMillis;
+        final long expiresAtMillis;
+
+        Entry(List<DialogApp> apps, String json, String validator, long validatedAtMillis,
+              long expiresAtMillis) {
+            this.apps = apps;
+            this.json = json;
+            this.validator = validator;
+            this.validatedAtMillis = validatedAtMillis;
+            this.expiresAtMillis = expiresAtMillis;
+            byExtension = new HashMap<String, DialogApp>(apps.size() * 2);
+            for (DialogApp app : apps) {
+                byExtension.put(app.getExtension(), app);
+            }
+        }
+
+        Entry revalidated(long now, long maxAgeMillis) {
+            return new Entry(apps, json, validator, now, now + maxAgeMillis);
+        }
+
+        Entry withValidator(String newValidator, long newExpiresAtMillis) {
+            return new Entry(apps, json, newValidator, validatedAtMillis, newExpiresAtMillis);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.ets.halefsdk.core;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Single SDK thread that takes {@link SdkEvent}s from SIP, socket and decoder threads and
+ * hands them to the {@link Dispatcher} in the order they were raised. Posting never blocks:
+ * the queue is bounded, and when the client falls behind droppable events (feedback and
+ * debug messages) make room, oldest first, while status events are always kept; with no
+ * droppable event left to evict, they grow the queue past its bound.
+ *
+ * Events are delivered in runs of up to {@link #MAX_RUN} on the configured executor, one run
+ * at a time, so a slow executor backs up this queue rather than its own. With no executor
+ * the dispatcher runs on the loop thread itself. An event the dispatcher throws on is
+ * skipped, and the exception kept for {@link #getError()}.
+ */
+public class EventLoop {
+
+    public interface Dispatcher {
+        void dispatch(SdkEvent event);
+    }
+
+    static final int MAX_RUN = 64;
+
+    private final Dispatcher dispatcher;
+    private final int capacity;
+    private final ArrayDeque<SdkEvent> queue;
+    private final SdkEvent[] run = new SdkEvent[MAX_RUN];
+    private final Semaphore delivered = new Semaphore(0);
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private volatile Executor executor;
+    private int runLength;
+    private long dropped;
+    private volatile RuntimeException error;
+    private Thread thread;
+    private volatile boolean running;
+
+    /** @param executor where the dispatcher runs; null for the loop thread */
+    public EventLoop(Dispatcher dispatcher, int capacity, Executor executor) {
+        this.dispatcher = dispatcher;
+        this.capacity = capacity;
+        this.queue = new ArrayDeque<SdkEvent>(capacity);
+        this.executor = executor;
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(loop, "HalefEventLoop");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops dispatching. Events still queued are discarded. */
+    public synchronized void stop() {
+        if (thread != null) {
+            running = false;
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /** Takes effect from the next run of events. Null dispatches on the loop thread. */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /** @return false if the event was dropped because the queue is full; never for status events */
+    public boolean post(SdkEvent event) {
+        synchronized (queue) {
+            if (queue.size() >= capacity) {
+                if (event.getType().isDroppable()) {
+                    dropped++;
+                    return false;
+                }
+                makeRoom();
+            }
+            queue.addLast(event);
+            queue.notify();
+        }
+        return true;
+    }
+
+    /** Number of events dropped because the client could not keep up. */
+    public long getDropped() {
+        synchronized (queue) {
+            return dropped;
+        }
+    }
+
+    /** Time from an event being raised to its dispatch. */
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    /** The last exception the dispatcher threw, or null. */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /** Evicts the oldest droppable event, if there is one. */
+    private void makeRoom() {
+        for (Iterator<SdkEvent> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next().getType().isDroppable()) {
+                it.remove();
+                dropped++;
+                return;
+            }
+        }
+    }
+
+    private final Runnable loop = new Runnable() {
+        @Override
+        public void run() {
+            while (running) {
+                synchronized (queue) {
+                    try {
+                        while (queue.isEmpty()) {
+                            queue.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    runLength = 0;
+                    while (runLength < MAX_RUN && !queue.isEmpty()) {
+                        run[runLength++] = queue.pollFirst();
+                    }
+                }
+                Executor target = executor;
+                if (target == null) {
+                    dispatchRun();
+                    continue;
+                }
+                try {
+                    target.execute(deliver);
+                } catch (RejectedExecutionException e) {
+                    synchronized (queue) {
+                        dropped += runLength;
+                    }
+                    continue;
+                }
+                try {
+                    delivered.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    };
+
+    private void dispatchRun() {
+        for (int i = 0; i < runLength && running; i++) {
+            SdkEvent event = run[i];
+            run[i] = null;
+            dispatchLatency.recordNanos(System.nanoTime() - event.getTimestampNanos());
+            try {
+                dispatcher.dispatch(event);
+            } catch (RuntimeException e) {
+                // One bad callback must not take the loop, and every event after it, down.
+                error = e;
+            }
+        }
+    }
+
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                dispatchRun();
+            } finally {
+                delivered.release();
+            }
+        }
+    };
+}
@@ -0,0 +1,51 @@
+package org.ets.halefsdk.core;
+
+/**
+ * Feedback messages that arrived within one frame, oldest first. The batch and its arrays
+ * are reused for the next frame, so it is only valid for the duration of the callback.
+ */
+public final class FeedbackBatch {
+    final String[] callUUIDs;
+    final String[] messages;
+    int size;
+    int dropped;
+
+    FeedbackBatch(int capacity) {
+        callUUIDs = new String[capacity];
+        messages = new String[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getMessage(int index) {
+        return messages[index];
+    }
+
+    public String getCallUUID(int index) {
+        return callUUIDs[index];
+    }
+
+    /** Messages discarded because the queue was full since the previous batch. */
+    public int getDropped() {
+        return dropped;
+    }
+
+    /** Appends every message, each preceded by {@code separator}. */
+    public StringBuilder appendTo(StringBuilder sb, char separator) {
+        for (int i = 0; i < size; i++) {
+            sb.append(separator).append(messages[i]);
+        }
+        return sb;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            callUUIDs[i] = null;
+            messages[i] = null;
+        }
+        size = 0;
+        dropped = 0;
+    }
+}
@@ -0,0 +1,93 @@
+package org.ets.halefsdk.core;
+
+/**
+ * Coalesces feedback messages into one delivery per frame. Producers only copy a reference
+ * into a preallocated ring; the first message of a frame schedules a flush, and the flush
+ * hands everything queued so far to the {@link Sink} as a single {@link FeedbackBatch}.
+ * When more than {@code capacity} messages pile up within a frame the oldest are dropped
+ * and counted.
+ */
+public class FeedbackBatcher {
+
+    public interface Sink {
+        void onBatch(FeedbackBatch batch);
+    }
+
+    private final FrameScheduler scheduler;
+    private final Sink sink;
+    private final String[] callUUIDs;
+    private final String[] messages;
+    private final FeedbackBatch batch;
+    private int head;
+    private int size;
+    private int dropped;
+    private long totalDropped;
+    private boolean scheduled;
+
+    public FeedbackBatcher(FrameScheduler scheduler, Sink sink, int capacity) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+        callUUIDs = new String[capacity];
+        messages = new String[capacity];
+        batch = new FeedbackBatch(capacity);
+    }
+
+    public void offer(String callUUID, String message) {
+        boolean schedule;
+        synchronized (this) {
+            int capacity = messages.length;
+            if (size == capacity) {
+                head = (head + 1) % capacity;
+                size--;
+                dropped++;
+                totalDropped++;
+            }
+            int tail = (head + size) % capacity;
+            callUUIDs[tail] = callUUID;
+            messages[tail] = message;
+            size++;
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            scheduler.scheduleFrame(flush);
+        }
+    }
+
+    /** Total number of messages dropped because a frame's queue was full. */
+    public synchronized long getTotalDropped() {
+        return totalDropped;
+    }
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (FeedbackBatcher.this) {
+                int capacity = messages.length;
+                int first = Math.min(size, capacity - head);
+                System.arraycopy(callUUIDs, head, batch.callUUIDs, 0, first);
+                System.arraycopy(messages, head, batch.messages, 0, first);
+                System.arraycopy(callUUIDs, 0, batch.callUUIDs, first, size - first);
+                System.arraycopy(messages, 0, batch.messages, first, size - first);
+                for (int i = 0; i < size; i++) {
+                    int slot = (head + i) % capacity;
+                    callUUIDs[slot] = null;
+                    messages[slot] = null;
+                }
+                batch.size = size;
+                batch.dropped = dropped;
+                head = 0;
+                size = 0;
+                dropped = 0;
+                scheduled = false;
+            }
+            try {
+                if (batch.size > 0) {
+                    sink.onBatch(batch);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    };
+}
@@ -0,0 +1,543 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived feedback connection shared by all calls. The socket is opened once (at
+ * registration) and stays connected between calls; each call only has to emit
+ * {@code register} with its call UUID. Messages are routed to the call they are
+ * addressed to, so late messages from a finished call never reach the next one.
+ *
+ * Messages carrying a {@code seq} member are tracked per call: duplicates are dropped, a
+ * gap makes us emit {@code replay} with the first missing number, and registering again
+ * after a reconnect says {@code resume} with the last number we have in order (-1 for
+ * none), so the server can send what was missed during the outage. Given a scheduler, the channel also
+ * reconnects on its own, with jittered backoff, for as long as it is open.
+ *
+ * With {@link #setBinaryFraming} the channel offers CBOR on every connect by emitting
+ * {@code hello}, and holds back registrations until the server answers with the encoding
+ * it picked, or for {@link #ENCODING_TIMEOUT_MILLIS} at most. A server that does not
+ * answer, or answers {@code json}, gets JSON as before. Binary messages are accepted
+ * either way.
+ */
+public class FeedbackChannel implements FeedbackSocket.Handler {
+    public static final String ENCODING_JSON = "json";
+    public static final String ENCODING_CBOR = "cbor";
+    /** How long registrations wait for the answer to {@code hello} before falling back to JSON. */
+    public static final long ENCODING_TIMEOUT_MILLIS = 300;
+
+    public interface Listener {
+        void onChannelConnected(long latencyNanos);
+        void onChannelDisconnected();
+        void onSessionRegistered(String callUUID);
+        void onFeedbackMessage(String callUUID, String message);
+    }
+
+    /**
+     * Optional companion to {@link Listener} for listeners that can take CBOR-framed messages
+     * as they came in. Others get them rendered as JSON.
+     */
+    public interface BinaryListener extends Listener {
+        void onFeedbackBinary(String callUUID, byte[] message);
+    }
+
+    private final FeedbackSocket socket;
+    private final Listener listener;
+    private final ConcurrentMap<String, SequenceWindow> sessions = new ConcurrentHashMap<String, SequenceWindow>();
+    private final ConnectStats stats = new ConnectStats();
+    private final ScheduledExecutorService timers;
+    private final Backoff backoff;
+
+    private boolean open;
+    private boolean connecting;
+    private long connectStartNanos;
+    private ScheduledFuture<?> retry;
+    private boolean negotiating;
+    private ScheduledFuture<?> negotiation;
+    private volatile boolean offerBinary;
+    private volatile boolean binary;
+    private volatile long duplicates;
+    private volatile long replayRequests;
+
+    /** A channel that leaves reconnecting to the socket. */
+    public FeedbackChannel(FeedbackSocket socket, Listener listener) {
+        this(socket, listener, null, null);
+    }
+
+    /**
+     * A channel that reconnects itself: after a disconnect, and again after every attempt
+     * that has not connected by the next backoff delay.
+     */
+    public FeedbackChannel(FeedbackSocket socket, Listener listener, ScheduledExecutorService timers,
+                           Backoff backoff) {
+        this.socket = socket;
+        this.listener = listener;
+        this.timers = timers;
+        this.backoff = backoff;
+        socket.setHandler(this);
+    }
+
+    /** Starts connecting if we are not connected yet. Safe to call repeatedly. */
+    public void open() {
+        synchronized (this) {
+            open = true;
+            if (connecting || socket.connected()) {
+                return;
+            }
+            connecting = true;
+            connectStartNanos = System.nanoTime();
+            stats.attempts++;
+            scheduleRetry();
+        }
+        socket.connect();
+    }
+
+    /**
+     * Drops the connection, which may be stuck on a network that is gone, and connects again
+     * right away instead of after the next backoff delay. Sessions are kept and resume where
+     * they left off.
+     */
+    public void reconnect() {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            if (backoff != null) {
+                backoff.reset();
+            }
+            // Set first, so the disconnect below is not taken for an outage to back off from.
+            connecting = true;
+            connectStartNanos = System.nanoTime();
+            stats.attempts++;
+            scheduleRetry();
+        }
+        socket.disconnect();
+        socket.connect();
+    }
+
+    /**
+     * Whether to offer CBOR framing from the next connect on. Without a scheduler there is
+     * no waiting for the answer; calls register in JSON and later emits switch over.
+     */
+    public void setBinaryFraming(boolean enabled) {
+        offerBinary = enabled;
+    }
+
+    /** Whether this connection negotiated CBOR framing. */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** Disconnects the socket and forgets all sessions. */
+    public void close() {
+        synchronized (this) {
+            open = false;
+            connecting = false;
+            cancelRetry();
+            cancelNegotiation();
+        }
+        sessions.clear();
+        socket.disconnect();
+    }
+
+    /**
+     * Starts routing messages for {@code callUUID}. The UUID is registered with the server
+     * right away if we are connected, otherwise as soon as the connection comes up.
+     */
+    public void attach(String callUUID) {
+        sessions.putIfAbsent(callUUID, new SequenceWindow());
+        if (socket.connected()) {
+            synchronized (this) {
+                if (negotiating) {
+                    // Registered along with the others once the encoding is settled.
+                    return;
+                }
+            }
+            register(callUUID);
+        } else {
+            open();
+        }
+    }
+
+    /** Stops routing messages for {@code callUUID}. The connection itself stays up. */
+    public void detach(String callUUID) {
+        if (callUUID != null) {
+            sessions.remove(callUUID);
+        }
+    }
+
+    /**
+     * Tells the server, ahead of its own endpointing, that the caller on {@code callUUID}
+     * started or stopped speaking. Dropped if we are not connected; it is only a hint.
+     */
+    public void sendSpeechHint(String callUUID, boolean started, long speechMillis) {
+        if (socket.connected() && sessions.containsKey(callUUID)) {
+            emit("speech", speechHintPayload(callUUID, started, speechMillis));
+        }
+    }
+
+    /** Whether the channel was opened and not closed since, connected or not. */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public boolean isConnected() {
+        return socket.connected();
+    }
+
+    /** Sequenced messages dropped because we already had them. */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /** Times we asked the server to replay missed messages. */
+    public long getReplayRequests() {
+        return replayRequests;
+    }
+
+    public ConnectStats getConnectStats() {
+        synchronized (this) {
+            return stats.copy();
+        }
+    }
+
+    @Override
+    public void onConnect() {
+        long latency;
+        boolean offer;
+        boolean wait;
+        synchronized (this) {
+            latency = connecting ? System.nanoTime() - connectStartNanos : -1;
+            connecting = false;
+            if (latency >= 0) {
+                stats.record(latency);
+            }
+            cancelRetry();
+            if (backoff != null) {
+                backoff.reset();
+            }
+            binary = false;
+            offer = offerBinary;
+            wait = offer && timers != null;
+            negotiating = wait;
+            if (wait) {
+                scheduleNegotiationTimeout();
+            }
+        }
+        if (offer) {
+            socket.emit("hello", helloPayload());
+        }
+        if (!wait) {
+            registerAll();
+        }
+        listener.onChannelConnected(latency);
+    }
+
+    @Override
+    public void onEncoding(String encoding) {
+        synchronized (this) {
+            binary = offerBinary && ENCODING_CBOR.equals(encoding);
+            if (!negotiating) {
+                // Answered after we gave up waiting: later emits still switch over.
+                return;
+            }
+            negotiating = false;
+            cancelNegotiation();
+        }
+        registerAll();
+    }
+
+    @Override
+    public void onDisconnect() {
+        synchronized (this) {
+            binary = false;
+            negotiating = false;
+            cancelNegotiation();
+            if (open && !connecting) {
+                // socket.io reconnects on its own; time it like a fresh connect.
+                connecting = true;
+                connectStartNanos = System.nanoTime();
+                stats.attempts++;
+                scheduleRetry();
+            }
+        }
+        listener.onChannelDisconnected();
+    }
+
+    @Override
+    public void onMessage(String user, String message) {
+        if (user != null) {
+            SequenceWindow window = sessions.get(user);
+            if (window != null && accept(user, window, sequenceOf(message))) {
+                listener.onFeedbackMessage(user, message);
+            }
+            return;
+        }
+        for (String callUUID : sessions.keySet()) {
+            listener.onFeedbackMessage(callUUID, message);
+        }
+    }
+
+    @Override
+    public void onBinaryMessage(String user, byte[] message) {
+        long seq;
+        try {
+            if (user == null) {
+                user = Cbor.textMember(message, "user");
+            }
+            seq = Cbor.longMember(message, "seq");
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if (user != null) {
+            SequenceWindow window = sessions.get(user);
+            if (window != null && accept(user, window, seq)) {
+                deliver(user, message);
+            }
+            return;
+        }
+        for (String callUUID : sessions.keySet()) {
+            deliver(callUUID, message);
+        }
+    }
+
+    private void deliver(String callUUID, byte[] message) {
+        if (listener instanceof BinaryListener) {
+            ((BinaryListener) listener).onFeedbackBinary(callUUID, message);
+            return;
+        }
+        String json;
+        try {
+            json = Cbor.toJson(message);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        listener.onFeedbackMessage(callUUID, json);
+    }
+
+    private boolean accept(String callUUID, SequenceWindow window, long seq) {
+        if (seq < 0) {
+            return true;
+        }
+        switch (window.accept(seq)) {
+            case SequenceWindow.DUPLICATE:
+                duplicates++;
+                return false;
+            case SequenceWindow.GAP:
+                long from = window.claimReplay();
+                if (from >= 0) {
+                    replayRequests++;
+                    emit("replay", replayPayload(callUUID, from));
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void registerAll() {
+        for (String callUUID : sessions.keySet()) {
+            register(callUUID);
+        }
+    }
+
+    private void register(String callUUID) {
+        SequenceWindow window = sessions.get(callUUID);
+        if (window != null && window.markRegistered()) {
+            emit("register", resumePayload(callUUID, window.getContiguous()));
+        } else {
+            emit("register", registerPayload(callUUID));
+        }
+        listener.onSessionRegistered(callUUID);
+    }
+
+    /** Emits a payload built as JSON in whichever encoding this connection uses. */
+    private void emit(String event, String json) {
+        if (binary) {
+            socket.emit(event, Cbor.fromJson(json));
+        } else {
+            socket.emit(event, json);
+        }
+    }
+
+    private void scheduleNegotiationTimeout() {
+        cancelNegotiation();
+        negotiation = timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (FeedbackChannel.this) {
+                    if (!negotiating) {
+                        return;
+                    }
+                    negotiating = false;
+                    negotiation = null;
+                }
+                registerAll();
+            }
+        }, ENCODING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelNegotiation() {
+        if (negotiation != null) {
+            negotiation.cancel(false);
+            negotiation = null;
+        }
+    }
+
+    private void scheduleRetry() {
+        if (timers == null || !open) {
+            return;
+        }
+        cancelRetry();
+        retry = timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (FeedbackChannel.this) {
+                    if (!open || socket.connected()) {
+                        return;
+                    }
+                    connectStartNanos = System.nanoTime();
+                    stats.attempts++;
+                    scheduleRetry();
+                }
+                socket.connect();
+            }
+        }, backoff.nextDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelRetry() {
+        if (retry != null) {
+            retry.cancel(false);
+            retry = null;
+        }
+    }
+
+    /** Offered on connect when binary framing is enabled, preferred encoding first. */
+    public static String helloPayload() {
+        return "{\"encodings\":[\"" + ENCODING_CBOR + "\",\"" + ENCODING_JSON + "\"]}";
+    }
+
+    public static String registerPayload(String callUUID) {
+        StringBuilder sb = new StringBuilder(callUUID.length() + 12);
+        sb.append("{\"user\":");
+        return Json.quote(sb, callUUID).append('}').toString();
+    }
+
+    /**
+     * Registering again after a reconnect.
+     *
+     * @param lastSeq last sequence number received in order, -1 if none
+     */
+    public static String resumePayload(String callUUID, long lastSeq) {
+        StringBuilder sb = new StringBuilder(callUUID.length() + 32);
+        sb.append("{\"user\":");
+        return Json.quote(sb, callUUID).append(",\"resume\":").append(lastSeq).append('}').toString();
+    }
+
+    public static String replayPayload(String callUUID, long from) {
+        StringBuilder sb = new StringBuilder(callUUID.length() + 32);
+        sb.append("{\"user\":");
+        return Json.quote(sb, callUUID).append(",\"from\":").append(from).append('}').toString();
+    }
+
+    /**
+     * The top-level {@code seq} member of a JSON message, or -1 if there is none. Looks no
+     * further than the key and its digits, so it costs next to nothing per message.
+     */
+    static long sequenceOf(String message) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            } else if (c == '"') {
+                if (depth == 1 && message.startsWith("seq\"", i + 1)) {
+                    return digitsAfterColon(message, i + 5);
+                }
+                inString = true;
+            }
+        }
+        return -1;
+    }
+
+    private static long digitsAfterColon(String message, int i) {
+        int n = message.length();
+        while (i < n && message.charAt(i) == ' ') {
+            i++;
+        }
+        if (i >= n || message.charAt(i) != ':') {
+            return -1;
+        }
+        i++;
+        while (i < n && message.charAt(i) == ' ') {
+            i++;
+        }
+        long value = -1;
+        while (i < n && message.charAt(i) >= '0' && message.charAt(i) <= '9') {
+            value = (value < 0 ? 0 : value * 10) + (message.charAt(i) - '0');
+            i++;
+        }
+        return value;
+    }
+
+    public static String speechHintPayload(String callUUID, boolean started, long speechMillis) {
+        StringBuilder sb = new StringBuilder(callUUID.length() + 48);
+        sb.append("{\"user\":");
+        Json.quote(sb, callUUID);
+        if (started) {
+            return sb.append(",\"speech\":\"start\"}").toString();
+        }
+        return sb.append(",\"speech\":\"end\",\"millis\":").append(speechMillis).append('}').toString();
+    }
+
+    /** Connect latency of the feedback channel, including socket.io reconnects. */
+    public static final class ConnectStats {
+        private int attempts;
+        private int connects;
+        private long lastNanos = -1;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos;
+        private long totalNanos;
+
+        void record(long nanos) {
+            connects++;
+            lastNanos = nanos;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        ConnectStats copy() {
+            ConnectStats c = new ConnectStats();
+            c.attempts = attempts;
+            c.connects = connects;
+            c.lastNanos = lastNanos;
+            c.minNanos = minNanos;
+            c.maxNanos = maxNanos;
+            c.totalNanos = totalNanos;
+            return c;
+        }
+
+        public int getAttempts() { return attempts; }
+        public int getConnects() { return connects; }
+        public long getLastNanos() { return lastNanos; }
+        public long getMinNanos() { return connects == 0 ? -1 : minNanos; }
+        public long getMaxNanos() { return connects == 0 ? -1 : maxNanos; }
+        public long getMeanNanos() { return connects == 0 ? -1 : totalNanos / connects; }
+    }
+}
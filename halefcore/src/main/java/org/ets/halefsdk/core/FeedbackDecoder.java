@@ -0,0 +1,128 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes feedback messages into {@link FeedbackEvent}s on a dedicated background thread.
+ * Events come from a fixed pool, so queueing a message allocates nothing; when the pool is
+ * exhausted the message is dropped and counted rather than blocking the socket thread.
+ * The listener is called on the decoder thread and must not hold on to the event.
+ * Messages that do not parse are counted and not passed on; an event the listener throws
+ * on is skipped, and the exception kept for {@link #getError()}.
+ */
+public class FeedbackDecoder {
+
+    public interface Listener {
+        void onFeedbackEvent(FeedbackEvent event);
+    }
+
+    private final Listener listener;
+    private final BlockingQueue<FeedbackEvent> free;
+    private final BlockingQueue<FeedbackEvent> pending;
+    private final FeedbackParser parser = new FeedbackParser();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private volatile RuntimeException error;
+    private Thread thread;
+
+    public FeedbackDecoder(Listener listener, int capacity) {
+        this.listener = listener;
+        free = new ArrayBlockingQueue<FeedbackEvent>(capacity);
+        pending = new ArrayBlockingQueue<FeedbackEvent>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.add(new FeedbackEvent());
+        }
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(loop, "HalefFeedbackDecoder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /** @return false if the message was dropped because the decoder is saturated */
+    public boolean offer(String callUUID, String message) {
+        FeedbackEvent event = free.poll();
+        if (event == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        event.receivedNanos = System.nanoTime();
+        event.callUUID = callUUID;
+        event.raw = message;
+        pending.add(event);
+        return true;
+    }
+
+    /**
+     * Queues a CBOR-framed message; it is decoded from the bytes as they are.
+     *
+     * @return false if the message was dropped because the decoder is saturated
+     */
+    public boolean offer(String callUUID, byte[] message) {
+        FeedbackEvent event = free.poll();
+        if (event == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        event.receivedNanos = System.nanoTime();
+        event.callUUID = callUUID;
+        event.binary = message;
+        pending.add(event);
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Messages that were not a well-formed JSON object or CBOR map. */
+    public long getMalformed() {
+        return malformed.get();
+    }
+
+    /** The last exception the listener threw, or null. */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    private final Runnable loop = new Runnable() {
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                FeedbackEvent event;
+                try {
+                    event = pending.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    boolean parsed = event.binary != null
+                            ? parser.parse(event.binary, event)
+                            : parser.parse(event.raw, event);
+                    if (parsed) {
+                        listener.onFeedbackEvent(event);
+                    } else {
+                        malformed.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    error = e;
+                } finally {
+                    event.reset();
+                    free.add(event);
+                }
+            }
+        }
+    };
+}
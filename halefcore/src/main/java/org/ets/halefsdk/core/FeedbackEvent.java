@@ -0,0 +1,104 @@
+package org.ets.halefsdk.core;
+
+/**
+ * A feedback message decoded into a typed event. Instances are pooled by
+ * {@link FeedbackDecoder} and recycled as soon as the listener returns; use {@link #copy()}
+ * to keep one around.
+ */
+public final class FeedbackEvent {
+
+    public enum Type {
+        PROMPT,
+        PARTIAL_RESULT,
+        SCORE,
+        END_OF_DIALOG,
+        /** Anything we do not recognise. */
+        OTHER
+    }
+
+    Type type = Type.OTHER;
+    String callUUID;
+    String raw;
+    byte[] binary;
+    String text;
+    String label;
+    double score = Double.NaN;
+    long receivedNanos;
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getCallUUID() {
+        return callUUID;
+    }
+
+    /**
+     * The message exactly as received or, for a CBOR-framed message, its JSON rendering
+     * (null if the bytes were not valid CBOR).
+     */
+    public String getRaw() {
+        if (raw == null && binary != null) {
+            try {
+                raw = Cbor.toJson(binary);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return raw;
+    }
+
+    /** The received bytes of a CBOR-framed message, null for a JSON one. */
+    public byte[] getBinary() {
+        return binary;
+    }
+
+    /** Prompt or recognition text, if the message had any. */
+    public String getText() {
+        return text;
+    }
+
+    /** Which item a {@link Type#SCORE} event scores, if given. */
+    public String getLabel() {
+        return label;
+    }
+
+    /** The score of a {@link Type#SCORE} event, NaN otherwise. */
+    public double getScore() {
+        return score;
+    }
+
+    /** {@link System#nanoTime()} when the message came off the socket. */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    public FeedbackEvent copy() {
+        FeedbackEvent c = new FeedbackEvent();
+        c.type = type;
+        c.callUUID = callUUID;
+        c.raw = raw;
+        c.binary = binary;
+        c.text = text;
+        c.label = label;
+        c.score = score;
+        c.receivedNanos = receivedNanos;
+        return c;
+    }
+
+    void reset() {
+        type = Type.OTHER;
+        callUUID = null;
+        raw = null;
+        binary = null;
+        text = null;
+        label = null;
+        score = Double.NaN;
+        receivedNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + (text != null ? text : getRaw()) + ")";
+    }
+}
@@ -0,0 +1,339 @@
+package org.ets.halefsdk.core;
+
+/**
+ * Single-pass JSON scanner that fills a {@link FeedbackEvent} from a feedback message
+ * without building a DOM. Only the top-level members we care about are decoded; nested
+ * values and unknown members are skipped in place. CBOR-framed messages (see {@link Cbor})
+ * are read the same way, straight from the received bytes. Not thread-safe: each instance
+ * reuses its scratch buffer.
+ *
+ * Recognised members: {@code type} (or {@code event}) selects the event type,
+ * {@code text}, {@code prompt} or {@code result} the text, {@code score} (or
+ * {@code value}) the score and {@code name} (or {@code item}) its label.
+ */
+public final class FeedbackParser {
+    private static final int KEY_OTHER = 0;
+    private static final int KEY_TYPE = 1;
+    private static final int KEY_TEXT = 2;
+    private static final int KEY_SCORE = 3;
+    private static final int KEY_LABEL = 4;
+
+    private final StringBuilder scratch = new StringBuilder(128);
+    private String in;
+    private byte[] bin;
+    private int pos;
+
+    /** @return false if the message is not a well-formed JSON object */
+    public boolean parse(String message, FeedbackEvent event) {
+        in = message;
+        pos = 0;
+        try {
+            skipWhitespace();
+            if (pos >= in.length() || in.charAt(pos) != '{') {
+                event.text = message;
+                return false;
+            }
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                return true;
+            }
+            while (true) {
+                skipWhitespace();
+                expect('"');
+                int keyStart = pos;
+                int keyEnd = skipString();
+                int key = keyOf(keyStart, keyEnd);
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                readMember(key, event);
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return true;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("Expected , or } at " + (pos - 1));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            event.type = FeedbackEvent.Type.OTHER;
+            return false;
+        } catch (StringIndexOutOfBoundsException e) {
+            event.type = FeedbackEvent.Type.OTHER;
+            return false;
+        } finally {
+            in = null;
+        }
+    }
+
+    /** @return false if the message is not a well-formed CBOR map */
+    public boolean parse(byte[] message, FeedbackEvent event) {
+        bin = message;
+        try {
+            if (message.length == 0 || Cbor.major(message, 0) != Cbor.MAP) {
+                return false;
+            }
+            long entries = Cbor.argument(message, 0);
+            int p = Cbor.headerLength(message, 0);
+            for (long i = 0; entries < 0 || i < entries; i++) {
+                if (entries < 0 && Cbor.isBreak(message, p)) {
+                    break;
+                }
+                int value = Cbor.skip(message, p);
+                int key = KEY_OTHER;
+                if (Cbor.major(message, p) == Cbor.TEXT && Cbor.argument(message, p) >= 0) {
+                    key = keyOf(p + Cbor.headerLength(message, p), value);
+                }
+                readMember(key, value, event);
+                p = Cbor.skip(message, value);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            event.type = FeedbackEvent.Type.OTHER;
+            return false;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            event.type = FeedbackEvent.Type.OTHER;
+            return false;
+        } finally {
+            bin = null;
+        }
+    }
+
+    /** The CBOR counterpart of {@link #readMember(int, FeedbackEvent)}, for the value at {@code p}. */
+    private void readMember(int key, int p, FeedbackEvent event) {
+        int major = Cbor.major(bin, p);
+        switch (key) {
+            case KEY_TYPE:
+                if (major == Cbor.TEXT && Cbor.argument(bin, p) >= 0) {
+                    int start = p + Cbor.headerLength(bin, p);
+                    event.type = typeOf(start, start + (int) Cbor.argument(bin, p));
+                }
+                break;
+            case KEY_TEXT:
+                if (major == Cbor.TEXT) {
+                    event.text = Cbor.text(bin, p);
+                }
+                break;
+            case KEY_LABEL:
+                if (major == Cbor.TEXT) {
+                    event.label = Cbor.text(bin, p);
+                }
+                break;
+            case KEY_SCORE:
+                double score = Cbor.number(bin, p);
+                if (!Double.isNaN(score)) {
+                    event.score = score;
+                }
+                break;
+        }
+    }
+
+    private void readMember(int key, FeedbackEvent event) {
+        char c = peek();
+        switch (key) {
+            case KEY_TYPE:
+                if (c == '"') {
+                    pos++;
+                    int start = pos;
+                    event.type = typeOf(start, skipString());
+                    return;
+                }
+                break;
+            case KEY_TEXT:
+                if (c == '"') {
+                    pos++;
+                    event.text = readString();
+                    return;
+                }
+                break;
+            case KEY_LABEL:
+                if (c == '"') {
+                    pos++;
+                    event.label = readString();
+                    return;
+                }
+                break;
+            case KEY_SCORE:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    int start = pos;
+                    skipNumber();
+                    event.score = Double.parseDouble(in.substring(start, pos));
+                    return;
+                }
+                break;
+        }
+        skipValue();
+    }
+
+    private int keyOf(int start, int end) {
+        if (matches(start, end, "type") || matches(start, end, "event")) {
+            return KEY_TYPE;
+        }
+        if (matches(start, end, "text") || matches(start, end, "prompt")
+                || matches(start, end, "result")) {
+            return KEY_TEXT;
+        }
+        if (matches(start, end, "score") || matches(start, end, "value")) {
+            return KEY_SCORE;
+        }
+        if (matches(start, end, "name") || matches(start, end, "item")) {
+            return KEY_LABEL;
+        }
+        return KEY_OTHER;
+    }
+
+    private FeedbackEvent.Type typeOf(int start, int end) {
+        if (matches(start, end, "prompt")) {
+            return FeedbackEvent.Type.PROMPT;
+        }
+        if (matches(start, end, "partial") || matches(start, end, "partial_result")
+                || matches(start, end, "result")) {
+            return FeedbackEvent.Type.PARTIAL_RESULT;
+        }
+        if (matches(start, end, "score")) {
+            return FeedbackEvent.Type.SCORE;
+        }
+        if (matches(start, end, "end") || matches(start, end, "end_of_dialog")
+                || matches(start, end, "hangup")) {
+            return FeedbackEvent.Type.END_OF_DIALOG;
+        }
+        return FeedbackEvent.Type.OTHER;
+    }
+
+    /**
+     * Compares the raw (still escaped) characters in {@code [start, end)} with {@code s}, or
+     * the UTF-8 bytes when parsing CBOR.
+     */
+    private boolean matches(int start, int end, String s) {
+        if (bin != null) {
+            return end - start == s.length() && Cbor.regionEquals(bin, start, s);
+        }
+        return end - start == s.length() && in.regionMatches(start, s, 0, s.length());
+    }
+
+    /** Skips the rest of a string whose opening quote was consumed; returns its end. */
+    private int skipString() {
+        while (true) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return pos - 1;
+            }
+            if (c == '\\') {
+                pos++;
+            }
+        }
+    }
+
+    /** Reads the rest of a string whose opening quote was consumed, unescaping it. */
+    private String readString() {
+        int start = pos;
+        // Fast path: no escapes means we can hand out a substring directly.
+        while (true) {
+            char c = in.charAt(pos);
+            if (c == '"') {
+                return in.substring(start, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        scratch.setLength(0);
+        scratch.append(in, start, pos);
+        while (true) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c != '\\') {
+                scratch.append(c);
+                continue;
+            }
+            c = in.charAt(pos++);
+            switch (c) {
+                case 'n':
+                    scratch.append('\n');
+                    break;
+                case 't':
+                    scratch.append('\t');
+                    break;
+                case 'r':
+                    scratch.append('\r');
+                    break;
+                case 'b':
+                    scratch.append('\b');
+                    break;
+                case 'f':
+                    scratch.append('\f');
+                    break;
+                case 'u':
+                    scratch.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    scratch.append(c);
+            }
+        }
+    }
+
+    private void skipNumber() {
+        while (pos < in.length()) {
+            char c = in.charAt(pos);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipValue() {
+        char c = next();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            // number, true, false or null
+            while (pos < in.length()) {
+                c = in.charAt(pos);
+                if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                    return;
+                }
+                pos++;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < in.length() && Character.isWhitespace(in.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        return in.charAt(pos);
+    }
+
+    private char next() {
+        return in.charAt(pos++);
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw new IllegalArgumentException("Expected " + c + " at " + (pos - 1));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.ets.halefsdk.core;
+
+/**
+ * The parts of a socket.io connection that {@link FeedbackChannel} relies on. Kept free of
+ * Android and socket.io types so the channel can be exercised against a local stand-in.
+ */
+public interface FeedbackSocket {
+
+    interface Handler {
+        void onConnect();
+        void onDisconnect();
+
+        /**
+         * @param user the call UUID the message is addressed to, or null if the payload
+         *             does not say.
+         */
+        void onMessage(String user, String message);
+
+        /**
+         * A CBOR-framed message.
+         *
+         * @param user the call UUID if the transport knows it, else null; the payload is
+         *             then looked at
+         */
+        void onBinaryMessage(String user, byte[] message);
+
+        /** The server's answer to {@code hello}: the encoding it will use on this connection. */
+        void onEncoding(String encoding);
+    }
+
+    void setHandler(Handler handler);
+
+    void connect();
+
+    void disconnect();
+
+    boolean connected();
+
+    /** Emits {@code event} with a JSON object payload. */
+    void emit(String event, String json);
+
+    /** Emits {@code event} with a CBOR payload, as a binary frame. */
+    void emit(String event, byte[] cbor);
+}
@@ -0,0 +1,6 @@
+package org.ets.halefsdk.core;
+
+/** Runs a task on the next display frame (or the nearest equivalent). */
+public interface FrameScheduler {
+    void scheduleFrame(Runnable task);
+}
@@ -0,0 +1,74 @@
+package org.ets.halefsdk.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches a {@link DialogCatalog} over HTTP. The ETag is the validator, sent back as
+ * If-None-Match, and Cache-Control max-age sets how long the catalog is fresh.
+ */
+public class HttpCatalogSource implements DialogCatalog.Source {
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private final URL url;
+
+    public HttpCatalogSource(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public DialogCatalog.Fetch fetch(String validator) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestProperty("Accept", "application/json");
+            if (validator != null) {
+                connection.setRequestProperty("If-None-Match", validator);
+            }
+            int status = connection.getResponseCode();
+            long maxAge = maxAge(connection.getHeaderField("Cache-Control"));
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && validator != null) {
+                return DialogCatalog.Fetch.notModified(maxAge);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Catalog request failed: " + status);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    body.write(buf, 0, n);
+                }
+                return DialogCatalog.Fetch.of(body.toString("UTF-8"), connection.getHeaderField("ETag"), maxAge);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static long maxAge(String cacheControl) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(8).trim()));
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return DEFAULT_MAX_AGE_MILLIS;
+    }
+}
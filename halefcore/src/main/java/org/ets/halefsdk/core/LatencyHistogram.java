@@ -0,0 +1,139 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free latency histogram. Values are kept in microseconds in log-linear
+ * buckets (16 sub-buckets per power of two, so about 6% relative error), which keeps the
+ * memory footprint constant no matter how many samples are recorded.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = SUB_COUNT * 2;
+    private static final int MIN_EXPONENT = SUB_BITS + 1;
+    // 2^36 us is a little over 19 hours, longer than any call setup.
+    private static final int MAX_EXPONENT = 35;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+    }
+
+    private LatencyHistogram(LatencyHistogram source) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, source.counts.get(i));
+        }
+        count.set(source.count.get());
+        sum.set(source.sum.get());
+        max.set(source.max.get());
+    }
+
+    /** A copy that later records leave alone; exact only while nothing is being recorded. */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /** Records a value in microseconds. Negative values are ignored. */
+    public void record(long micros) {
+        if (micros < 0) {
+            return;
+        }
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long m;
+        while (micros > (m = max.get())) {
+            if (max.compareAndSet(m, micros)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    public long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return the upper bound of the bucket holding that quantile, in microseconds
+     */
+    public long getPercentileMicros(double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    StringBuilder toJson(StringBuilder sb) {
+        return sb.append("{\"count\":").append(getCount())
+                .append(",\"meanUs\":").append(getMeanMicros())
+                .append(",\"p50Us\":").append(getPercentileMicros(0.5))
+                .append(",\"p90Us\":").append(getPercentileMicros(0.9))
+                .append(",\"p99Us\":").append(getPercentileMicros(0.99))
+                .append(",\"maxUs\":").append(getMaxMicros())
+                .append('}');
+    }
+
+    public String toJson() {
+        return toJson(new StringBuilder(96)).toString();
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return LINEAR + (exponent - MIN_EXPONENT) * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = MIN_EXPONENT + (bucket - LINEAR) / SUB_COUNT;
+        long sub = (bucket - LINEAR) % SUB_COUNT;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + sub * width + width - 1;
+    }
+}
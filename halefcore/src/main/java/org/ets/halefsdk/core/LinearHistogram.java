@@ -0,0 +1,143 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free histogram for values in a known range, such as loss percentages
+ * or quality scores, in equal-width buckets. Values outside the range are clamped into
+ * the first or last bucket; the exact minimum, maximum and mean are kept on the side,
+ * in thousandths.
+ */
+public class LinearHistogram {
+    private static final double SCALE = 1000;
+
+    private final double min;
+    private final double width;
+    private final AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong lowest = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong highest = new AtomicLong(Long.MIN_VALUE);
+
+    public LinearHistogram(double min, double max, int buckets) {
+        this.min = min;
+        this.width = (max - min) / buckets;
+        this.counts = new AtomicLongArray(buckets);
+    }
+
+    private LinearHistogram(LinearHistogram source) {
+        this.min = source.min;
+        this.width = source.width;
+        this.counts = new AtomicLongArray(source.counts.length());
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, source.counts.get(i));
+        }
+        count.set(source.count.get());
+        sum.set(source.sum.get());
+        lowest.set(source.lowest.get());
+        highest.set(source.highest.get());
+    }
+
+    /** A copy that later records leave alone; exact only while nothing is being recorded. */
+    public LinearHistogram copy() {
+        return new LinearHistogram(this);
+    }
+
+    public void record(double value) {
+        int bucket = (int) ((value - min) / width);
+        counts.incrementAndGet(Math.max(0, Math.min(counts.length() - 1, bucket)));
+        count.incrementAndGet();
+        long scaled = Math.round(value * SCALE);
+        sum.addAndGet(scaled);
+        long m;
+        while (scaled < (m = lowest.get())) {
+            if (lowest.compareAndSet(m, scaled)) {
+                break;
+            }
+        }
+        while (scaled > (m = highest.get())) {
+            if (highest.compareAndSet(m, scaled)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / SCALE / n;
+    }
+
+    public double getMin() {
+        return count.get() == 0 ? 0 : lowest.get() / SCALE;
+    }
+
+    public double getMax() {
+        return count.get() == 0 ? 0 : highest.get() / SCALE;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.05
+     * @return the upper bound of the bucket holding that quantile, within the recorded range
+     */
+    public double getPercentile(double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.max(getMin(), Math.min(min + (i + 1) * width, getMax()));
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        lowest.set(Long.MAX_VALUE);
+        highest.set(Long.MIN_VALUE);
+    }
+
+    StringBuilder toJson(StringBuilder sb, double lowQuantile, double highQuantile) {
+        sb.append("{\"count\":").append(getCount());
+        appendValue(sb.append(",\"mean\":"), getMean());
+        appendValue(sb.append(",\"min\":"), getMin());
+        appendValue(sb.append(",\"p").append(Math.round(lowQuantile * 100)).append("\":"),
+                getPercentile(lowQuantile));
+        appendValue(sb.append(",\"p").append(Math.round(highQuantile * 100)).append("\":"),
+                getPercentile(highQuantile));
+        appendValue(sb.append(",\"max\":"), getMax());
+        return sb.append('}');
+    }
+
+    public String toJson() {
+        return toJson(new StringBuilder(96), 0.5, 0.95).toString();
+    }
+
+    /** Two decimals, without going through String.format. */
+    static StringBuilder appendValue(StringBuilder sb, double value) {
+        long hundredths = Math.round(value * 100);
+        if (hundredths < 0) {
+            sb.append('-');
+            hundredths = -hundredths;
+        }
+        sb.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+}
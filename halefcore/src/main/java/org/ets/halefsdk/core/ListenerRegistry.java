@@ -0,0 +1,176 @@
+package org.ets.halefsdk.core;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Any number of listeners of one kind. Adding and removing copy the array of entries, so
+ * dispatch iterates a snapshot without taking a lock and listeners may come and go from
+ * their own callbacks. Listeners added with {@link #addWeak} do not keep the listener
+ * alive, an activity say; once it is collected its entry is dropped the next time the
+ * registry is iterated.
+ */
+public class ListenerRegistry<T> implements Iterable<T> {
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private volatile Entry[] entries = EMPTY;
+
+    /** Holds {@code listener} until it is removed. @return false if it was already here */
+    public boolean add(T listener) {
+        return add(listener, false);
+    }
+
+    /** Holds {@code listener} until it is removed or collected. @return false if it was already here */
+    public boolean addWeak(T listener) {
+        return add(listener, true);
+    }
+
+    private synchronized boolean add(T listener, boolean weak) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        Entry[] current = entries;
+        for (Entry entry : current) {
+            if (entry.get() == listener) {
+                return false;
+            }
+        }
+        Entry[] grown = new Entry[current.length + 1];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        grown[current.length] = new Entry(listener, weak);
+        entries = grown;
+        return true;
+    }
+
+    /** @return false if {@code listener} was not registered */
+    public synchronized boolean remove(Object listener) {
+        Entry[] current = entries;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].get() == listener) {
+                Entry[] shrunk = new Entry[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, i);
+                System.arraycopy(current, i + 1, shrunk, i, shrunk.length - i);
+                entries = shrunk;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        entries = EMPTY;
+    }
+
+    /** Whether any listener is registered; a collected one may still count until the next pass. */
+    public boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    /** Whether any registered listener is a {@code type}, for optional companion interfaces. */
+    public boolean any(Class<?> type) {
+        for (Entry entry : entries) {
+            if (type.isInstance(entry.get())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether any registered listener is not a {@code type}. */
+    public boolean anyNot(Class<?> type) {
+        for (Entry entry : entries) {
+            Object listener = entry.get();
+            if (listener != null && !type.isInstance(listener)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Number of entries, counting collected listeners not yet dropped. */
+    public int size() {
+        return entries.length;
+    }
+
+    /** Iterates the listeners registered when it was created, skipping collected ones. */
+    @Override
+    public Iterator<T> iterator() {
+        return new Snapshot(entries);
+    }
+
+    private synchronized void dropCollected() {
+        Entry[] current = entries;
+        int live = 0;
+        for (Entry entry : current) {
+            if (entry.get() != null) {
+                live++;
+            }
+        }
+        if (live == current.length) {
+            return;
+        }
+        Entry[] kept = new Entry[live];
+        int i = 0;
+        for (Entry entry : current) {
+            if (entry.get() != null) {
+                kept[i++] = entry;
+            }
+        }
+        entries = kept;
+    }
+
+    private final class Snapshot implements Iterator<T> {
+        private final Entry[] snapshot;
+        private int index;
+        private T next;
+        private boolean collected;
+
+        Snapshot(Entry[] snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            while (next == null && index < snapshot.length) {
+                next = (T) snapshot[index++].get();
+                collected |= next == null;
+            }
+            if (next == null && collected) {
+                collected = false;
+                dropCollected();
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T listener = next;
+            next = null;
+            return listener;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class Entry {
+        private final Object strong;
+        private final WeakReference<Object> weak;
+
+        Entry(Object listener, boolean weak) {
+            this.strong = weak ? null : listener;
+            this.weak = weak ? new WeakReference<Object>(listener) : null;
+        }
+
+        Object get() {
+            return weak != null ? weak.get() : strong;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.ets.halefsdk.core;
+
+import org.ets.halefsdk.core.media.AudioDevice;
+import org.ets.halefsdk.core.media.MediaStats;
+
+/**
+ * Media quality over one call: packet loss, jitter, signalling round trip, playout
+ * underruns and an estimated MOS, each sampled periodically from the call's
+ * {@link MediaStats} into a fixed-size, lock-free histogram. The media path itself only
+ * bumps counters; all the work happens in {@link #sample}, on whatever thread samples.
+ *
+ * The MOS estimate is the ITU-T G.107 E-model reduced to what we can measure: delay
+ * impairment from the mouth-to-ear delay (half the round trip, the playout delay,
+ * packetization and the codec) and equipment impairment from the loss in the interval,
+ * with the G.711 packet-loss robustness factor.
+ */
+public class MediaQuality {
+    private static final double LOSS_ROBUSTNESS = 25.1;
+
+    private final String callId;
+    private final LinearHistogram loss;
+    private final LatencyHistogram jitter;
+    private final LatencyHistogram roundTrip;
+    private final LinearHistogram mos;
+    private volatile long samples;
+    private volatile long underruns;
+    private volatile long packetsSent;
+    private volatile long packetsReceived;
+    private volatile long packetsLost;
+    private volatile boolean finished;
+    // Sampling thread only.
+    private long lastReceived;
+    private long lastMissing;
+    private long lastUnderruns;
+
+    public MediaQuality(String callId) {
+        this.callId = callId;
+        this.loss = new LinearHistogram(0, 100, 200);
+        this.jitter = new LatencyHistogram();
+        this.roundTrip = new LatencyHistogram();
+        this.mos = new LinearHistogram(1, 4.5, 35);
+    }
+
+    private MediaQuality(MediaQuality source) {
+        this.callId = source.callId;
+        this.loss = source.loss.copy();
+        this.jitter = source.jitter.copy();
+        this.roundTrip = source.roundTrip.copy();
+        this.mos = source.mos.copy();
+        this.samples = source.samples;
+        this.underruns = source.underruns;
+        this.packetsSent = source.packetsSent;
+        this.packetsReceived = source.packetsReceived;
+        this.packetsLost = source.packetsLost;
+        this.finished = source.finished;
+        this.lastReceived = source.lastReceived;
+        this.lastMissing = source.lastMissing;
+        this.lastUnderruns = source.lastUnderruns;
+    }
+
+    /**
+     * Everything sampled so far, as a copy that later samples leave alone: hand this, not
+     * the live object, to other threads. Call it from the sampling thread.
+     */
+    public MediaQuality snapshot() {
+        return new MediaQuality(this);
+    }
+
+    public String getCallId() {
+        return callId;
+    }
+
+    /** Records one interval, from the previous sample to {@code stats}. One thread at a time. */
+    public void sample(MediaStats stats) {
+        long missing = stats.packetsLost + stats.packetsLate;
+        long received = stats.packetsReceived - lastReceived;
+        long missed = missing - lastMissing;
+        double lossPercent = -1;
+        if (received + missed > 0) {
+            lossPercent = 100.0 * missed / (received + missed);
+            loss.record(lossPercent);
+        }
+        jitter.record((long) (stats.jitterMillis * 1000));
+        if (stats.roundTripMillis >= 0) {
+            roundTrip.record(stats.roundTripMillis * 1000L);
+        }
+        if (lossPercent >= 0) {
+            mos.record(estimateMos(lossPercent, mouthToEarMillis(stats)));
+        }
+        underruns += stats.underruns - lastUnderruns;
+        lastReceived = stats.packetsReceived;
+        lastMissing = missing;
+        lastUnderruns = stats.underruns;
+        packetsSent = stats.packetsSent;
+        packetsReceived = stats.packetsReceived;
+        packetsLost = stats.packetsLost;
+        samples++;
+    }
+
+    /** Marks the call over; nothing is sampled after this. */
+    public void finish() {
+        finished = true;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /** Loss per sampling interval, in percent, including packets that came too late. */
+    public LinearHistogram getLoss() {
+        return loss;
+    }
+
+    /** Interarrival jitter, in microseconds. */
+    public LatencyHistogram getJitter() {
+        return jitter;
+    }
+
+    /** Signalling round trip, in microseconds. */
+    public LatencyHistogram getRoundTrip() {
+        return roundTrip;
+    }
+
+    /** Estimated MOS per sampling interval, 1 to 4.5. */
+    public LinearHistogram getMos() {
+        return mos;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(768);
+        sb.append("{\"callId\":");
+        Json.quote(sb, callId);
+        sb.append(",\"finished\":").append(finished)
+                .append(",\"samples\":").append(getSamples())
+                .append(",\"packetsSent\":").append(getPacketsSent())
+                .append(",\"packetsReceived\":").append(getPacketsReceived())
+                .append(",\"packetsLost\":").append(getPacketsLost())
+                .append(",\"underruns\":").append(getUnderruns())
+                .append(",\"lossPercent\":");
+        loss.toJson(sb, 0.5, 0.95).append(",\"jitter\":");
+        jitter.toJson(sb).append(",\"roundTrip\":");
+        roundTrip.toJson(sb).append(",\"mos\":");
+        return mos.toJson(sb, 0.05, 0.5).append('}').toString();
+    }
+
+    static int mouthToEarMillis(MediaStats stats) {
+        int network = stats.roundTripMillis >= 0 ? stats.roundTripMillis / 2 : 0;
+        return network + stats.playoutDelayMillis + AudioDevice.FRAME_MILLIS + stats.codecDelayMillis;
+    }
+
+    /** E-model R factor to MOS (G.107 annex B), for G.711 with concealment. */
+    static double estimateMos(double lossPercent, int delayMillis) {
+        double delayImpairment = 0.024 * delayMillis;
+        if (delayMillis > 177.3) {
+            delayImpairment += 0.11 * (delayMillis - 177.3);
+        }
+        double lossImpairment = 95 * lossPercent / (lossPercent + LOSS_ROBUSTNESS);
+        double r = Math.max(0, Math.min(100, 93.2 - delayImpairment - lossImpairment));
+        double score = 1 + 0.035 * r + 7e-6 * r * (r - 60) * (100 - r);
+        return Math.max(1, Math.min(4.5, score));
+    }
+}
@@ -0,0 +1,289 @@
+package org.ets.halefsdk.core;
+
+import org.ets.halefsdk.core.sip.SipTransport;
+
+/**
+ * Moves the client to a new network when the device changes interfaces, say from Wi-Fi to
+ * cellular, instead of letting calls die with the old address: the SIP connection is
+ * reopened and established calls are re-INVITEd with their media on the new address
+ * ({@link SipTransport#handOver}), the registration is renewed with the new contact, and
+ * the feedback channel reconnects and resumes its calls.
+ *
+ * The platform reports connectivity through {@link #onNetworkChanged}, with an identity for
+ * the network in use, or null when there is none. Repeated reports of the same network are
+ * ignored, so connectivity broadcasts can be passed on as they come. Each handover is timed
+ * per part and reported once all parts are done; a handover overtaken by the next network
+ * change is reported as it stands.
+ */
+public class NetworkHandover {
+
+    public interface Listener {
+        /** Called on whichever thread finished the last part. */
+        void onHandover(Report report);
+    }
+
+    /** How long one handover took, per part; -1 for parts that had nothing to do or did not finish. */
+    public static final class Report {
+        private final String network;
+        private final String previousNetwork;
+        private final long outageNanos;
+        private final long startedNanos;
+        private long registeredNanos = -1;
+        private long callsMovedNanos = -1;
+        private long feedbackNanos = -1;
+        private int callsMoved;
+        private int callsLost;
+        private boolean superseded;
+
+        Report(String network, String previousNetwork, long outageNanos, long startedNanos) {
+            this.network = network;
+            this.previousNetwork = previousNetwork;
+            this.outageNanos = outageNanos;
+            this.startedNanos = startedNanos;
+        }
+
+        public String getNetwork() { return network; }
+        public String getPreviousNetwork() { return previousNetwork; }
+        /** Time without any network before this one came up, or -1 if there was no gap. */
+        public long getOutageNanos() { return outageNanos; }
+        /** Until the registration with the new contact was accepted. */
+        public long getRegisteredNanos() { return registeredNanos; }
+        /** Until the last established call was moved or lost. */
+        public long getCallsMovedNanos() { return callsMovedNanos; }
+        /** Until the feedback channel was connected again. */
+        public long getFeedbackNanos() { return feedbackNanos; }
+        public int getCallsMoved() { return callsMoved; }
+        public int getCallsLost() { return callsLost; }
+        /** Whether the next network change came before every part was done. */
+        public boolean isSuperseded() { return superseded; }
+
+        /** From the network change until the last part was done. */
+        public long getTotalNanos() {
+            return Math.max(registeredNanos, Math.max(callsMovedNanos, feedbackNanos));
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"network\":");
+            Json.quote(sb, network).append(",\"previousNetwork\":");
+            Json.quote(sb, previousNetwork)
+                    .append(",\"outageMillis\":").append(millis(outageNanos))
+                    .append(",\"registeredMillis\":").append(millis(registeredNanos))
+                    .append(",\"callsMovedMillis\":").append(millis(callsMovedNanos))
+                    .append(",\"feedbackMillis\":").append(millis(feedbackNanos))
+                    .append(",\"totalMillis\":").append(millis(getTotalNanos()))
+                    .append(",\"callsMoved\":").append(callsMoved)
+                    .append(",\"callsLost\":").append(callsLost)
+                    .append(",\"superseded\":").append(superseded);
+            return sb.append('}').toString();
+        }
+
+        private static long millis(long nanos) {
+            return nanos < 0 ? -1 : nanos / 1000000;
+        }
+    }
+
+    private final RegistrationEngine registration;
+    private final Listener listener;
+    private volatile SipTransport transport;
+    private volatile FeedbackChannel channel;
+    private String network;
+    private long lostAtNanos;
+    private Pending pending;
+
+    public NetworkHandover(RegistrationEngine registration, Listener listener) {
+        this.registration = registration;
+        this.listener = listener;
+    }
+
+    /** The transport whose calls to move; null if there is none yet. */
+    public void setTransport(SipTransport transport) {
+        this.transport = transport;
+    }
+
+    /** The feedback channel to reconnect; null if there is none yet. */
+    public void setFeedbackChannel(FeedbackChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @param network identifies the network now in use, e.g. its type and local address; null
+     *                when the device has no network
+     */
+    public void onNetworkChanged(String network) {
+        Report superseded = null;
+        Pending started;
+        synchronized (this) {
+            if (network == null) {
+                if (this.network != null) {
+                    lostAtNanos = System.nanoTime();
+                }
+                this.network = null;
+                return;
+            }
+            if (network.equals(this.network)) {
+                return;
+            }
+            String previous = this.network;
+            long now = System.nanoTime();
+            long outage = -1;
+            if (previous == null && lostAtNanos != 0) {
+                outage = now - lostAtNanos;
+            }
+            this.network = network;
+            lostAtNanos = 0;
+            if (previous == null && outage < 0) {
+                // The first network we hear of: nothing to move yet.
+                return;
+            }
+            if (pending != null) {
+                pending.report.superseded = true;
+                superseded = pending.report;
+            }
+            started = new Pending(new Report(network, previous, outage, now));
+            pending = started;
+        }
+        if (superseded != null) {
+            listener.onHandover(superseded);
+        }
+        start(started);
+    }
+
+    /** Tells the handover the registration was accepted; call from the registration listener. */
+    public void onRegistered() {
+        Report done = null;
+        synchronized (this) {
+            if (pending != null && pending.registering) {
+                pending.registering = false;
+                pending.report.registeredNanos = pending.elapsed();
+                done = finishIfDone();
+            }
+        }
+        report(done);
+    }
+
+    /** Tells the handover the feedback channel connected; call from the channel listener. */
+    public void onChannelConnected() {
+        Report done = null;
+        synchronized (this) {
+            if (pending != null && pending.reconnecting) {
+                pending.reconnecting = false;
+                pending.report.feedbackNanos = pending.elapsed();
+                done = finishIfDone();
+            }
+        }
+        report(done);
+    }
+
+    private void start(Pending handover) {
+        SipTransport sip = transport;
+        FeedbackChannel feedback = channel;
+        // Asked before taking our lock: the engine calls onRegistered holding its own.
+        boolean registered = registration.getState() != RegistrationEngine.State.IDLE;
+        boolean connected = feedback != null && feedback.isOpen();
+        synchronized (this) {
+            handover.registering = registered;
+            handover.reconnecting = connected;
+            handover.moving = sip != null;
+        }
+        // Calls first: the transport reopens its connection before the registration uses it.
+        if (sip == null || !sip.handOver(new CallMover(handover))) {
+            synchronized (this) {
+                handover.moving = false;
+            }
+        }
+        if (handover.registering) {
+            registration.renewNow();
+        }
+        if (handover.reconnecting) {
+            feedback.reconnect();
+        }
+        Report done;
+        synchronized (this) {
+            done = handover == pending ? finishIfDone() : null;
+        }
+        report(done);
+    }
+
+    /** Holding the lock: takes the pending report if every part is done. */
+    private Report finishIfDone() {
+        if (pending == null || pending.registering || pending.reconnecting || pending.moving) {
+            return null;
+        }
+        Report done = pending.report;
+        pending = null;
+        return done;
+    }
+
+    private void report(Report done) {
+        if (done != null) {
+            listener.onHandover(done);
+        }
+    }
+
+    private static final class Pending {
+        final Report report;
+        boolean registering;
+        boolean reconnecting;
+        boolean moving;
+        int calls = -1;
+
+        Pending(Report report) {
+            this.report = report;
+        }
+
+        long elapsed() {
+            return System.nanoTime() - report.startedNanos;
+        }
+    }
+
+    private final class CallMover implements SipTransport.HandoverListener {
+        private final Pending handover;
+
+        CallMover(Pending handover) {
+            this.handover = handover;
+        }
+
+        @Override
+        public void onHandoverStarted(int calls) {
+            synchronized (NetworkHandover.this) {
+                handover.calls = calls;
+            }
+            settled();
+        }
+
+        @Override
+        public void onCallHandedOver(SipTransport.Call call, long elapsedNanos) {
+            synchronized (NetworkHandover.this) {
+                handover.report.callsMoved++;
+            }
+            settled();
+        }
+
+        @Override
+        public void onCallHandoverFailed(SipTransport.Call call, int errorCode, String errorMessage) {
+            synchronized (NetworkHandover.this) {
+                handover.report.callsLost++;
+            }
+            settled();
+        }
+
+        private void settled() {
+            Report done = null;
+            synchronized (NetworkHandover.this) {
+                Report report = handover.report;
+                if (handover.moving && handover.calls >= 0
+                        && report.callsMoved + report.callsLost >= handover.calls) {
+                    handover.moving = false;
+                    if (handover.calls > 0) {
+                        report.callsMovedNanos = handover.elapsed();
+                    }
+                    if (handover == pending) {
+                        done = finishIfDone();
+                    }
+                }
+            }
+            report(done);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.ets.halefsdk.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one account registered. Registering an account that is already registered completes
+ * at once, so the client never waits on the network for it; a different account replaces
+ * the current one. Refreshes are scheduled from the expiry the server granted, and
+ * failures are retried with {@link Backoff} until a registration succeeds or the client
+ * unregisters.
+ *
+ * Refreshes land on a shared {@link #REFRESH_GRID_MILLIS} grid of wall-clock time somewhere
+ * between half and 80% of the granted lifetime, so they coincide with other grid-aligned
+ * work instead of waking the device on their own.
+ *
+ * The platform does the actual SIP work through {@link Registrar} and reports back through
+ * {@link #onRegistering}, {@link #onRegistered} and {@link #onRegistrationFailed}.
+ */
+public class RegistrationEngine {
+
+    public interface Registrar {
+        /** Starts a fresh registration. */
+        void open(SipAccount account) throws SetupException;
+        /** Renews the current registration. */
+        void refresh(SipAccount account) throws SetupException;
+        void close(SipAccount account);
+    }
+
+    public interface Listener {
+        void onRegistering(SipAccount account);
+        /** @param fresh false when answered from the registration we already had */
+        void onRegistered(SipAccount account, boolean fresh);
+        void onRegistrationFailed(SipAccount account, SetupException cause, long retryMillis);
+    }
+
+    public enum State {
+        IDLE,
+        REGISTERING,
+        REGISTERED,
+        BACKING_OFF
+    }
+
+    public static final long REFRESH_GRID_MILLIS = 30000;
+    private static final double REFRESH_EARLIEST = 0.5;
+    private static final double REFRESH_LATEST = 0.8;
+
+    private final Registrar registrar;
+    private final Listener listener;
+    private final ScheduledExecutorService timers;
+    private final Backoff backoff;
+    private final Executor notifier;
+    private final long timeoutMillis;
+    private final List<SetupHandle> pending = new ArrayList<SetupHandle>();
+    private State state = State.IDLE;
+    private SipAccount account;
+    private long expiresAt;
+    private ScheduledFuture<?> timer;
+
+    /**
+     * @param notifier where the listeners of returned handles run
+     * @param timeoutMillis how long a {@link #register} handle waits for the first success
+     */
+    public RegistrationEngine(Registrar registrar, Listener listener, ScheduledExecutorService timers,
+                              Backoff backoff, Executor notifier, long timeoutMillis) {
+        this.registrar = registrar;
+        this.listener = listener;
+        this.timers = timers;
+        this.backoff = backoff;
+        this.notifier = notifier;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public synchronized SetupHandle register(SipAccount next) {
+        SetupHandle handle = new SetupHandle(next.getUri(), notifier);
+        if (next.equals(account) && isRegistered()) {
+            listener.onRegistered(account, false);
+            handle.succeed();
+            return handle;
+        }
+        if (!next.equals(account)) {
+            unregister();
+            account = next;
+            backoff.reset();
+        }
+        pending.add(handle);
+        handle.timeoutAfter(timeoutMillis, TimeUnit.MILLISECONDS, timers);
+        if (state != State.REGISTERING) {
+            attempt(false);
+        }
+        return handle;
+    }
+
+    /** Drops the registration and stops refreshing it. Pending handles fail. */
+    public synchronized void unregister() {
+        cancelTimer();
+        if (account != null) {
+            registrar.close(account);
+        }
+        account = null;
+        state = State.IDLE;
+        expiresAt = 0;
+        failPending(new SetupException("Unregistered"));
+    }
+
+    /**
+     * Renews the registration right away, skipping any backoff, after the network changed
+     * under it: the server has our old contact address. Does nothing when not registering.
+     */
+    public synchronized void renewNow() {
+        if (account == null || state == State.IDLE) {
+            return;
+        }
+        backoff.reset();
+        attempt(state == State.REGISTERED);
+    }
+
+    /** True while the last granted registration has not run out, refreshes included. */
+    public synchronized boolean isRegistered() {
+        return account != null && now() < expiresAt;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized SipAccount getAccount() {
+        return account;
+    }
+
+    public synchronized void onRegistering(String uri) {
+        if (matches(uri)) {
+            listener.onRegistering(account);
+        }
+    }
+
+    /** @param expiryTime wall-clock time the registration runs out, as the SIP stack reports it */
+    public synchronized void onRegistered(String uri, long expiryTime) {
+        if (!matches(uri) || state == State.IDLE) {
+            return;
+        }
+        long now = now();
+        if (expiryTime <= now) {
+            failed(new SetupException("Registration expired"));
+            return;
+        }
+        state = State.REGISTERED;
+        expiresAt = expiryTime;
+        backoff.reset();
+        schedule(refreshDelay(now, expiryTime), refresh);
+        // Status first, so clients see REGISTERED before handle listeners run.
+        listener.onRegistered(account, true);
+        for (SetupHandle handle : pending) {
+            handle.succeed();
+        }
+        pending.clear();
+    }
+
+    public synchronized void onRegistrationFailed(String uri, int code, String message) {
+        if (matches(uri) && state != State.IDLE) {
+            failed(new SetupException(message, code));
+        }
+    }
+
+    /**
+     * Delay until the refresh of a registration expiring at {@code expiresAt}: the last grid
+     * point in the refresh window, or the end of the window if no grid point falls in it.
+     */
+    static long refreshDelay(long now, long expiresAt) {
+        long lifetime = expiresAt - now;
+        long earliest = now + (long) (lifetime * REFRESH_EARLIEST);
+        long latest = now + (long) (lifetime * REFRESH_LATEST);
+        long aligned = latest - latest % REFRESH_GRID_MILLIS;
+        return (aligned >= earliest ? aligned : latest) - now;
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean matches(String uri) {
+        return account != null && account.getUri().equals(uri);
+    }
+
+    private void attempt(boolean renew) {
+        cancelTimer();
+        state = State.REGISTERING;
+        try {
+            if (renew) {
+                registrar.refresh(account);
+            } else {
+                registrar.open(account);
+            }
+        } catch (SetupException e) {
+            failed(e);
+        }
+    }
+
+    private void failed(SetupException cause) {
+        state = State.BACKING_OFF;
+        long delay = backoff.nextDelayMillis();
+        schedule(delay, retry);
+        listener.onRegistrationFailed(account, cause, delay);
+    }
+
+    private void failPending(SetupException cause) {
+        for (SetupHandle handle : pending) {
+            handle.fail(cause);
+        }
+        pending.clear();
+    }
+
+    private void schedule(long delayMillis, Runnable task) {
+        cancelTimer();
+        timer = timers.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RegistrationEngine.this) {
+                if (state == State.REGISTERED) {
+                    attempt(true);
+                }
+            }
+        }
+    };
+
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RegistrationEngine.this) {
+                if (state == State.BACKING_OFF) {
+                    attempt(false);
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,152 @@
+package org.ets.halefsdk.core;
+
+/**
+ * Something the SDK reports to its client: a registration or call status change, a
+ * feedback or debug message, a finished setup timeline, the caller starting or stopping
+ * speaking, a call's media quality, or a listener to run. Events are stamped with the
+ * time they were raised and dispatched in that order by {@link EventLoop}.
+ */
+public final class SdkEvent {
+
+    public enum Type {
+        REGISTER_STATUS(false),
+        CALL_STATUS(false),
+        CALL_TIMELINE(false),
+        REGISTRATION_TIMELINE(false),
+        FEEDBACK_MESSAGE(true),
+        DEBUG_MESSAGE(true),
+        SPEECH_STARTED(false),
+        /** {@link #getStatus()} is how long the speech lasted, in milliseconds. */
+        SPEECH_ENDED(false),
+        /** A periodic {@link MediaQuality} snapshot, in {@link #getTag()}. */
+        MEDIA_QUALITY(true),
+        /** A call's final {@link MediaQuality}, in {@link #getTag()}. */
+        MEDIA_SUMMARY(false),
+        /** Client code to run in line with the other events, e.g. handle listeners. */
+        TASK(false);
+
+        private final boolean droppable;
+
+        Type(boolean droppable) {
+            this.droppable = droppable;
+        }
+
+        /** Whether the event may be dropped when the client falls behind. Status changes never are. */
+        public boolean isDroppable() {
+            return droppable;
+        }
+    }
+
+    private final Type type;
+    private final String callId;
+    private final int status;
+    private final String message;
+    private final SetupTimeline timeline;
+    private final Object tag;
+    private final long timestampNanos;
+    private final boolean replayed;
+
+    SdkEvent(Type type, String callId, int status, String message, SetupTimeline timeline,
+             Object tag, long timestampNanos) {
+        this(type, callId, status, message, timeline, tag, timestampNanos, false);
+    }
+
+    SdkEvent(Type type, String callId, int status, String message, SetupTimeline timeline,
+             Object tag, long timestampNanos, boolean replayed) {
+        this.type = type;
+        this.callId = callId;
+        this.status = status;
+        this.message = message;
+        this.timeline = timeline;
+        this.tag = tag;
+        this.timestampNanos = timestampNanos;
+        this.replayed = replayed;
+    }
+
+    public static SdkEvent registerStatus(int status) {
+        return new SdkEvent(Type.REGISTER_STATUS, null, status, null, null, null, System.nanoTime());
+    }
+
+    public static SdkEvent callStatus(String callId, int status) {
+        return callStatus(callId, status, null);
+    }
+
+    /** @param tag opaque to the SDK core; platforms use it to reach the call's own listener */
+    public static SdkEvent callStatus(String callId, int status, Object tag) {
+        return new SdkEvent(Type.CALL_STATUS, callId, status, null, null, tag, System.nanoTime());
+    }
+
+    public static SdkEvent feedbackMessage(String callId, String message) {
+        return new SdkEvent(Type.FEEDBACK_MESSAGE, callId, 0, message, null, null, System.nanoTime());
+    }
+
+    public static SdkEvent debugMessage(String message) {
+        return new SdkEvent(Type.DEBUG_MESSAGE, null, 0, message, null, null, System.nanoTime());
+    }
+
+    public static SdkEvent callTimeline(SetupTimeline timeline) {
+        return new SdkEvent(Type.CALL_TIMELINE, timeline.getId(), 0, null, timeline, null, System.nanoTime());
+    }
+
+    public static SdkEvent registrationTimeline(SetupTimeline timeline) {
+        return new SdkEvent(Type.REGISTRATION_TIMELINE, null, 0, null, timeline, null, System.nanoTime());
+    }
+
+    public static SdkEvent speechStarted(String callId) {
+        return new SdkEvent(Type.SPEECH_STARTED, callId, 0, null, null, null, System.nanoTime());
+    }
+
+    public static SdkEvent speechEnded(String callId, int speechMillis) {
+        return new SdkEvent(Type.SPEECH_ENDED, callId, speechMillis, null, null, null, System.nanoTime());
+    }
+
+    public static SdkEvent mediaQuality(MediaQuality quality) {
+        return new SdkEvent(quality.isFinished() ? Type.MEDIA_SUMMARY : Type.MEDIA_QUALITY, quality.getCallId(),
+                0, null, null, quality, System.nanoTime());
+    }
+
+    /** @see Type#TASK */
+    public static SdkEvent task(Runnable task) {
+        return new SdkEvent(Type.TASK, null, 0, null, null, task, System.nanoTime());
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** The call the event belongs to, or null for events that are not about one call. */
+    public String getCallId() {
+        return callId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public SetupTimeline getTimeline() {
+        return timeline;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    /** {@link System#nanoTime()} when the event was raised. */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /** Whether {@link SessionReplayer} read this from a recording, rather than it being raised live. */
+    public boolean isReplayed() {
+        return replayed;
+    }
+
+    @Override
+    public String toString() {
+        return "SdkEvent(" + type + ", " + callId + ", " + status + ", " + message + ")";
+    }
+}
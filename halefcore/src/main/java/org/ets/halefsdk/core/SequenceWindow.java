@@ -0,0 +1,87 @@
+package org.ets.halefsdk.core;
+
+/**
+ * Which sequence numbers of one call's feedback have arrived: everything up to
+ * {@link #getContiguous()}, plus a 64-message window above it. That is enough to drop
+ * duplicates (a replay overlapping what we already have) and to say where the first gap
+ * starts. A message more than 64 ahead slides the window and gives up on older gaps.
+ */
+final class SequenceWindow {
+    static final int NEW = 0;
+    static final int DUPLICATE = 1;
+    /** New, and something before it is still missing. */
+    static final int GAP = 2;
+
+    private long contiguous = -1;
+    private long window;
+    private long abandoned;
+    private long replayFrom = -1;
+    private boolean registered;
+
+    synchronized int accept(long seq) {
+        if (seq <= contiguous) {
+            return DUPLICATE;
+        }
+        long offset = seq - contiguous - 1;
+        if (offset >= Long.SIZE) {
+            long shift = offset - Long.SIZE + 1;
+            for (long i = 0; i < Math.min(shift, Long.SIZE); i++) {
+                if ((window & (1L << i)) == 0) {
+                    abandoned++;
+                }
+            }
+            if (shift > Long.SIZE) {
+                abandoned += shift - Long.SIZE;
+            }
+            window = shift >= Long.SIZE ? 0 : window >>> shift;
+            contiguous += shift;
+            advance();
+            offset = seq - contiguous - 1;
+        }
+        long bit = 1L << offset;
+        if ((window & bit) != 0) {
+            return DUPLICATE;
+        }
+        window |= bit;
+        advance();
+        return window == 0 ? NEW : GAP;
+    }
+
+    /** Highest sequence number up to which nothing is missing, or -1. */
+    synchronized long getContiguous() {
+        return contiguous;
+    }
+
+    /**
+     * Where to ask the server to replay from, once per gap.
+     *
+     * @return the first missing sequence number, or -1 if it was asked for already
+     */
+    synchronized long claimReplay() {
+        long from = contiguous + 1;
+        if (from == replayFrom) {
+            return -1;
+        }
+        replayFrom = from;
+        return from;
+    }
+
+    /** @return whether the call was registered before, i.e. this is a resumption */
+    synchronized boolean markRegistered() {
+        boolean again = registered;
+        registered = true;
+        return again;
+    }
+
+    /** Messages given up on because the window moved past them. */
+    synchronized long getAbandoned() {
+        return abandoned;
+    }
+
+    private void advance() {
+        while ((window & 1) != 0) {
+            window >>>= 1;
+            contiguous++;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.ets.halefsdk.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the {@link SdkEvent}s a client was given, with their timing, to one compact file
+ * that {@link SessionReplayer} plays back. Registration and call status changes, feedback
+ * and debug messages and speech start and end are kept; timelines, media quality and tasks
+ * carry live objects and are skipped.
+ *
+ * {@link #record} only queues the event, so it can be called from dispatch; a background
+ * thread writes what is queued. When the queue is full the event is dropped and counted,
+ * and a replay then misses it. Each event is its time since the previous one in
+ * microseconds, a type code, a reference to its call ID (written out in full the first
+ * time only), its status and its message, all as varints; a tail cut short by a crash is
+ * ignored on replay.
+ */
+public class SessionRecorder {
+    static final int MAGIC = 0x48535231; // "HSR1"
+    /** Type codes in the file; never reuse one. */
+    static final int REGISTER_STATUS = 1;
+    static final int CALL_STATUS = 2;
+    static final int FEEDBACK_MESSAGE = 3;
+    static final int DEBUG_MESSAGE = 4;
+    static final int SPEECH_STARTED = 5;
+    static final int SPEECH_ENDED = 6;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final int BATCH = 256;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final File file;
+    private final BlockingQueue<SdkEvent> queue;
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean open;
+    private volatile IOException error;
+    private Thread thread;
+    // Writer thread only.
+    private DataOutputStream out;
+    private final Map<String, Integer> callIds = new HashMap<String, Integer>();
+    private long lastNanos;
+
+    public SessionRecorder(File file) {
+        this(file, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public SessionRecorder(File file, int queueCapacity) {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<SdkEvent>(queueCapacity);
+    }
+
+    /** Whether {@code type} ends up in a recording. */
+    public static boolean isRecorded(SdkEvent.Type type) {
+        return code(type) != 0;
+    }
+
+    /** Creates the file, replacing any earlier recording there, and starts the writer. */
+    public synchronized void open() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeLong(System.currentTimeMillis());
+        open = true;
+        thread = new Thread(writer, "HalefRecorder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Writes what is still queued and closes the file; waits up to five seconds for it. */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            open = false;
+            t = thread;
+            thread = null;
+        }
+        if (t == null) {
+            return;
+        }
+        t.interrupt();
+        try {
+            t.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues {@code event} if it is of a recorded type. Never blocks.
+     *
+     * @return false if it was not recorded
+     */
+    public boolean record(SdkEvent event) {
+        if (!isRecorded(event.getType())) {
+            return false;
+        }
+        if (!open || !queue.offer(event)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /** Events written so far. */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /** Events dropped because the queue was full or the recorder closed. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** The write error that stopped the recording, if any. */
+    public IOException getError() {
+        return error;
+    }
+
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            List<SdkEvent> batch = new ArrayList<SdkEvent>(BATCH);
+            try {
+                while (true) {
+                    try {
+                        batch.add(queue.take());
+                    } catch (InterruptedException e) {
+                        queue.drainTo(batch);
+                        write(batch);
+                        return;
+                    }
+                    queue.drainTo(batch, BATCH - 1);
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                error = e;
+                open = false;
+            } finally {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+        }
+    };
+
+    private void write(List<SdkEvent> batch) throws IOException {
+        for (SdkEvent event : batch) {
+            long timestamp = event.getTimestampNanos();
+            long delta = lastNanos == 0 ? 0 : Math.max(0, timestamp - lastNanos);
+            lastNanos = timestamp;
+            writeVarint(delta / 1000);
+            out.writeByte(code(event.getType()));
+            writeCallId(event.getCallId());
+            writeVarint(zigzag(event.getStatus()));
+            writeText(event.getMessage());
+        }
+        recorded.addAndGet(batch.size());
+    }
+
+    /** 0 for none, n for the n-th ID seen; a new ID is followed by its text. */
+    private void writeCallId(String callId) throws IOException {
+        if (callId == null) {
+            writeVarint(0);
+            return;
+        }
+        Integer ref = callIds.get(callId);
+        if (ref != null) {
+            writeVarint(ref);
+            return;
+        }
+        ref = callIds.size() + 1;
+        callIds.put(callId, ref);
+        writeVarint(ref);
+        writeText(callId);
+    }
+
+    /** Length plus one, then the UTF-8 bytes; 0 for null. */
+    private void writeText(String text) throws IOException {
+        if (text == null) {
+            writeVarint(0);
+            return;
+        }
+        byte[] bytes = text.getBytes(UTF_8);
+        writeVarint(bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int code(SdkEvent.Type type) {
+        switch (type) {
+            case REGISTER_STATUS:
+                return REGISTER_STATUS;
+            case CALL_STATUS:
+                return CALL_STATUS;
+            case FEEDBACK_MESSAGE:
+                return FEEDBACK_MESSAGE;
+            case DEBUG_MESSAGE:
+                return DEBUG_MESSAGE;
+            case SPEECH_STARTED:
+                return SPEECH_STARTED;
+            case SPEECH_ENDED:
+                return SPEECH_ENDED;
+            default:
+                return 0;
+        }
+    }
+}
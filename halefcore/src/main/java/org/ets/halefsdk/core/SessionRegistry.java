@@ -0,0 +1,41 @@
+package org.ets.halefsdk.core;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live call sessions keyed by call ID. Backed by a {@link ConcurrentHashMap}, so lookups
+ * from SIP and socket threads never block and iteration never throws while sessions come
+ * and go.
+ */
+public class SessionRegistry<S extends CallSession> {
+    private final ConcurrentHashMap<String, S> sessions = new ConcurrentHashMap<String, S>();
+
+    /** @return false if a session with the same ID is already registered */
+    public boolean add(S session) {
+        return sessions.putIfAbsent(session.getId(), session) == null;
+    }
+
+    /** @return the session, or null if there is none with that ID (or {@code id} is null) */
+    public S get(String id) {
+        return id == null ? null : sessions.get(id);
+    }
+
+    /** Removes {@code session}, but not a different session that reused its ID. */
+    public boolean remove(S session) {
+        return sessions.remove(session.getId(), session);
+    }
+
+    /** Weakly consistent view of the live sessions. */
+    public Collection<S> all() {
+        return sessions.values();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+}
@@ -0,0 +1,264 @@
+package org.ets.halefsdk.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link SessionRecorder} file back into an {@link EventLoop}, so the events reach
+ * the client through the same dispatch path as they did live, without a SIP server or
+ * HALEF back end. Events keep their recorded spacing divided by the speed, or follow each
+ * other as fast as the loop takes them with {@link #AS_FAST_AS_POSSIBLE}. They are stamped
+ * when posted, so the loop's dispatch latency measures the client, and droppable events the
+ * client cannot keep up with are dropped as they would be live.
+ *
+ * The loop's dispatcher must run {@link SdkEvent.Type#TASK} events, as the platform ones
+ * do: the replay ends with one to learn when the client has caught up.
+ */
+public class SessionReplayer {
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
+    /** What one replay measured. */
+    public static final class Result {
+        private final long events;
+        private final long dropped;
+        private final long recordedNanos;
+        private final long elapsedNanos;
+        private final boolean drained;
+
+        Result(long events, long dropped, long recordedNanos, long elapsedNanos, boolean drained) {
+            this.events = events;
+            this.dropped = dropped;
+            this.recordedNanos = recordedNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.drained = drained;
+        }
+
+        /** Events read from the file and posted. */
+        public long getEvents() {
+            return events;
+        }
+
+        /** Posted events the loop dropped because the client fell behind. */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /** How long the session took when it was recorded. */
+        public long getRecordedNanos() {
+            return recordedNanos;
+        }
+
+        /** From the first event posted until the client had dispatched the last one. */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** False if the client had not caught up within 30 seconds of the last event. */
+        public boolean isDrained() {
+            return drained;
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNanos > 0 ? (events - dropped) * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d events in %.1f ms (recorded over %.1f ms), %d dropped, %.0f events/s",
+                    events, elapsedNanos / 1e6, recordedNanos / 1e6, dropped, getEventsPerSecond());
+        }
+    }
+
+    private final File file;
+
+    public SessionReplayer(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the whole recording into memory, for clients that want to look at it rather
+     * than replay it.
+     */
+    public List<SdkEvent> read() throws IOException {
+        List<SdkEvent> events = new ArrayList<SdkEvent>();
+        Reader reader = new Reader(file);
+        try {
+            while (reader.advance()) {
+                events.add(reader.event(0));
+            }
+        } finally {
+            reader.close();
+        }
+        return events;
+    }
+
+    /**
+     * Posts every recorded event to {@code loop}, on this thread, and waits until the client
+     * has dispatched them.
+     *
+     * @param speed 1 for real time, 10 for ten times as fast, {@link #AS_FAST_AS_POSSIBLE}
+     *              for no pauses at all
+     */
+    public Result replay(EventLoop loop, double speed) throws IOException, InterruptedException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("speed " + speed);
+        }
+        long droppedBefore = loop.getDropped();
+        long events = 0;
+        Reader reader = new Reader(file);
+        long started = System.nanoTime();
+        try {
+            while (reader.advance()) {
+                if (speed > 0) {
+                    long due = started + (long) (reader.offsetNanos / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                }
+                loop.post(reader.event(System.nanoTime()));
+                events++;
+            }
+        } finally {
+            reader.close();
+        }
+        final CountDownLatch caughtUp = new CountDownLatch(1);
+        while (!loop.post(SdkEvent.task(new Runnable() {
+            @Override
+            public void run() {
+                caughtUp.countDown();
+            }
+        }))) {
+            // The queue is full of status events; wait for the client to take some.
+            Thread.sleep(1);
+        }
+        boolean drained = caughtUp.await(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - started;
+        return new Result(events, loop.getDropped() - droppedBefore, reader.offsetNanos, elapsed, drained);
+    }
+
+    /** Reads events one at a time; a truncated last event ends the recording. */
+    private static final class Reader {
+        final DataInputStream in;
+        final List<String> callIds = new ArrayList<String>();
+        /** Recorded time of the last event read, from the first one. */
+        long offsetNanos;
+        SdkEvent.Type type;
+        String callId;
+        int status;
+        String message;
+
+        Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                if (in.readInt() != SessionRecorder.MAGIC) {
+                    throw new IOException("Not a session recording: " + file);
+                }
+                in.readLong();
+            } catch (IOException e) {
+                in.close();
+                throw e instanceof EOFException ? new IOException("Not a session recording: " + file) : e;
+            }
+        }
+
+        /** Reads the next event we know the type of. @return false at the end */
+        boolean advance() throws IOException {
+            try {
+                do {
+                    offsetNanos += readVarint() * 1000;
+                    // Null for a type written by a newer version of the SDK; skipped.
+                    type = type(in.readUnsignedByte());
+                    callId = readCallId();
+                    long zigzag = readVarint();
+                    status = (int) ((zigzag >>> 1) ^ -(zigzag & 1));
+                    message = readText();
+                } while (type == null);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        /** The event last read, stamped with {@code nowNanos}. */
+        SdkEvent event(long nowNanos) {
+            return new SdkEvent(type, callId, status, message, null, null, nowNanos, true);
+        }
+
+        private String readCallId() throws IOException {
+            int ref = (int) readVarint();
+            if (ref == 0) {
+                return null;
+            }
+            if (ref <= callIds.size()) {
+                return callIds.get(ref - 1);
+            }
+            if (ref != callIds.size() + 1) {
+                throw new IOException("Corrupt recording: call ID " + ref + " out of order");
+            }
+            String callId = readText();
+            callIds.add(callId);
+            return callId;
+        }
+
+        private String readText() throws IOException {
+            long length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            if (length - 1 > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt recording: text of " + (length - 1) + " bytes");
+            }
+            byte[] bytes = new byte[(int) (length - 1)];
+            in.readFully(bytes);
+            return new String(bytes, SessionRecorder.UTF_8);
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt recording: varint too long");
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        private static SdkEvent.Type type(int code) {
+            switch (code) {
+                case SessionRecorder.REGISTER_STATUS:
+                    return SdkEvent.Type.REGISTER_STATUS;
+                case SessionRecorder.CALL_STATUS:
+                    return SdkEvent.Type.CALL_STATUS;
+                case SessionRecorder.FEEDBACK_MESSAGE:
+                    return SdkEvent.Type.FEEDBACK_MESSAGE;
+                case SessionRecorder.DEBUG_MESSAGE:
+                    return SdkEvent.Type.DEBUG_MESSAGE;
+                case SessionRecorder.SPEECH_STARTED:
+                    return SdkEvent.Type.SPEECH_STARTED;
+                case SessionRecorder.SPEECH_ENDED:
+                    return SdkEvent.Type.SPEECH_ENDED;
+                default:
+                    return null;
+            }
+        }
+    }
+}
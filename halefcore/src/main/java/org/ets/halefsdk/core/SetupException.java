@@ -0,0 +1,28 @@
+package org.ets.halefsdk.core;
+
+/** Why a call or registration did not come up. {@link #getCode()} is the stack's error code, if any. */
+public class SetupException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public static final int NO_CODE = 0;
+
+    private final int code;
+
+    public SetupException(String message) {
+        this(message, NO_CODE);
+    }
+
+    public SetupException(String message, int code) {
+        super(message);
+        this.code = code;
+    }
+
+    public SetupException(String message, Throwable cause) {
+        super(message, cause);
+        this.code = NO_CODE;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
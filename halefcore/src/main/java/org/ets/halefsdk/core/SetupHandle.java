@@ -0,0 +1,195 @@
+package org.ets.halefsdk.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Outcome of something the SDK sets up asynchronously, such as a registration. It completes
+ * once: it succeeds, fails with a {@link SetupException}, times out or is cancelled.
+ * Listeners added with {@link #then(Listener)} run on the notifier given by the SDK (the
+ * client's callback thread), in the order they were added, and also when added late.
+ */
+public class SetupHandle implements Future<Void> {
+
+    public interface Listener {
+        void onSucceeded(SetupHandle handle);
+        /** @param cause a {@link SetupException}, {@link TimeoutException} or {@link CancellationException} */
+        void onFailed(SetupHandle handle, Exception cause);
+    }
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private final String id;
+    private final Executor notifier;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Listener> listeners = new ArrayList<Listener>(2);
+    private int outcome = PENDING;
+    private Exception failure;
+    private ScheduledFuture<?> timeout;
+
+    /** @param notifier where listeners run; null runs them on the completing thread */
+    public SetupHandle(String id, Executor notifier) {
+        this.id = id;
+        this.notifier = notifier;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /** Runs {@code listener} when the handle completes, or right away if it already has. */
+    public SetupHandle then(Listener listener) {
+        synchronized (this) {
+            if (outcome == PENDING) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        notify(listener);
+        return this;
+    }
+
+    /** Fails the handle with a {@link TimeoutException} if it is still pending after {@code delay}. */
+    public SetupHandle timeoutAfter(long delay, final TimeUnit unit, ScheduledExecutorService scheduler) {
+        final long millis = unit.toMillis(delay);
+        ScheduledFuture<?> task = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                complete(FAILED, new TimeoutException(id + " not set up within " + millis + " ms"));
+            }
+        }, delay, unit);
+        synchronized (this) {
+            if (outcome == PENDING) {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                timeout = task;
+                return this;
+            }
+        }
+        task.cancel(false);
+        return this;
+    }
+
+    /** For the SDK: marks the handle as succeeded. @return false if it had already completed */
+    public boolean succeed() {
+        return complete(SUCCEEDED, null);
+    }
+
+    /** For the SDK: marks the handle as failed. @return false if it had already completed */
+    public boolean fail(Exception cause) {
+        return complete(FAILED, cause);
+    }
+
+    /** Gives up on the setup. The SDK tears down whatever was in flight. */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(CANCELLED, new CancellationException(id + " cancelled"));
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return outcome == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return outcome != PENDING;
+    }
+
+    public synchronized boolean isSucceeded() {
+        return outcome == SUCCEEDED;
+    }
+
+    /** Why the handle failed or was cancelled, or null. */
+    public synchronized Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + id + ")";
+    }
+
+    private synchronized Void result() throws ExecutionException {
+        if (outcome == CANCELLED) {
+            throw (CancellationException) failure;
+        }
+        if (outcome == FAILED) {
+            throw new ExecutionException(failure);
+        }
+        return null;
+    }
+
+    private boolean complete(int result, Exception cause) {
+        Listener[] pending;
+        synchronized (this) {
+            if (outcome != PENDING) {
+                return false;
+            }
+            outcome = result;
+            failure = cause;
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+            pending = listeners.toArray(new Listener[listeners.size()]);
+            listeners.clear();
+        }
+        done.countDown();
+        for (Listener listener : pending) {
+            notify(listener);
+        }
+        return true;
+    }
+
+    private void notify(final Listener listener) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                Exception cause = getFailure();
+                if (cause == null) {
+                    listener.onSucceeded(SetupHandle.this);
+                } else {
+                    listener.onFailed(SetupHandle.this, cause);
+                }
+            }
+        });
+    }
+
+    /** Runs {@code task} on the notifier. */
+    protected void run(Runnable task) {
+        if (notifier == null) {
+            task.run();
+        } else {
+            notifier.execute(task);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.ets.halefsdk.core;
+
+/**
+ * Aggregated setup latencies across calls and registrations: one {@link LatencyHistogram}
+ * per stage, measured from the timeline origin, plus the feedback channel connect time.
+ */
+public class SetupMetrics {
+    private static final SetupStage[] STAGES = SetupStage.values();
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram feedbackConnect = new LatencyHistogram();
+
+    public SetupMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(SetupTimeline timeline) {
+        for (SetupStage stage : STAGES) {
+            if (stage != timeline.getOrigin()) {
+                long elapsed = timeline.elapsedNanos(stage);
+                if (elapsed >= 0) {
+                    stages[stage.ordinal()].recordNanos(elapsed);
+                }
+            }
+        }
+    }
+
+    public void recordFeedbackConnect(long nanos) {
+        feedbackConnect.recordNanos(nanos);
+    }
+
+    public LatencyHistogram get(SetupStage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public LatencyHistogram getFeedbackConnect() {
+        return feedbackConnect;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : stages) {
+            histogram.reset();
+        }
+        feedbackConnect.reset();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"stages\":{");
+        boolean first = true;
+        for (SetupStage stage : STAGES) {
+            LatencyHistogram histogram = stages[stage.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            Json.quote(sb, stage.getLabel()).append(':');
+            histogram.toJson(sb);
+        }
+        sb.append("},\"feedbackConnect\":");
+        return feedbackConnect.toJson(sb).append('}').toString();
+    }
+}
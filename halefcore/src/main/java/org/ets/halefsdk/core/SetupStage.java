@@ -0,0 +1,29 @@
+package org.ets.halefsdk.core;
+
+/**
+ * Points in call and registration setup that {@link SetupTimeline} records. {@link #CALL}
+ * and {@link #REGISTER} are the origins the other stages are measured from.
+ */
+public enum SetupStage {
+    CALL("call"),
+    AUDIO_CALL_CREATED("makeAudioCall"),
+    CALL_ESTABLISHED("callEstablished"),
+    AUDIO_STARTED("startAudio"),
+    WS_CONNECTED("wsConnected"),
+    WS_REGISTERED("wsRegister"),
+    FIRST_MESSAGE("firstMessage"),
+
+    REGISTER("doRegister"),
+    REGISTERING("registering"),
+    REGISTERED("registrationDone");
+
+    private final String label;
+
+    SetupStage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
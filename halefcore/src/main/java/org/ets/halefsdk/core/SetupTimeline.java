@@ -0,0 +1,71 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monotonic timestamps of the setup stages of one call (or one registration). Each stage
+ * keeps the first time it was reached; stamps come from {@link System#nanoTime()}.
+ */
+public class SetupTimeline {
+    private static final SetupStage[] STAGES = SetupStage.values();
+    private static final long UNSET = -1;
+
+    private final String id;
+    private final SetupStage origin;
+    private final AtomicLongArray stamps = new AtomicLongArray(STAGES.length);
+
+    public SetupTimeline(String id, SetupStage origin) {
+        this.id = id;
+        this.origin = origin;
+        for (int i = 0; i < STAGES.length; i++) {
+            stamps.set(i, UNSET);
+        }
+        stamps.set(origin.ordinal(), System.nanoTime());
+    }
+
+    /** Stamps {@code stage} unless it was already reached. */
+    public void mark(SetupStage stage) {
+        stamps.compareAndSet(stage.ordinal(), UNSET, System.nanoTime());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public SetupStage getOrigin() {
+        return origin;
+    }
+
+    public boolean reached(SetupStage stage) {
+        return stamps.get(stage.ordinal()) != UNSET;
+    }
+
+    /** Time from the origin to {@code stage}, or -1 if the stage was not reached. */
+    public long elapsedNanos(SetupStage stage) {
+        long stamp = stamps.get(stage.ordinal());
+        return stamp == UNSET ? -1 : stamp - stamps.get(origin.ordinal());
+    }
+
+    StringBuilder toJson(StringBuilder sb) {
+        sb.append("{\"id\":");
+        Json.quote(sb, id).append(",\"origin\":");
+        Json.quote(sb, origin.getLabel()).append(",\"stagesUs\":{");
+        boolean first = true;
+        for (SetupStage stage : STAGES) {
+            long elapsed = elapsedNanos(stage);
+            if (stage == origin || elapsed < 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            Json.quote(sb, stage.getLabel()).append(':').append(elapsed / 1000);
+        }
+        return sb.append("}}");
+    }
+
+    public String toJson() {
+        return toJson(new StringBuilder(256)).toString();
+    }
+}
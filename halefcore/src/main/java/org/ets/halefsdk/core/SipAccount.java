@@ -0,0 +1,51 @@
+package org.ets.halefsdk.core;
+
+/** The credentials we register with. Equal accounts share one registration and profile. */
+public final class SipAccount {
+    private final String domain;
+    private final String username;
+    private final String password;
+
+    public SipAccount(String domain, String username, String password) {
+        this.domain = domain;
+        this.username = username;
+        this.password = password;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /** The address of record, in the form SipProfile.getUriString() reports it. */
+    public String getUri() {
+        return "sip:" + username + "@" + domain;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SipAccount)) {
+            return false;
+        }
+        SipAccount other = (SipAccount) o;
+        return domain.equals(other.domain) && username.equals(other.username)
+                && (password == null ? other.password == null : password.equals(other.password));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * domain.hashCode() + username.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getUri();
+    }
+}
@@ -0,0 +1,97 @@
+package org.ets.halefsdk.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the independent pieces of getting the SDK ready side by side, each traced as a phase
+ * of a {@link StartupTrace}. {@link #start} hands a piece to the executor at once; whoever
+ * needs its result calls {@link Step#get()}, which runs the piece right there if no thread
+ * has picked it up yet, so asking early never costs more than doing it in line.
+ */
+public class StartupPipeline {
+    private final Executor executor;
+    private final StartupTrace trace;
+
+    public StartupPipeline(Executor executor, StartupTrace trace) {
+        this.executor = executor;
+        this.trace = trace;
+    }
+
+    public StartupTrace getTrace() {
+        return trace;
+    }
+
+    /** Starts {@code task} in the background as the phase {@code phase}. */
+    public <T> Step<T> start(String phase, Callable<T> task) {
+        Step<T> step = new Step<T>(phase, task);
+        try {
+            executor.execute(step);
+        } catch (RejectedExecutionException e) {
+            // Shut down already: get() runs it.
+        }
+        return step;
+    }
+
+    /** One piece; runs once, on the pipeline or on the first thread that needs it. */
+    public final class Step<T> implements Runnable {
+        private final String phase;
+        private final Callable<T> task;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile T result;
+        private volatile Exception error;
+
+        Step(String phase, Callable<T> task) {
+            this.phase = phase;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            trace.begin(phase);
+            try {
+                result = task.call();
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                trace.end(phase);
+                done.countDown();
+            }
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /** The piece's result, running it on this thread if it has not started yet. */
+        public T get() throws SetupException {
+            run();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error instanceof SetupException) {
+                throw (SetupException) error;
+            }
+            if (error != null) {
+                throw new SetupException(phase + " failed: " + error.getMessage(), error);
+            }
+            return result;
+        }
+    }
+}
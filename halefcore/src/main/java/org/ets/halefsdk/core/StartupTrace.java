@@ -0,0 +1,90 @@
+package org.ets.halefsdk.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * When each phase of getting the SDK ready began and ended, measured from an origin such
+ * as the app asking for the SDK to warm up. Phases may overlap, which is the point of
+ * running them in a {@link StartupPipeline}; a point in time is a phase that ends as it
+ * begins. A cold trace is the first start in the process, with nothing loaded yet; a warm
+ * one starts again in a process that has been through it before. Stamps come from
+ * {@link System#nanoTime()}.
+ */
+public class StartupTrace {
+    private final boolean cold;
+    private final long originNanos;
+    /** Begin and end of each phase, in the order they began; end is -1 while it runs. */
+    private final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+
+    public StartupTrace(boolean cold, long originNanos) {
+        this.cold = cold;
+        this.originNanos = originNanos;
+    }
+
+    public boolean isCold() {
+        return cold;
+    }
+
+    /** Stamps the beginning of {@code phase} unless it already began. */
+    public synchronized void begin(String phase) {
+        if (!phases.containsKey(phase)) {
+            phases.put(phase, new long[] { System.nanoTime(), -1 });
+        }
+    }
+
+    /** Stamps the end of {@code phase} unless it already ended; begins it too if need be. */
+    public synchronized void end(String phase) {
+        long now = System.nanoTime();
+        long[] stamps = phases.get(phase);
+        if (stamps == null) {
+            phases.put(phase, new long[] { now, now });
+        } else if (stamps[1] < 0) {
+            stamps[1] = now;
+        }
+    }
+
+    /** Stamps a point in time, e.g. "registered". */
+    public void mark(String point) {
+        end(point);
+    }
+
+    public synchronized boolean reached(String phase) {
+        long[] stamps = phases.get(phase);
+        return stamps != null && stamps[1] >= 0;
+    }
+
+    /** Time from the origin to the end of {@code phase}, or -1 if it has not ended. */
+    public synchronized long elapsedNanos(String phase) {
+        long[] stamps = phases.get(phase);
+        return stamps == null || stamps[1] < 0 ? -1 : stamps[1] - originNanos;
+    }
+
+    /** How long {@code phase} itself took, or -1 if it has not ended. */
+    public synchronized long durationNanos(String phase) {
+        long[] stamps = phases.get(phase);
+        return stamps == null || stamps[1] < 0 ? -1 : stamps[1] - stamps[0];
+    }
+
+    /** Every phase that began, with its begin and end from the origin in microseconds. */
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder(64 + phases.size() * 48);
+        sb.append("{\"cold\":").append(cold).append(",\"phasesUs\":{");
+        boolean first = true;
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            long[] stamps = phase.getValue();
+            Json.quote(sb, phase.getKey()).append(":[").append((stamps[0] - originNanos) / 1000).append(',')
+                    .append(stamps[1] < 0 ? -1 : (stamps[1] - originNanos) / 1000).append(']');
+        }
+        return sb.append("}}").toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,26 @@
+package org.ets.halefsdk.core.media;
+
+/**
+ * Where call audio comes from and goes to: 8 kHz mono 16-bit PCM, in frames of
+ * {@link #FRAME_SAMPLES}. Both methods are called on the user agent's selector thread
+ * every frame and must not block.
+ */
+public interface AudioDevice {
+    int SAMPLE_RATE = 8000;
+    int FRAME_MILLIS = 20;
+    int FRAME_SAMPLES = SAMPLE_RATE * FRAME_MILLIS / 1000;
+
+    interface Factory {
+        /** A device for one call. */
+        AudioDevice open();
+    }
+
+    void start();
+
+    /** @return samples copied into {@code frame}, 0 if nothing was captured yet */
+    int read(short[] frame);
+
+    void write(short[] frame, int length);
+
+    void stop();
+}
@@ -0,0 +1,10 @@
+package org.ets.halefsdk.core.media;
+
+/**
+ * Sees every frame of a call's outgoing audio, as sent (muted frames are silence). Called
+ * on the audio thread every {@link AudioDevice#FRAME_MILLIS} ms: copy what you need and
+ * return, never block.
+ */
+public interface AudioTap {
+    void onFrame(short[] frame, int samples);
+}
@@ -0,0 +1,40 @@
+package org.ets.halefsdk.core.media;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Putting several {@link AudioTap}s on one call. */
+public final class AudioTaps {
+
+    private AudioTaps() {
+    }
+
+    /**
+     * One tap that hands each frame to {@code taps} in order, skipping nulls.
+     *
+     * @return null if there is nothing to tap
+     */
+    public static AudioTap of(AudioTap... taps) {
+        List<AudioTap> present = new ArrayList<AudioTap>(taps.length);
+        for (AudioTap tap : taps) {
+            if (tap != null) {
+                present.add(tap);
+            }
+        }
+        if (present.isEmpty()) {
+            return null;
+        }
+        if (present.size() == 1) {
+            return present.get(0);
+        }
+        final AudioTap[] all = present.toArray(new AudioTap[present.size()]);
+        return new AudioTap() {
+            @Override
+            public void onFrame(short[] frame, int samples) {
+                for (AudioTap tap : all) {
+                    tap.onFrame(frame, samples);
+                }
+            }
+        };
+    }
+}
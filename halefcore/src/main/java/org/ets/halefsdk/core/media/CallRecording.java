@@ -0,0 +1,183 @@
+package org.ets.halefsdk.core.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local copy of what the caller said on one call, for audits. As an {@link AudioTap} it
+ * copies each outgoing frame into a {@link FrameRing} and returns; a background thread
+ * drains the ring every {@value #DRAIN_MILLIS} ms into WAV files named
+ * {@code <callId>-000.wav}, {@code <callId>-001.wav}, ... in the recording directory,
+ * starting a new one every segment. Memory is the ring plus one write buffer, whatever
+ * the call length; if the writer falls a whole ring behind, frames are dropped and
+ * counted rather than held.
+ */
+public class CallRecording implements AudioTap {
+    public static final int DEFAULT_RING_FRAMES = 250;
+    public static final int DEFAULT_SEGMENT_SECONDS = 300;
+    static final long DRAIN_MILLIS = 100;
+
+    private final File directory;
+    private final String callId;
+    private final FrameRing ring;
+    private final long segmentSamples;
+    private final List<File> files = new ArrayList<File>();
+    private volatile boolean running;
+    private volatile boolean closed;
+    private volatile long captured;
+    private volatile long dropped;
+    private volatile long written;
+    private volatile IOException error;
+    private Thread writer;
+
+    public CallRecording(File directory, String callId) {
+        this(directory, callId, DEFAULT_RING_FRAMES, DEFAULT_SEGMENT_SECONDS);
+    }
+
+    /**
+     * @param ringFrames     frames the writer may fall behind by before audio is dropped
+     * @param segmentSeconds audio per file
+     */
+    public CallRecording(File directory, String callId, int ringFrames, int segmentSeconds) {
+        this.directory = directory;
+        this.callId = callId;
+        this.ring = new FrameRing(ringFrames);
+        this.segmentSamples = (long) segmentSeconds * AudioDevice.SAMPLE_RATE;
+    }
+
+    public String getCallId() {
+        return callId;
+    }
+
+    /** Starts the writer thread; frames tapped before this wait in the ring. */
+    public synchronized void start() {
+        if (running || closed) {
+            return;
+        }
+        running = true;
+        writer = new Thread(drain, "HalefRecorder-" + callId);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void onFrame(short[] frame, int samples) {
+        if (closed) {
+            return;
+        }
+        captured++;
+        if (!ring.put(frame, samples)) {
+            dropped++;
+        }
+    }
+
+    /**
+     * Stops tapping, writes out what is buffered and finishes the last file. Waits for the
+     * writer, so not on the audio thread.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            running = false;
+            thread = writer;
+        }
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Frames the call sent while we were tapping it. */
+    public long getFramesCaptured() {
+        return captured;
+    }
+
+    /** Frames lost because the writer was a whole ring behind. */
+    public long getFramesDropped() {
+        return dropped;
+    }
+
+    public long getFramesWritten() {
+        return written;
+    }
+
+    /** The error that stopped the writer, or null. */
+    public IOException getError() {
+        return error;
+    }
+
+    /** Files written or being written, oldest first. */
+    public List<File> getFiles() {
+        synchronized (files) {
+            return new ArrayList<File>(files);
+        }
+    }
+
+    private File segmentFile(int index) {
+        String name = callId.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(directory, String.format(Locale.US, "%s-%03d.wav", name, index));
+    }
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            short[] frame = new short[AudioDevice.FRAME_SAMPLES];
+            WavWriter wav = null;
+            int segment = 0;
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Cannot create " + directory);
+                }
+                while (true) {
+                    boolean last = !running;
+                    while (ring.take(frame)) {
+                        if (wav == null || wav.getSamples() >= segmentSamples) {
+                            if (wav != null) {
+                                wav.close();
+                            }
+                            File file = segmentFile(segment++);
+                            wav = new WavWriter(file, AudioDevice.SAMPLE_RATE, AudioDevice.SAMPLE_RATE);
+                            synchronized (files) {
+                                files.add(file);
+                            }
+                        }
+                        wav.write(frame, AudioDevice.FRAME_SAMPLES);
+                        written++;
+                    }
+                    if (last) {
+                        break;
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS));
+                }
+            } catch (IOException e) {
+                error = e;
+                // Let the tap keep returning right away; everything from here on is dropped.
+                closed = true;
+            } finally {
+                if (wav != null) {
+                    try {
+                        wav.close();
+                    } catch (IOException e) {
+                        if (error == null) {
+                            error = e;
+                        }
+                    }
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,28 @@
+package org.ets.halefsdk.core.media;
+
+/**
+ * An audio codec for {@link AudioDevice} frames. Encoding and decoding work on
+ * caller-supplied arrays so the RTP path allocates nothing per packet.
+ */
+public interface Codec {
+
+    /** The RTP payload type we offer it as: its static type, or a dynamic one (96-127). */
+    int getPayloadType();
+
+    /** Encoding name as written in an SDP rtpmap, e.g. {@code PCMU}. */
+    String getEncoding();
+
+    int getClockRate();
+
+    /** Payload bits per second, without RTP/UDP/IP overhead. */
+    int getBitrate();
+
+    /** Delay the codec itself adds (frame size and look-ahead) beyond the packet time. */
+    int getAlgorithmicDelayMillis();
+
+    /** @return bytes written to {@code out} */
+    int encode(short[] pcm, int offset, int samples, byte[] out, int outOffset);
+
+    /** @return samples written to {@code pcm} */
+    int decode(byte[] in, int offset, int length, short[] pcm, int pcmOffset);
+}
@@ -0,0 +1,84 @@
+package org.ets.halefsdk.core.media;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the codec for a call (RFC 3264 offer/answer). We offer every codec we have, most
+ * preferred first, and use the most preferred one the answer accepts. By default that
+ * means the lowest bitrate, then the lowest algorithmic delay, so a low-bitrate codec wins
+ * whenever both sides have one and G.711 remains the fallback.
+ */
+public class CodecNegotiator {
+
+    /** Lowest bitrate first; ties go to the codec that adds less delay. */
+    public static final Comparator<Codec> LOW_BITRATE_FIRST = new Comparator<Codec>() {
+        @Override
+        public int compare(Codec a, Codec b) {
+            if (a.getBitrate() != b.getBitrate()) {
+                return a.getBitrate() < b.getBitrate() ? -1 : 1;
+            }
+            return a.getAlgorithmicDelayMillis() - b.getAlgorithmicDelayMillis();
+        }
+    };
+
+    private final List<Codec> offer;
+
+    /** Orders {@code codecs} with {@link #LOW_BITRATE_FIRST}. */
+    public CodecNegotiator(Codec... codecs) {
+        this(Arrays.asList(codecs), LOW_BITRATE_FIRST);
+    }
+
+    /** @param preference null keeps the given order */
+    public CodecNegotiator(List<Codec> codecs, Comparator<Codec> preference) {
+        List<Codec> sorted = new ArrayList<Codec>(codecs);
+        if (preference != null) {
+            // Stable, so equal codecs keep the caller's order.
+            Collections.sort(sorted, preference);
+        }
+        this.offer = Collections.unmodifiableList(sorted);
+    }
+
+    /** The codecs implemented in this package: G.711 mu-law, then A-law. */
+    public static CodecNegotiator defaults() {
+        return new CodecNegotiator(G711.ULAW, G711.ALAW);
+    }
+
+    /** What to put in the offer, most preferred first. */
+    public List<Codec> getOffer() {
+        return offer;
+    }
+
+    /** @return our most preferred codec among the answer's formats, or null if none match */
+    public Codec choose(Sdp.Media answer) {
+        for (Codec codec : offer) {
+            for (int payloadType : answer.getFormats()) {
+                if (matches(codec, payloadType, answer.getRtpmap(payloadType))) {
+                    return codec;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Dynamic types only match by rtpmap; static ones by number when there is no rtpmap. */
+    static boolean matches(Codec codec, int payloadType, String rtpmap) {
+        if (rtpmap != null) {
+            int slash = rtpmap.indexOf('/');
+            String encoding = slash < 0 ? rtpmap : rtpmap.substring(0, slash);
+            if (!encoding.trim().equalsIgnoreCase(codec.getEncoding())) {
+                return false;
+            }
+            if (slash >= 0) {
+                int end = rtpmap.indexOf('/', slash + 1);
+                String rate = rtpmap.substring(slash + 1, end < 0 ? rtpmap.length() : end).trim();
+                return rate.equals(String.valueOf(codec.getClockRate()));
+            }
+            return true;
+        }
+        return payloadType < 96 && payloadType == codec.getPayloadType();
+    }
+}
@@ -0,0 +1,63 @@
+package org.ets.halefsdk.core.media;
+
+import java.util.Arrays;
+
+/**
+ * Fixed {@link AudioDevice#FRAME_SAMPLES} frames between one writer thread and one reader
+ * thread, with no locks and no allocation: a frame is copied into its slot before the
+ * tail moves past it, which publishes it. Neither side ever waits; a full ring refuses
+ * the frame and an empty one returns nothing.
+ */
+public final class FrameRing {
+    private final short[][] frames;
+    private volatile long head;
+    private volatile long tail;
+
+    public FrameRing(int capacity) {
+        frames = new short[capacity][AudioDevice.FRAME_SAMPLES];
+    }
+
+    public int capacity() {
+        return frames.length;
+    }
+
+    /** Frames waiting to be taken; exact only on the reader or writer thread. */
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Writer side. Samples beyond one frame are dropped, a short frame is padded with silence.
+     *
+     * @return false if the ring was full and the frame was dropped
+     */
+    public boolean put(short[] frame, int length) {
+        long t = tail;
+        if (t - head == frames.length) {
+            return false;
+        }
+        short[] slot = frames[(int) (t % frames.length)];
+        int n = Math.min(length, AudioDevice.FRAME_SAMPLES);
+        System.arraycopy(frame, 0, slot, 0, n);
+        if (n < AudioDevice.FRAME_SAMPLES) {
+            Arrays.fill(slot, n, AudioDevice.FRAME_SAMPLES, (short) 0);
+        }
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * Reader side.
+     *
+     * @return false if the ring was empty
+     */
+    public boolean take(short[] frame) {
+        long h = head;
+        if (h == tail) {
+            return false;
+        }
+        System.arraycopy(frames[(int) (h % frames.length)], 0, frame, 0, AudioDevice.FRAME_SAMPLES);
+        head = h + 1;
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+package org.ets.halefsdk.core.media;
+
+/**
+ * G.711 mu-law (RTP payload type 0) and A-law (8) codecs working on caller-supplied
+ * arrays, so encoding a frame allocates nothing. Decoding is table driven.
+ */
+public final class G711 implements Codec {
+    public static final int PCMU = 0;
+    public static final int PCMA = 8;
+
+    private static final int ULAW_BIAS = 0x84;
+    private static final int ULAW_CLIP = 32635;
+    private static final short[] ULAW_DECODE = new short[256];
+    private static final short[] ALAW_DECODE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ULAW_DECODE[i] = ulawToLinear((byte) i);
+            ALAW_DECODE[i] = alawToLinear((byte) i);
+        }
+    }
+
+    public static final G711 ULAW = new G711(PCMU, "PCMU");
+    public static final G711 ALAW = new G711(PCMA, "PCMA");
+
+    private final int payloadType;
+    private final String encoding;
+
+    private G711(int payloadType, String encoding) {
+        this.payloadType = payloadType;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    @Override
+    public String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int getClockRate() {
+        return AudioDevice.SAMPLE_RATE;
+    }
+
+    @Override
+    public int getBitrate() {
+        return 64000;
+    }
+
+    @Override
+    public int getAlgorithmicDelayMillis() {
+        return 0;
+    }
+
+    @Override
+    public int encode(short[] pcm, int offset, int samples, byte[] out, int outOffset) {
+        if (payloadType == PCMA) {
+            for (int i = 0; i < samples; i++) {
+                out[outOffset + i] = linearToAlaw(pcm[offset + i]);
+            }
+        } else {
+            for (int i = 0; i < samples; i++) {
+                out[outOffset + i] = linearToUlaw(pcm[offset + i]);
+            }
+        }
+        return samples;
+    }
+
+    @Override
+    public int decode(byte[] in, int offset, int length, short[] pcm, int pcmOffset) {
+        short[] table = payloadType == PCMA ? ALAW_DECODE : ULAW_DECODE;
+        for (int i = 0; i < length; i++) {
+            pcm[pcmOffset + i] = table[in[offset + i] & 0xFF];
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return encoding;
+    }
+
+    static byte linearToUlaw(int pcm) {
+        int sign = (pcm >> 8) & 0x80;
+        if (sign != 0) {
+            pcm = -pcm;
+        }
+        if (pcm > ULAW_CLIP) {
+            pcm = ULAW_CLIP;
+        }
+        pcm += ULAW_BIAS;
+        int exponent = 7;
+        for (int mask = 0x4000; (pcm & mask) == 0 && exponent > 0; mask >>= 1) {
+            exponent--;
+        }
+        int mantissa = (pcm >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    static short ulawToLinear(byte ulaw) {
+        int u = ~ulaw & 0xFF;
+        int exponent = (u >> 4) & 0x07;
+        int sample = ((((u & 0x0F) << 3) + ULAW_BIAS) << exponent) - ULAW_BIAS;
+        return (short) ((u & 0x80) != 0 ? -sample : sample);
+    }
+
+    static byte linearToAlaw(int pcm) {
+        int mask;
+        if (pcm >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            pcm = -pcm - 1;
+        }
+        int segment = 0;
+        for (int end = 0xFF; segment < 8 && pcm > end; end = (end << 1) | 1) {
+            segment++;
+        }
+        int value;
+        if (segment >= 8) {
+            value = 0x7F;
+        } else {
+            value = segment << 4;
+            value |= segment < 2 ? (pcm >> 4) & 0x0F : (pcm >> (segment + 3)) & 0x0F;
+        }
+        return (byte) (value ^ mask);
+    }
+
+    static short alawToLinear(byte alaw) {
+        int a = (alaw ^ 0x55) & 0xFF;
+        int t = (a & 0x0F) << 4;
+        int segment = (a & 0x70) >> 4;
+        if (segment == 0) {
+            t += 8;
+        } else {
+            t += 0x108;
+            t <<= segment - 1;
+        }
+        return (short) ((a & 0x80) != 0 ? t : -t);
+    }
+}
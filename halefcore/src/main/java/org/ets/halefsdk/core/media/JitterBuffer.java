@@ -0,0 +1,268 @@
+package org.ets.halefsdk.core.media;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Adaptive jitter buffer for one RTP stream of {@link AudioDevice#FRAME_SAMPLES} frames.
+ *
+ * The playout delay tracks the RFC 3550 interarrival jitter: the target is
+ * {@code jitter * jitterFactor} rounded up to whole frames, plus one frame, kept between
+ * the minimum and maximum delay. The buffer grows by holding playout back when it runs dry
+ * and shrinks by skipping a frame when it runs deeper than the target, one frame per poll.
+ * A lost frame is concealed by repeating the last good one with a fade, then silence.
+ *
+ * Frames live in a preallocated ring. {@link #offer} (the network side) and {@link #poll}
+ * (the playout side) may run on two different threads without locks: a slot's frame is
+ * written before its sequence stamp, which publishes it.
+ */
+public class JitterBuffer {
+
+    /** What {@link #poll} produced. */
+    public enum Playout {
+        FRAME,
+        CONCEALED,
+        SILENCE
+    }
+
+    public static final int DEFAULT_CAPACITY_FRAMES = 32;
+    public static final int DEFAULT_MIN_DELAY_MILLIS = 40;
+    public static final int DEFAULT_MAX_DELAY_MILLIS = 200;
+    public static final double DEFAULT_JITTER_FACTOR = 3.0;
+
+    /** Frames of faded repetition before concealment turns into silence. */
+    static final int MAX_CONCEALED = 5;
+    private static final long NANOS_PER_SAMPLE = 1000000000L / AudioDevice.SAMPLE_RATE;
+    private static final int SAMPLES_PER_MILLI = AudioDevice.SAMPLE_RATE / 1000;
+
+    private final int capacity;
+    private final short[][] frames;
+    private final AtomicLongArray stamps;
+    private final int minDelayFrames;
+    private final int maxDelayFrames;
+    private final double jitterFactor;
+
+    // Network side.
+    private int lastSequence = -1;
+    private long cycles;
+    private boolean haveTransit;
+    private int lastTransit;
+    private volatile double jitterSamples;
+    private volatile long highest = -1;
+    private volatile long earliest = -1;
+    private volatile boolean resync;
+    private volatile long received;
+    private volatile long late;
+
+    // Playout side.
+    private volatile long next = -1;
+    private boolean playing;
+    private int targetFrames;
+    private int concealedRun;
+    private final short[] last = new short[AudioDevice.FRAME_SAMPLES];
+    private volatile long lost;
+    private volatile long concealed;
+    private volatile long skipped;
+
+    public JitterBuffer() {
+        this(DEFAULT_CAPACITY_FRAMES, DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_JITTER_FACTOR);
+    }
+
+    /**
+     * @param capacityFrames ring size; packets further ahead than this make the buffer resync
+     * @param jitterFactor   how many jitter estimates of delay to keep in hand
+     */
+    public JitterBuffer(int capacityFrames, int minDelayMillis, int maxDelayMillis, double jitterFactor) {
+        this.capacity = capacityFrames;
+        this.frames = new short[capacityFrames][AudioDevice.FRAME_SAMPLES];
+        this.stamps = new AtomicLongArray(capacityFrames);
+        for (int i = 0; i < capacityFrames; i++) {
+            stamps.set(i, -1);
+        }
+        this.minDelayFrames = Math.max(1, frames(minDelayMillis));
+        this.maxDelayFrames = Math.min(capacityFrames - 1, Math.max(minDelayFrames, frames(maxDelayMillis)));
+        this.jitterFactor = jitterFactor;
+        this.targetFrames = minDelayFrames;
+    }
+
+    /**
+     * Buffers one decoded packet. Samples beyond one frame are dropped, a short packet is
+     * padded with silence.
+     *
+     * @return false if it came too late to be played
+     */
+    public boolean offer(int sequence, int timestamp, long arrivalNanos, short[] pcm, int samples) {
+        long ext = extend(sequence & 0xFFFF);
+        if (ext < 0) {
+            late++;
+            return false;
+        }
+        int transit = (int) (arrivalNanos / NANOS_PER_SAMPLE) - timestamp;
+        if (haveTransit) {
+            int d = Math.abs(transit - lastTransit);
+            jitterSamples = jitterSamples + (d - jitterSamples) / 16;
+        }
+        haveTransit = true;
+        lastTransit = transit;
+
+        long playout = next;
+        if (playout >= 0 && ext < playout) {
+            late++;
+            return false;
+        }
+        if (playout < 0 && (earliest < 0 || ext < earliest)) {
+            earliest = ext;
+        }
+        if (playout >= 0 && ext >= playout + capacity) {
+            // The sender jumped (e.g. restarted its stream); start over from here.
+            resync = true;
+        }
+        int slot = (int) (ext % capacity);
+        int n = Math.min(samples, AudioDevice.FRAME_SAMPLES);
+        System.arraycopy(pcm, 0, frames[slot], 0, n);
+        if (n < AudioDevice.FRAME_SAMPLES) {
+            Arrays.fill(frames[slot], n, AudioDevice.FRAME_SAMPLES, (short) 0);
+        }
+        stamps.set(slot, ext);
+        if (ext > highest) {
+            highest = ext;
+        }
+        received++;
+        return true;
+    }
+
+    /** Fills {@code out} with the next {@link AudioDevice#FRAME_SAMPLES} samples to play. */
+    public Playout poll(short[] out) {
+        if (resync) {
+            resync = false;
+            playing = false;
+            next = -1;
+            earliest = -1;
+        }
+        long high = highest;
+        if (high < 0) {
+            return silence(out);
+        }
+        targetFrames = computeTarget();
+        if (!playing) {
+            if (next < 0) {
+                next = earliest >= 0 ? earliest : high;
+            }
+            if (high - next + 1 < targetFrames) {
+                return silence(out);
+            }
+            playing = true;
+        }
+        long current = next;
+        int slot = (int) (current % capacity);
+        if (stamps.get(slot) == current) {
+            System.arraycopy(frames[slot], 0, out, 0, AudioDevice.FRAME_SAMPLES);
+            System.arraycopy(out, 0, last, 0, AudioDevice.FRAME_SAMPLES);
+            concealedRun = 0;
+            current++;
+            if (high - current + 1 > targetFrames + 1) {
+                // Running deeper than we need: drop a frame to bring the delay down.
+                current++;
+                skipped++;
+            }
+            next = current;
+            return Playout.FRAME;
+        }
+        if (high < current) {
+            // Nothing newer has arrived: conceal without advancing, which adds a frame of
+            // delay. After too long, go back to buffering up to the target.
+            Playout playout = conceal(out);
+            if (playout == Playout.SILENCE) {
+                playing = false;
+            }
+            return playout;
+        }
+        lost++;
+        next = current + 1;
+        return conceal(out);
+    }
+
+    public double getJitterMillis() {
+        return jitterSamples / SAMPLES_PER_MILLI;
+    }
+
+    public int getTargetDelayMillis() {
+        return targetFrames * AudioDevice.FRAME_MILLIS;
+    }
+
+    /** Audio buffered ahead of the playout point. */
+    public int getBufferedMillis() {
+        long high = highest;
+        long playout = next;
+        return high < 0 || playout < 0 ? 0 : (int) Math.max(0, high - playout + 1) * AudioDevice.FRAME_MILLIS;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    /** Packets that arrived after their playout time. */
+    public long getLate() {
+        return late;
+    }
+
+    /** Frames that never arrived and were played over. */
+    public long getLost() {
+        return lost;
+    }
+
+    /** Frames filled in by concealment, for loss and for underruns. */
+    public long getConcealed() {
+        return concealed;
+    }
+
+    /** Frames dropped to shrink the delay. */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    private int computeTarget() {
+        double jitterMillis = jitterSamples / SAMPLES_PER_MILLI;
+        int target = (int) Math.ceil(jitterMillis * jitterFactor / AudioDevice.FRAME_MILLIS) + 1;
+        return Math.max(minDelayFrames, Math.min(maxDelayFrames, target));
+    }
+
+    private Playout conceal(short[] out) {
+        concealed++;
+        concealedRun++;
+        if (concealedRun > MAX_CONCEALED) {
+            return silence(out);
+        }
+        int gain = MAX_CONCEALED + 1 - concealedRun;
+        for (int i = 0; i < AudioDevice.FRAME_SAMPLES; i++) {
+            out[i] = (short) (last[i] * gain / (MAX_CONCEALED + 1));
+        }
+        return Playout.CONCEALED;
+    }
+
+    private static Playout silence(short[] out) {
+        Arrays.fill(out, 0, AudioDevice.FRAME_SAMPLES, (short) 0);
+        return Playout.SILENCE;
+    }
+
+    /** 16-bit RTP sequence number to a monotonic one (RFC 3550 A.1, without probation). */
+    private long extend(int sequence) {
+        if (lastSequence >= 0) {
+            int delta = sequence - lastSequence;
+            if (delta < -0x8000) {
+                cycles += 0x10000;
+            } else if (delta > 0x8000) {
+                // A late packet from before the last wrap.
+                return cycles - 0x10000 + sequence;
+            }
+        }
+        if (lastSequence < 0 || ((sequence - lastSequence) & 0xFFFF) < 0x8000) {
+            lastSequence = sequence;
+        }
+        return cycles + sequence;
+    }
+
+    private static int frames(int millis) {
+        return (millis + AudioDevice.FRAME_MILLIS - 1) / AudioDevice.FRAME_MILLIS;
+    }
+}
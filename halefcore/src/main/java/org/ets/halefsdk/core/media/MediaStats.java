@@ -0,0 +1,23 @@
+package org.ets.halefsdk.core.media;
+
+/**
+ * Cumulative counters and current estimates for one call's media, read from the transport
+ * into a reused instance by {@code SipTransport.Call.readMediaStats}.
+ */
+public final class MediaStats {
+    public long packetsSent;
+    public long packetsReceived;
+    /** Packets that never arrived and were played over. */
+    public long packetsLost;
+    /** Packets that arrived after their playout time. */
+    public long packetsLate;
+    /** Frames concealed because nothing had arrived in time to play. */
+    public long underruns;
+    /** RFC 3550 interarrival jitter. */
+    public double jitterMillis;
+    /** Delay the jitter buffer is aiming for. */
+    public int playoutDelayMillis;
+    /** Latest signalling round trip to the server, or -1 if none was measured yet. */
+    public int roundTripMillis = -1;
+    public int codecDelayMillis;
+}
@@ -0,0 +1,177 @@
+package org.ets.halefsdk.core.media;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * RTP arrivals (arrival time, sequence number, timestamp) recorded from a call or made up,
+ * for tuning and benchmarking a {@link JitterBuffer} offline. The text form has one packet
+ * per line, {@code arrivalMicros sequence timestamp}; lines starting with {@code #} are
+ * comments.
+ */
+public final class PacketTrace {
+
+    /** What a {@link #replay} played. */
+    public static final class Result {
+        int frames;
+        int concealed;
+        int silent;
+        long bufferedMillisTotal;
+        int polls;
+
+        public int getFrames() {
+            return frames;
+        }
+
+        public int getConcealed() {
+            return concealed;
+        }
+
+        public int getSilent() {
+            return silent;
+        }
+
+        /** Mean audio buffered ahead of playout, a stand-in for the delay the buffer added. */
+        public double getMeanBufferedMillis() {
+            return polls == 0 ? 0 : (double) bufferedMillisTotal / polls;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("frames=%d concealed=%d silent=%d buffered=%.1fms",
+                    frames, concealed, silent, getMeanBufferedMillis());
+        }
+    }
+
+    private long[] arrivalMicros = new long[256];
+    private int[] sequences = new int[256];
+    private int[] timestamps = new int[256];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    /** Appends a packet; arrivals must not go back in time. */
+    public void add(long arrivalMicros, int sequence, int timestamp) {
+        if (size == sequences.length) {
+            this.arrivalMicros = Arrays.copyOf(this.arrivalMicros, size * 2);
+            sequences = Arrays.copyOf(sequences, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+        this.arrivalMicros[size] = arrivalMicros;
+        sequences[size] = sequence;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    public static PacketTrace read(Reader reader) throws IOException {
+        PacketTrace trace = new PacketTrace();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length < 3) {
+                throw new IOException("Bad trace line: " + line);
+            }
+            try {
+                trace.add(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), (int) Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad trace line: " + line);
+            }
+        }
+        return trace;
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write("# arrivalMicros sequence timestamp\n");
+        for (int i = 0; i < size; i++) {
+            out.write(arrivalMicros[i] + " " + sequences[i] + " " + (timestamps[i] & 0xFFFFFFFFL) + "\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * A 20 ms stream whose network delay varies by up to {@code jitterMillis} (uniformly, so
+     * packets can overtake each other), losing {@code lossRate} of them.
+     */
+    public static PacketTrace synthetic(int packets, double jitterMillis, double lossRate, Random random) {
+        long[] arrivals = new long[packets];
+        int kept = 0;
+        int[] order = new int[packets];
+        for (int i = 0; i < packets; i++) {
+            if (random.nextDouble() < lossRate) {
+                continue;
+            }
+            long sent = i * AudioDevice.FRAME_MILLIS * 1000L;
+            arrivals[kept] = sent + (long) (random.nextDouble() * jitterMillis * 1000);
+            order[kept] = i;
+            kept++;
+        }
+        // Sort the kept packets by arrival time; insertion sort, they are nearly in order.
+        for (int i = 1; i < kept; i++) {
+            long arrival = arrivals[i];
+            int packet = order[i];
+            int j = i - 1;
+            while (j >= 0 && arrivals[j] > arrival) {
+                arrivals[j + 1] = arrivals[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            arrivals[j + 1] = arrival;
+            order[j + 1] = packet;
+        }
+        PacketTrace trace = new PacketTrace();
+        for (int i = 0; i < kept; i++) {
+            trace.add(arrivals[i], order[i] & 0xFFFF, order[i] * AudioDevice.FRAME_SAMPLES);
+        }
+        return trace;
+    }
+
+    /**
+     * Feeds the trace into {@code buffer} in arrival order and polls it every 20 ms from the
+     * first arrival until everything has been played, as the RTP pacer would. {@code frame} is
+     * scratch space of at least {@link AudioDevice#FRAME_SAMPLES} samples.
+     */
+    public Result replay(JitterBuffer buffer, short[] frame) {
+        Result result = new Result();
+        if (size == 0) {
+            return result;
+        }
+        long start = arrivalMicros[0];
+        long end = arrivalMicros[size - 1] + JitterBuffer.DEFAULT_MAX_DELAY_MILLIS * 1000L;
+        long tick = AudioDevice.FRAME_MILLIS * 1000L;
+        int i = 0;
+        for (long now = start; now <= end; now += tick) {
+            while (i < size && arrivalMicros[i] <= now) {
+                buffer.offer(sequences[i], timestamps[i], arrivalMicros[i] * 1000, frame, AudioDevice.FRAME_SAMPLES);
+                i++;
+            }
+            if (i == size && buffer.getBufferedMillis() == 0) {
+                break;
+            }
+            switch (buffer.poll(frame)) {
+                case FRAME:
+                    result.frames++;
+                    break;
+                case CONCEALED:
+                    result.concealed++;
+                    break;
+                default:
+                    result.silent++;
+                    break;
+            }
+            result.bufferedMillisTotal += buffer.getBufferedMillis();
+            result.polls++;
+        }
+        return result;
+    }
+}
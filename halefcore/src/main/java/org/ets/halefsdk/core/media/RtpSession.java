@@ -0,0 +1,285 @@
+package org.ets.halefsdk.core.media;
+
+import org.ets.halefsdk.core.sip.SelectorLoop;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One RTP audio stream (RFC 3550) on a {@link SelectorLoop}: every 20 ms it sends a frame
+ * from the {@link AudioDevice} and plays one out of the {@link JitterBuffer}. Packets are
+ * built and parsed in preallocated buffers, so the steady state allocates nothing. Loop
+ * thread only, apart from the getters.
+ */
+public class RtpSession implements SelectorLoop.ChannelHandler {
+    static final int HEADER_BYTES = 12;
+    private static final int MAX_PACKET = 1500;
+    private static final long FRAME_NANOS = AudioDevice.FRAME_MILLIS * 1000000L;
+
+    private final SelectorLoop loop;
+    private DatagramChannel channel;
+    private final AudioDevice device;
+    private final JitterBuffer jitterBuffer;
+    private final ByteBuffer out = ByteBuffer.allocate(MAX_PACKET);
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_PACKET);
+    private final short[] capture = new short[AudioDevice.FRAME_SAMPLES];
+    private final short[] decoded = new short[MAX_PACKET];
+    private final short[] playout = new short[AudioDevice.FRAME_SAMPLES];
+    private final int ssrc;
+    private volatile Codec codec;
+    private PacketTrace trace;
+    private volatile AudioTap tap;
+    private InetSocketAddress remote;
+    private int sequence;
+    private int timestamp;
+    private long nextFrameNanos;
+    private boolean started;
+    private volatile boolean muted;
+    private volatile long packetsSent;
+    private volatile long packetsReceived;
+
+    public RtpSession(SelectorLoop loop, InetAddress localAddress, AudioDevice device,
+                      JitterBuffer jitterBuffer, Random random) throws IOException {
+        this.loop = loop;
+        this.device = device;
+        this.jitterBuffer = jitterBuffer;
+        this.ssrc = random.nextInt();
+        this.sequence = random.nextInt() & 0xFFFF;
+        this.timestamp = random.nextInt();
+        channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress(localAddress, 0));
+    }
+
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /** Starts sending to and receiving from {@code remote}, in {@code codec}. */
+    public void start(InetSocketAddress remote, Codec codec) throws IOException {
+        if (started) {
+            return;
+        }
+        this.codec = codec;
+        this.remote = remote;
+        channel.connect(remote);
+        loop.register(channel, SelectionKey.OP_READ, this);
+        device.start();
+        started = true;
+        nextFrameNanos = System.nanoTime();
+        loop.armAt(pacer, nextFrameNanos);
+    }
+
+    /**
+     * Moves the stream onto a new socket on {@code localAddress}, after the device changed
+     * networks. Sequence numbers, timestamps, the jitter buffer and the audio device carry
+     * on as they were, so the far end sees one stream that changed address.
+     *
+     * @return the new local port
+     */
+    public int rebind(InetAddress localAddress) throws IOException {
+        DatagramChannel next = DatagramChannel.open();
+        try {
+            next.socket().bind(new InetSocketAddress(localAddress, 0));
+            if (started) {
+                next.connect(remote);
+                loop.register(next, SelectionKey.OP_READ, this);
+            }
+        } catch (IOException e) {
+            next.close();
+            throw e;
+        }
+        DatagramChannel previous = channel;
+        channel = next;
+        try {
+            previous.close();
+        } catch (IOException ignored) {
+        }
+        return getLocalPort();
+    }
+
+    /** Sends to {@code remote} from now on, when the far end moved its media. */
+    public void redirect(InetSocketAddress remote) throws IOException {
+        if (!started || remote.equals(this.remote)) {
+            this.remote = remote;
+            return;
+        }
+        this.remote = remote;
+        channel.disconnect();
+        channel.connect(remote);
+    }
+
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /** Hands every frame sent from now on to {@code tap} too; null stops tapping. */
+    public void setAudioTap(AudioTap tap) {
+        this.tap = tap;
+    }
+
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
+    }
+
+    /** Fills in the media counters of {@code out}; the signalling round trip is not ours. */
+    public void readStats(MediaStats out) {
+        out.packetsSent = packetsSent;
+        out.packetsReceived = jitterBuffer.getReceived();
+        out.packetsLost = jitterBuffer.getLost();
+        out.packetsLate = jitterBuffer.getLate();
+        out.underruns = Math.max(0, jitterBuffer.getConcealed() - jitterBuffer.getLost());
+        out.jitterMillis = jitterBuffer.getJitterMillis();
+        out.playoutDelayMillis = jitterBuffer.getTargetDelayMillis();
+        Codec current = codec;
+        out.codecDelayMillis = current == null ? 0 : current.getAlgorithmicDelayMillis();
+    }
+
+    /** Appends every packet received from now on to {@code trace}, for offline tuning. */
+    public void recordTo(PacketTrace trace) {
+        this.trace = trace;
+    }
+
+    public void close() {
+        loop.cancel(pacer);
+        if (started) {
+            device.stop();
+            started = false;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        while (true) {
+            in.clear();
+            int length;
+            try {
+                length = channel.read(in);
+            } catch (PortUnreachableException e) {
+                // The far end is not listening (yet); keep going.
+                continue;
+            }
+            if (length <= 0) {
+                return;
+            }
+            receive(in.array(), length);
+        }
+    }
+
+    private void receive(byte[] packet, int length) {
+        if (length < HEADER_BYTES || (packet[0] & 0xC0) != 0x80) {
+            return;
+        }
+        int csrcCount = packet[0] & 0x0F;
+        int offset = HEADER_BYTES + 4 * csrcCount;
+        if ((packet[0] & 0x10) != 0 && offset + 4 <= length) {
+            int words = ((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF);
+            offset += 4 + 4 * words;
+        }
+        int end = length;
+        if ((packet[0] & 0x20) != 0) {
+            end -= packet[length - 1] & 0xFF;
+        }
+        int type = packet[1] & 0x7F;
+        if (offset >= end || type != codec.getPayloadType()) {
+            return;
+        }
+        packetsReceived++;
+        int sequence = ((packet[2] & 0xFF) << 8) | (packet[3] & 0xFF);
+        int timestamp = getInt(packet, 4);
+        long now = System.nanoTime();
+        int samples = codec.decode(packet, offset, end - offset, decoded, 0);
+        jitterBuffer.offer(sequence, timestamp, now, decoded, samples);
+        if (trace != null) {
+            trace.add(now / 1000, sequence, timestamp);
+        }
+    }
+
+    private void playFrame() {
+        jitterBuffer.poll(playout);
+        device.write(playout, AudioDevice.FRAME_SAMPLES);
+    }
+
+    private void sendFrame() {
+        int samples = device.read(capture);
+        if (samples <= 0 || muted) {
+            samples = AudioDevice.FRAME_SAMPLES;
+            Arrays.fill(capture, (short) 0);
+        }
+        AudioTap tap = this.tap;
+        if (tap != null) {
+            tap.onFrame(capture, samples);
+        }
+        byte[] packet = out.array();
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) (codec.getPayloadType() | (packetsSent == 0 ? 0x80 : 0));
+        putShort(packet, 2, sequence);
+        putInt(packet, 4, timestamp);
+        putInt(packet, 8, ssrc);
+        int length = codec.encode(capture, 0, samples, packet, HEADER_BYTES);
+        out.clear();
+        out.limit(HEADER_BYTES + length);
+        try {
+            channel.write(out);
+            packetsSent++;
+        } catch (IOException e) {
+            // ICMP errors from a far end that went away; the call teardown closes us.
+        }
+        sequence = (sequence + 1) & 0xFFFF;
+        timestamp += samples;
+    }
+
+    private final SelectorLoop.Timer pacer = new SelectorLoop.Timer() {
+        @Override
+        public void run() {
+            sendFrame();
+            playFrame();
+            nextFrameNanos += FRAME_NANOS;
+            long now = System.nanoTime();
+            if (nextFrameNanos - now < -FRAME_NANOS * 5) {
+                // We fell far behind (e.g. the device slept); resync instead of bursting.
+                nextFrameNanos = now;
+            }
+            loop.armAt(this, nextFrameNanos);
+        }
+    };
+
+    private static void putShort(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >> 8);
+        b[offset + 1] = (byte) value;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+                | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >> 24);
+        b[offset + 1] = (byte) (value >> 16);
+        b[offset + 2] = (byte) (value >> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
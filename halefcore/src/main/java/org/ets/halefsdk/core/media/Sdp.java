@@ -0,0 +1,122 @@
+package org.ets.halefsdk.core.media;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Just enough SDP (RFC 4566) for one audio stream: build an offer, read an answer. */
+public final class Sdp {
+
+    /** The audio stream described by a session description. */
+    public static final class Media {
+        private final String address;
+        private final int port;
+        private final int[] formats;
+        private final Map<Integer, String> rtpmaps;
+
+        Media(String address, int port, int[] formats, Map<Integer, String> rtpmaps) {
+            this.address = address;
+            this.port = port;
+            this.formats = formats;
+            this.rtpmaps = rtpmaps;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /** RTP payload types, in order of preference. */
+        public int[] getFormats() {
+            return formats;
+        }
+
+        /** The {@code a=rtpmap} value for a payload type, e.g. {@code PCMU/8000}; null if absent. */
+        public String getRtpmap(int payloadType) {
+            return rtpmaps.get(payloadType);
+        }
+    }
+
+    private Sdp() {
+    }
+
+    /** An offer listing {@code codecs} in order of preference. */
+    public static String offer(String sessionId, String address, int port, List<Codec> codecs) {
+        return offer(sessionId, sessionId, address, port, codecs);
+    }
+
+    /** An offer that updates an earlier one, as in a re-INVITE: {@code version} must go up. */
+    public static String offer(String sessionId, String version, String address, int port, List<Codec> codecs) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("v=0\r\n");
+        sb.append("o=halef ").append(sessionId).append(' ').append(version).append(" IN IP4 ").append(address).append("\r\n");
+        sb.append("s=halef\r\n");
+        sb.append("c=IN IP4 ").append(address).append("\r\n");
+        sb.append("t=0 0\r\n");
+        sb.append("m=audio ").append(port).append(" RTP/AVP");
+        for (Codec codec : codecs) {
+            sb.append(' ').append(codec.getPayloadType());
+        }
+        sb.append("\r\n");
+        for (Codec codec : codecs) {
+            sb.append("a=rtpmap:").append(codec.getPayloadType()).append(' ').append(codec.getEncoding())
+                    .append('/').append(codec.getClockRate()).append("\r\n");
+        }
+        sb.append("a=ptime:").append(AudioDevice.FRAME_MILLIS).append("\r\n");
+        sb.append("a=sendrecv\r\n");
+        return sb.toString();
+    }
+
+    /** @return the first audio stream, or null if there is none */
+    public static Media parseAudio(String sdp) {
+        String sessionAddress = null;
+        String mediaAddress = null;
+        int port = -1;
+        int[] formats = null;
+        Map<Integer, String> rtpmaps = new HashMap<Integer, String>();
+        for (String line : sdp.split("\r?\n")) {
+            if (line.startsWith("c=")) {
+                String address = line.substring(line.lastIndexOf(' ') + 1).trim();
+                if (formats == null) {
+                    sessionAddress = address;
+                } else {
+                    mediaAddress = address;
+                }
+            } else if (line.startsWith("m=")) {
+                if (formats != null) {
+                    break;
+                }
+                String[] parts = line.substring(2).trim().split(" +");
+                if (!"audio".equals(parts[0]) || parts.length < 4) {
+                    continue;
+                }
+                port = Integer.parseInt(parts[1]);
+                List<Integer> types = new ArrayList<Integer>();
+                for (int i = 3; i < parts.length; i++) {
+                    types.add(Integer.valueOf(parts[i]));
+                }
+                formats = new int[types.size()];
+                for (int i = 0; i < formats.length; i++) {
+                    formats[i] = types.get(i);
+                }
+            } else if (line.startsWith("a=rtpmap:") && formats != null) {
+                String value = line.substring(9).trim();
+                int space = value.indexOf(' ');
+                if (space > 0) {
+                    try {
+                        rtpmaps.put(Integer.valueOf(value.substring(0, space)), value.substring(space + 1).trim());
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        if (formats == null) {
+            return null;
+        }
+        return new Media(mediaAddress != null ? mediaAddress : sessionAddress, port, formats, rtpmaps);
+    }
+}
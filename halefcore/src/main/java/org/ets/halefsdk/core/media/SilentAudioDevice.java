@@ -0,0 +1,45 @@
+package org.ets.halefsdk.core.media;
+
+import java.util.Arrays;
+
+/** Sends silence and discards what it receives, counting frames; for headless use and tests. */
+public class SilentAudioDevice implements AudioDevice {
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public AudioDevice open() {
+            return new SilentAudioDevice();
+        }
+    };
+
+    private volatile long framesRead;
+    private volatile long framesWritten;
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public int read(short[] frame) {
+        Arrays.fill(frame, 0, FRAME_SAMPLES, (short) 0);
+        framesRead++;
+        return FRAME_SAMPLES;
+    }
+
+    @Override
+    public void write(short[] frame, int length) {
+        framesWritten++;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+}
@@ -0,0 +1,127 @@
+package org.ets.halefsdk.core.media;
+
+/**
+ * Energy-based voice activity detection on 20 ms microphone frames, so the SDK knows when
+ * the caller starts and stops talking without waiting on the server's endpointer.
+ *
+ * Each frame's mean square is compared with a running noise floor: speech is a frame more
+ * than {@code marginDb} above the floor (and above an absolute minimum, so a dead-quiet
+ * line does not make hiss look like speech). The floor follows quieter frames quickly and
+ * louder ones slowly, and is frozen while speech is on. Speech starts after
+ * {@code startFrames} speech frames in a row and ends after {@code hangoverFrames}
+ * frames without one.
+ *
+ * One call per frame on the audio thread, no allocation and no locks. The listener is
+ * called on that thread, on transitions only, and must return quickly.
+ */
+public class VoiceActivityDetector implements AudioTap {
+
+    public interface Listener {
+        /** @param nanos {@link System#nanoTime()} of the first speech frame */
+        void onSpeechStart(long nanos);
+
+        /**
+         * @param nanos        {@link System#nanoTime()} of the last speech frame
+         * @param speechMillis from the first to the last speech frame
+         */
+        void onSpeechEnd(long nanos, long speechMillis);
+    }
+
+    public static final double DEFAULT_MARGIN_DB = 9;
+    public static final int DEFAULT_START_FRAMES = 3;
+    public static final int DEFAULT_HANGOVER_FRAMES = 15;
+    /** Mean square of a full-scale signal at about -60 dBFS. */
+    static final double MIN_SPEECH_ENERGY = 1000;
+    private static final double FLOOR_FALL = 0.2;
+    private static final double FLOOR_RISE = 0.01;
+
+    private final Listener listener;
+    private final double marginRatio;
+    private final int startFrames;
+    private final int hangoverFrames;
+
+    private double floor = -1;
+    private boolean speaking;
+    private int run;
+    private int quiet;
+    private long frame;
+    private long startFrame;
+    private long startNanos;
+    private long lastSpeechNanos;
+    private volatile long segments;
+
+    public VoiceActivityDetector(Listener listener) {
+        this(listener, DEFAULT_MARGIN_DB, DEFAULT_START_FRAMES, DEFAULT_HANGOVER_FRAMES);
+    }
+
+    /**
+     * @param marginDb       how far above the noise floor speech is
+     * @param startFrames    speech frames in a row before speech starts
+     * @param hangoverFrames quiet frames in a row before speech ends; this is the
+     *                       endpointing delay
+     */
+    public VoiceActivityDetector(Listener listener, double marginDb, int startFrames, int hangoverFrames) {
+        this.listener = listener;
+        this.marginRatio = Math.pow(10, marginDb / 10);
+        this.startFrames = startFrames;
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    @Override
+    public void onFrame(short[] pcm, int samples) {
+        process(pcm, samples, System.nanoTime());
+    }
+
+    /** @return whether this frame counted as speech */
+    public boolean process(short[] pcm, int samples, long nanos) {
+        long sum = 0;
+        for (int i = 0; i < samples; i++) {
+            int s = pcm[i];
+            sum += s * s;
+        }
+        double energy = samples == 0 ? 0 : (double) sum / samples;
+        frame++;
+        if (floor < 0) {
+            floor = energy;
+        }
+        boolean speech = energy > floor * marginRatio && energy > MIN_SPEECH_ENERGY;
+        if (speech) {
+            quiet = 0;
+            lastSpeechNanos = nanos;
+            if (++run == 1 && !speaking) {
+                startFrame = frame;
+                startNanos = nanos;
+            }
+            if (!speaking && run >= startFrames) {
+                speaking = true;
+                segments++;
+                listener.onSpeechStart(startNanos);
+            }
+        } else {
+            run = 0;
+            if (!speaking) {
+                // Adapt only outside speech, so a long utterance does not become the floor.
+                floor += (energy - floor) * (energy < floor ? FLOOR_FALL : FLOOR_RISE);
+            } else if (++quiet >= hangoverFrames) {
+                speaking = false;
+                quiet = 0;
+                listener.onSpeechEnd(lastSpeechNanos, (frame - hangoverFrames - startFrame + 1) * AudioDevice.FRAME_MILLIS);
+            }
+        }
+        return speech;
+    }
+
+    public boolean isSpeaking() {
+        return speaking;
+    }
+
+    /** Current noise floor, in dB relative to full scale. */
+    public double getNoiseFloorDb() {
+        return 10 * Math.log10(Math.max(floor, 1) / (32768.0 * 32768.0));
+    }
+
+    /** Speech segments started so far. */
+    public long getSegments() {
+        return segments;
+    }
+}
@@ -0,0 +1,97 @@
+package org.ets.halefsdk.core.media;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes mono 16-bit PCM to a WAV file. Samples are gathered little-endian in a direct
+ * buffer and handed to the file channel a buffer at a time; the header goes out up front
+ * with empty sizes, which {@link #close} fills in.
+ */
+public final class WavWriter implements Closeable {
+    static final int HEADER_BYTES = 44;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int sampleRate;
+    private long dataBytes;
+
+    /** @param bufferSamples samples gathered before each write to the file */
+    public WavWriter(File file, int sampleRate, int bufferSamples) throws IOException {
+        this.sampleRate = sampleRate;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        buffer = ByteBuffer.allocateDirect(Math.max(bufferSamples, AudioDevice.FRAME_SAMPLES) * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        writeFully(header(0), 0);
+        channel.position(HEADER_BYTES);
+    }
+
+    public void write(short[] pcm, int samples) throws IOException {
+        for (int i = 0; i < samples; i++) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putShort(pcm[i]);
+        }
+        dataBytes += samples * 2L;
+    }
+
+    /** Bytes of audio written so far, not counting the header. */
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    public long getSamples() {
+        return dataBytes / 2;
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writeFully(header(dataBytes), 0);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            position += channel.write(b, position);
+        }
+    }
+
+    private ByteBuffer header(long dataBytes) {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        h.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        h.putInt((int) (36 + dataBytes));
+        h.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        h.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        h.putInt(16);
+        h.putShort((short) 1);
+        h.putShort((short) 1);
+        h.putInt(sampleRate);
+        h.putInt(sampleRate * 2);
+        h.putShort((short) 2);
+        h.putShort((short) 16);
+        h.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        h.putInt((int) dataBytes);
+        h.flip();
+        return h;
+    }
+}
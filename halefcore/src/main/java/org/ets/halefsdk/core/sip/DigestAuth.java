@@ -0,0 +1,109 @@
+package org.ets.halefsdk.core.sip;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/** HTTP digest authentication (RFC 2617) as SIP uses it, MD5 with or without qop=auth. */
+public final class DigestAuth {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private DigestAuth() {
+    }
+
+    /**
+     * The Authorization (or Proxy-Authorization) value answering {@code challenge}, a
+     * WWW-Authenticate or Proxy-Authenticate value.
+     */
+    public static String authorization(String challenge, String method, String uri,
+                                       String username, String password, String cnonce) {
+        Map<String, String> params = parse(challenge);
+        String realm = params.get("realm");
+        String nonce = params.get("nonce");
+        String opaque = params.get("opaque");
+        String qop = params.get("qop");
+        boolean auth = qop != null && qop.contains("auth");
+        String nc = "00000001";
+        String response = response(username, realm, password, method, uri, nonce,
+                auth ? nc : null, auth ? cnonce : null);
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("Digest username=\"").append(username)
+                .append("\", realm=\"").append(realm)
+                .append("\", nonce=\"").append(nonce)
+                .append("\", uri=\"").append(uri)
+                .append("\", response=\"").append(response)
+                .append("\", algorithm=MD5");
+        if (opaque != null) {
+            sb.append(", opaque=\"").append(opaque).append('"');
+        }
+        if (auth) {
+            sb.append(", qop=auth, nc=").append(nc).append(", cnonce=\"").append(cnonce).append('"');
+        }
+        return sb.toString();
+    }
+
+    /** The digest response; {@code nc} and {@code cnonce} are null without qop. */
+    public static String response(String username, String realm, String password, String method,
+                                  String uri, String nonce, String nc, String cnonce) {
+        String ha1 = md5(username + ":" + realm + ":" + password);
+        String ha2 = md5(method + ":" + uri);
+        if (nc == null) {
+            return md5(ha1 + ":" + nonce + ":" + ha2);
+        }
+        return md5(ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":auth:" + ha2);
+    }
+
+    /** Parameters of a {@code Digest k=v, k="v"} header value, keys lower-cased. */
+    public static Map<String, String> parse(String header) {
+        Map<String, String> params = new HashMap<String, String>();
+        int i = header.regionMatches(true, 0, "Digest", 0, 6) ? 6 : 0;
+        int n = header.length();
+        while (i < n) {
+            while (i < n && (header.charAt(i) == ' ' || header.charAt(i) == ',')) {
+                i++;
+            }
+            int eq = header.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            String key = header.substring(i, eq).trim().toLowerCase();
+            i = eq + 1;
+            String value;
+            if (i < n && header.charAt(i) == '"') {
+                int close = header.indexOf('"', i + 1);
+                if (close < 0) {
+                    close = n;
+                }
+                value = header.substring(i + 1, close);
+                i = close + 1;
+            } else {
+                int comma = header.indexOf(',', i);
+                if (comma < 0) {
+                    comma = n;
+                }
+                value = header.substring(i, comma).trim();
+                i = comma;
+            }
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    static String md5(String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(text.getBytes(SipMessage.UTF8));
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0x0F];
+            hex[2 * i + 1] = HEX[hash[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,1279 @@
+package org.ets.halefsdk.core.sip;
+
+import org.ets.halefsdk.core.SetupException;
+import org.ets.halefsdk.core.SipAccount;
+import org.ets.halefsdk.core.media.AudioDevice;
+import org.ets.halefsdk.core.media.AudioTap;
+import org.ets.halefsdk.core.media.Codec;
+import org.ets.halefsdk.core.media.CodecNegotiator;
+import org.ets.halefsdk.core.media.JitterBuffer;
+import org.ets.halefsdk.core.media.MediaStats;
+import org.ets.halefsdk.core.media.RtpSession;
+import org.ets.halefsdk.core.media.Sdp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Pure-Java SIP user agent (RFC 3261) over UDP or TCP, with RTP audio in the codec a
+ * {@link CodecNegotiator} picks, played out through a {@link JitterBuffer}. Everything
+ * runs on one {@link SelectorLoop}: signalling, retransmission timers and RTP pacing, so
+ * slow listeners on other threads cannot delay it and it needs no locks. The account's
+ * domain is used as registrar and outbound proxy. Digest authentication is answered for
+ * REGISTER and INVITE.
+ *
+ * Listeners are called on the loop thread and should return quickly. Host names are
+ * resolved on the loop thread too, once per server.
+ */
+public class NioSipUserAgent implements SipTransport {
+
+    public enum Protocol {
+        UDP,
+        TCP
+    }
+
+    /** Error code for requests that got no final response in time. */
+    public static final int ERROR_TIMEOUT = -1;
+    /** Error code for failures to reach the server at all. */
+    public static final int ERROR_TRANSPORT = -2;
+
+    static final long T1 = 500;
+    static final long T2 = 4000;
+    static final long TIMER_B = 64 * T1;
+    private static final int DEFAULT_PORT = 5060;
+    private static final int MAX_MESSAGE = 65535;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final String USER_AGENT = "halef-android";
+    private static final String ALLOW = "INVITE, ACK, CANCEL, BYE, OPTIONS";
+
+    private static final int CALLING = 0;
+    private static final int ESTABLISHED = 1;
+    private static final int ENDED = 2;
+
+    private final Protocol protocol;
+    private final AudioDevice.Factory audio;
+    private final CodecNegotiator codecs;
+    private final SelectorLoop loop;
+    private final Random random = new Random();
+    private final Map<String, ClientTransaction> transactions = new HashMap<String, ClientTransaction>();
+    private final Map<String, UaCall> calls = new HashMap<String, UaCall>();
+    private final Map<String, Registration> registrations = new HashMap<String, Registration>();
+    private Link link;
+    private volatile int minJitterDelayMillis = JitterBuffer.DEFAULT_MIN_DELAY_MILLIS;
+    private volatile int maxJitterDelayMillis = JitterBuffer.DEFAULT_MAX_DELAY_MILLIS;
+    private volatile long roundTripNanos = -1;
+
+    public NioSipUserAgent(Protocol protocol, AudioDevice.Factory audio) throws IOException {
+        this(protocol, audio, CodecNegotiator.defaults());
+    }
+
+    public NioSipUserAgent(Protocol protocol, AudioDevice.Factory audio, CodecNegotiator codecs)
+            throws IOException {
+        this.protocol = protocol;
+        this.audio = audio;
+        this.codecs = codecs;
+        this.loop = new SelectorLoop("HalefSipUserAgent");
+        loop.start();
+    }
+
+    /**
+     * Bounds the playout delay of calls placed from now on: lower trades dropouts for
+     * latency on a jittery network.
+     */
+    public void setJitterDelayLimits(int minMillis, int maxMillis) {
+        minJitterDelayMillis = minMillis;
+        maxJitterDelayMillis = maxMillis;
+    }
+
+    /**
+     * Latest round trip of a request to the server and its first response, from requests
+     * that were sent once (a retransmitted one cannot tell which copy was answered), or -1.
+     */
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+
+    /** Hangs up every call, drops every registration and stops the loop. */
+    public void shutdown() {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (UaCall call : new ArrayList<UaCall>(calls.values())) {
+                    call.hangUp(false);
+                }
+                for (Registration registration : registrations.values()) {
+                    registration.listener = null;
+                    registration.expires = 0;
+                    registration.send(null);
+                }
+                registrations.clear();
+                loop.stop();
+            }
+        });
+    }
+
+    @Override
+    public void register(final SipAccount account, final int expirySeconds,
+                         final RegistrationListener listener) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                String uri = account.getUri();
+                Registration registration = registrations.get(uri);
+                if (registration == null) {
+                    registration = new Registration(account);
+                    registrations.put(uri, registration);
+                }
+                registration.listener = listener;
+                registration.expires = expirySeconds;
+                listener.onRegistering(uri);
+                try {
+                    ensureLink(account.getDomain());
+                } catch (IOException e) {
+                    listener.onRegistrationFailed(uri, ERROR_TRANSPORT, "Cannot reach " + account.getDomain() + ": " + e);
+                    return;
+                }
+                registration.send(null);
+            }
+        });
+    }
+
+    @Override
+    public void close(final SipAccount account) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                Registration registration = registrations.remove(account.getUri());
+                if (registration != null && link != null && link.isOpen()) {
+                    registration.listener = null;
+                    registration.expires = 0;
+                    registration.send(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the connection to the server, which may sit on an interface that is gone, opens
+     * a new one from the current default route, and re-INVITEs every established call with
+     * its RTP socket rebound to the new local address. Calls still being set up send their
+     * INVITE again from the new connection, within their original setup timeout.
+     */
+    @Override
+    public boolean handOver(final HandoverListener listener) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startedNanos = System.nanoTime();
+                List<UaCall> established = new ArrayList<UaCall>();
+                List<UaCall> calling = new ArrayList<UaCall>();
+                for (UaCall call : calls.values()) {
+                    if (call.state == ESTABLISHED) {
+                        established.add(call);
+                    } else if (call.state == CALLING) {
+                        calling.add(call);
+                    }
+                }
+                if (link == null) {
+                    // Nothing was ever sent; the next request opens a link on the new network.
+                    listener.onHandoverStarted(0);
+                    return;
+                }
+                String domain = link.domain;
+                link.close();
+                link = null;
+                try {
+                    ensureLink(domain);
+                } catch (IOException e) {
+                    listener.onHandoverStarted(established.size());
+                    for (UaCall call : established) {
+                        call.fail(ERROR_TRANSPORT, "Cannot reach " + domain + ": " + e);
+                        listener.onCallHandoverFailed(call, ERROR_TRANSPORT, e.toString());
+                    }
+                    for (UaCall call : calling) {
+                        call.fail(ERROR_TRANSPORT, "Cannot reach " + domain + ": " + e);
+                    }
+                    return;
+                }
+                for (UaCall call : calling) {
+                    call.restart();
+                }
+                listener.onHandoverStarted(established.size());
+                for (UaCall call : established) {
+                    call.reinvite(null, startedNanos, listener);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public Call makeCall(SipAccount account, String target, CallListener listener, int timeoutSeconds)
+            throws SetupException {
+        String requestUri = target.startsWith("sip:") ? target : "sip:" + target;
+        final UaCall call = new UaCall(account, requestUri, listener, timeoutSeconds * 1000L);
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                call.start();
+            }
+        });
+        return call;
+    }
+
+    /***** Registration *****/
+
+    private final class Registration {
+        final SipAccount account;
+        final String callId = newTag() + "@halef";
+        final String fromTag = newTag();
+        int cseq;
+        int expires;
+        RegistrationListener listener;
+
+        Registration(SipAccount account) {
+            this.account = account;
+        }
+
+        void send(SipMessage challenge) {
+            String aor = "<" + account.getUri() + ">";
+            SipMessage request = newRequest("REGISTER", "sip:" + account.getDomain(),
+                    aor + ";tag=" + fromTag, aor, callId, ++cseq);
+            request.addHeader("Contact", contact(account));
+            request.addHeader("Expires", String.valueOf(expires));
+            final boolean withCredentials = challenge != null;
+            if (withCredentials && !authorize(request, challenge, account)) {
+                failed(challenge.getStatusCode(), reason(challenge));
+                return;
+            }
+            sendRequest(request, new ResponseHandler() {
+                @Override
+                public void onFinal(SipMessage response) {
+                    int code = response.getStatusCode();
+                    if ((code == 401 || code == 407) && !withCredentials) {
+                        send(response);
+                    } else if (code >= 200 && code < 300) {
+                        done(response);
+                    } else {
+                        failed(code, reason(response));
+                    }
+                }
+
+                @Override
+                public void onFailure(int code, String message) {
+                    failed(code, message);
+                }
+            });
+        }
+
+        private void done(SipMessage response) {
+            if (listener == null || expires == 0) {
+                return;
+            }
+            long granted = expires;
+            String expiresHeader = response.header("Expires");
+            if (expiresHeader != null) {
+                granted = parseLong(expiresHeader, granted);
+            }
+            String ours = "@" + localHostPort();
+            for (String contact : response.headers("Contact")) {
+                String value = SipMessage.param(contact, "expires");
+                if (contact.contains(ours) && value != null) {
+                    granted = parseLong(value, granted);
+                }
+            }
+            listener.onRegistrationDone(account.getUri(), System.currentTimeMillis() + granted * 1000);
+        }
+
+        private void failed(int code, String message) {
+            if (listener != null) {
+                listener.onRegistrationFailed(account.getUri(), code, message);
+            }
+        }
+    }
+
+    /***** Calls *****/
+
+    private final class UaCall implements SipTransport.Call {
+        final SipAccount account;
+        final String requestUri;
+        final CallListener listener;
+        final long timeoutMillis;
+        final String callId = newTag() + "@halef";
+        final String fromTag = newTag();
+        volatile int state = CALLING;
+        volatile boolean muted;
+        volatile AudioTap tap;
+        volatile RtpSession rtp;
+        // Loop thread only from here on.
+        boolean released;
+        int cseq;
+        SipMessage invite;
+        String toHeader;
+        String remoteTarget;
+        String sdpSessionId;
+        long sdpVersion;
+        String localSdp;
+        Sdp.Media remoteMedia;
+        Codec codec;
+
+        UaCall(SipAccount account, String requestUri, CallListener listener, long timeoutMillis) {
+            this.account = account;
+            this.requestUri = requestUri;
+            this.listener = listener;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        final SelectorLoop.Timer setupTimer = new SelectorLoop.Timer() {
+            @Override
+            public void run() {
+                if (state == CALLING) {
+                    cancelInvite();
+                    fail(ERROR_TIMEOUT, "Not answered within " + timeoutMillis + " ms");
+                }
+            }
+        };
+
+        /** Gives up on an INVITE of a released call that the far end never gave a final answer to. */
+        final SelectorLoop.Timer inviteExpiry = new SelectorLoop.Timer() {
+            @Override
+            public void run() {
+                ClientTransaction pending = transactions.remove(transactionKey(invite));
+                if (pending != null) {
+                    loop.cancel(pending);
+                }
+                forgetIfDone();
+            }
+        };
+
+        void start() {
+            try {
+                ensureLink(account.getDomain());
+                JitterBuffer jitterBuffer = new JitterBuffer(JitterBuffer.DEFAULT_CAPACITY_FRAMES,
+                        minJitterDelayMillis, maxJitterDelayMillis, JitterBuffer.DEFAULT_JITTER_FACTOR);
+                rtp = new RtpSession(loop, link.localAddress(), audio.open(), jitterBuffer, random);
+            } catch (IOException e) {
+                fail(ERROR_TRANSPORT, "Cannot reach " + account.getDomain() + ": " + e);
+                return;
+            }
+            sdpVersion = random.nextInt() & Integer.MAX_VALUE;
+            sdpSessionId = String.valueOf(sdpVersion);
+            localSdp = Sdp.offer(sdpSessionId, link.localAddress().getHostAddress(), rtp.getLocalPort(),
+                    codecs.getOffer());
+            calls.put(callId, this);
+            loop.arm(setupTimer, timeoutMillis);
+            sendInvite(null);
+        }
+
+        void sendInvite(SipMessage challenge) {
+            SipMessage request = newRequest("INVITE", requestUri, from(), "<" + requestUri + ">", callId, ++cseq);
+            request.addHeader("Contact", contact(account));
+            request.addHeader("Allow", ALLOW);
+            request.setBody("application/sdp", localSdp);
+            final boolean withCredentials = challenge != null;
+            if (withCredentials && !authorize(request, challenge, account)) {
+                fail(challenge.getStatusCode(), reason(challenge));
+                return;
+            }
+            invite = request;
+            sendRequest(request, new ResponseHandler() {
+                @Override
+                public void onFinal(SipMessage response) {
+                    int code = response.getStatusCode();
+                    if (code >= 200 && code < 300) {
+                        established(response);
+                    } else if (state != CALLING) {
+                        // Hung up already; the 487 to our CANCEL has been acknowledged.
+                    } else if ((code == 401 || code == 407) && !withCredentials) {
+                        sendInvite(response);
+                    } else {
+                        fail(code, reason(response));
+                    }
+                    forgetIfDone();
+                }
+
+                @Override
+                public void onFailure(int code, String message) {
+                    if (state == CALLING) {
+                        fail(code, message);
+                    }
+                    forgetIfDone();
+                }
+            });
+        }
+
+        void established(SipMessage ok) {
+            toHeader = ok.header("To");
+            String contact = ok.header("Contact");
+            remoteTarget = contact != null ? uriOf(contact) : requestUri;
+            ack(ok);
+            if (state != CALLING) {
+                // We gave up while the answer was on its way.
+                sendBye();
+                return;
+            }
+            loop.cancel(setupTimer);
+            remoteMedia = Sdp.parseAudio(ok.getBody());
+            codec = remoteMedia == null ? null : codecs.choose(remoteMedia);
+            if (codec == null) {
+                sendBye();
+                fail(488, "No common codec");
+                return;
+            }
+            state = ESTABLISHED;
+            listener.onCallEstablished(this);
+        }
+
+        /**
+         * Starts the INVITE over, from the new connection and local address, for a call a
+         * handover caught before it was answered: the answer to the old one would go to a
+         * socket that is gone.
+         */
+        void restart() {
+            if (invite != null) {
+                ClientTransaction stale = transactions.remove(transactionKey(invite));
+                if (stale != null) {
+                    loop.cancel(stale);
+                }
+            }
+            try {
+                int port = rtp.rebind(link.localAddress());
+                localSdp = Sdp.offer(sdpSessionId, String.valueOf(++sdpVersion),
+                        link.localAddress().getHostAddress(), port, codecs.getOffer());
+            } catch (IOException e) {
+                fail(ERROR_TRANSPORT, "Cannot move audio: " + e);
+                return;
+            }
+            sendInvite(null);
+        }
+
+        /**
+         * Offers our media at the new local address within the dialog, keeping the codec we
+         * settled on. The far end's answer may move its media too.
+         */
+        void reinvite(SipMessage challenge, final long startedNanos, final HandoverListener handover) {
+            if (challenge == null) {
+                try {
+                    int port = rtp.rebind(link.localAddress());
+                    localSdp = Sdp.offer(sdpSessionId, String.valueOf(++sdpVersion),
+                            link.localAddress().getHostAddress(), port, Collections.singletonList(codec));
+                } catch (IOException e) {
+                    hangUp(false);
+                    listener.onError(this, ERROR_TRANSPORT, "Cannot move audio: " + e);
+                    handover.onCallHandoverFailed(this, ERROR_TRANSPORT, e.toString());
+                    return;
+                }
+            }
+            SipMessage request = newRequest("INVITE", remoteTarget, from(), toHeader, callId, ++cseq);
+            request.addHeader("Contact", contact(account));
+            request.addHeader("Allow", ALLOW);
+            request.setBody("application/sdp", localSdp);
+            final boolean withCredentials = challenge != null;
+            if (withCredentials && !authorize(request, challenge, account)) {
+                lost(challenge.getStatusCode(), reason(challenge), handover);
+                return;
+            }
+            invite = request;
+            sendRequest(request, new ResponseHandler() {
+                @Override
+                public void onFinal(SipMessage response) {
+                    int code = response.getStatusCode();
+                    if (state != ESTABLISHED) {
+                        if (code >= 200 && code < 300) {
+                            // Answered after we hung up; the BYE went out on the old dialog state.
+                            ack(response);
+                        }
+                        forgetIfDone();
+                        return;
+                    }
+                    if (code >= 200 && code < 300) {
+                        ack(response);
+                        moved(response, startedNanos, handover);
+                    } else if ((code == 401 || code == 407) && !withCredentials) {
+                        reinvite(response, startedNanos, handover);
+                    } else if (code == 481 || code == 408) {
+                        // The far end has no such dialog any more.
+                        lost(code, reason(response), handover);
+                    } else {
+                        // Refused the new offer; the dialog and old media stand (RFC 3261 14.1).
+                        handover.onCallHandoverFailed(UaCall.this, code, reason(response));
+                    }
+                    forgetIfDone();
+                }
+
+                @Override
+                public void onFailure(int code, String message) {
+                    if (state == ESTABLISHED) {
+                        lost(code, message, handover);
+                    }
+                    forgetIfDone();
+                }
+            });
+        }
+
+        private void moved(SipMessage ok, long startedNanos, HandoverListener handover) {
+            Sdp.Media answer = Sdp.parseAudio(ok.getBody());
+            if (answer != null && rtp != null) {
+                remoteMedia = answer;
+                try {
+                    rtp.redirect(new InetSocketAddress(answer.getAddress(), answer.getPort()));
+                } catch (IOException e) {
+                    lost(ERROR_TRANSPORT, "Cannot move audio: " + e, handover);
+                    return;
+                }
+            }
+            handover.onCallHandedOver(this, System.nanoTime() - startedNanos);
+        }
+
+        private void lost(int code, String message, HandoverListener handover) {
+            state = ENDED;
+            release();
+            listener.onError(this, code, message);
+            handover.onCallHandoverFailed(this, code, message);
+        }
+
+        void ack(SipMessage ok) {
+            String cseqValue = ok.header("CSeq");
+            int number = (int) parseLong(cseqValue.substring(0, cseqValue.indexOf(' ')), cseq);
+            String target = remoteTarget != null ? remoteTarget : requestUri;
+            SipMessage ack = newRequest("ACK", target, from(), ok.header("To"), callId, number);
+            transmit(ack.toBytes());
+        }
+
+        void sendBye() {
+            SipMessage bye = newRequest("BYE", remoteTarget, from(), toHeader, callId, ++cseq);
+            sendRequest(bye, IGNORE);
+        }
+
+        void cancelInvite() {
+            if (invite == null) {
+                return;
+            }
+            SipMessage cancel = SipMessage.request("CANCEL", invite.getRequestUri());
+            cancel.addHeader("Via", invite.header("Via"));
+            cancel.addHeader("Max-Forwards", "70");
+            cancel.addHeader("From", invite.header("From"));
+            cancel.addHeader("To", invite.header("To"));
+            cancel.addHeader("Call-ID", callId);
+            cancel.addHeader("CSeq", cseq + " CANCEL");
+            cancel.addHeader("User-Agent", USER_AGENT);
+            sendRequest(cancel, IGNORE);
+        }
+
+        void fail(int code, String message) {
+            state = ENDED;
+            loop.cancel(setupTimer);
+            release();
+            listener.onError(this, code, message);
+        }
+
+        void remoteHangUp() {
+            if (state == ENDED) {
+                return;
+            }
+            state = ENDED;
+            loop.cancel(setupTimer);
+            release();
+            listener.onCallEnded(this);
+        }
+
+        void hangUp(boolean notify) {
+            if (state == ENDED) {
+                return;
+            }
+            if (state == ESTABLISHED) {
+                sendBye();
+            } else {
+                cancelInvite();
+            }
+            state = ENDED;
+            loop.cancel(setupTimer);
+            release();
+            if (notify) {
+                listener.onCallEnded(this);
+            }
+        }
+
+        void release() {
+            if (rtp != null) {
+                rtp.close();
+                rtp = null;
+            }
+            released = true;
+            if (inviting()) {
+                // Its 487 after our CANCEL, or an answer that crossed it, still needs our ACK
+                // (and the answer a BYE). Timer B bounds the wait (RFC 3261 9.1).
+                loop.arm(inviteExpiry, TIMER_B);
+            }
+            forgetIfDone();
+        }
+
+        boolean inviting() {
+            return invite != null && transactions.containsKey(transactionKey(invite));
+        }
+
+        /**
+         * Takes a released call off the list once no INVITE of it is outstanding; until then
+         * a final answer to it still finds the call to be acknowledged.
+         */
+        void forgetIfDone() {
+            if (released && !inviting()) {
+                loop.cancel(inviteExpiry);
+                calls.remove(callId);
+            }
+        }
+
+        String from() {
+            return "<" + account.getUri() + ">;tag=" + fromTag;
+        }
+
+        @Override
+        public void startAudio() {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (state != ESTABLISHED || rtp == null) {
+                        return;
+                    }
+                    try {
+                        rtp.setMuted(muted);
+                        rtp.setAudioTap(tap);
+                        rtp.start(new InetSocketAddress(remoteMedia.getAddress(), remoteMedia.getPort()), codec);
+                    } catch (IOException e) {
+                        hangUp(false);
+                        listener.onError(UaCall.this, ERROR_TRANSPORT, "Cannot start audio: " + e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void setSpeakerMode(boolean speakerMode) {
+            // Audio routing belongs to the AudioDevice.
+        }
+
+        @Override
+        public boolean isMuted() {
+            return muted;
+        }
+
+        @Override
+        public void toggleMute() {
+            muted = !muted;
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (rtp != null) {
+                        rtp.setMuted(muted);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean isInCall() {
+            return state == ESTABLISHED;
+        }
+
+        @Override
+        public boolean setAudioTap(AudioTap tap) {
+            this.tap = tap;
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (rtp != null) {
+                        rtp.setAudioTap(UaCall.this.tap);
+                    }
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean readMediaStats(MediaStats out) {
+            RtpSession session = rtp;
+            if (session != null) {
+                session.readStats(out);
+            }
+            long rtt = roundTripNanos;
+            out.roundTripMillis = rtt < 0 ? -1 : (int) (rtt / 1000000);
+            return true;
+        }
+
+        @Override
+        public void endCall() {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    hangUp(true);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    release();
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            return "UaCall(" + requestUri + ", " + callId + ")";
+        }
+    }
+
+    /***** Transactions *****/
+
+    private interface ResponseHandler {
+        void onFinal(SipMessage response);
+        /** No final response: {@link #ERROR_TIMEOUT} or {@link #ERROR_TRANSPORT}. */
+        void onFailure(int code, String message);
+    }
+
+    private static final ResponseHandler IGNORE = new ResponseHandler() {
+        @Override
+        public void onFinal(SipMessage response) {
+        }
+
+        @Override
+        public void onFailure(int code, String message) {
+        }
+    };
+
+    /** A client transaction; the timer drives retransmissions (UDP) and the timeout. */
+    private final class ClientTransaction extends SelectorLoop.Timer {
+        final String key;
+        final SipMessage request;
+        final byte[] bytes;
+        final boolean invite;
+        final ResponseHandler handler;
+        long startedNanos;
+        long interval = T1;
+        boolean proceeding;
+        boolean retransmitted;
+        boolean answered;
+
+        ClientTransaction(SipMessage request, ResponseHandler handler) {
+            this.key = transactionKey(request);
+            this.request = request;
+            this.bytes = request.toBytes();
+            this.invite = "INVITE".equals(request.getMethod());
+            this.handler = handler;
+        }
+
+        void start() {
+            transactions.put(key, this);
+            startedNanos = System.nanoTime();
+            if (transmit(bytes)) {
+                loop.arm(this, protocol == Protocol.UDP ? T1 : TIMER_B);
+            } else {
+                transactions.remove(key);
+                handler.onFailure(ERROR_TRANSPORT, "Cannot send to the server");
+            }
+        }
+
+        @Override
+        public void run() {
+            long elapsed = (System.nanoTime() - startedNanos) / 1000000;
+            if (elapsed >= TIMER_B) {
+                transactions.remove(key);
+                handler.onFailure(ERROR_TIMEOUT, "No response within " + TIMER_B + " ms");
+                return;
+            }
+            if (protocol == Protocol.UDP) {
+                transmit(bytes);
+                retransmitted = true;
+                interval = proceeding ? T2 : Math.min(interval * 2, invite ? TIMER_B : T2);
+            }
+            loop.arm(this, Math.max(1, Math.min(interval, TIMER_B - elapsed)));
+        }
+    }
+
+    private void sendRequest(SipMessage request, ResponseHandler handler) {
+        new ClientTransaction(request, handler).start();
+    }
+
+    private static String transactionKey(SipMessage message) {
+        return SipMessage.param(message.header("Via"), "branch") + " " + message.getMethod();
+    }
+
+    private void onMessage(byte[] data, int offset, int length) {
+        SipMessage message;
+        try {
+            message = SipMessage.parse(data, offset, length);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if (message.isRequest()) {
+            onRequest(message);
+        } else {
+            onResponse(message);
+        }
+    }
+
+    private void onResponse(SipMessage response) {
+        int code = response.getStatusCode();
+        ClientTransaction transaction = transactions.get(transactionKey(response));
+        if (transaction == null) {
+            if (code >= 200 && code < 300 && "INVITE".equals(response.getMethod())) {
+                // A retransmitted 2xx: our ACK got lost.
+                UaCall call = calls.get(response.header("Call-ID"));
+                if (call != null) {
+                    call.ack(response);
+                } else {
+                    ackStray(response);
+                }
+            }
+            return;
+        }
+        if (!transaction.answered) {
+            transaction.answered = true;
+            // A final answer to INVITE waits on the callee, so only its 1xx or challenge
+            // says anything about the network.
+            boolean immediate = !transaction.invite || code < 200 || code == 401 || code == 407;
+            if (immediate && !transaction.retransmitted) {
+                roundTripNanos = System.nanoTime() - transaction.startedNanos;
+            }
+        }
+        if (code < 200) {
+            if (!transaction.proceeding) {
+                transaction.proceeding = true;
+                if (transaction.invite) {
+                    // From here on the call's own setup timer decides how long we wait.
+                    loop.cancel(transaction);
+                }
+            }
+            return;
+        }
+        transactions.remove(transaction.key);
+        loop.cancel(transaction);
+        if (transaction.invite && code >= 300) {
+            ackFailure(transaction.request, response);
+        }
+        transaction.handler.onFinal(response);
+    }
+
+    /**
+     * ACK for a non-2xx final response to INVITE, part of the INVITE transaction, so built
+     * from the transaction's own request whether or not its call is still around.
+     */
+    private void ackFailure(SipMessage invite, SipMessage response) {
+        SipMessage ack = SipMessage.request("ACK", invite.getRequestUri());
+        ack.addHeader("Via", invite.header("Via"));
+        ack.addHeader("Max-Forwards", "70");
+        ack.addHeader("From", invite.header("From"));
+        ack.addHeader("To", response.header("To"));
+        ack.addHeader("Call-ID", invite.header("Call-ID"));
+        String cseq = invite.header("CSeq");
+        ack.addHeader("CSeq", cseq.substring(0, cseq.indexOf(' ')) + " ACK");
+        ack.addHeader("User-Agent", USER_AGENT);
+        transmit(ack.toBytes());
+    }
+
+    /** ACK for a 2xx retransmitted after its call is gone; the BYE went out with the first one. */
+    private void ackStray(SipMessage ok) {
+        String contact = ok.header("Contact");
+        String cseq = ok.header("CSeq");
+        if (contact == null || cseq == null) {
+            return;
+        }
+        SipMessage ack = newRequest("ACK", uriOf(contact), ok.header("From"), ok.header("To"),
+                ok.header("Call-ID"), (int) parseLong(cseq.substring(0, cseq.indexOf(' ')), 1));
+        transmit(ack.toBytes());
+    }
+
+    private void onRequest(SipMessage request) {
+        String method = request.getMethod();
+        UaCall call = calls.get(request.header("Call-ID"));
+        if ("ACK".equals(method)) {
+            return;
+        } else if ("BYE".equals(method)) {
+            respond(request, call != null ? 200 : 481, call != null ? "OK" : "Call/Transaction Does Not Exist");
+            if (call != null) {
+                call.remoteHangUp();
+            }
+        } else if ("OPTIONS".equals(method)) {
+            SipMessage ok = response(request, 200, "OK");
+            ok.addHeader("Allow", ALLOW);
+            transmit(ok.toBytes());
+        } else if ("INVITE".equals(method)) {
+            if (call != null && call.state == ESTABLISHED) {
+                // Re-INVITE (session refresh): keep the media as it is.
+                SipMessage ok = response(request, 200, "OK");
+                ok.addHeader("Contact", contact(call.account));
+                ok.setBody("application/sdp", call.localSdp);
+                transmit(ok.toBytes());
+            } else {
+                respond(request, 486, "Busy Here");
+            }
+        } else if ("CANCEL".equals(method)) {
+            respond(request, 481, "Call/Transaction Does Not Exist");
+        } else {
+            SipMessage notAllowed = response(request, 405, "Method Not Allowed");
+            notAllowed.addHeader("Allow", ALLOW);
+            transmit(notAllowed.toBytes());
+        }
+    }
+
+    private void respond(SipMessage request, int code, String reason) {
+        transmit(response(request, code, reason).toBytes());
+    }
+
+    private SipMessage response(SipMessage request, int code, String reason) {
+        SipMessage response = request.createResponse(code, reason);
+        String to = response.header("To");
+        if (to != null && SipMessage.param(to, "tag") == null) {
+            response.setHeader("To", to + ";tag=" + newTag());
+        }
+        response.addHeader("User-Agent", USER_AGENT);
+        return response;
+    }
+
+    /***** Messages *****/
+
+    private SipMessage newRequest(String method, String requestUri, String from, String to,
+                                  String callId, int cseq) {
+        SipMessage request = SipMessage.request(method, requestUri);
+        request.addHeader("Via", "SIP/2.0/" + protocol + " " + localHostPort()
+                + ";branch=z9hG4bK" + newTag() + ";rport");
+        request.addHeader("Max-Forwards", "70");
+        request.addHeader("From", from);
+        request.addHeader("To", to);
+        request.addHeader("Call-ID", callId);
+        request.addHeader("CSeq", cseq + " " + method);
+        request.addHeader("User-Agent", USER_AGENT);
+        return request;
+    }
+
+    private boolean authorize(SipMessage request, SipMessage challenge, SipAccount account) {
+        boolean proxy = challenge.getStatusCode() == 407;
+        String header = challenge.header(proxy ? "Proxy-Authenticate" : "WWW-Authenticate");
+        if (header == null || account.getPassword() == null) {
+            return false;
+        }
+        request.setHeader(proxy ? "Proxy-Authorization" : "Authorization",
+                DigestAuth.authorization(header, request.getMethod(), request.getRequestUri(),
+                        account.getUsername(), account.getPassword(), newTag()));
+        return true;
+    }
+
+    private String contact(SipAccount account) {
+        return "<sip:" + account.getUsername() + "@" + localHostPort()
+                + (protocol == Protocol.TCP ? ";transport=tcp" : "") + ">";
+    }
+
+    private String localHostPort() {
+        return link.localAddress().getHostAddress() + ":" + link.localPort();
+    }
+
+    private String newTag() {
+        return Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+    }
+
+    private static String reason(SipMessage response) {
+        String line = response.getStartLine();
+        int second = line.indexOf(' ', line.indexOf(' ') + 1);
+        return second < 0 ? line : line.substring(second + 1);
+    }
+
+    private static String uriOf(String nameAddr) {
+        int start = nameAddr.indexOf('<');
+        int end = nameAddr.indexOf('>');
+        if (start >= 0 && end > start) {
+            return nameAddr.substring(start + 1, end);
+        }
+        int semicolon = nameAddr.indexOf(';');
+        return semicolon < 0 ? nameAddr.trim() : nameAddr.substring(0, semicolon).trim();
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /***** Transport *****/
+
+    private boolean transmit(byte[] bytes) {
+        if (link == null || !link.isOpen()) {
+            return false;
+        }
+        try {
+            link.send(bytes);
+            return true;
+        } catch (IOException e) {
+            link.close();
+            return false;
+        }
+    }
+
+    /** Fails every transaction waiting on {@code dead}, which will not bring their answers. */
+    private void failTransactions(Link dead, String message) {
+        if (link != dead) {
+            return;
+        }
+        List<ClientTransaction> waiting = new ArrayList<ClientTransaction>(transactions.values());
+        transactions.clear();
+        for (ClientTransaction transaction : waiting) {
+            loop.cancel(transaction);
+            transaction.handler.onFailure(ERROR_TRANSPORT, message);
+        }
+    }
+
+    private void ensureLink(String domain) throws IOException {
+        if (link != null && link.isOpen() && link.domain.equals(domain)) {
+            return;
+        }
+        if (link != null) {
+            link.close();
+        }
+        String host = domain;
+        int port = DEFAULT_PORT;
+        int colon = domain.lastIndexOf(':');
+        if (colon > 0) {
+            host = domain.substring(0, colon);
+            port = Integer.parseInt(domain.substring(colon + 1));
+        }
+        InetSocketAddress server = new InetSocketAddress(host, port);
+        if (server.isUnresolved()) {
+            throw new IOException("Unknown host " + host);
+        }
+        link = protocol == Protocol.UDP ? new UdpLink(domain, server) : new TcpLink(domain, server);
+    }
+
+    private abstract static class Link implements SelectorLoop.ChannelHandler {
+        final String domain;
+
+        Link(String domain) {
+            this.domain = domain;
+        }
+
+        abstract InetAddress localAddress();
+        abstract int localPort();
+        abstract void send(byte[] bytes) throws IOException;
+        abstract boolean isOpen();
+        abstract void close();
+    }
+
+    /** A UDP socket connected to the server, which also tells us our local address. */
+    private final class UdpLink extends Link {
+        final DatagramChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_MESSAGE);
+
+        UdpLink(String domain, InetSocketAddress server) throws IOException {
+            super(domain);
+            channel = DatagramChannel.open();
+            channel.connect(server);
+            loop.register(channel, SelectionKey.OP_READ, this);
+        }
+
+        @Override
+        InetAddress localAddress() {
+            return channel.socket().getLocalAddress();
+        }
+
+        @Override
+        int localPort() {
+            return channel.socket().getLocalPort();
+        }
+
+        @Override
+        void send(byte[] bytes) throws IOException {
+            try {
+                channel.write(ByteBuffer.wrap(bytes));
+            } catch (PortUnreachableException e) {
+                // The server is not up; the transaction timers deal with it.
+            }
+        }
+
+        @Override
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            while (true) {
+                in.clear();
+                int length;
+                try {
+                    length = channel.read(in);
+                } catch (PortUnreachableException e) {
+                    continue;
+                }
+                if (length <= 0) {
+                    return;
+                }
+                onMessage(in.array(), 0, length);
+            }
+        }
+    }
+
+    /** A TCP connection to the server; messages are framed by Content-Length. */
+    private final class TcpLink extends Link {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_MESSAGE);
+        final LinkedList<ByteBuffer> pending = new LinkedList<ByteBuffer>();
+        final SelectionKey key;
+
+        TcpLink(String domain, InetSocketAddress server) throws IOException {
+            super(domain);
+            channel = SocketChannel.open();
+            // Blocking connect, once per server, so Via and Contact know our address.
+            channel.socket().connect(server, CONNECT_TIMEOUT_MILLIS);
+            channel.socket().setTcpNoDelay(true);
+            key = loop.register(channel, SelectionKey.OP_READ, this);
+        }
+
+        @Override
+        InetAddress localAddress() {
+            return channel.socket().getLocalAddress();
+        }
+
+        @Override
+        int localPort() {
+            return channel.socket().getLocalPort();
+        }
+
+        @Override
+        void send(byte[] bytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (pending.isEmpty()) {
+                channel.write(buffer);
+            }
+            if (buffer.hasRemaining()) {
+                pending.add(buffer);
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        @Override
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            if (key.isWritable()) {
+                while (!pending.isEmpty()) {
+                    ByteBuffer buffer = pending.getFirst();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    pending.removeFirst();
+                }
+                if (pending.isEmpty()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+            if (key.isReadable()) {
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+                if (!frame()) {
+                    // Nothing after a message we cannot hold can be framed either.
+                    close();
+                    failTransactions(this, "Message from the server exceeds " + MAX_MESSAGE + " bytes");
+                }
+            }
+        }
+
+        /** @return false if the next message does not fit in {@link #in} */
+        private boolean frame() {
+            byte[] data = in.array();
+            while (true) {
+                int available = in.position();
+                int start = 0;
+                while (start < available && (data[start] == '\r' || data[start] == '\n')) {
+                    start++;
+                }
+                int headerEnd = indexOfBlankLine(data, start, available);
+                if (headerEnd < 0) {
+                    if (start > 0) {
+                        compact(data, start, available);
+                    }
+                    return in.hasRemaining();
+                }
+                long length = headerEnd + 4 - start + contentLength(data, start, headerEnd);
+                if (length > in.capacity() || length < headerEnd + 4 - start) {
+                    return false;
+                }
+                int total = start + (int) length;
+                if (total > available) {
+                    if (start > 0) {
+                        compact(data, start, available);
+                    }
+                    return true;
+                }
+                onMessage(data, start, total - start);
+                compact(data, total, available);
+            }
+        }
+
+        private void compact(byte[] data, int from, int available) {
+            System.arraycopy(data, from, data, 0, available - from);
+            in.position(available - from);
+        }
+    }
+
+    private static int indexOfBlankLine(byte[] data, int from, int to) {
+        for (int i = from; i + 3 < to; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long contentLength(byte[] data, int from, int to) {
+        String headers = new String(data, from, to - from, SipMessage.UTF8);
+        for (String line : headers.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                String name = line.substring(0, colon).trim();
+                if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("l")) {
+                    return parseLong(line.substring(colon + 1), 0);
+                }
+            }
+        }
+        return 0;
+    }
+}
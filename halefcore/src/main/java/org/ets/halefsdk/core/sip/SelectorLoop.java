@@ -0,0 +1,170 @@
+package org.ets.halefsdk.core.sip;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One thread that owns a {@link Selector}, runs {@link Timer}s and tasks handed over from
+ * other threads. Everything registered with the loop runs on its thread, so the user agent
+ * needs no locks. Timers are plain objects that can be re-armed, so periodic work such as
+ * RTP pacing does not allocate.
+ */
+public class SelectorLoop {
+
+    /** Called on the loop thread when its channel is ready. */
+    public interface ChannelHandler {
+        void onReady(SelectionKey key) throws IOException;
+    }
+
+    /** A re-armable timer. Only touch it from the loop thread. */
+    public abstract static class Timer implements Comparable<Timer> {
+        long deadlineNanos;
+        boolean armed;
+
+        public abstract void run();
+
+        public boolean isArmed() {
+            return armed;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            long d = deadlineNanos - other.deadlineNanos;
+            return d < 0 ? -1 : (d > 0 ? 1 : 0);
+        }
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+    private final String name;
+    private volatile Thread thread;
+    private volatile boolean running;
+
+    public SelectorLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(loop, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops the loop and closes the selector along with every channel still registered. */
+    public synchronized void stop() {
+        running = false;
+        selector.wakeup();
+        thread = null;
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /** Runs {@code task} on the loop thread, after the tasks already queued. */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Loop thread only. */
+    public SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws IOException {
+        channel.configureBlocking(false);
+        return channel.register(selector, ops, handler);
+    }
+
+    /** Loop thread only: (re)arms {@code timer} to run after {@code delayMillis}. */
+    public void arm(Timer timer, long delayMillis) {
+        armAt(timer, System.nanoTime() + delayMillis * 1000000L);
+    }
+
+    /** Loop thread only: (re)arms {@code timer} to run at {@code deadlineNanos}. */
+    public void armAt(Timer timer, long deadlineNanos) {
+        if (timer.armed) {
+            timers.remove(timer);
+        }
+        timer.deadlineNanos = deadlineNanos;
+        timer.armed = true;
+        timers.add(timer);
+    }
+
+    /** Loop thread only. */
+    public void cancel(Timer timer) {
+        if (timer.armed) {
+            timers.remove(timer);
+            timer.armed = false;
+        }
+    }
+
+    private final Runnable loop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    long timeoutMillis = 0;
+                    Timer next = timers.peek();
+                    if (next != null) {
+                        timeoutMillis = Math.max(1, (next.deadlineNanos - System.nanoTime() + 999999) / 1000000);
+                    }
+                    if (tasks.isEmpty()) {
+                        selector.select(timeoutMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid()) {
+                            try {
+                                ((ChannelHandler) key.attachment()).onReady(key);
+                            } catch (IOException e) {
+                                key.cancel();
+                                key.channel().close();
+                            }
+                        }
+                    }
+                    runTimers();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                }
+            } catch (IOException e) {
+                // Selector broke; nothing left to drive.
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    };
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.deadlineNanos - now <= 0) {
+            timers.poll();
+            timer.armed = false;
+            timer.run();
+        }
+    }
+}
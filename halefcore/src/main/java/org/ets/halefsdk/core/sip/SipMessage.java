@@ -0,0 +1,232 @@
+package org.ets.halefsdk.core.sip;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SIP request or response (RFC 3261) as start line, ordered headers and an optional text
+ * body. Only what a user agent talking to Asterisk needs: no multipart bodies and no
+ * header folding.
+ */
+public final class SipMessage {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    public static final String VERSION = "SIP/2.0";
+
+    private final String startLine;
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> values = new ArrayList<String>();
+    private String body = "";
+
+    private SipMessage(String startLine) {
+        this.startLine = startLine;
+    }
+
+    public static SipMessage request(String method, String requestUri) {
+        return new SipMessage(method + " " + requestUri + " " + VERSION);
+    }
+
+    public static SipMessage response(int code, String reason) {
+        return new SipMessage(VERSION + " " + code + " " + reason);
+    }
+
+    /** @throws IllegalArgumentException if the data does not look like a SIP message */
+    public static SipMessage parse(byte[] data, int offset, int length) {
+        String text = new String(data, offset, length, UTF8);
+        int headerEnd = text.indexOf("\r\n\r\n");
+        if (headerEnd < 0) {
+            throw new IllegalArgumentException("No end of headers");
+        }
+        String[] lines = text.substring(0, headerEnd).split("\r\n");
+        if (!lines[0].startsWith(VERSION) && !lines[0].endsWith(VERSION)) {
+            throw new IllegalArgumentException("Not a SIP message: " + lines[0]);
+        }
+        SipMessage message = new SipMessage(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                message.addHeader(expand(lines[i].substring(0, colon).trim()),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+        message.body = text.substring(headerEnd + 4);
+        return message;
+    }
+
+    public boolean isRequest() {
+        return !startLine.startsWith(VERSION);
+    }
+
+    /** Request method, or the CSeq method for a response. */
+    public String getMethod() {
+        if (isRequest()) {
+            return startLine.substring(0, startLine.indexOf(' '));
+        }
+        String cseq = header("CSeq");
+        return cseq == null ? null : cseq.substring(cseq.indexOf(' ') + 1).trim();
+    }
+
+    public String getRequestUri() {
+        int first = startLine.indexOf(' ');
+        return startLine.substring(first + 1, startLine.lastIndexOf(' '));
+    }
+
+    public int getStatusCode() {
+        if (isRequest()) {
+            return 0;
+        }
+        int first = startLine.indexOf(' ');
+        return Integer.parseInt(startLine.substring(first + 1, first + 4));
+    }
+
+    public String getStartLine() {
+        return startLine;
+    }
+
+    /** First value of the header, matched case-insensitively; null if absent. */
+    public String header(String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    public List<String> headers(String name) {
+        List<String> result = new ArrayList<String>(1);
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                result.add(values.get(i));
+            }
+        }
+        return result;
+    }
+
+    public SipMessage addHeader(String name, String value) {
+        names.add(name);
+        values.add(value);
+        return this;
+    }
+
+    /** Replaces every value of the header with {@code value}. */
+    public SipMessage setHeader(String name, String value) {
+        return removeHeader(name).addHeader(name, value);
+    }
+
+    public SipMessage removeHeader(String name) {
+        for (int i = names.size() - 1; i >= 0; i--) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                names.remove(i);
+                values.remove(i);
+            }
+        }
+        return this;
+    }
+
+    /** A copy with the same start line, headers and body; e.g. to resend with credentials. */
+    public SipMessage copy() {
+        SipMessage copy = new SipMessage(startLine);
+        copy.names.addAll(names);
+        copy.values.addAll(values);
+        copy.body = body;
+        return copy;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public SipMessage setBody(String contentType, String body) {
+        setHeader("Content-Type", contentType);
+        this.body = body;
+        return this;
+    }
+
+    /** A response carrying over the headers RFC 3261 section 8.2.6 says to copy. */
+    public SipMessage createResponse(int code, String reason) {
+        SipMessage response = response(code, reason);
+        for (String via : headers("Via")) {
+            response.addHeader("Via", via);
+        }
+        response.addHeader("From", header("From"));
+        response.addHeader("To", header("To"));
+        response.addHeader("Call-ID", header("Call-ID"));
+        response.addHeader("CSeq", header("CSeq"));
+        return response;
+    }
+
+    public byte[] toBytes() {
+        byte[] content = body.getBytes(UTF8);
+        StringBuilder sb = new StringBuilder(512 + content.length);
+        sb.append(startLine).append("\r\n");
+        for (int i = 0; i < names.size(); i++) {
+            if (!names.get(i).equalsIgnoreCase("Content-Length")) {
+                sb.append(names.get(i)).append(": ").append(values.get(i)).append("\r\n");
+            }
+        }
+        sb.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+        byte[] head = sb.toString().getBytes(UTF8);
+        byte[] bytes = new byte[head.length + content.length];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        System.arraycopy(content, 0, bytes, head.length, content.length);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return new String(toBytes(), UTF8);
+    }
+
+    /** Value of a {@code ;name=value} parameter in a header value, or null. */
+    public static String param(String headerValue, String name) {
+        if (headerValue == null) {
+            return null;
+        }
+        String[] parts = headerValue.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int eq = part.indexOf('=');
+            String key = eq < 0 ? part : part.substring(0, eq);
+            if (key.trim().equalsIgnoreCase(name)) {
+                return eq < 0 ? "" : part.substring(eq + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /** The user part of a SIP URI, which may be wrapped in a name-addr. */
+    public static String user(String uri) {
+        int start = uri.indexOf("sip:");
+        if (start < 0) {
+            return null;
+        }
+        start += 4;
+        int at = uri.indexOf('@', start);
+        return at < 0 ? null : uri.substring(start, at);
+    }
+
+    private static String expand(String name) {
+        if (name.length() != 1) {
+            return name;
+        }
+        switch (Character.toLowerCase(name.charAt(0))) {
+            case 'v':
+                return "Via";
+            case 'f':
+                return "From";
+            case 't':
+                return "To";
+            case 'i':
+                return "Call-ID";
+            case 'm':
+                return "Contact";
+            case 'l':
+                return "Content-Length";
+            case 'c':
+                return "Content-Type";
+            default:
+                return name;
+        }
+    }
+}
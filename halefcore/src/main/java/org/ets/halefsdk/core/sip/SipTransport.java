@@ -0,0 +1,79 @@
+package org.ets.halefsdk.core.sip;
+
+import org.ets.halefsdk.core.SetupException;
+import org.ets.halefsdk.core.SipAccount;
+import org.ets.halefsdk.core.media.AudioTap;
+import org.ets.halefsdk.core.media.MediaStats;
+
+/**
+ * The SIP stack underneath the SDK: registration and outgoing audio calls. The listener
+ * methods mirror {@code android.net.sip}, so the platform stack maps onto it one to one.
+ * Callbacks may arrive on any thread.
+ */
+public interface SipTransport {
+
+    interface RegistrationListener {
+        void onRegistering(String localProfileUri);
+        /** @param expiryTime wall-clock time the registration runs out */
+        void onRegistrationDone(String localProfileUri, long expiryTime);
+        void onRegistrationFailed(String localProfileUri, int errorCode, String errorMessage);
+    }
+
+    interface CallListener {
+        void onCallEstablished(Call call);
+        void onCallEnded(Call call);
+        void onError(Call call, int errorCode, String errorMessage);
+    }
+
+    interface HandoverListener {
+        /** Signalling moved; {@code calls} established calls are being moved next. */
+        void onHandoverStarted(int calls);
+        /** {@code call} carries on over the new network; signalling and media moved. */
+        void onCallHandedOver(Call call, long elapsedNanos);
+        /** {@code call} could not be moved and has ended; its listener heard why. */
+        void onCallHandoverFailed(Call call, int errorCode, String errorMessage);
+    }
+
+    /** One outgoing call. */
+    interface Call {
+        void startAudio();
+        void setSpeakerMode(boolean speakerMode);
+        boolean isMuted();
+        void toggleMute();
+        boolean isInCall();
+        /**
+         * Hands the outgoing audio to {@code tap}, from when audio starts; null stops it.
+         *
+         * @return false if this transport cannot see the call's audio
+         */
+        boolean setAudioTap(AudioTap tap);
+        /**
+         * Reads the call's media counters into {@code out}; safe from any thread.
+         *
+         * @return false if this transport cannot see the call's media
+         */
+        boolean readMediaStats(MediaStats out);
+        void endCall() throws SetupException;
+        /** Releases the call's resources; call once it has ended. */
+        void close();
+    }
+
+    /** Registers {@code account}, or renews its registration, for {@code expirySeconds}. */
+    void register(SipAccount account, int expirySeconds, RegistrationListener listener) throws SetupException;
+
+    /** Drops the registration and forgets the account. */
+    void close(SipAccount account);
+
+    /**
+     * Moves signalling onto a new connection and re-INVITEs every established call with its
+     * media on the new local address, after the device changed networks. Registrations are
+     * renewed by the caller, over the new connection.
+     *
+     * @return false if this transport cannot, so calls live or die with the old network
+     */
+    boolean handOver(HandoverListener listener);
+
+    /** @param target the callee, as {@code user@domain} or a SIP URI */
+    Call makeCall(SipAccount account, String target, CallListener listener, int timeoutSeconds)
+            throws SetupException;
+}
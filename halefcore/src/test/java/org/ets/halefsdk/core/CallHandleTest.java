@@ -0,0 +1,97 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CallHandleTest {
+
+    private static class Recorder implements SetupHandle.Listener, CallHandle.StateListener {
+        final List<String> seen = new ArrayList<String>();
+
+        @Override
+        public synchronized void onSucceeded(SetupHandle handle) {
+            seen.add("succeeded");
+        }
+
+        @Override
+        public synchronized void onFailed(SetupHandle handle, Exception cause) {
+            seen.add("failed:" + cause.getClass().getSimpleName());
+        }
+
+        @Override
+        public synchronized void onStateChanged(CallHandle call, CallState state) {
+            seen.add(state.name());
+        }
+    }
+
+    @Test
+    public void succeedsWhenEstablishedAndStreamsEveryState() throws Exception {
+        CallSession session = new CallSession("123456789", "7801");
+        Recorder recorder = new Recorder();
+        session.getHandle().addStateListener(recorder).then(recorder);
+
+        session.moveTo(CallState.CALLING);
+        session.moveTo(CallState.IN_PROGRESS);
+        session.moveTo(CallState.ENDED);
+
+        assertEquals(Arrays.asList("IDLE", "CALLING", "IN_PROGRESS", "succeeded", "ENDED"), recorder.seen);
+        assertTrue(session.getHandle().isSucceeded());
+        session.getHandle().get(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void failsWhenTheCallEndsFirstAndLateListenersStillHearIt() throws Exception {
+        CallSession session = new CallSession("123456789", "7801");
+        session.moveTo(CallState.CALLING);
+        session.moveTo(CallState.FAILED);
+
+        Recorder late = new Recorder();
+        session.getHandle().then(late);
+        assertEquals(Arrays.asList("failed:SetupException"), late.seen);
+        try {
+            session.getHandle().get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SetupException);
+        }
+    }
+
+    @Test
+    public void timesOutAndCancels() throws Exception {
+        ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+        CallHandle slow = new CallHandle("1", null).timeoutAfter(20, TimeUnit.MILLISECONDS, timers);
+        try {
+            slow.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        Recorder recorder = new Recorder();
+        CallHandle cancelled = new CallHandle("2", null).then(recorder);
+        assertTrue(cancelled.cancel(false));
+        assertFalse(cancelled.succeed());
+        assertTrue(cancelled.isCancelled());
+        assertEquals(Arrays.asList("failed:CancellationException"), recorder.seen);
+        try {
+            cancelled.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+        timers.shutdown();
+    }
+}
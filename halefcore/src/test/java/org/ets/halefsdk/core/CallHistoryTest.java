@@ -0,0 +1,138 @@
+package org.ets.halefsdk.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallHistoryTest {
+
+    private File directory;
+    private CallHistory history;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        history = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (history != null) {
+            history.close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void pagesThroughACallAndRecoversAfterATornWrite() throws Exception {
+        history = new CallHistory(directory, 512, 100, 1024);
+        history.open();
+        for (int i = 0; i < 25; i++) {
+            history.append("111111111", CallHistory.Kind.FEEDBACK, "{\"seq\":" + i + "}");
+            history.append("222222222", CallHistory.Kind.STATE, "IN_PROGRESS");
+        }
+        history.append("111111111", CallHistory.Kind.METRICS, "{\"done\":true}");
+        assertTrue(history.flush(5, TimeUnit.SECONDS));
+        assertTrue(directory.list().length > 1);
+
+        assertEquals(26, payloads(history, "111111111", 10).size());
+        CallHistory.Page page = history.read("111111111", 0, 10);
+        assertEquals("{\"seq\":0}", page.getRecords().get(0).getPayload());
+        assertTrue(page.hasMore());
+        long tenth = page.getRecords().get(9).getTimeMillis();
+        assertTrue(history.read("111111111", tenth, 1).getRecords().get(0).getTimeMillis() >= tenth);
+        assertEquals(2, history.getCalls(0, Long.MAX_VALUE).size());
+        history.close();
+
+        // A crash half way through a record.
+        String[] names = directory.list();
+        Arrays.sort(names);
+        FileOutputStream torn = new FileOutputStream(new File(directory, names[names.length - 1]), true);
+        torn.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+        torn.close();
+
+        history = new CallHistory(directory, 512, 100, 1024);
+        history.open();
+        history.append("111111111", CallHistory.Kind.STATE, "ENDED");
+        assertTrue(history.flush(5, TimeUnit.SECONDS));
+        assertTrue(history.isRecovered());
+        List<String> payloads = payloads(history, "111111111", 7);
+        assertEquals(27, payloads.size());
+        assertEquals("{\"done\":true}", payloads.get(25));
+        assertEquals("ENDED", payloads.get(26));
+        assertEquals(25, history.read("222222222", 0, 100).getRecords().size());
+    }
+
+    @Test
+    public void dropsTheOldestSegmentsPastTheLimit() throws Exception {
+        history = new CallHistory(directory, 256, 3, 1024);
+        history.open();
+        history.append("111111111", CallHistory.Kind.FEEDBACK, "{\"first\":true}");
+        for (int i = 0; i < 100; i++) {
+            history.append("222222222", CallHistory.Kind.FEEDBACK, "{\"seq\":" + i + "}");
+        }
+        assertTrue(history.flush(5, TimeUnit.SECONDS));
+
+        assertTrue(directory.list().length <= 3);
+        List<CallHistory.CallSummary> calls = history.getCalls(0, Long.MAX_VALUE);
+        assertEquals(1, calls.size());
+        assertEquals("222222222", calls.get(0).getCallUUID());
+        assertTrue(calls.get(0).getRecords() < 100);
+        assertEquals(calls.get(0).getRecords(), payloads(history, "222222222", 16).size());
+        assertFalse(history.read("111111111", 0, 10).hasMore());
+    }
+
+    @Test
+    public void recordsQueuedBeforeOpeningAreWrittenOnceTheWriterTakesOver() throws Exception {
+        CallHistory previous = new CallHistory(directory, 512, 100, 1024);
+        previous.open();
+        previous.append("111111111", CallHistory.Kind.STATE, "CALLING");
+
+        // The replacement on the same directory takes records before the old writer is done.
+        history = new CallHistory(directory, 512, 100, 1024);
+        assertTrue(history.append("111111111", CallHistory.Kind.STATE, "IN_PROGRESS"));
+        previous.close();
+        assertFalse(previous.append("111111111", CallHistory.Kind.STATE, "ENDED"));
+        history.open();
+        history.append("111111111", CallHistory.Kind.STATE, "ENDED");
+        assertTrue(history.flush(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("CALLING", "IN_PROGRESS", "ENDED"), payloads(history, "111111111", 10));
+        history.close();
+        history.open();
+        assertFalse(history.append("111111111", CallHistory.Kind.STATE, "ENDED"));
+    }
+
+    private static List<String> payloads(CallHistory history, String callUUID, int pageSize) throws IOException {
+        List<String> payloads = new ArrayList<String>();
+        CallHistory.Page page = history.read(callUUID, 0, pageSize);
+        while (true) {
+            for (CallHistory.Record record : page.getRecords()) {
+                payloads.add(record.getPayload());
+            }
+            if (!page.hasMore()) {
+                return payloads;
+            }
+            page = page.next();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallIdsTest {
+
+    @Test
+    public void idsAreNineDigitsIncludingLeadingZeros() throws Exception {
+        CallIds ids = new CallIds(new Random(7));
+        boolean sawLeadingZero = false;
+        for (int i = 0; i < 10000; i++) {
+            String id = ids.next();
+            assertEquals(CallIds.LENGTH, id.length());
+            assertTrue(id, id.matches("[0-9]{9}"));
+            sawLeadingZero |= id.charAt(0) == '0';
+        }
+        assertTrue(sawLeadingZero);
+    }
+
+    @Test
+    public void stateMachineReportsEachTransitionOnce() throws Exception {
+        CallStateMachine state = new CallStateMachine();
+        assertFalse(state.moveTo(CallState.IN_PROGRESS));
+        assertTrue(state.moveTo(CallState.CALLING));
+        assertTrue(state.moveTo(CallState.IN_PROGRESS));
+        assertTrue(state.moveTo(CallState.ENDED));
+        assertFalse(state.moveTo(CallState.ENDED));
+        assertFalse(state.moveTo(CallState.FAILED));
+        assertEquals(CallState.ENDED, state.get());
+    }
+}
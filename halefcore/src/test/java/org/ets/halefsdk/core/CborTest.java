@@ -0,0 +1,40 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CborTest {
+
+    @Test
+    public void roundTripsJsonAndIsSmaller() {
+        String json = "{\"user\":\"042137958\",\"seq\":300,\"type\":\"score\",\"score\":3.5,"
+                + "\"confidence\":0.82,\"delta\":-25,\"ok\":false,\"none\":null,"
+                + "\"text\":\"caf\\u00e9 \\\"latte\\\"\\n\",\"detail\":[1,[],{}]}";
+        byte[] cbor = Cbor.fromJson(json);
+        assertEquals(json.replace("\\u00e9", "\u00e9"), Cbor.toJson(cbor));
+        assertTrue(cbor.length < json.length());
+    }
+
+    @Test
+    public void encodesScalarsCompactly() {
+        assertArrayEquals(new byte[] { 0x18, 0x64 }, Cbor.fromJson("100"));
+        assertArrayEquals(new byte[] { 0x38, 0x63 }, Cbor.fromJson("-100"));
+        assertArrayEquals(new byte[] { (byte) 0xfa, 0x3f, (byte) 0xc0, 0, 0 }, Cbor.fromJson("1.5"));
+        assertArrayEquals(new byte[] { 0x62, 'h', 'i' }, Cbor.fromJson("\"hi\""));
+    }
+
+    @Test
+    public void findsTopLevelMembersInPlace() {
+        byte[] cbor = Cbor.fromJson("{\"meta\":{\"seq\":5,\"user\":\"x\"},\"user\":\"042137958\",\"seq\":7}");
+        assertEquals("042137958", Cbor.textMember(cbor, "user"));
+        assertEquals(7, Cbor.longMember(cbor, "seq"));
+        assertEquals(-1, Cbor.longMember(cbor, "user"));
+        assertNull(Cbor.textMember(Cbor.fromJson("[\"user\"]"), "user"));
+        // Definite-length map {"seq": 24}, as other encoders write it.
+        assertEquals(24, Cbor.longMember(new byte[] { (byte) 0xa1, 0x63, 's', 'e', 'q', 0x18, 24 }, "seq"));
+    }
+}
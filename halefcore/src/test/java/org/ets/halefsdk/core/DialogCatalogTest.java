@@ -0,0 +1,147 @@
+package org.ets.halefsdk.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DialogCatalogTest {
+
+    private static final String CATALOG = "{\"apps\":["
+            + "{\"extension\":\"7801\",\"name\":\"Coffee Shop\",\"description\":\"Order a coffee\"},"
+            + "{\"extension\":\"78x1\",\"name\":\"Not an extension\"},"
+            + "{\"extension\":\"7725\"}]}";
+
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheFile = File.createTempFile("catalog", "");
+        cacheFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        cacheFile.delete();
+    }
+
+    @Test
+    public void revalidatesWithTheValidatorAndReloadsFromDisk() throws Exception {
+        CountingSource source = new CountingSource(CATALOG, 60000);
+        DialogCatalog catalog = new DialogCatalog(source, cacheFile, null);
+        assertTrue(catalog.refresh());
+        assertEquals(2, source.list().size());
+        assertEquals("Coffee Shop", catalog.find("7801").getName());
+        assertEquals("7725", catalog.find("7725").getName());
+        assertNull(catalog.find("7804"));
+        assertEquals("7804", catalog.resolve("7804").getName());
+
+        assertFalse(catalog.refresh());
+        assertEquals("\"1\"", source.validators.get(1));
+
+        // A new process starts from the cache file, which is still fresh, and sends its
+        // validator along once it does go to the source.
+        CountingSource next = new CountingSource(CATALOG, 60000);
+        DialogCatalog reloaded = new DialogCatalog(next, cacheFile, null);
+        assertTrue(reloaded.refresh());
+        assertTrue(next.validators.isEmpty());
+        assertEquals(source.list(), reloaded.getApps());
+        assertFalse(reloaded.refresh());
+        assertEquals("\"1\"", next.validators.get(0));
+    }
+
+    @Test
+    public void evictsACatalogThatCouldNotBeRevalidated() throws Exception {
+        CountingSource source = new CountingSource(CATALOG, 60000);
+        DialogCatalog catalog = new DialogCatalog(source, cacheFile, null, 50);
+        catalog.refresh();
+        assertTrue(cacheFile.exists());
+        assertEquals(2, catalog.getApps().size());
+        Thread.sleep(100);
+        assertTrue(catalog.getApps().isEmpty());
+        assertFalse(cacheFile.exists());
+    }
+
+    @Test
+    public void switchingSourcesMidFetchEndsOnTheNewSource() throws Exception {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+        DialogCatalog.Source old = new DialogCatalog.Source() {
+            @Override
+            public DialogCatalog.Fetch fetch(String validator) throws IOException {
+                fetching.countDown();
+                try {
+                    answer.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.toString());
+                }
+                return DialogCatalog.Fetch.of(CATALOG, "\"old\"", 60000);
+            }
+        };
+        final List<List<DialogApp>> changes = new CopyOnWriteArrayList<List<DialogApp>>();
+        final CountDownLatch switched = new CountDownLatch(1);
+        DialogCatalog catalog = new DialogCatalog(old, null, new DialogCatalog.Listener() {
+            @Override
+            public void onCatalogChanged(List<DialogApp> apps) {
+                changes.add(apps);
+                switched.countDown();
+            }
+        });
+        catalog.prefetch();
+        assertTrue(fetching.await(5, TimeUnit.SECONDS));
+
+        CountingSource next = new CountingSource("[{\"extension\":\"7900\",\"name\":\"New\"}]", 60000);
+        catalog.setSource(next);
+        answer.countDown();
+        assertTrue(switched.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, changes.size());
+        assertEquals("New", catalog.find("7900").getName());
+        assertNull(catalog.find("7801"));
+        assertEquals(1, next.validators.size());
+        assertNull(next.validators.get(0));
+    }
+
+    @Test
+    public void buildsTheDialString() {
+        DialogApp app = new DialogApp("7801", "Coffee Shop", null);
+        assertEquals("78010000123456789@example.org", app.dialString("123456789", "example.org"));
+    }
+
+    /** Answers not modified whenever it is sent back its ETag. */
+    private static final class CountingSource implements DialogCatalog.Source {
+        final String json;
+        final long maxAgeMillis;
+        final List<String> validators = new ArrayList<String>();
+
+        CountingSource(String json, long maxAgeMillis) {
+            this.json = json;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        List<DialogApp> list() {
+            return DialogCatalog.parse(json);
+        }
+
+        @Override
+        public DialogCatalog.Fetch fetch(String validator) {
+            validators.add(validator);
+            if ("\"1\"".equals(validator)) {
+                return DialogCatalog.Fetch.notModified(maxAgeMillis);
+            }
+            return DialogCatalog.Fetch.of(json, "\"1\"", maxAgeMillis);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventLoopTest {
+
+    private static class Recorder implements EventLoop.Dispatcher {
+        final List<SdkEvent> events = new ArrayList<SdkEvent>();
+        final List<String> threads = new ArrayList<String>();
+        final CountDownLatch latch;
+
+        Recorder(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void dispatch(SdkEvent event) {
+            events.add(event);
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void eventsKeepTheirOrderOnTheExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Recorder recorder = new Recorder(500);
+        EventLoop loop = new EventLoop(recorder, 1000, executor);
+        loop.start();
+        for (int i = 0; i < 500; i++) {
+            loop.post(SdkEvent.debugMessage("m" + i));
+        }
+        assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        loop.stop();
+        executor.shutdown();
+
+        for (int i = 0; i < 500; i++) {
+            assertEquals("m" + i, recorder.events.get(i).getMessage());
+            assertFalse("HalefEventLoop".equals(recorder.threads.get(i)));
+        }
+        assertEquals(0, loop.getDropped());
+        assertEquals(500, loop.getDispatchLatency().getCount());
+    }
+
+    @Test
+    public void inlineDispatchRunsOnTheLoopThread() throws Exception {
+        Recorder recorder = new Recorder(1);
+        EventLoop loop = new EventLoop(recorder, 8, null);
+        loop.start();
+        loop.post(SdkEvent.registerStatus(3));
+        assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        loop.stop();
+        assertEquals("HalefEventLoop", recorder.threads.get(0));
+        assertEquals(3, recorder.events.get(0).getStatus());
+    }
+
+    @Test
+    public void slowClientLosesMessagesButNeverStatus() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final ExecutorService delegate = Executors.newSingleThreadExecutor();
+        Executor stalled = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                delegate.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        blocked.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        command.run();
+                    }
+                });
+            }
+        };
+        Recorder recorder = new Recorder(1 + 4);
+        EventLoop loop = new EventLoop(recorder, 4, stalled);
+        loop.start();
+        loop.post(SdkEvent.debugMessage("first"));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        // The client is stuck on "first"; the queue (4) fills up without blocking us.
+        for (int i = 0; i < 10; i++) {
+            loop.post(SdkEvent.feedbackMessage("123", "f" + i));
+        }
+        assertTrue(loop.post(SdkEvent.callStatus("123", 6)));
+        assertTrue(loop.post(SdkEvent.callStatus("123", 5)));
+        release.countDown();
+        assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        loop.stop();
+        delegate.shutdown();
+
+        assertEquals("first", recorder.events.get(0).getMessage());
+        assertEquals("f2", recorder.events.get(1).getMessage());
+        assertEquals("f3", recorder.events.get(2).getMessage());
+        assertEquals(6, recorder.events.get(3).getStatus());
+        assertEquals(5, recorder.events.get(4).getStatus());
+        assertEquals(8, loop.getDropped());
+    }
+
+    @Test
+    public void statusGrowsTheQueueRatherThanBeingDropped() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        Recorder recorder = new Recorder(1 + 6) {
+            @Override
+            public void dispatch(SdkEvent event) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                super.dispatch(event);
+            }
+        };
+        EventLoop loop = new EventLoop(recorder, 4, null);
+        loop.start();
+        loop.post(SdkEvent.registerStatus(1));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 6; i++) {
+            assertTrue(loop.post(SdkEvent.callStatus("123", i)));
+        }
+        assertFalse(loop.post(SdkEvent.feedbackMessage("123", "late")));
+        release.countDown();
+        assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        loop.stop();
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, recorder.events.get(1 + i).getStatus());
+        }
+        assertEquals(1, loop.getDropped());
+    }
+
+    @Test
+    public void inlineLoopOutlivesAThrowingDispatcher() throws Exception {
+        Recorder recorder = new Recorder(2) {
+            @Override
+            public void dispatch(SdkEvent event) {
+                super.dispatch(event);
+                if ("boom".equals(event.getMessage())) {
+                    throw new IllegalStateException("boom");
+                }
+            }
+        };
+        EventLoop loop = new EventLoop(recorder, 8, null);
+        loop.start();
+        loop.post(SdkEvent.debugMessage("boom"));
+        loop.post(SdkEvent.debugMessage("after"));
+        assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        loop.stop();
+        assertEquals("after", recorder.events.get(1).getMessage());
+        assertEquals("boom", loop.getError().getMessage());
+    }
+}
@@ -0,0 +1,77 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FeedbackBatcherTest {
+
+    private static class ManualFrames implements FrameScheduler {
+        final List<Runnable> pending = new ArrayList<Runnable>();
+
+        @Override
+        public void scheduleFrame(Runnable task) {
+            pending.add(task);
+        }
+
+        void runFrame() {
+            List<Runnable> tasks = new ArrayList<Runnable>(pending);
+            pending.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    private static class RecordingSink implements FeedbackBatcher.Sink {
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        final List<Integer> dropped = new ArrayList<Integer>();
+
+        @Override
+        public void onBatch(FeedbackBatch batch) {
+            List<String> messages = new ArrayList<String>();
+            for (int i = 0; i < batch.size(); i++) {
+                messages.add(batch.getMessage(i));
+            }
+            batches.add(messages);
+            dropped.add(batch.getDropped());
+        }
+    }
+
+    @Test
+    public void messagesWithinAFrameAreDeliveredTogether() throws Exception {
+        ManualFrames frames = new ManualFrames();
+        RecordingSink sink = new RecordingSink();
+        FeedbackBatcher batcher = new FeedbackBatcher(frames, sink, 8);
+
+        batcher.offer("1", "a");
+        batcher.offer("1", "b");
+        batcher.offer("1", "c");
+        assertEquals(1, frames.pending.size());
+        frames.runFrame();
+        batcher.offer("1", "d");
+        frames.runFrame();
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("d")), sink.batches);
+    }
+
+    @Test
+    public void oldestMessagesAreDroppedWhenFull() throws Exception {
+        ManualFrames frames = new ManualFrames();
+        RecordingSink sink = new RecordingSink();
+        FeedbackBatcher batcher = new FeedbackBatcher(frames, sink, 3);
+
+        for (String message : new String[]{"a", "b", "c", "d", "e"}) {
+            batcher.offer("1", message);
+        }
+        frames.runFrame();
+
+        assertEquals(Arrays.asList(Arrays.asList("c", "d", "e")), sink.batches);
+        assertEquals(Arrays.asList(2), sink.dropped);
+        assertEquals(2, batcher.getTotalDropped());
+    }
+}
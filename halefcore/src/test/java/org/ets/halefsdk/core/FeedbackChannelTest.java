@@ -0,0 +1,245 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeedbackChannelTest {
+
+    private static class RecordingListener implements FeedbackChannel.Listener {
+        final List<String> messages = new ArrayList<String>();
+        volatile CountDownLatch connected = new CountDownLatch(1);
+        volatile CountDownLatch registered = new CountDownLatch(1);
+
+        @Override
+        public void onChannelConnected(long latencyNanos) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onChannelDisconnected() {
+        }
+
+        @Override
+        public void onSessionRegistered(String callUUID) {
+            registered.countDown();
+        }
+
+        @Override
+        public synchronized void onFeedbackMessage(String callUUID, String message) {
+            messages.add(callUUID + ":" + message);
+        }
+
+        void awaitConnect() throws InterruptedException {
+            assertTrue(connected.await(2, TimeUnit.SECONDS));
+        }
+
+        void awaitRegister() throws InterruptedException {
+            assertTrue(registered.await(2, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void connectionIsReusedAcrossCalls() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(20);
+        RecordingListener listener = new RecordingListener();
+        FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener);
+
+        channel.open();
+        listener.awaitConnect();
+
+        channel.attach("111111111");
+        channel.detach("111111111");
+        channel.attach("222222222");
+
+        assertEquals(1, server.handshakes());
+        assertEquals(Arrays.asList("{\"user\":\"111111111\"}", "{\"user\":\"222222222\"}"),
+                server.registrations());
+        assertEquals(1, channel.getConnectStats().getConnects());
+        assertTrue(channel.getConnectStats().getLastNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void attachBeforeConnectRegistersOnConnect() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(20);
+        RecordingListener listener = new RecordingListener();
+        FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener);
+
+        channel.attach("123456789");
+        listener.awaitRegister();
+
+        assertEquals(Arrays.asList("{\"user\":\"123456789\"}"), server.registrations());
+    }
+
+    @Test
+    public void messagesAreRoutedByCallUUID() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(0);
+        RecordingListener listener = new RecordingListener();
+        FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener);
+        channel.open();
+        listener.awaitConnect();
+
+        channel.attach("111111111");
+        channel.detach("111111111");
+        channel.attach("222222222");
+        server.send("111111111", "stale");
+        server.send("222222222", "hello");
+        server.send(null, "broadcast");
+
+        assertEquals(Arrays.asList("222222222:hello", "222222222:broadcast"), listener.messages);
+    }
+
+    @Test
+    public void reconnectRegistersActiveCallAgain() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(10);
+        RecordingListener listener = new RecordingListener();
+        FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener);
+        channel.open();
+        listener.awaitConnect();
+        channel.attach("333333333");
+
+        listener.registered = new CountDownLatch(1);
+        server.bounce();
+        listener.awaitRegister();
+
+        assertEquals(2, server.registrations().size());
+        assertEquals(2, channel.getConnectStats().getConnects());
+    }
+
+    @Test
+    public void channelOpenedByAttachRegistersAgainAfterReconnect() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(10);
+        RecordingListener listener = new RecordingListener();
+        FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener);
+        channel.attach("444444444");
+        listener.awaitConnect();
+
+        listener.connected = new CountDownLatch(1);
+        server.bounce();
+        listener.awaitConnect();
+
+        assertEquals(Arrays.asList("{\"user\":\"444444444\"}",
+                "{\"user\":\"444444444\",\"resume\":-1}"),
+                server.registrations());
+        assertEquals(2, channel.getConnectStats().getConnects());
+    }
+
+    @Test
+    public void duplicatesAreDroppedAndGapsReplayed() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(0);
+        RecordingListener listener = new RecordingListener();
+        FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener);
+        channel.attach("444444444");
+        listener.awaitRegister();
+
+        server.send("444444444", "{\"seq\":0}");
+        server.send("444444444", "{\"seq\":1,\"text\":\"a\"}");
+        server.send("444444444", "{\"seq\":1,\"text\":\"a\"}");
+        server.send("444444444", "{\"seq\":3}");
+        server.send("444444444", "{\"seq\":4}");
+        server.send("444444444", "{\"seq\":2}");
+        server.send("444444444", "{\"seq\":3}");
+        server.send("444444444", "{\"nested\":{\"seq\":3}}");
+
+        assertEquals(Arrays.asList("444444444:{\"seq\":0}", "444444444:{\"seq\":1,\"text\":\"a\"}",
+                "444444444:{\"seq\":3}", "444444444:{\"seq\":4}", "444444444:{\"seq\":2}",
+                "444444444:{\"nested\":{\"seq\":3}}"), listener.messages);
+        assertEquals(2, channel.getDuplicates());
+        assertEquals(1, channel.getReplayRequests());
+        assertTrue(server.emits().contains("replay:{\"user\":\"444444444\",\"from\":2}"));
+    }
+
+    @Test
+    public void reconnectsItselfAndResumesWhereItLeftOff() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(5);
+        RecordingListener listener = new RecordingListener();
+        ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+        try {
+            FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener, timers,
+                    new Backoff(10, 40));
+            channel.attach("555555555");
+            listener.awaitRegister();
+            server.send("555555555", "{\"seq\":0}");
+            server.send("555555555", "{\"seq\":1}");
+
+            listener.registered = new CountDownLatch(1);
+            server.drop();
+            listener.awaitRegister();
+
+            assertEquals(Arrays.asList("{\"user\":\"555555555\"}", "{\"user\":\"555555555\",\"resume\":1}"),
+                    server.registrations());
+            assertEquals(2, channel.getConnectStats().getConnects());
+        } finally {
+            timers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void findsTopLevelSequenceOnly() {
+        assertEquals(12, FeedbackChannel.sequenceOf("{\"user\":\"1\", \"seq\" : 12, \"x\":1}"));
+        assertEquals(-1, FeedbackChannel.sequenceOf("{\"text\":\"\\\"seq\\\":5\"}"));
+        assertEquals(-1, FeedbackChannel.sequenceOf("{\"a\":{\"seq\":5}}"));
+        assertEquals(-1, FeedbackChannel.sequenceOf("not json"));
+    }
+
+    @Test
+    public void negotiatesCborAndReadsBinaryMessages() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(0);
+        RecordingListener listener = new RecordingListener();
+        ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+        try {
+            FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener, timers,
+                    new Backoff(10, 40));
+            channel.setBinaryFraming(true);
+            channel.attach("666666666");
+            listener.awaitConnect();
+            assertEquals(Arrays.asList("hello:" + FeedbackChannel.helloPayload()), server.emits());
+
+            server.answerEncoding(FeedbackChannel.ENCODING_CBOR);
+            listener.awaitRegister();
+            assertTrue(channel.isBinary());
+            assertEquals(Arrays.asList("register:{\"user\":\"666666666\"}"), server.binaryEmits());
+
+            server.sendBinary(Cbor.fromJson("{\"user\":\"666666666\",\"seq\":0,\"type\":\"prompt\"}"));
+            server.sendBinary(Cbor.fromJson("{\"user\":\"666666666\",\"seq\":0,\"type\":\"prompt\"}"));
+            server.sendBinary(Cbor.fromJson("{\"user\":\"777777777\",\"seq\":0}"));
+            assertEquals(Arrays.asList("666666666:{\"user\":\"666666666\",\"seq\":0,\"type\":\"prompt\"}"),
+                    listener.messages);
+            assertEquals(1, channel.getDuplicates());
+        } finally {
+            timers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fallsBackToJsonWhenHelloGoesUnanswered() throws Exception {
+        LocalFeedbackServer server = new LocalFeedbackServer(0);
+        RecordingListener listener = new RecordingListener();
+        ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+        try {
+            FeedbackChannel channel = new FeedbackChannel(server.newSocket(), listener, timers,
+                    new Backoff(10, 40));
+            channel.setBinaryFraming(true);
+            long start = System.nanoTime();
+            channel.attach("888888888");
+            listener.awaitRegister();
+
+            assertTrue(System.nanoTime() - start
+                    >= TimeUnit.MILLISECONDS.toNanos(FeedbackChannel.ENCODING_TIMEOUT_MILLIS));
+            assertEquals(Arrays.asList("{\"user\":\"888888888\"}"), server.registrations());
+            assertTrue(server.binaryEmits().isEmpty());
+            assertTrue(!channel.isBinary());
+        } finally {
+            timers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.ets.halefsdk.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FeedbackDecoderTest {
+
+    private static class Recorder implements FeedbackDecoder.Listener {
+        final List<FeedbackEvent> events = new ArrayList<FeedbackEvent>();
+        final CountDownLatch latch;
+        String throwOn;
+
+        Recorder(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void onFeedbackEvent(FeedbackEvent event) {
+            try {
+                if (event.getText() != null && event.getText().equals(throwOn)) {
+                    throw new IllegalStateException(throwOn);
+                }
+                events.add(event.copy());
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    private FeedbackDecoder decoder;
+
+    @After
+    public void tearDown() {
+        decoder.stop();
+    }
+
+    @Test
+    public void skipsMessagesThatDoNotParse() throws Exception {
+        Recorder recorder = new Recorder(1);
+        decoder = new FeedbackDecoder(recorder, 4);
+        decoder.start();
+        decoder.offer("call", "plain text");
+        decoder.offer("call", new byte[] {(byte) 0xff});
+        decoder.offer("call", "{\"type\":\"prompt\",\"text\":\"Hello\"}");
+        assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, recorder.events.size());
+        assertEquals(FeedbackEvent.Type.PROMPT, recorder.events.get(0).getType());
+        assertEquals(2, decoder.getMalformed());
+    }
+
+    @Test
+    public void survivesAListenerThatThrows() throws Exception {
+        Recorder recorder = new Recorder(3);
+        recorder.throwOn = "second";
+        decoder = new FeedbackDecoder(recorder, 4);
+        decoder.start();
+        assertNull(decoder.getError());
+        decoder.offer("call", "{\"type\":\"prompt\",\"text\":\"first\"}");
+        decoder.offer("call", "{\"type\":\"prompt\",\"text\":\"second\"}");
+        decoder.offer("call", "{\"type\":\"prompt\",\"text\":\"third\"}");
+        assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, recorder.events.size());
+        assertEquals("third", recorder.events.get(1).getText());
+        assertEquals("second", decoder.getError().getMessage());
+    }
+}
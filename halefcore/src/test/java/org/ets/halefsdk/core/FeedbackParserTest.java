@@ -0,0 +1,72 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FeedbackParserTest {
+    private final FeedbackParser parser = new FeedbackParser();
+
+    private FeedbackEvent parse(String message) {
+        FeedbackEvent event = new FeedbackEvent();
+        parser.parse(message, event);
+        return event;
+    }
+
+    @Test
+    public void parsesPrompt() throws Exception {
+        FeedbackEvent event = parse("{\"type\":\"prompt\",\"text\":\"Welcome to the \\\"coffee\\\" shop\"}");
+        assertEquals(FeedbackEvent.Type.PROMPT, event.getType());
+        assertEquals("Welcome to the \"coffee\" shop", event.getText());
+    }
+
+    @Test
+    public void parsesScoreAndSkipsNestedValues() throws Exception {
+        FeedbackEvent event = parse(" { \"meta\": {\"a\": [1, {\"b\": \"}\"}]}, \"score\": 3.5e0,"
+                + " \"type\": \"score\", \"name\": \"fluency\", \"ok\": true }");
+        assertEquals(FeedbackEvent.Type.SCORE, event.getType());
+        assertEquals(3.5, event.getScore(), 0);
+        assertEquals("fluency", event.getLabel());
+        assertNull(event.getText());
+    }
+
+    @Test
+    public void parsesEndOfDialogAndPartialResult() throws Exception {
+        assertEquals(FeedbackEvent.Type.END_OF_DIALOG, parse("{\"event\":\"end\"}").getType());
+        FeedbackEvent partial = parse("{\"type\":\"partial\",\"result\":\"I would like a\"}");
+        assertEquals(FeedbackEvent.Type.PARTIAL_RESULT, partial.getType());
+        assertEquals("I would like a", partial.getText());
+    }
+
+    @Test
+    public void malformedOrPlainMessagesAreOther() throws Exception {
+        FeedbackEvent event = new FeedbackEvent();
+        assertFalse(parser.parse("hello", event));
+        assertEquals(FeedbackEvent.Type.OTHER, event.getType());
+        assertEquals("hello", event.getText());
+
+        event = new FeedbackEvent();
+        assertFalse(parser.parse("{\"type\":\"prompt\",", event));
+        assertEquals(FeedbackEvent.Type.OTHER, event.getType());
+
+        assertTrue(parser.parse("{}", new FeedbackEvent()));
+    }
+
+    @Test
+    public void parsesCborFromTheBytes() throws Exception {
+        String json = "{\"meta\":{\"a\":[1,{\"b\":\"}\"}]},\"score\":3.5,"
+                + "\"type\":\"score\",\"name\":\"fluency \u00e9\",\"ok\":true}";
+        FeedbackEvent event = new FeedbackEvent();
+        assertTrue(parser.parse(Cbor.fromJson(json), event));
+        assertEquals(FeedbackEvent.Type.SCORE, event.getType());
+        assertEquals(3.5, event.getScore(), 0);
+        assertEquals("fluency \u00e9", event.getLabel());
+
+        event = new FeedbackEvent();
+        assertFalse(parser.parse(new byte[] { (byte) 0xbf, 0x64, 't', 'y' }, event));
+        assertEquals(FeedbackEvent.Type.OTHER, event.getType());
+    }
+}
@@ -0,0 +1,37 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesStayWithinBucketError() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100000; micros++) {
+            histogram.record(micros);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMaxMicros());
+        long p50 = histogram.getPercentileMicros(0.5);
+        long p99 = histogram.getPercentileMicros(0.99);
+        assertTrue("p50 " + p50, Math.abs(p50 - 50000) <= 50000 / 16);
+        assertTrue("p99 " + p99, Math.abs(p99 - 99000) <= 99000 / 16);
+    }
+
+    @Test
+    public void bucketsAreContiguous() throws Exception {
+        long previous = -1;
+        for (long value = 0; value < (1L << 20); value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBound(bucket - 1));
+            }
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ListenerRegistryTest {
+
+    @Test
+    public void dispatchSeesASnapshotWhileListenersComeAndGo() {
+        final ListenerRegistry<Runnable> registry = new ListenerRegistry<Runnable>();
+        final List<String> calls = new ArrayList<String>();
+        final Runnable second = new Runnable() {
+            @Override
+            public void run() {
+                calls.add("second");
+            }
+        };
+        Runnable first = new Runnable() {
+            @Override
+            public void run() {
+                calls.add("first");
+                registry.remove(second);
+                registry.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        calls.add("third");
+                    }
+                });
+            }
+        };
+        assertTrue(registry.add(first));
+        assertFalse(registry.add(first));
+        registry.add(second);
+
+        for (Runnable listener : registry) {
+            listener.run();
+        }
+        assertEquals("[first, second]", calls.toString());
+        assertEquals(2, registry.size());
+        assertTrue(registry.any(Runnable.class));
+        assertFalse(registry.anyNot(Runnable.class));
+    }
+
+    @Test
+    public void dropsWeakListenersOnceCollected() throws InterruptedException {
+        ListenerRegistry<Object> registry = new ListenerRegistry<Object>();
+        Object kept = new Object();
+        registry.add(kept);
+        registry.addWeak(new Object());
+        assertEquals(2, registry.size());
+
+        for (int i = 0; i < 50 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            Iterator<Object> it = registry.iterator();
+            assertTrue(it.next() == kept);
+            while (it.hasNext()) {
+                it.next();
+            }
+        }
+        assertEquals(1, registry.size());
+        assertTrue(registry.remove(kept));
+        assertTrue(registry.isEmpty());
+    }
+}
@@ -0,0 +1,165 @@
+package org.ets.halefsdk.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process stand-in for the HALEF socket.io messenger. Sockets handed out by
+ * {@link #newSocket()} connect asynchronously after a fixed handshake delay, and
+ * {@code register} (and all other) emits are recorded so tests can check what the server saw.
+ */
+class LocalFeedbackServer {
+    private final long handshakeMillis;
+    private final List<StandInSocket> sockets = new CopyOnWriteArrayList<StandInSocket>();
+    private final List<String> registrations = new CopyOnWriteArrayList<String>();
+    private final List<String> emits = new CopyOnWriteArrayList<String>();
+    private final List<String> binaryEmits = new CopyOnWriteArrayList<String>();
+    private int handshakes;
+
+    LocalFeedbackServer(long handshakeMillis) {
+        this.handshakeMillis = handshakeMillis;
+    }
+
+    FeedbackSocket newSocket() {
+        StandInSocket socket = new StandInSocket();
+        sockets.add(socket);
+        return socket;
+    }
+
+    synchronized int handshakes() {
+        return handshakes;
+    }
+
+    List<String> registrations() {
+        return new ArrayList<String>(registrations);
+    }
+
+    /** Every emit while connected, as {@code event:payload}. */
+    List<String> emits() {
+        return new ArrayList<String>(emits);
+    }
+
+    /** The emits that came as CBOR, as {@code event:payload} with the payload rendered as JSON. */
+    List<String> binaryEmits() {
+        return new ArrayList<String>(binaryEmits);
+    }
+
+    /** Answers {@code hello} on every connected socket. */
+    void answerEncoding(String encoding) {
+        for (StandInSocket socket : sockets) {
+            if (socket.connected) {
+                socket.handler.onEncoding(encoding);
+            }
+        }
+    }
+
+    /** Like {@link #send}, as a CBOR frame; the client has to find the user itself. */
+    void sendBinary(byte[] message) {
+        for (StandInSocket socket : sockets) {
+            if (socket.connected) {
+                socket.handler.onBinaryMessage(null, message);
+            }
+        }
+    }
+
+    /** Sends a message addressed to {@code user} (or unaddressed when null) to every socket. */
+    void send(String user, String message) {
+        for (StandInSocket socket : sockets) {
+            if (socket.connected) {
+                socket.handler.onMessage(user, message);
+            }
+        }
+    }
+
+    /** Drops every connection, then lets the clients back in after a handshake. */
+    void bounce() {
+        for (StandInSocket socket : sockets) {
+            if (socket.connected) {
+                socket.connected = false;
+                socket.handler.onDisconnect();
+                socket.connect();
+            }
+        }
+    }
+
+    /** Drops every connection and leaves reconnecting to the clients. */
+    void drop() {
+        for (StandInSocket socket : sockets) {
+            if (socket.connected) {
+                socket.connected = false;
+                socket.wanted = false;
+                socket.handler.onDisconnect();
+            }
+        }
+    }
+
+    private class StandInSocket implements FeedbackSocket {
+        volatile Handler handler;
+        volatile boolean connected;
+        volatile boolean wanted;
+
+        @Override
+        public void setHandler(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void connect() {
+            wanted = true;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(handshakeMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (!wanted) {
+                        return;
+                    }
+                    synchronized (LocalFeedbackServer.this) {
+                        handshakes++;
+                    }
+                    connected = true;
+                    handler.onConnect();
+                }
+            }).start();
+        }
+
+        @Override
+        public void disconnect() {
+            wanted = false;
+            if (connected) {
+                connected = false;
+                handler.onDisconnect();
+            }
+        }
+
+        @Override
+        public boolean connected() {
+            return connected;
+        }
+
+        @Override
+        public void emit(String event, String json) {
+            if (!connected) {
+                return;
+            }
+            emits.add(event + ":" + json);
+            if ("register".equals(event)) {
+                registrations.add(json);
+            }
+        }
+
+        @Override
+        public void emit(String event, byte[] cbor) {
+            if (!connected) {
+                return;
+            }
+            String json = Cbor.toJson(cbor);
+            binaryEmits.add(event + ":" + json);
+            emit(event, json);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.ets.halefsdk.core;
+
+import org.ets.halefsdk.core.media.MediaStats;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MediaQualityTest {
+
+    @Test
+    public void lossIsPerIntervalAndDragsTheScoreDown() {
+        MediaQuality quality = new MediaQuality("123456789");
+        MediaStats stats = new MediaStats();
+        stats.playoutDelayMillis = 40;
+        stats.roundTripMillis = 60;
+        stats.jitterMillis = 3.5;
+        // Nine clean seconds, then one with 10% loss.
+        for (int second = 1; second <= 9; second++) {
+            stats.packetsReceived += 50;
+            stats.packetsSent += 50;
+            quality.sample(stats);
+        }
+        stats.packetsReceived += 45;
+        stats.packetsLost += 4;
+        stats.packetsLate += 1;
+        stats.underruns += 2;
+        quality.sample(stats);
+
+        assertEquals(10, quality.getSamples());
+        assertEquals(10, quality.getLoss().getCount());
+        assertEquals(10.0, quality.getLoss().getMax(), 0.001);
+        assertEquals(1.0, quality.getLoss().getMean(), 0.001);
+        assertEquals(2, quality.getUnderruns());
+        assertEquals(60000, quality.getRoundTrip().getMaxMicros());
+        assertEquals(3500, quality.getJitter().getMaxMicros());
+        double clean = quality.getMos().getMax();
+        double lossy = quality.getMos().getMin();
+        assertTrue(clean > 4.3);
+        assertTrue(lossy < clean - 0.5);
+    }
+
+    @Test
+    public void scoreFallsWithDelay() {
+        double near = MediaQuality.estimateMos(0, 60);
+        double far = MediaQuality.estimateMos(0, 400);
+        assertTrue(near > 4.3);
+        assertTrue(far < 4.0);
+        assertEquals(1.0, MediaQuality.estimateMos(100, 1000), 0.001);
+    }
+
+    @Test
+    public void exportsJson() {
+        MediaQuality quality = new MediaQuality("42");
+        MediaStats stats = new MediaStats();
+        stats.packetsReceived = 50;
+        quality.sample(stats);
+        quality.finish();
+        String json = quality.toJson();
+        assertTrue(json, json.startsWith("{\"callId\":\"42\",\"finished\":true,\"samples\":1,"));
+        assertTrue(json, json.contains("\"lossPercent\":{\"count\":1,\"mean\":0.00,"));
+        assertTrue(json, json.contains("\"roundTrip\":{\"count\":0,"));
+        assertTrue(json, json.endsWith("}}"));
+    }
+
+    @Test
+    public void snapshotIsLeftAloneByLaterSamples() {
+        MediaQuality quality = new MediaQuality("123456789");
+        MediaStats stats = new MediaStats();
+        stats.roundTripMillis = 60;
+        stats.packetsReceived = 50;
+        quality.sample(stats);
+        MediaQuality snapshot = quality.snapshot();
+
+        stats.roundTripMillis = 400;
+        stats.packetsReceived = 90;
+        stats.packetsLost = 10;
+        quality.sample(stats);
+        quality.finish();
+
+        assertEquals(1, snapshot.getSamples());
+        assertEquals(50, snapshot.getPacketsReceived());
+        assertEquals(0, snapshot.getPacketsLost());
+        assertEquals(1, snapshot.getRoundTrip().getCount());
+        assertEquals(60000, snapshot.getRoundTrip().getMaxMicros());
+        assertEquals(0.0, snapshot.getLoss().getMax(), 0.001);
+        assertFalse(snapshot.isFinished());
+        assertEquals(2, quality.getSamples());
+        assertEquals(20.0, quality.getLoss().getMax(), 0.001);
+        assertEquals("123456789", snapshot.getCallId());
+    }
+}
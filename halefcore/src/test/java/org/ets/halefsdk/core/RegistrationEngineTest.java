@@ -0,0 +1,152 @@
+package org.ets.halefsdk.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegistrationEngineTest {
+    private static final SipAccount ACCOUNT = new SipAccount("halef.example.org", "demo", "secret");
+    private static final long HOUR = 3600000;
+
+    /** Succeeds every open after the first {@code failures}, answering from the timer thread. */
+    private class FakeRegistrar implements RegistrationEngine.Registrar {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        int failures;
+
+        @Override
+        public void open(final SipAccount account) {
+            calls.add("open");
+            final boolean fail = failures-- > 0;
+            timers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (fail) {
+                        engine.onRegistrationFailed(account.getUri(), 503, "Service Unavailable");
+                    } else {
+                        engine.onRegistered(account.getUri(), System.currentTimeMillis() + HOUR);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void refresh(SipAccount account) {
+            calls.add("refresh");
+        }
+
+        @Override
+        public void close(SipAccount account) {
+            calls.add("close");
+        }
+    }
+
+    private static class CountingListener implements RegistrationEngine.Listener {
+        int fresh;
+        int warm;
+        int failed;
+
+        @Override
+        public synchronized void onRegistering(SipAccount account) {
+        }
+
+        @Override
+        public synchronized void onRegistered(SipAccount account, boolean isFresh) {
+            if (isFresh) {
+                fresh++;
+            } else {
+                warm++;
+            }
+        }
+
+        @Override
+        public synchronized void onRegistrationFailed(SipAccount account, SetupException cause, long retryMillis) {
+            failed++;
+        }
+    }
+
+    private ScheduledExecutorService timers;
+    private FakeRegistrar registrar;
+    private CountingListener listener;
+    private RegistrationEngine engine;
+
+    @Before
+    public void setUp() {
+        timers = Executors.newSingleThreadScheduledExecutor();
+        registrar = new FakeRegistrar();
+        listener = new CountingListener();
+        engine = new RegistrationEngine(registrar, listener, timers,
+                new Backoff(10, 40, new Random(1)), null, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        timers.shutdownNow();
+    }
+
+    @Test
+    public void secondRegisterIsAnsweredFromTheWarmRegistration() throws Exception {
+        engine.register(ACCOUNT).get(5, TimeUnit.SECONDS);
+        SetupHandle again = engine.register(new SipAccount("halef.example.org", "demo", "secret"));
+
+        assertTrue(again.isSucceeded());
+        assertEquals(1, listener.fresh);
+        assertEquals(1, listener.warm);
+        assertEquals(Collections.singletonList("open"), registrar.calls);
+    }
+
+    @Test
+    public void failuresAreRetriedUntilRegistered() throws Exception {
+        registrar.failures = 2;
+        engine.register(ACCOUNT).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, listener.failed);
+        assertEquals(3, registrar.calls.size());
+        assertTrue(engine.isRegistered());
+    }
+
+    @Test
+    public void unregisterClosesAndForgetsTheAccount() throws Exception {
+        engine.register(ACCOUNT).get(5, TimeUnit.SECONDS);
+        engine.unregister();
+
+        assertEquals("close", registrar.calls.get(registrar.calls.size() - 1));
+        assertEquals(RegistrationEngine.State.IDLE, engine.getState());
+        engine.register(ACCOUNT).get(5, TimeUnit.SECONDS);
+        assertEquals(2, listener.fresh);
+    }
+
+    @Test
+    public void refreshLandsOnTheGridInsideTheWindow() {
+        long now = 1000000007L;
+        long delay = RegistrationEngine.refreshDelay(now, now + HOUR);
+        assertEquals(0, (now + delay) % RegistrationEngine.REFRESH_GRID_MILLIS);
+        assertTrue(delay >= HOUR / 2 && delay <= HOUR * 8 / 10);
+
+        // Too short a lifetime to contain a grid point: refresh at 80%.
+        long shortDelay = RegistrationEngine.refreshDelay(now + 1, now + 1 + 10000);
+        assertEquals(8000, shortDelay);
+    }
+
+    @Test
+    public void backoffGrowsWithJitterUpToTheCap() {
+        Backoff backoff = new Backoff(100, 1000, new Random(7));
+        long[] ceilings = { 100, 200, 400, 800, 1000, 1000 };
+        for (long ceiling : ceilings) {
+            long delay = backoff.nextDelayMillis();
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+        }
+        backoff.reset();
+        assertTrue(backoff.nextDelayMillis() <= 100);
+    }
+}
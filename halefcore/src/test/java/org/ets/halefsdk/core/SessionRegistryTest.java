@@ -0,0 +1,88 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRegistryTest {
+
+    private static final class Recorder implements CallHandle.StateListener {
+        final List<CallState> states = new ArrayList<CallState>();
+
+        @Override
+        public void onStateChanged(CallHandle call, CallState state) {
+            states.add(state);
+        }
+    }
+
+    @Test
+    public void idIsReusableOnlyOnceItsSessionIsRemoved() throws Exception {
+        SessionRegistry<CallSession> sessions = new SessionRegistry<CallSession>();
+        CallSession first = new CallSession("123456789", "8000");
+        CallSession again = new CallSession("123456789", "8001");
+
+        assertTrue(sessions.add(first));
+        assertFalse(sessions.add(again));
+        assertSame(first, sessions.get("123456789"));
+        assertNull(sessions.get("987654321"));
+        assertNull(sessions.get(null));
+        // Not registered, so it must not take the live session with it.
+        assertFalse(sessions.remove(again));
+        assertSame(first, sessions.get("123456789"));
+
+        assertTrue(sessions.remove(first));
+        assertTrue(sessions.isEmpty());
+        assertNull(sessions.get("123456789"));
+
+        assertTrue(sessions.add(again));
+        assertSame(again, sessions.get("123456789"));
+        // A late cleanup of the first call leaves the one that reused its ID alone.
+        assertFalse(sessions.remove(first));
+        assertSame(again, sessions.get("123456789"));
+        assertEquals(1, sessions.size());
+    }
+
+    @Test
+    public void overlappingSessionsOnlySeeTheirOwnTransitions() throws Exception {
+        SessionRegistry<CallSession> sessions = new SessionRegistry<CallSession>();
+        CallSession a = new CallSession("111111111", "8000");
+        CallSession b = new CallSession("222222222", "8000");
+        Recorder toA = new Recorder();
+        Recorder toB = new Recorder();
+        a.getHandle().addStateListener(toA);
+        b.getHandle().addStateListener(toB);
+        sessions.add(a);
+        sessions.add(b);
+        assertEquals(2, sessions.all().size());
+
+        assertTrue(sessions.get("111111111").moveTo(CallState.CALLING));
+        assertTrue(sessions.get("222222222").moveTo(CallState.CALLING));
+        assertTrue(sessions.get("222222222").moveTo(CallState.IN_PROGRESS));
+        assertTrue(sessions.get("111111111").moveTo(CallState.FAILED));
+        assertFalse(sessions.get("111111111").moveTo(CallState.IN_PROGRESS));
+        sessions.remove(a);
+
+        // The ID comes back for a new call; what is routed to it now is the new call's.
+        CallSession c = new CallSession("111111111", "8002");
+        Recorder toC = new Recorder();
+        c.getHandle().addStateListener(toC);
+        assertTrue(sessions.add(c));
+        assertTrue(sessions.get("111111111").moveTo(CallState.CALLING));
+        assertTrue(sessions.get("222222222").moveTo(CallState.ENDED));
+
+        assertEquals(Arrays.asList(CallState.IDLE, CallState.CALLING, CallState.FAILED), toA.states);
+        assertEquals(Arrays.asList(CallState.IDLE, CallState.CALLING, CallState.IN_PROGRESS, CallState.ENDED),
+                toB.states);
+        assertEquals(Arrays.asList(CallState.IDLE, CallState.CALLING), toC.states);
+        assertEquals(CallState.FAILED, a.getState());
+        assertEquals(CallState.CALLING, c.getState());
+    }
+}
@@ -0,0 +1,120 @@
+package org.ets.halefsdk.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionReplayerTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("session", ".hsr");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static class Client implements EventLoop.Dispatcher {
+        final List<SdkEvent> events = new ArrayList<SdkEvent>();
+        final List<Long> dispatchedNanos = new ArrayList<Long>();
+
+        @Override
+        public void dispatch(SdkEvent event) {
+            if (event.getType() == SdkEvent.Type.TASK) {
+                ((Runnable) event.getTag()).run();
+                return;
+            }
+            events.add(event);
+            dispatchedNanos.add(System.nanoTime());
+        }
+    }
+
+    /** A registration, then a call with one message every 20 ms and the end of speech; tasks are not kept. */
+    private void record(int messages) throws Exception {
+        SessionRecorder recorder = new SessionRecorder(file);
+        recorder.open();
+        long t = System.nanoTime();
+        recorder.record(new SdkEvent(SdkEvent.Type.REGISTER_STATUS, null, 3, null, null, null, t));
+        recorder.record(new SdkEvent(SdkEvent.Type.CALL_STATUS, "c1", 5, null, null, null, t));
+        for (int i = 0; i < messages; i++) {
+            t += TimeUnit.MILLISECONDS.toNanos(20);
+            recorder.record(new SdkEvent(SdkEvent.Type.FEEDBACK_MESSAGE, "c1", 0, "{\"n\":" + i + ",\"\u00e9\":1}",
+                    null, null, t));
+        }
+        recorder.record(new SdkEvent(SdkEvent.Type.SPEECH_ENDED, "c1", -1, null, null, null, t));
+        assertFalse(recorder.record(SdkEvent.task(new Runnable() {
+            @Override
+            public void run() {
+            }
+        })));
+        recorder.close();
+        assertEquals(messages + 3, recorder.getRecorded());
+        assertEquals(0, recorder.getDropped());
+        assertNull(recorder.getError());
+    }
+
+    @Test
+    public void recordingRoundTripsAndTruncatedTailIsIgnored() throws Exception {
+        record(10);
+        List<SdkEvent> events = new SessionReplayer(file).read();
+        assertEquals(13, events.size());
+        assertEquals(SdkEvent.Type.REGISTER_STATUS, events.get(0).getType());
+        assertEquals(3, events.get(0).getStatus());
+        assertNull(events.get(0).getCallId());
+        assertEquals("c1", events.get(1).getCallId());
+        assertEquals(5, events.get(1).getStatus());
+        assertEquals("{\"n\":9,\"\u00e9\":1}", events.get(11).getMessage());
+        assertEquals(-1, events.get(12).getStatus());
+        for (SdkEvent event : events) {
+            assertTrue(event.isReplayed());
+        }
+        assertFalse(SdkEvent.debugMessage("live").isReplayed());
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(raw.length() - 5);
+        raw.close();
+        assertEquals(12, new SessionReplayer(file).read().size());
+    }
+
+    @Test
+    public void replayKeepsTheRecordedPaceScaledBySpeed() throws Exception {
+        record(10);
+        Client client = new Client();
+        EventLoop loop = new EventLoop(client, 64, null);
+        loop.start();
+        try {
+            SessionReplayer.Result result = new SessionReplayer(file).replay(loop, 2);
+            assertTrue(result.isDrained());
+            assertEquals(13, result.getEvents());
+            assertEquals(0, result.getDropped());
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(200), result.getRecordedNanos());
+            // 200 ms recorded, played at twice the speed.
+            long span = client.dispatchedNanos.get(11) - client.dispatchedNanos.get(1);
+            assertTrue("span " + span, span >= TimeUnit.MILLISECONDS.toNanos(90));
+            assertTrue("span " + span, span < TimeUnit.MILLISECONDS.toNanos(400));
+
+            client.events.clear();
+            result = new SessionReplayer(file).replay(loop, SessionReplayer.AS_FAST_AS_POSSIBLE);
+            assertTrue(result.isDrained());
+            assertEquals(13, client.events.size());
+            assertTrue(result.getElapsedNanos() < TimeUnit.MILLISECONDS.toNanos(100));
+        } finally {
+            loop.stop();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.ets.halefsdk.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StartupPipelineTest {
+
+    @Test
+    public void independentStepsOverlapAndAreTraced() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        StartupTrace trace = new StartupTrace(true, System.nanoTime());
+        StartupPipeline pipeline = new StartupPipeline(executor, trace);
+        // Each step waits for the other to start, so they only finish if they run side by side.
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        Callable<String> step = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                bothRunning.countDown();
+                assertTrue(bothRunning.await(5, TimeUnit.SECONDS));
+                return Thread.currentThread().getName();
+            }
+        };
+        StartupPipeline.Step<String> first = pipeline.start("first", step);
+        StartupPipeline.Step<String> second = pipeline.start("second", step);
+        assertFalse(first.get().equals(second.get()));
+        trace.mark("ready");
+        executor.shutdown();
+
+        assertTrue(trace.reached("first"));
+        assertTrue(trace.durationNanos("second") >= 0);
+        assertEquals(0, trace.durationNanos("ready"));
+        assertTrue(trace.elapsedNanos("ready") >= trace.elapsedNanos("first"));
+        String json = trace.toJson();
+        assertTrue(json, json.startsWith("{\"cold\":true,\"phasesUs\":{\"first\":["));
+        assertTrue(json, json.contains("\"ready\":["));
+    }
+
+    @Test
+    public void getRunsAStepNoThreadPickedUpAndReportsFailures() throws Exception {
+        final List<Runnable> parked = new ArrayList<Runnable>();
+        Executor busy = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                parked.add(task);
+            }
+        };
+        StartupPipeline pipeline = new StartupPipeline(busy, new StartupTrace(false, System.nanoTime()));
+        StartupPipeline.Step<String> step = pipeline.start("profile", new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        });
+        assertEquals(Thread.currentThread().getName(), step.get());
+        // The executor getting to it later does not run it again.
+        parked.get(0).run();
+        assertTrue(step.isDone());
+
+        StartupPipeline.Step<Void> broken = pipeline.start("socket", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new java.net.URISyntaxException("x", "bad");
+            }
+        });
+        try {
+            broken.get();
+            fail();
+        } catch (SetupException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("socket failed"));
+        }
+        assertTrue(pipeline.getTrace().reached("socket"));
+    }
+}
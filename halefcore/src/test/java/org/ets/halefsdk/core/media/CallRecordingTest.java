@@ -0,0 +1,115 @@
+package org.ets.halefsdk.core.media;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CallRecordingTest {
+
+    private File directory;
+    private CallRecording recording;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("recordings", "");
+        directory.delete();
+        recording = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (recording != null) {
+            recording.close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void writesSegmentedWavFilesKeyedByCall() throws Exception {
+        recording = new CallRecording(directory, "123456789", 64, 1);
+        recording.start();
+        short[] frame = new short[AudioDevice.FRAME_SAMPLES];
+        // 1.5 s of audio, paced so the writer keeps up with a small ring.
+        for (int i = 0; i < 75; i++) {
+            frame[0] = (short) i;
+            recording.onFrame(frame, frame.length);
+            if (i % 10 == 9) {
+                Thread.sleep(CallRecording.DRAIN_MILLIS * 2);
+            }
+        }
+        recording.close();
+
+        assertNull(recording.getError());
+        assertEquals(0, recording.getFramesDropped());
+        assertEquals(75, recording.getFramesWritten());
+        List<File> files = recording.getFiles();
+        assertEquals(2, files.size());
+        assertEquals("123456789-000.wav", files.get(0).getName());
+        assertEquals("123456789-001.wav", files.get(1).getName());
+        assertEquals(50 * AudioDevice.FRAME_SAMPLES * 2, dataBytes(files.get(0)));
+        assertEquals(25 * AudioDevice.FRAME_SAMPLES * 2, dataBytes(files.get(1)));
+        assertEquals(WavWriter.HEADER_BYTES + 25 * AudioDevice.FRAME_SAMPLES * 2, files.get(1).length());
+        // First sample of the second file is frame 50's marker.
+        assertEquals(50, sample(files.get(1), 0));
+    }
+
+    @Test
+    public void fullRingDropsAndCountsInsteadOfBlocking() throws Exception {
+        recording = new CallRecording(directory, "987654321", 4, 60);
+        short[] frame = new short[AudioDevice.FRAME_SAMPLES];
+        // Writer not started yet: the ring fills and the rest is dropped.
+        for (int i = 0; i < 10; i++) {
+            recording.onFrame(frame, frame.length);
+        }
+        assertEquals(10, recording.getFramesCaptured());
+        assertEquals(6, recording.getFramesDropped());
+        recording.start();
+        recording.close();
+        assertEquals(4, recording.getFramesWritten());
+        assertEquals(4 * AudioDevice.FRAME_SAMPLES * 2, dataBytes(recording.getFiles().get(0)));
+    }
+
+    private static int dataBytes(File file) throws IOException {
+        return header(file).getInt(40);
+    }
+
+    private static short sample(File file, int index) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(WavWriter.HEADER_BYTES + index * 2);
+            return (short) ((raf.read() & 0xFF) | (raf.read() << 8));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static ByteBuffer header(File file) throws IOException {
+        byte[] bytes = new byte[WavWriter.HEADER_BYTES];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x46464952, header.getInt(0));
+        assertEquals(AudioDevice.SAMPLE_RATE, header.getInt(24));
+        return header;
+    }
+}
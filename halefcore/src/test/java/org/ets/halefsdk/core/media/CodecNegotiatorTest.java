@@ -0,0 +1,65 @@
+package org.ets.halefsdk.core.media;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CodecNegotiatorTest {
+
+    /** A codec we pretend to have, at a low bitrate on a dynamic payload type. */
+    private static final Codec NARROW = new Codec() {
+        public int getPayloadType() {
+            return 101;
+        }
+
+        public String getEncoding() {
+            return "G726-32";
+        }
+
+        public int getClockRate() {
+            return 8000;
+        }
+
+        public int getBitrate() {
+            return 32000;
+        }
+
+        public int getAlgorithmicDelayMillis() {
+            return 0;
+        }
+
+        public int encode(short[] pcm, int offset, int samples, byte[] out, int outOffset) {
+            return 0;
+        }
+
+        public int decode(byte[] in, int offset, int length, short[] pcm, int pcmOffset) {
+            return 0;
+        }
+    };
+
+    @Test
+    public void offersLowBitrateFirstAndPicksItWhenAccepted() {
+        CodecNegotiator negotiator = new CodecNegotiator(G711.ULAW, G711.ALAW, NARROW);
+        assertSame(NARROW, negotiator.getOffer().get(0));
+
+        String sdp = Sdp.offer("1", "127.0.0.1", 4000, negotiator.getOffer());
+        assertEquals("m=audio 4000 RTP/AVP 101 0 8", sdp.split("\r\n")[5]);
+
+        Sdp.Media answer = Sdp.parseAudio("v=0\r\nc=IN IP4 10.0.0.1\r\nm=audio 5000 RTP/AVP 8 97\r\n"
+                + "a=rtpmap:97 g726-32/8000\r\n");
+        assertSame(NARROW, negotiator.choose(answer));
+    }
+
+    @Test
+    public void dynamicTypesNeedAMatchingRtpmap() {
+        CodecNegotiator negotiator = new CodecNegotiator(G711.ULAW, NARROW);
+        Sdp.Media answer = Sdp.parseAudio("v=0\r\nc=IN IP4 10.0.0.1\r\nm=audio 5000 RTP/AVP 101 0\r\n"
+                + "a=rtpmap:101 telephone-event/8000\r\n");
+        assertSame(G711.ULAW, negotiator.choose(answer));
+
+        Sdp.Media none = Sdp.parseAudio("v=0\r\nc=IN IP4 10.0.0.1\r\nm=audio 5000 RTP/AVP 9\r\n");
+        assertNull(negotiator.choose(none));
+    }
+}
@@ -0,0 +1,91 @@
+package org.ets.halefsdk.core.media;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JitterBufferTest {
+    private static final long FRAME_NANOS = AudioDevice.FRAME_MILLIS * 1000000L;
+
+    private final short[] in = new short[AudioDevice.FRAME_SAMPLES];
+    private final short[] out = new short[AudioDevice.FRAME_SAMPLES];
+
+    @Test
+    public void playsReorderedPacketsInSequence() {
+        JitterBuffer buffer = new JitterBuffer(32, 40, 200, 3.0);
+        int[] arrivalOrder = { 0, 2, 1, 3, 5, 4, 6, 7 };
+        int expected = 0;
+        for (int tick = 0; tick <= arrivalOrder.length; tick++) {
+            if (tick < arrivalOrder.length) {
+                offer(buffer, arrivalOrder[tick], tick * FRAME_NANOS);
+            }
+            if (buffer.poll(out) == JitterBuffer.Playout.FRAME) {
+                assertEquals(expected++, out[0]);
+            }
+        }
+        assertEquals(arrivalOrder.length, expected);
+        assertEquals(0, buffer.getConcealed());
+    }
+
+    @Test
+    public void concealsALostFrameWithAFadedCopy() {
+        JitterBuffer buffer = new JitterBuffer(32, 20, 200, 3.0);
+        offer(buffer, 0, 0);
+        offer(buffer, 2, FRAME_NANOS * 2);
+        assertEquals(JitterBuffer.Playout.FRAME, buffer.poll(out));
+        assertEquals(JitterBuffer.Playout.CONCEALED, buffer.poll(out));
+        assertTrue(Math.abs(out[1]) < 1000);
+        assertEquals(JitterBuffer.Playout.FRAME, buffer.poll(out));
+        assertEquals(2, out[0]);
+        assertEquals(1, buffer.getLost());
+    }
+
+    @Test
+    public void lateFramesAreDropped() {
+        JitterBuffer buffer = new JitterBuffer(32, 20, 200, 3.0);
+        offer(buffer, 5, 0);
+        buffer.poll(out);
+        buffer.poll(out);
+        assertTrue(!offer(buffer, 4, FRAME_NANOS));
+        assertEquals(1, buffer.getLate());
+    }
+
+    @Test
+    public void delayFollowsJitter() {
+        PacketTrace calm = PacketTrace.synthetic(1500, 2, 0, new Random(1));
+        PacketTrace rough = PacketTrace.synthetic(1500, 80, 0, new Random(1));
+        JitterBuffer calmBuffer = new JitterBuffer();
+        JitterBuffer roughBuffer = new JitterBuffer();
+        PacketTrace.Result calmResult = calm.replay(calmBuffer, in);
+        PacketTrace.Result roughResult = rough.replay(roughBuffer, in);
+
+        assertEquals(JitterBuffer.DEFAULT_MIN_DELAY_MILLIS, calmBuffer.getTargetDelayMillis());
+        assertTrue(roughBuffer.getTargetDelayMillis() > calmBuffer.getTargetDelayMillis());
+        assertTrue(roughResult.getMeanBufferedMillis() > calmResult.getMeanBufferedMillis());
+        // Most of the stream survives even 80 ms of jitter.
+        assertTrue(roughResult.getConcealed() < 1500 / 10);
+        assertEquals(0, calmResult.getConcealed());
+    }
+
+    @Test
+    public void traceSurvivesTextRoundTrip() throws Exception {
+        PacketTrace trace = PacketTrace.synthetic(50, 30, 0.1, new Random(7));
+        StringWriter text = new StringWriter();
+        trace.write(text);
+        PacketTrace copy = PacketTrace.read(new StringReader(text.toString()));
+
+        assertEquals(trace.size(), copy.size());
+        assertEquals(trace.replay(new JitterBuffer(), in).toString(), copy.replay(new JitterBuffer(), in).toString());
+    }
+
+    private boolean offer(JitterBuffer buffer, int sequence, long arrivalNanos) {
+        Arrays.fill(in, (short) sequence);
+        return buffer.offer(sequence, sequence * AudioDevice.FRAME_SAMPLES, arrivalNanos, in, in.length);
+    }
+}
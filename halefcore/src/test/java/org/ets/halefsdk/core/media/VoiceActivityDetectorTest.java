@@ -0,0 +1,85 @@
+package org.ets.halefsdk.core.media;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VoiceActivityDetectorTest {
+
+    private static final long FRAME_NANOS = AudioDevice.FRAME_MILLIS * 1000000L;
+
+    private final List<String> events = new ArrayList<String>();
+    private final Random random = new Random(7);
+    private final short[] frame = new short[AudioDevice.FRAME_SAMPLES];
+    private long now;
+
+    private final VoiceActivityDetector.Listener recorder = new VoiceActivityDetector.Listener() {
+        @Override
+        public void onSpeechStart(long nanos) {
+            events.add("start@" + nanos / FRAME_NANOS);
+        }
+
+        @Override
+        public void onSpeechEnd(long nanos, long speechMillis) {
+            events.add("end@" + nanos / FRAME_NANOS + "/" + speechMillis);
+        }
+    };
+
+    @Test
+    public void speechBetweenNoiseStartsAndEndsOnce() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(recorder, 9, 3, 10);
+        feed(vad, 50, 200, 0);
+        assertTrue(events.isEmpty());
+        // One second of loud tone over the same noise, then noise again.
+        feed(vad, 50, 200, 6000);
+        assertTrue(vad.isSpeaking());
+        feed(vad, 50, 200, 0);
+        assertFalse(vad.isSpeaking());
+        assertEquals(2, events.size());
+        assertEquals("start@50", events.get(0));
+        assertEquals("end@99/1000", events.get(1));
+        assertEquals(1, vad.getSegments());
+    }
+
+    @Test
+    public void clicksShorterThanStartFramesAreIgnored() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(recorder, 9, 3, 10);
+        feed(vad, 50, 200, 0);
+        for (int i = 0; i < 10; i++) {
+            feed(vad, 2, 200, 8000);
+            feed(vad, 10, 200, 0);
+        }
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void floorFollowsRisingBackgroundNoise() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(recorder);
+        feed(vad, 50, 100, 0);
+        double quiet = vad.getNoiseFloorDb();
+        // The room gets noisier in small steps, none of them loud enough to be speech.
+        for (int level = 150; level <= 1200; level += 50) {
+            feed(vad, 25, level, 0);
+        }
+        assertTrue(events.isEmpty());
+        assertTrue(vad.getNoiseFloorDb() > quiet + 15);
+    }
+
+    /** {@code frames} frames of white noise of amplitude {@code noise} plus a 440 Hz tone. */
+    private void feed(VoiceActivityDetector vad, int frames, int noise, int tone) {
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < frame.length; i++) {
+                double t = (double) i / AudioDevice.SAMPLE_RATE;
+                frame[i] = (short) (tone * Math.sin(2 * Math.PI * 440 * t) + noise * (2 * random.nextDouble() - 1));
+            }
+            vad.process(frame, frame.length, now);
+            now += FRAME_NANOS;
+        }
+    }
+}
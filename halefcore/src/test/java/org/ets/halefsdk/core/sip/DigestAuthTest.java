@@ -0,0 +1,29 @@
+package org.ets.halefsdk.core.sip;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DigestAuthTest {
+
+    @Test
+    public void matchesTheRfc2617Example() {
+        assertEquals("6629fae49393a05397450978507c4ef1", DigestAuth.response("Mufasa", "testrealm@host.com",
+                "Circle Of Life", "GET", "/dir/index.html", "dcd98b7102dd2f0e8b11d0f600bfb0c093",
+                "00000001", "0a4f113b"));
+    }
+
+    @Test
+    public void authorizationAnswersTheChallenge() {
+        String header = DigestAuth.authorization("Digest realm=\"halef\", nonce=\"abc\", qop=\"auth\"",
+                "REGISTER", "sip:127.0.0.1", "alice", "secret", "c0ffee");
+        Map<String, String> params = DigestAuth.parse(header);
+
+        assertEquals("alice", params.get("username"));
+        assertEquals("sip:127.0.0.1", params.get("uri"));
+        assertEquals(DigestAuth.response("alice", "halef", "secret", "REGISTER", "sip:127.0.0.1", "abc",
+                params.get("nc"), "c0ffee"), params.get("response"));
+    }
+}
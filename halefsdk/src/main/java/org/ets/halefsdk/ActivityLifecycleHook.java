@@ -0,0 +1,66 @@
+package org.ets.halefsdk;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Reports destroyed activities through {@link Application.ActivityLifecycleCallbacks}.
+ * Those need API 14, so this class must only be loaded behind a
+ * {@link Build.VERSION_CODES#ICE_CREAM_SANDWICH} check; older releases rely on weak
+ * entries and explicit unregistering instead.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+final class ActivityLifecycleHook implements Application.ActivityLifecycleCallbacks {
+    interface Listener {
+        void activityDestroyed(Activity activity);
+    }
+
+    private final Listener listener;
+
+    private ActivityLifecycleHook(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Returns the registered hook, typed as Object so callers still load on older releases. */
+    static Object register(Application application, Listener listener) {
+        ActivityLifecycleHook hook = new ActivityLifecycleHook(listener);
+        application.registerActivityLifecycleCallbacks(hook);
+        return hook;
+    }
+
+    static void unregister(Application application, Object hook) {
+        application.unregisterActivityLifecycleCallbacks((ActivityLifecycleHook) hook);
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        listener.activityDestroyed(activity);
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+}
@@ -0,0 +1,127 @@
+package org.ets.halefsdk;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.os.Process;
+
+import org.ets.halefsdk.core.media.AudioDevice;
+import org.ets.halefsdk.core.media.FrameRing;
+
+import java.util.Arrays;
+
+/**
+ * Microphone and earpiece/speaker for {@link org.ets.halefsdk.core.sip.NioSipUserAgent}.
+ * AudioRecord and AudioTrack block, so a capture and a playout thread each move frames
+ * through a small {@link FrameRing}; {@link #read} and {@link #write} only copy and never
+ * block the user agent's loop. Underruns play silence and overruns drop the newest frame.
+ */
+public class AndroidAudioDevice implements AudioDevice {
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public AudioDevice open() {
+            return new AndroidAudioDevice();
+        }
+    };
+
+    private static final int RING_FRAMES = 8;
+
+    private final FrameRing mCaptured = new FrameRing(RING_FRAMES);
+    private final FrameRing mPlayout = new FrameRing(RING_FRAMES);
+    private volatile boolean mRunning;
+    private Thread mCaptureThread;
+    private Thread mPlayoutThread;
+
+    @Override
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mCaptureThread = new Thread(mCapture, "HalefAudioCapture");
+        mPlayoutThread = new Thread(mPlay, "HalefAudioPlayout");
+        mCaptureThread.start();
+        mPlayoutThread.start();
+    }
+
+    @Override
+    public int read(short[] frame) {
+        if (!mCaptured.take(frame)) {
+            Arrays.fill(frame, 0, FRAME_SAMPLES, (short) 0);
+        }
+        return FRAME_SAMPLES;
+    }
+
+    @Override
+    public void write(short[] frame, int length) {
+        mPlayout.put(frame, length);
+    }
+
+    @Override
+    public synchronized void stop() {
+        mRunning = false;
+        if (mCaptureThread != null) {
+            mCaptureThread.interrupt();
+            mPlayoutThread.interrupt();
+            mCaptureThread = null;
+            mPlayoutThread = null;
+        }
+    }
+
+    private final Runnable mCapture = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            int size = Math.max(AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT), 4 * FRAME_SAMPLES * 2);
+            AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.VOICE_COMMUNICATION, SAMPLE_RATE,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, size);
+            short[] frame = new short[FRAME_SAMPLES];
+            try {
+                record.startRecording();
+                while (mRunning) {
+                    int read = 0;
+                    while (read < FRAME_SAMPLES && mRunning) {
+                        int n = record.read(frame, read, FRAME_SAMPLES - read);
+                        if (n <= 0) {
+                            return;
+                        }
+                        read += n;
+                    }
+                    mCaptured.put(frame, FRAME_SAMPLES);
+                }
+            } finally {
+                record.stop();
+                record.release();
+            }
+        }
+    };
+
+    private final Runnable mPlay = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            int size = Math.max(AudioTrack.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT), 4 * FRAME_SAMPLES * 2);
+            AudioTrack track = new AudioTrack(AudioManager.STREAM_VOICE_CALL, SAMPLE_RATE,
+                    AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT, size, AudioTrack.MODE_STREAM);
+            short[] frame = new short[FRAME_SAMPLES];
+            try {
+                track.play();
+                while (mRunning) {
+                    if (!mPlayout.take(frame)) {
+                        Arrays.fill(frame, (short) 0);
+                    }
+                    // Blocks for about a frame once the track's buffer is full, which paces us.
+                    track.write(frame, 0, FRAME_SAMPLES);
+                }
+            } finally {
+                track.stop();
+                track.release();
+            }
+        }
+    };
+}
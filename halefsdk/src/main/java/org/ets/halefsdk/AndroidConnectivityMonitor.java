@@ -0,0 +1,90 @@
+package org.ets.halefsdk;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import org.ets.halefsdk.core.NetworkHandover;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Enumeration;
+
+/**
+ * Passes connectivity broadcasts on to a {@link NetworkHandover}. The network is told apart
+ * by its type and our address on it, so moving between two Wi-Fi networks counts as a change
+ * just like moving from Wi-Fi to cellular. Needs ACCESS_NETWORK_STATE.
+ */
+class AndroidConnectivityMonitor extends BroadcastReceiver {
+    private final Context mContext;
+    private final NetworkHandover mHandover;
+    private boolean mStarted;
+
+    AndroidConnectivityMonitor(Context context, NetworkHandover handover) {
+        mContext = context.getApplicationContext();
+        mHandover = handover;
+    }
+
+    /** Reports the network in use now and every change from here on. */
+    synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        // The sticky broadcast is delivered at once, so the current network comes in with it.
+        mContext.registerReceiver(this, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    synchronized void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mContext.unregisterReceiver(this);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+            mHandover.onNetworkChanged(null);
+            return;
+        }
+        ConnectivityManager connectivity =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = connectivity != null ? connectivity.getActiveNetworkInfo() : null;
+        if (info == null || !info.isConnected()) {
+            mHandover.onNetworkChanged(null);
+            return;
+        }
+        String address = localAddress();
+        mHandover.onNetworkChanged(info.getTypeName() + (address != null ? "/" + address : ""));
+    }
+
+    /** Our first IPv4 address that is not loopback, or null if there is none. */
+    private static String localAddress() {
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+                while (addresses.hasMoreElements()) {
+                    InetAddress address = addresses.nextElement();
+                    if (address instanceof Inet4Address) {
+                        return address.getHostAddress();
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            // Fall back to the network type alone.
+        }
+        return null;
+    }
+}
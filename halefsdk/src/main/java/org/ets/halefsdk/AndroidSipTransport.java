@@ -0,0 +1,212 @@
+package org.ets.halefsdk;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.sip.SipAudioCall;
+import android.net.sip.SipException;
+import android.net.sip.SipManager;
+import android.net.sip.SipProfile;
+import android.net.sip.SipRegistrationListener;
+
+import org.ets.halefsdk.core.SetupException;
+import org.ets.halefsdk.core.SipAccount;
+import org.ets.halefsdk.core.media.AudioTap;
+import org.ets.halefsdk.core.media.MediaStats;
+import org.ets.halefsdk.core.sip.SipTransport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** {@link SipTransport} on the platform stack, {@code android.net.sip.SipManager}. */
+public class AndroidSipTransport implements SipTransport {
+    private static final String INCOMING_CALL_ACTION = "android.halef.ets.org.INCOMING_CALL";
+
+    private final Context mContext;
+    private final SipManager mSipManager;
+    private final Map<SipAccount, SipProfile> mProfiles = new HashMap<SipAccount, SipProfile>();
+
+    public AndroidSipTransport(Context context) {
+        mContext = context;
+        mSipManager = SipManager.newInstance(context);
+    }
+
+    @Override
+    public synchronized void register(SipAccount account, int expirySeconds,
+                                      final RegistrationListener listener) throws SetupException {
+        SipProfile profile = profileFor(account);
+        SipRegistrationListener sipListener = new SipRegistrationListener() {
+            public void onRegistering(String localProfileUri) {
+                listener.onRegistering(localProfileUri);
+            }
+
+            public void onRegistrationDone(String localProfileUri, long expiryTime) {
+                listener.onRegistrationDone(localProfileUri, expiryTime);
+            }
+
+            public void onRegistrationFailed(String localProfileUri, int errorCode, String errorMessage) {
+                listener.onRegistrationFailed(localProfileUri, errorCode, errorMessage);
+            }
+        };
+        try {
+            if (!mSipManager.isOpened(profile.getUriString())) {
+                // Opening registers too, with the platform's default expiry.
+                Intent intent = new Intent();
+                intent.setAction(INCOMING_CALL_ACTION);
+                PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, 0, intent, Intent.FILL_IN_DATA);
+                mSipManager.open(profile, pendingIntent, null);
+                mSipManager.setRegistrationListener(profile.getUriString(), sipListener);
+            } else {
+                mSipManager.register(profile, expirySeconds, sipListener);
+            }
+        } catch (SipException se) {
+            se.printStackTrace();
+            throw new SetupException("Could not register " + account, se);
+        }
+    }
+
+    /** Builds the profile for {@code account} ahead of {@link #register}, e.g. while other startup work runs. */
+    public synchronized void prepare(SipAccount account) throws SetupException {
+        profileFor(account);
+    }
+
+    @Override
+    public synchronized void close(SipAccount account) {
+        mProfiles.remove(account);
+        try {
+            mSipManager.close(account.getUri());
+        } catch (SipException se) {
+            se.printStackTrace();
+        }
+    }
+
+    /** The platform stack owns its sockets; its calls cannot be moved to another network. */
+    @Override
+    public boolean handOver(HandoverListener listener) {
+        return false;
+    }
+
+    @Override
+    public Call makeCall(SipAccount account, String target, CallListener listener, int timeoutSeconds)
+            throws SetupException {
+        String localUri;
+        synchronized (this) {
+            localUri = profileFor(account).getUriString();
+        }
+        PlatformCall call = new PlatformCall(listener);
+        try {
+            call.set(mSipManager.makeAudioCall(localUri, target, call.mListener, timeoutSeconds));
+        } catch (SipException se) {
+            se.printStackTrace();
+            throw new SetupException("Could not make the call", se);
+        }
+        return call;
+    }
+
+    private SipProfile profileFor(SipAccount account) throws SetupException {
+        SipProfile profile = mProfiles.get(account);
+        if (profile == null) {
+            try {
+                SipProfile.Builder builder = new SipProfile.Builder(account.getUsername(), account.getDomain());
+                builder.setPassword(account.getPassword());
+                builder.setProfileName("HALEF");
+                profile = builder.build();
+            } catch (java.text.ParseException pe) {
+                throw new SetupException("Invalid SIP account " + account, pe);
+            }
+            mProfiles.put(account, profile);
+        }
+        return profile;
+    }
+
+    /** A {@link SipAudioCall}; the platform may call back before makeAudioCall returns. */
+    private static final class PlatformCall implements Call {
+        private volatile SipAudioCall mCall;
+        private final SipAudioCall.Listener mListener;
+
+        PlatformCall(final CallListener listener) {
+            mListener = new SipAudioCall.Listener() {
+                @Override
+                public void onCallEstablished(SipAudioCall call) {
+                    set(call);
+                    listener.onCallEstablished(PlatformCall.this);
+                }
+
+                @Override
+                public void onCallEnded(SipAudioCall call) {
+                    set(call);
+                    listener.onCallEnded(PlatformCall.this);
+                }
+
+                @Override
+                public void onError(SipAudioCall call, int errorCode, String errorMessage) {
+                    set(call);
+                    listener.onError(PlatformCall.this, errorCode, errorMessage);
+                }
+            };
+        }
+
+        void set(SipAudioCall call) {
+            if (mCall == null) {
+                mCall = call;
+            }
+        }
+
+        @Override
+        public void startAudio() {
+            mCall.startAudio();
+        }
+
+        @Override
+        public void setSpeakerMode(boolean speakerMode) {
+            mCall.setSpeakerMode(speakerMode);
+        }
+
+        @Override
+        public boolean isMuted() {
+            return mCall.isMuted();
+        }
+
+        @Override
+        public void toggleMute() {
+            mCall.toggleMute();
+        }
+
+        @Override
+        public boolean isInCall() {
+            return mCall != null && mCall.isInCall();
+        }
+
+        @Override
+        public boolean setAudioTap(AudioTap tap) {
+            // SipAudioCall keeps its audio stream to itself.
+            return false;
+        }
+
+        @Override
+        public boolean readMediaStats(MediaStats out) {
+            return false;
+        }
+
+        @Override
+        public void endCall() throws SetupException {
+            SipAudioCall call = mCall;
+            if (call == null) {
+                return;
+            }
+            try {
+                call.endCall();
+            } catch (SipException se) {
+                throw new SetupException("Could not end the call", se);
+            }
+        }
+
+        @Override
+        public void close() {
+            SipAudioCall call = mCall;
+            if (call != null) {
+                call.close();
+            }
+        }
+    }
+}
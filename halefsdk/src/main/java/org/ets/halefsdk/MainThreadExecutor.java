@@ -0,0 +1,16 @@
+package org.ets.halefsdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/** Runs tasks on the main thread, in the order they were submitted. */
+class MainThreadExecutor implements Executor {
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(Runnable task) {
+        handler.post(task);
+    }
+}
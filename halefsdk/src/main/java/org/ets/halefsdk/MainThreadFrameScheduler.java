@@ -0,0 +1,53 @@
+package org.ets.halefsdk;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import org.ets.halefsdk.core.FrameScheduler;
+
+/**
+ * {@link FrameScheduler} for the main thread. Uses {@link Choreographer} where available,
+ * so work lands right before the next frame is drawn; older releases fall back to a
+ * handler post aligned to a 16 ms grid. Must be created on the main thread.
+ */
+class MainThreadFrameScheduler implements FrameScheduler {
+    private static final long FRAME_MILLIS = 16;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Kept as Object so this class still loads on releases without Choreographer.
+    private final Object choreographer;
+
+    MainThreadFrameScheduler() {
+        choreographer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? mainChoreographer() : null;
+    }
+
+    @Override
+    public void scheduleFrame(Runnable task) {
+        if (choreographer != null) {
+            postFrameCallback(task);
+        } else {
+            long now = SystemClock.uptimeMillis();
+            handler.postAtTime(task, now - now % FRAME_MILLIS + FRAME_MILLIS);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Object mainChoreographer() {
+        return Choreographer.getInstance();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback(final Runnable task) {
+        ((Choreographer) choreographer).postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                task.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,39 @@
+package org.ets.halefsdk;
+
+import org.ets.halefsdk.core.CallHistory;
+import org.ets.halefsdk.core.CallSession;
+import org.ets.halefsdk.core.CallState;
+import org.ets.halefsdk.core.MediaQuality;
+import org.ets.halefsdk.core.media.CallRecording;
+import org.ets.halefsdk.core.sip.SipTransport;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+
+/** A {@link CallSession} driven by the {@link SipTransport}. */
+class SipCallSession extends CallSession {
+    final SipClientService.SessionCallbacks callbacks;
+    volatile SipTransport.Call audioCall;
+    volatile CallRecording recording;
+    volatile MediaQuality quality;
+    volatile ScheduledFuture<?> qualitySampler;
+    volatile CallHistory history;
+
+    SipCallSession(String id, String extension, SipClientService.SessionCallbacks callbacks,
+                   Executor notifier) {
+        super(id, extension, notifier);
+        this.callbacks = callbacks;
+    }
+
+    @Override
+    public boolean moveTo(CallState next) {
+        if (!super.moveTo(next)) {
+            return false;
+        }
+        CallHistory h = history;
+        if (h != null) {
+            h.append(getId(), CallHistory.Kind.STATE, next.name());
+        }
+        return true;
+    }
+}
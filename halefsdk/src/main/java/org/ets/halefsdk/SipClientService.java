@@ -1,33 +1,72 @@
 package org.ets.halefsdk;
 
 import android.app.Activity;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.media.AudioManager;
-import android.net.sip.SipAudioCall;
-import android.net.sip.SipException;
-import android.net.sip.SipManager;
-import android.net.sip.SipProfile;
-import android.net.sip.SipRegistrationListener;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.ets.halefsdk.core.Backoff;
+import org.ets.halefsdk.core.CallHandle;
+import org.ets.halefsdk.core.CallHistory;
+import org.ets.halefsdk.core.CallIds;
+import org.ets.halefsdk.core.CallState;
+import org.ets.halefsdk.core.Cbor;
+import org.ets.halefsdk.core.DialogApp;
+import org.ets.halefsdk.core.DialogCatalog;
+import org.ets.halefsdk.core.EventLoop;
+import org.ets.halefsdk.core.FeedbackBatch;
+import org.ets.halefsdk.core.FeedbackBatcher;
+import org.ets.halefsdk.core.FeedbackChannel;
+import org.ets.halefsdk.core.FeedbackDecoder;
+import org.ets.halefsdk.core.FeedbackEvent;
+import org.ets.halefsdk.core.FeedbackSocket;
+import org.ets.halefsdk.core.ListenerRegistry;
+import org.ets.halefsdk.core.MediaQuality;
+import org.ets.halefsdk.core.NetworkHandover;
+import org.ets.halefsdk.core.RegistrationEngine;
+import org.ets.halefsdk.core.SdkEvent;
+import org.ets.halefsdk.core.SessionRecorder;
+import org.ets.halefsdk.core.SessionRegistry;
+import org.ets.halefsdk.core.SessionReplayer;
+import org.ets.halefsdk.core.SetupException;
+import org.ets.halefsdk.core.SetupHandle;
+import org.ets.halefsdk.core.SetupMetrics;
+import org.ets.halefsdk.core.SetupStage;
+import org.ets.halefsdk.core.SetupTimeline;
+import org.ets.halefsdk.core.SipAccount;
+import org.ets.halefsdk.core.StartupPipeline;
+import org.ets.halefsdk.core.StartupTrace;
+import org.ets.halefsdk.core.media.AudioTap;
+import org.ets.halefsdk.core.media.AudioTaps;
+import org.ets.halefsdk.core.media.CallRecording;
+import org.ets.halefsdk.core.media.MediaStats;
+import org.ets.halefsdk.core.media.VoiceActivityDetector;
+import org.ets.halefsdk.core.sip.SipTransport;
 
-import java.util.Random;
-
-import io.socket.emitter.Emitter;
-
-
-import io.socket.client.IO;
-import io.socket.client.Socket;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SipClientService extends Service {
+    /** @deprecated {@link #call(String)} returns a {@link CallHandle} now. */
+    @Deprecated
     public static final int CALL_SUCCESS = 0;
+    /** Also the {@link SetupException#getCode()} of calls placed while not registered. */
     public static final int NOT_REGISTERED = 1;
     public static final int REGISTERING = 2;
     public static final int REGISTERED = 3;
@@ -36,19 +75,74 @@ public class SipClientService extends Service {
     public static final int CALL_ENDED = 6;
 
     private static final String TAG = "SipClientService";
+    private static final String WEBSOCKET_URI = "https://external.halef-research.org";
+    private static final String WEBSOCKET_PATH = "/messenger/socketio/socketio";
+    private static final int FEEDBACK_BATCH_CAPACITY = 256;
+    private static final int FEEDBACK_DECODER_CAPACITY = 256;
+    private static final int EVENT_QUEUE_CAPACITY = 512;
+    private static final int CALL_TIMEOUT_SECONDS = 30;
+    private static final int REGISTER_TIMEOUT_SECONDS = 30;
+    private static final int REGISTRATION_EXPIRY_SECONDS = 3600;
+    private static final long REGISTER_RETRY_BASE_MILLIS = 1000;
+    private static final long REGISTER_RETRY_MAX_MILLIS = 60000;
+    private static final long FEEDBACK_RETRY_BASE_MILLIS = 500;
+    private static final long FEEDBACK_RETRY_MAX_MILLIS = 30000;
+    private static final long STANDBY_MINUTES = 10;
+    private static final long MEDIA_SAMPLE_SECONDS = 1;
+    private static final int MEDIA_SNAPSHOT_SAMPLES = 10;
+    private static final long CATALOG_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** Served until {@link #setCatalogSource} points somewhere else. */
+    private static final String BUILT_IN_CATALOG = "{\"apps\":["
+            + "{\"extension\":\"7804\",\"name\":\"Interview\"},"
+            + "{\"extension\":\"7801\",\"name\":\"Coffee Shop\"},"
+            + "{\"extension\":\"7725\",\"name\":\"Grammar Tasks\"}]}";
+
+    private static final int STARTUP_THREADS = 2;
+    /** Whether a service has been created in this process before: later starts are warm. */
+    private static final AtomicBoolean sCreated = new AtomicBoolean();
+    private static volatile long sWarmUpNanos;
 
     private final IBinder mBinder = new LocalBinder();
 
-    private boolean mRegistered;
-    private Callbacks activity;
-    private io.socket.client.Socket websocket;
-    private SipAudioCall call;
-    private SipManager mSipManager;
-    private SipProfile mSipProfile;
-    private SipRegistrationListener mSipRegistrationListener;
-    private SipAudioCall.Listener mSipAudioCallListener;
-    private String mDomain;
-    private String mCallUUID;
+    private final ListenerRegistry<Callbacks> mCallbacks = new ListenerRegistry<Callbacks>();
+    private final ListenerRegistry<MetricsCallbacks> mMetricsListeners = new ListenerRegistry<MetricsCallbacks>();
+    private final SetupMetrics mSetupMetrics = new SetupMetrics();
+    private volatile SetupTimeline mRegisterTimeline;
+    private volatile SetupHandle mRegisterHandle;
+    private FeedbackChannel mFeedbackChannel;
+    private FeedbackBatcher mFeedbackBatcher;
+    private FeedbackDecoder mFeedbackDecoder;
+    private EventLoop mEventLoop;
+    private ScheduledExecutorService mTimers;
+    /**
+     * Closes recordings and histories, which waits on their writers, and opens a history
+     * once the one it replaces is closed.
+     */
+    private ExecutorService mCloser;
+    private final ListenerRegistry<FeedbackEventCallbacks> mFeedbackEventListeners =
+            new ListenerRegistry<FeedbackEventCallbacks>();
+    private volatile SipTransport mTransport;
+    private volatile SipAccount mAccount;
+    private RegistrationEngine mRegistration;
+    private NetworkHandover mHandover;
+    private AndroidConnectivityMonitor mConnectivity;
+    private ScheduledFuture<?> mStandby;
+    private volatile String mDomain;
+    private volatile File mRecordingDirectory;
+    private volatile CallHistory mHistory;
+    private volatile SessionRecorder mSessionRecorder;
+    private DialogCatalog mCatalog;
+    private final ListenerRegistry<CatalogCallbacks> mCatalogListeners = new ListenerRegistry<CatalogCallbacks>();
+    private final ListenerRegistry<VoiceActivityCallbacks> mVoiceActivityListeners =
+            new ListenerRegistry<VoiceActivityCallbacks>();
+    private volatile boolean mSpeechHints;
+    private volatile boolean mBinaryFeedback;
+    private final CallIds mCallIds = new CallIds();
+    private final SessionRegistry<SipCallSession> mSessions = new SessionRegistry<SipCallSession>();
+    private ExecutorService mStartupExecutor;
+    private StartupPipeline mStartup;
+    private StartupPipeline.Step<AndroidSipTransport> mPlatformTransport;
+    private StartupPipeline.Step<FeedbackSocket> mFeedbackSocket;
 
     /***** Bound service code *****/
     public class LocalBinder extends Binder {
@@ -57,17 +151,171 @@ public class SipClientService extends Service {
         }
     }
 
+    /**
+     * Starts the service, and with it the background work of getting ready, without waiting
+     * for anything: call it as early as possible, from {@code Application.onCreate} or
+     * before the launch activity inflates its views, and bind once permissions are settled.
+     * The startup trace is measured from the first call. The service still stops once
+     * nothing is bound to it and any {@link #standby()} is over.
+     */
+    public static void warmUp(Context context) {
+        if (sWarmUpNanos == 0) {
+            sWarmUpNanos = System.nanoTime();
+        }
+        context.startService(new Intent(context, SipClientService.class));
+    }
+
+    /**
+     * Started only by {@link #warmUp}, which must not leave the service running once its
+     * clients are gone: it is not recreated after being killed, and stops itself once the
+     * last client has unbound and any {@link #standby()} is over.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_NOT_STICKY;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
+        mStartup.getTrace().mark("bound");
         return mBinder;
     }
+
+    @Override
+    public void onRebind(Intent intent) {
+        mStartup.getTrace().mark("bound");
+    }
+
+    @Override
+    public synchronized boolean onUnbind(Intent intent) {
+        if (mStandby == null) {
+            stopSelf();
+        }
+        // Rebinding goes through onRebind rather than reusing the binder silently.
+        return true;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        long origin = sWarmUpNanos;
+        sWarmUpNanos = 0;
+        StartupTrace trace = new StartupTrace(sCreated.compareAndSet(false, true),
+                origin != 0 ? origin : System.nanoTime());
+        trace.begin("serviceCreate");
+        mStartupExecutor = Executors.newFixedThreadPool(STARTUP_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "HalefStartup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mStartup = new StartupPipeline(mStartupExecutor, trace);
+        // Independent of each other and of the rest of onCreate, and slow on a cold start:
+        // the platform SIP service binding, and loading the socket.io and JSON classes.
+        mPlatformTransport = mStartup.start("sipManager", new Callable<AndroidSipTransport>() {
+            @Override
+            public AndroidSipTransport call() {
+                return new AndroidSipTransport(SipClientService.this);
+            }
+        });
+        mFeedbackSocket = mStartup.start("socketIo", new Callable<FeedbackSocket>() {
+            @Override
+            public FeedbackSocket call() throws java.net.URISyntaxException {
+                return new SocketIoFeedbackSocket(WEBSOCKET_URI, WEBSOCKET_PATH);
+            }
+        });
+        mFeedbackBatcher = new FeedbackBatcher(new MainThreadFrameScheduler(),
+                                               mFeedbackSink, FEEDBACK_BATCH_CAPACITY);
+        mFeedbackDecoder = new FeedbackDecoder(mFeedbackEventSink, FEEDBACK_DECODER_CAPACITY);
+        mFeedbackDecoder.start();
+        mEventLoop = new EventLoop(mEventDispatcher, EVENT_QUEUE_CAPACITY, new MainThreadExecutor());
+        mEventLoop.start();
+        mTimers = Executors.newSingleThreadScheduledExecutor();
+        mCloser = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "HalefCloser");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mRegistration = new RegistrationEngine(mRegistrar, mRegistrationListener, mTimers,
+                new Backoff(REGISTER_RETRY_BASE_MILLIS, REGISTER_RETRY_MAX_MILLIS),
+                mCallbackNotifier, TimeUnit.SECONDS.toMillis(REGISTER_TIMEOUT_SECONDS));
+        mHandover = new NetworkHandover(mRegistration, mHandoverListener);
+        mConnectivity = new AndroidConnectivityMonitor(this, mHandover);
+        mConnectivity.start();
+        mCatalog = new DialogCatalog(DialogCatalog.fixed(BUILT_IN_CATALOG, CATALOG_MAX_AGE_MILLIS),
+                new File(getCacheDir(), "catalog"), mCatalogListener);
+        mCatalog.prefetch();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            mActivityLifecycle = ActivityLifecycleHook.register(getApplication(), mActivityDestroyed);
+        }
+        trace.end("serviceCreate");
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mActivityLifecycle != null) {
+            ActivityLifecycleHook.unregister(getApplication(), mActivityLifecycle);
+        }
+        mConnectivity.stop();
+        mRegistration.unregister();
+        if (mFeedbackChannel != null) {
+            mFeedbackChannel.close();
+        }
+        mFeedbackDecoder.stop();
+        mEventLoop.stop();
+        mTimers.shutdownNow();
+        // Recordings already handed over still get their files finished.
+        mCloser.shutdown();
+        mStartupExecutor.shutdownNow();
+        CallHistory history = mHistory;
+        mHistory = null;
+        if (history != null) {
+            history.close();
+        }
+        SessionRecorder recorder = mSessionRecorder;
+        mSessionRecorder = null;
+        if (recorder != null) {
+            recorder.close();
+        }
+        super.onDestroy();
+    }
     /***** End bound service code *****/
 
     /***** Public interface *****/
+    /**
+     * Adds {@code activity}, which must implement {@link Callbacks}, to the listeners. The
+     * service only holds it weakly and drops it, from every listener kind it was registered
+     * for, once it is destroyed, so an activity never outlives a configuration change
+     * through the service. Before API 14 it is only dropped once collected, so call
+     * {@link #unregisterActivity(Activity)} from {@code onDestroy} there. Any number of
+     * listeners can be registered.
+     */
     public void registerActivity(Activity activity){
-        this.activity = (Callbacks)activity;
+        addListener(mCallbacks, (Callbacks) activity);
     }
 
+    /** Removes {@code activity} from every kind of listener it was registered for. */
+    public void unregisterActivity(Activity activity) {
+        removeListener(activity);
+    }
+
+    public void registerCallbacks(Callbacks listener) {
+        addListener(mCallbacks, listener);
+    }
+
+    public void unregisterCallbacks(Callbacks listener) {
+        mCallbacks.remove(listener);
+    }
+
+    /**
+     * Called on the main thread, in the order things happened, unless
+     * {@link #setCallbackExecutor(Executor)} says otherwise.
+     */
     public interface Callbacks{
         void registerStatus(int status);
         void callStatus(int status);
@@ -75,214 +323,1137 @@ public class SipClientService extends Service {
         void debugMessage(String message);
     }
 
-    public void register(String domain, String username, String password) {
-        init(domain, username, password);
-        doRegister();
+    /**
+     * Status and feedback of a single call started with {@link #call(String, SessionCallbacks)}.
+     * Status is delivered like {@link Callbacks}; feedback arrives on the main thread, batched
+     * per frame like {@link FeedbackBatchCallbacks}.
+     */
+    public interface SessionCallbacks {
+        void callStatus(String callId, int status);
+        void feedbackMessage(String callId, String message);
     }
 
-    public void unregister() {
-        try {
-            mSipManager.close(mSipProfile.getUriString());
-            mRegistered = false;
-        } catch (SipException se){
-            se.printStackTrace();
+    /**
+     * Optional companion to {@link Callbacks}. Activities implementing it get feedback
+     * messages coalesced per display frame, on the main thread, instead of one
+     * {@link Callbacks#feedbackMessage} call per message.
+     */
+    public interface FeedbackBatchCallbacks {
+        void feedbackBatch(FeedbackBatch batch);
+    }
+
+    /**
+     * Optional typed view of the feedback stream. Messages are decoded once, on a background
+     * thread, and the listener is called on that thread. Messages that are not a JSON object
+     * or CBOR map are left out. Events are recycled when the call returns; use
+     * {@link FeedbackEvent#copy()} to keep one.
+     */
+    public interface FeedbackEventCallbacks {
+        void feedbackEvent(FeedbackEvent event);
+    }
+
+    public void registerFeedbackEventListener(FeedbackEventCallbacks listener) {
+        addListener(mFeedbackEventListeners, listener);
+    }
+
+    public void unregisterFeedbackEventListener(FeedbackEventCallbacks listener) {
+        mFeedbackEventListeners.remove(listener);
+    }
+
+    /**
+     * Optional listener for setup latency. Timelines are handed over once complete: a call
+     * timeline when the call ends, a registration timeline when registration is done.
+     * Delivered like {@link Callbacks}.
+     */
+    public interface MetricsCallbacks {
+        void callTimeline(SetupTimeline timeline);
+        void registrationTimeline(SetupTimeline timeline);
+    }
+
+    public void registerMetricsListener(MetricsCallbacks listener) {
+        addListener(mMetricsListeners, listener);
+    }
+
+    public void unregisterMetricsListener(MetricsCallbacks listener) {
+        mMetricsListeners.remove(listener);
+    }
+
+    /**
+     * Optional companion to {@link MetricsCallbacks}. Metrics listeners implementing it get
+     * each call's {@link MediaQuality}: a snapshot every {@value #MEDIA_SNAPSHOT_SAMPLES}
+     * seconds while the call is up (skipped if the client falls behind) and a summary once
+     * it has ended. {@link MediaQuality#toJson()} exports either. Needs a transport that
+     * exposes the media, like {@link org.ets.halefsdk.core.sip.NioSipUserAgent}.
+     */
+    public interface MediaQualityCallbacks {
+        void mediaQuality(MediaQuality snapshot);
+        void callMediaSummary(MediaQuality summary);
+    }
+
+    /**
+     * Optional companion to {@link MetricsCallbacks}. Metrics listeners implementing it get a
+     * {@link NetworkHandover.Report} each time the device changed networks while registered:
+     * how long the registration, the calls and the feedback channel took to move over.
+     * Calls in progress also get it in their history.
+     */
+    public interface HandoverCallbacks {
+        void networkHandover(NetworkHandover.Report report);
+    }
+
+    /**
+     * Optional listener for the caller starting and stopping speaking, detected on the
+     * device from the microphone audio. Delivered like {@link Callbacks}. Needs a transport
+     * that exposes the audio, see {@link #setRecordingDirectory(File)}.
+     */
+    public interface VoiceActivityCallbacks {
+        void speechStarted(String callId);
+        void speechEnded(String callId, long speechMillis);
+    }
+
+    /** Takes effect from the next call. */
+    public void registerVoiceActivityListener(VoiceActivityCallbacks listener) {
+        addListener(mVoiceActivityListeners, listener);
+    }
+
+    public void unregisterVoiceActivityListener(VoiceActivityCallbacks listener) {
+        mVoiceActivityListeners.remove(listener);
+    }
+
+    /**
+     * Sends the speech start and end detected on the device to the server over the feedback
+     * channel, as early hints for its endpointing. Takes effect from the next call.
+     */
+    public void setSpeechHints(boolean enabled) {
+        mSpeechHints = enabled;
+    }
+
+    /**
+     * Optional listener for the dialog applications that can be called. Called with the
+     * whole catalog whenever it changes, delivered like {@link Callbacks}.
+     */
+    public interface CatalogCallbacks {
+        void catalogChanged(List<DialogApp> apps);
+    }
+
+    public void registerCatalogListener(CatalogCallbacks listener) {
+        addListener(mCatalogListeners, listener);
+    }
+
+    public void unregisterCatalogListener(CatalogCallbacks listener) {
+        mCatalogListeners.remove(listener);
+    }
+
+    /**
+     * Loads the dialog applications from {@code source} from now on, for example an
+     * {@link org.ets.halefsdk.core.HttpCatalogSource}. Until then the catalog holds the
+     * built-in demo applications.
+     */
+    public void setCatalogSource(DialogCatalog.Source source) {
+        mCatalog.setSource(source);
+    }
+
+    /**
+     * The dialog applications that can be called. Loaded in the background when the service
+     * starts and kept in a cache file, so it is usually ready before it is first needed.
+     */
+    public DialogCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /**
+     * Offers the feedback server CBOR framing instead of JSON from the next connect on. A
+     * server that does not take it up keeps sending JSON, after a short wait for its answer
+     * on each connect. Clients still get messages as JSON strings; {@link FeedbackEventCallbacks}
+     * events are decoded straight from the bytes.
+     */
+    public void setBinaryFeedback(boolean enabled) {
+        mBinaryFeedback = enabled;
+        FeedbackChannel channel = mFeedbackChannel;
+        if (channel != null) {
+            channel.setBinaryFraming(enabled);
+        }
+    }
+
+    /**
+     * Chooses where {@link Callbacks}, {@link SessionCallbacks} status, {@link MetricsCallbacks}
+     * and {@link SetupHandle} listeners are called. Defaults to the main thread; null calls them on the
+     * SDK's own event thread. Either way they arrive in order, and a slow client only ever
+     * loses feedback and debug messages, never status changes.
+     */
+    public void setCallbackExecutor(Executor executor) {
+        mEventLoop.setExecutor(executor);
+    }
+
+    /**
+     * Replaces the SIP stack, e.g. with {@link org.ets.halefsdk.core.sip.NioSipUserAgent} and
+     * {@link AndroidAudioDevice}. Call it before {@link #register}; the default is the
+     * platform stack. The caller owns the transport and shuts it down.
+     */
+    public synchronized void setTransport(SipTransport transport) {
+        mTransport = transport;
+        mHandover.setTransport(transport);
+    }
+
+    /**
+     * Records what the caller says on every call from now on, as WAV files named after the
+     * call ID in {@code directory}; null stops recording new calls. Needs a transport that
+     * exposes the audio, like {@link org.ets.halefsdk.core.sip.NioSipUserAgent}; the
+     * platform stack does not.
+     */
+    public void setRecordingDirectory(File directory) {
+        mRecordingDirectory = directory;
+    }
+
+    /**
+     * Keeps every call's feedback messages, state transitions and metrics in {@code directory}
+     * from now on, across restarts of the app; null stops. Writing happens on a background
+     * thread and never holds up feedback dispatch. Read it back with {@link #getHistory()}.
+     * Setting the directory already in use does nothing; calls in progress carry on in the
+     * new history.
+     */
+    public void setHistoryDirectory(File directory) {
+        final CallHistory previous;
+        final CallHistory history;
+        synchronized (this) {
+            previous = mHistory;
+            if (previous == null ? directory == null : directory != null
+                    && previous.getDirectory().getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+                return;
+            }
+            history = directory == null ? null : new CallHistory(directory);
+            mHistory = history;
+            for (SipCallSession session : mSessions.all()) {
+                session.history = history;
+            }
+        }
+        // Closing waits for the writer to drain. The new history queues what it is given
+        // until it opens, after the old writer has let go of its files: both may be in the
+        // same directory after a switch away and back.
+        mCloser.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (previous != null) {
+                    previous.close();
+                }
+                if (history != null) {
+                    history.open();
+                }
+            }
+        });
+    }
+
+    /** The call history set up with {@link #setHistoryDirectory}, or null. */
+    public CallHistory getHistory() {
+        return mHistory;
+    }
+
+    /**
+     * Records every status change and message handed to the listeners from now on to
+     * {@code file}, replacing what was there, with its timing, until
+     * {@link #stopSessionRecording()}. Writing happens on a background thread. Play it back
+     * with {@link #replaySession}, or off the device with the replay harness in halefsim.
+     */
+    public void startSessionRecording(File file) throws IOException {
+        SessionRecorder recorder = new SessionRecorder(file);
+        recorder.open();
+        final SessionRecorder previous;
+        synchronized (this) {
+            previous = mSessionRecorder;
+            mSessionRecorder = recorder;
+        }
+        closeLater(previous);
+    }
+
+    public void stopSessionRecording() {
+        final SessionRecorder previous;
+        synchronized (this) {
+            previous = mSessionRecorder;
+            mSessionRecorder = null;
+        }
+        closeLater(previous);
+    }
+
+    private void closeLater(final SessionRecorder recorder) {
+        if (recorder != null) {
+            // Closing waits for the writer to drain.
+            mCloser.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recorder.close();
+                }
+            });
+        }
+    }
+
+    /** Told how a {@link #replaySession} went; delivered like {@link Callbacks}. */
+    public interface ReplayCallbacks {
+        void replayFinished(SessionReplayer.Result result);
+        void replayFailed(IOException error);
+    }
+
+    /**
+     * Plays a recording from {@link #startSessionRecording} back to the registered listeners,
+     * through the same event loop as live events, on a background thread; feedback goes
+     * through the same per-frame batching too. Events replayed are not recorded again,
+     * while live events carry on being recorded.
+     *
+     * @param speed 1 for the pace it was recorded at, higher to go faster,
+     *              {@link SessionReplayer#AS_FAST_AS_POSSIBLE} for no pauses
+     */
+    public void replaySession(final File file, final double speed, final ReplayCallbacks callbacks) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final SessionReplayer.Result result = new SessionReplayer(file).replay(mEventLoop, speed);
+                    Log.i(TAG, "Replayed " + file + ": " + result);
+                    mCallbackNotifier.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callbacks.replayFinished(result);
+                        }
+                    });
+                } catch (final IOException e) {
+                    mCallbackNotifier.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callbacks.replayFailed(e);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Replay of " + file + " interrupted.");
+                }
+            }
+        }, "HalefReplay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Optional companion to {@link MetricsCallbacks}. Metrics listeners implementing it get
+     * the {@link StartupTrace} once the service first registers: when the service was
+     * created, bound and asked to register, how long each startup phase took and when it
+     * was ready. {@link StartupTrace#isCold()} tells a first start in the process from a
+     * later one.
+     */
+    public interface StartupCallbacks {
+        void startupTrace(StartupTrace trace);
+    }
+
+    /** This service's startup so far; complete once it has reached "registered". */
+    public StartupTrace getStartupTrace() {
+        return mStartup.getTrace();
+    }
+
+    /** Events dropped because the client did not keep up with them. */
+    public long getDroppedEvents() {
+        return mEventLoop.getDropped();
+    }
+
+    /** Setup latency histograms aggregated over every call since the service started. */
+    public SetupMetrics getSetupMetrics() {
+        return mSetupMetrics;
+    }
+
+    /**
+     * Registers with the SIP server and opens the feedback channel. If this account is
+     * still registered (e.g. after {@link #standby()}) the handle succeeds right away;
+     * otherwise failures are retried with backoff until registration succeeds, and the
+     * registration is refreshed before it expires.
+     *
+     * @return succeeds when registration is done, fails if it is not done within 30 seconds;
+     *         cancelling it unregisters
+     */
+    public synchronized SetupHandle register(String domain, String username, String password) {
+        mStartup.getTrace().mark("register");
+        createTransport();
+        cancelStandby();
+        mDomain = domain;
+        final SipAccount account = new SipAccount(domain, username, password);
+        if (mTransport instanceof AndroidSipTransport && !mRegistration.isRegistered()) {
+            // Built while the feedback channel is set up; register() picks it up.
+            final AndroidSipTransport transport = (AndroidSipTransport) mTransport;
+            mStartup.start("sipProfile", new Callable<Void>() {
+                @Override
+                public Void call() throws SetupException {
+                    transport.prepare(account);
+                    return null;
+                }
+            });
+        }
+        openFeedbackChannel();
+        SetupHandle handle = mRegistration.register(account);
+        mRegisterHandle = handle;
+        handle.then(new SetupHandle.Listener() {
+            @Override
+            public void onSucceeded(SetupHandle handle) {
+            }
+
+            @Override
+            public void onFailed(SetupHandle handle, Exception cause) {
+                if (handle.isCancelled() && handle == mRegisterHandle) {
+                    unregister();
+                }
+            }
+        });
+        return handle;
+    }
+
+    public synchronized void unregister() {
+        cancelStandby();
+        mRegistration.unregister();
+        if (mFeedbackChannel != null) {
+            mFeedbackChannel.close();
         }
     }
 
-    public int call(String extension) {
+    /**
+     * Keeps the registration and feedback channel warm for a while after the client goes
+     * away, so coming back and calling {@link #register} again costs nothing. Unregisters
+     * if nobody registers within {@value #STANDBY_MINUTES} minutes.
+     */
+    public synchronized void standby() {
+        cancelStandby();
+        mStandby = mTimers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Standby over, unregistering.");
+                unregister();
+                // Stays up while bound; otherwise nothing else ends a warmUp() start.
+                stopSelf();
+            }
+        }, STANDBY_MINUTES, TimeUnit.MINUTES);
+    }
 
-        mCallUUID = getCallUUID();
-        String application = extension + "0000" + mCallUUID + "@" + mDomain;
-        activity.debugMessage("Calling: " + application);
+    /** Connect latency of the feedback channel, or null before the first register(). */
+    public FeedbackChannel.ConnectStats getFeedbackConnectStats() {
+        return mFeedbackChannel == null ? null : mFeedbackChannel.getConnectStats();
+    }
 
-        if (!mRegistered) {
+    public CallHandle call(String extension) {
+        return call(extension, null);
+    }
+
+    public CallHandle call(String extension, SessionCallbacks callbacks) {
+        return call(extension, callbacks, CALL_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Starts a call next to any calls already in progress.
+     *
+     * @param callbacks gets this call's status and feedback only; may be null
+     * @param timeoutSeconds how long the call may take to be established
+     * @return handle that succeeds once the call is established. It fails right away if we
+     *         are not registered. Cancelling it before then abandons the call; use
+     *         {@link #hangUp(String)} with {@link CallHandle#getId()} to end it afterwards.
+     */
+    public CallHandle call(String extension, SessionCallbacks callbacks, int timeoutSeconds) {
+        SipCallSession session = newSession(extension, callbacks);
+        // Read once: there is no domain before the first register(), and a re-register may change it.
+        String domain = mDomain;
+        if (!mRegistration.isRegistered() || domain == null) {
             Log.d(TAG, "Cannot call. We are not registered.");
-            return NOT_REGISTERED;
+            session.getHandle().fail(new SetupException("Not registered", NOT_REGISTERED));
+            return session.getHandle();
         }
 
-        connectWebsocket();
+        synchronized (this) {
+            while (!mSessions.add(session)) {
+                // Call ID collision with a live call; draw another one.
+                session = newSession(extension, callbacks);
+            }
+            // Either setHistoryDirectory moves this session along or we see its history.
+            session.history = mHistory;
+        }
+        String application = mCatalog.resolve(extension).dialString(session.getId(), domain);
+        mEventLoop.post(SdkEvent.debugMessage("Calling: " + application));
+        final SipCallSession pending = session;
+        session.getHandle().then(new SetupHandle.Listener() {
+            @Override
+            public void onSucceeded(SetupHandle handle) {
+            }
+
+            @Override
+            public void onFailed(SetupHandle handle, Exception cause) {
+                abandon(pending);
+            }
+        }).timeoutAfter(timeoutSeconds, TimeUnit.SECONDS, mTimers);
+        session.moveTo(CallState.CALLING);
+        SetupTimeline timeline = session.getTimeline();
+        FeedbackChannel channel = mFeedbackChannel;
+        if (channel != null) {
+            if (channel.isConnected()) {
+                timeline.mark(SetupStage.WS_CONNECTED);
+            }
+            channel.attach(session.getId());
+        } else {
+            // The socket could not be set up at register(); the call goes on without feedback.
+            Log.w(TAG, "No feedback channel for call " + session.getId());
+        }
 
         try {
-            call = mSipManager.makeAudioCall(mSipProfile.getUriString(),
-                                             application, mSipAudioCallListener, 30);
-        } catch (SipException se) {
+            session.audioCall = mTransport.makeCall(mAccount, application, createCallListener(session),
+                    timeoutSeconds);
+            timeline.mark(SetupStage.AUDIO_CALL_CREATED);
+        } catch (SetupException se) {
             se.printStackTrace();
+            session.getHandle().fail(se);
+            if (session.moveTo(CallState.FAILED)) {
+                endSession(session);
+            }
         }
-        return CALL_SUCCESS;
+        return session.getHandle();
     }
 
+    /** Hangs up every call in progress. */
     public void hangUp() {
+        for (SipCallSession session : mSessions.all()) {
+            hangUp(session);
+        }
+    }
+
+    public void hangUp(String callId) {
+        SipCallSession session = mSessions.get(callId);
+        if (session != null) {
+            hangUp(session);
+        }
+    }
+
+    /** IDs of the calls that have been started and not ended yet. */
+    public List<String> getActiveCallIds() {
+        List<String> ids = new ArrayList<String>(mSessions.size());
+        for (SipCallSession session : mSessions.all()) {
+            ids.add(session.getId());
+        }
+        return ids;
+    }
+    /***** End Public interface *****/
+
+    /**** Private helper functions *****/
+    private void createTransport() {
+        if (mTransport == null) {
+            AndroidSipTransport transport;
+            try {
+                transport = mPlatformTransport.get();
+            } catch (SetupException e) {
+                transport = new AndroidSipTransport(this);
+            }
+            mTransport = transport;
+            mHandover.setTransport(mTransport);
+        }
+    }
+
+    private void cancelStandby() {
+        if (mStandby != null) {
+            mStandby.cancel(false);
+            mStandby = null;
+        }
+    }
+
+    private SipTransport.CallListener createCallListener(final SipCallSession session) {
+        return new SipTransport.CallListener() {
+            @Override
+            public void onCallEstablished(SipTransport.Call call) {
+                if (!session.moveTo(CallState.IN_PROGRESS)) {
+                    return;
+                }
+                SetupTimeline timeline = session.getTimeline();
+                timeline.mark(SetupStage.CALL_ESTABLISHED);
+                attachAudioTaps(session, call);
+                startMediaQuality(session, call);
+                // Start audio for call
+                call.startAudio();
+                timeline.mark(SetupStage.AUDIO_STARTED);
+
+                // Enable speaker phone and turn up volume
+                AudioManager am = (AudioManager) getApplicationContext().getSystemService(Context.AUDIO_SERVICE);
+                am.setSpeakerphoneOn(true);
+                call.setSpeakerMode(true);
+                am.setStreamVolume(AudioManager.STREAM_VOICE_CALL, am.getStreamMaxVolume(AudioManager.STREAM_VOICE_CALL), 0);
+
+                // If we are muted, disable mute.
+                if (call.isMuted()) {
+                    call.toggleMute();
+                }
+                Log.d(TAG, "Call " + session.getId() + " started.");
+                callStatus(session, CALL_INPROGRESS);
+            }
+
+            @Override
+            public void onError(SipTransport.Call call, int errorCode, String errorMessage) {
+                Log.d(TAG, "Call " + session.getId() + " failed: " + errorMessage);
+                session.getHandle().fail(new SetupException(errorMessage, errorCode));
+                call.close();
+                if (session.moveTo(CallState.FAILED)) {
+                    callStatus(session, CALL_ENDED);
+                    endSession(session);
+                }
+            }
+
+            @Override
+            public void onCallEnded(SipTransport.Call call) {
+                call.close();
+                if (!session.moveTo(CallState.ENDED)) {
+                    return;
+                }
+                Log.d(TAG, "Call " + session.getId() + " ended.");
+                callStatus(session, CALL_ENDED);
+                endSession(session);
+            }
+        };
+    }
+
+    private void hangUp(SipCallSession session) {
+        SipTransport.Call call = session.audioCall;
         if (call != null && call.isInCall()){
             try {
                 call.endCall();
-            } catch (SipException e) {
+            } catch (SetupException e) {
                 e.printStackTrace();
             }
         }
     }
-    /***** End Public interface *****/
 
-    /**** Private helper functions *****/
-    private void init(String domain, String username, String password) {
-        createSipManager();
-        createLocalProfile(domain, username, password);
-        createRegistrationListener();
-        createSipAudioCallListener();
+    private SipCallSession newSession(String extension, SessionCallbacks callbacks) {
+        SipCallSession session = new SipCallSession(mCallIds.next(), extension, callbacks, mCallbackNotifier);
+        session.history = mHistory;
+        return session;
     }
 
-    private void createSipManager() {
-        if (mSipManager == null){
-            mSipManager = SipManager.newInstance(this);
+    /** Tears down a call whose handle failed, timed out or was cancelled before it was up. */
+    private void abandon(SipCallSession session) {
+        if (!session.moveTo(CallState.FAILED)) {
+            return;
+        }
+        SipTransport.Call call = session.audioCall;
+        if (call != null) {
+            try {
+                call.endCall();
+            } catch (SetupException e) {
+                e.printStackTrace();
+            }
+            call.close();
         }
+        callStatus(session, CALL_ENDED);
+        endSession(session);
     }
 
-    private void createLocalProfile(String domain, String username, String password) {
-        mDomain = domain;
-        if (mRegistered) {
-            unregister();
+    /** Puts the recorder and voice activity detection, whichever are wanted, on the call's audio. */
+    private void attachAudioTaps(SipCallSession session, SipTransport.Call call) {
+        File directory = mRecordingDirectory;
+        CallRecording recording = directory == null ? null : new CallRecording(directory, session.getId());
+        VoiceActivityDetector detector = mVoiceActivityListeners.isEmpty() && !mSpeechHints
+                ? null : new VoiceActivityDetector(createVoiceActivityListener(session));
+        AudioTap tap = AudioTaps.of(recording, detector);
+        if (tap == null) {
+            return;
         }
-
-        try {
-            mSipManager.close(username + "@" + domain);
-        } catch (SipException e) {
-            e.printStackTrace();
+        if (!call.setAudioTap(tap)) {
+            Log.w(TAG, "Cannot record or detect speech on call " + session.getId()
+                    + ": the transport hides its audio.");
+            return;
         }
-
-        try {
-            SipProfile.Builder builder = new SipProfile.Builder(username, domain);
-            builder.setPassword(password);
-            builder.setProfileName("HALEF");
-            mSipProfile = builder.build();
-        } catch (java.text.ParseException pe) {
-            pe.printStackTrace();
+        if (recording != null) {
+            recording.start();
+            session.recording = recording;
         }
     }
 
-    private void createRegistrationListener() {
-        if (mSipRegistrationListener == null) {
-            mSipRegistrationListener = new SipRegistrationListener() {
+    private VoiceActivityDetector.Listener createVoiceActivityListener(final SipCallSession session) {
+        // Runs on the audio thread: post and hand off, nothing else.
+        return new VoiceActivityDetector.Listener() {
+            @Override
+            public void onSpeechStart(long nanos) {
+                mEventLoop.post(SdkEvent.speechStarted(session.getId()));
+                sendSpeechHint(session, true, 0);
+            }
+
+            @Override
+            public void onSpeechEnd(long nanos, long speechMillis) {
+                mEventLoop.post(SdkEvent.speechEnded(session.getId(), (int) speechMillis));
+                sendSpeechHint(session, false, speechMillis);
+            }
+        };
+    }
 
-                public void onRegistering(String localProfileUri) {
-                    Log.i(TAG, "Registering with server...");
-                    activity.registerStatus(REGISTERING);
+    private void sendSpeechHint(final SipCallSession session, final boolean started, final long speechMillis) {
+        final FeedbackChannel channel = mFeedbackChannel;
+        if (!mSpeechHints || channel == null) {
+            return;
+        }
+        mTimers.execute(new Runnable() {
+            @Override
+            public void run() {
+                channel.sendSpeechHint(session.getId(), started, speechMillis);
+            }
+        });
+    }
+
+    private void stopRecording(SipCallSession session) {
+        final CallRecording recording = session.recording;
+        if (recording == null) {
+            return;
+        }
+        session.recording = null;
+        // Closing waits up to seconds for the writer; keep that off the transport's thread
+        // and off mTimers, which registration and feedback depend on.
+        mCloser.execute(new Runnable() {
+            @Override
+            public void run() {
+                recording.close();
+                if (recording.getError() != null) {
+                    Log.w(TAG, "Recording of call " + recording.getCallId() + " failed: " + recording.getError());
+                } else if (recording.getFramesDropped() > 0) {
+                    Log.w(TAG, "Recording of call " + recording.getCallId() + " dropped "
+                            + recording.getFramesDropped() + " frames.");
                 }
+            }
+        });
+    }
 
-                public void onRegistrationDone(String localProfileUri, long expiryTime) {
-                    Log.i(TAG, "Registered and ready.");
-                    mRegistered = true;
-                    activity.registerStatus(REGISTERED);
+    private void startMediaQuality(final SipCallSession session, final SipTransport.Call call) {
+        final MediaStats stats = new MediaStats();
+        if (!call.readMediaStats(stats)) {
+            return;
+        }
+        final MediaQuality quality = new MediaQuality(session.getId());
+        session.quality = quality;
+        session.qualitySampler = mTimers.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (!call.readMediaStats(stats)) {
+                    return;
+                }
+                quality.sample(stats);
+                if (quality.getSamples() % MEDIA_SNAPSHOT_SAMPLES == 0
+                        && mMetricsListeners.any(MediaQualityCallbacks.class)) {
+                    // The next sample must not change what the main thread is reading.
+                    mEventLoop.post(SdkEvent.mediaQuality(quality.snapshot()));
                 }
+            }
+        }, MEDIA_SAMPLE_SECONDS, MEDIA_SAMPLE_SECONDS, TimeUnit.SECONDS);
+    }
 
-                public void onRegistrationFailed(String localProfileUri, int errorCode,
-                                                 String errorMessage) {
-                    Log.i(TAG, "Registeration failed. " + errorMessage + " " + Integer.toString(errorCode));
-                    activity.registerStatus(REGISTERING_FAILED);
+    private void stopMediaQuality(SipCallSession session) {
+        final MediaQuality quality = session.quality;
+        ScheduledFuture<?> sampler = session.qualitySampler;
+        if (quality == null) {
+            return;
+        }
+        session.quality = null;
+        session.qualitySampler = null;
+        sampler.cancel(false);
+        // Queued behind a sample that may be running, on the same thread.
+        mTimers.execute(new Runnable() {
+            @Override
+            public void run() {
+                quality.finish();
+                String json = quality.toJson();
+                Log.d(TAG, "Media quality: " + json);
+                CallHistory history = mHistory;
+                if (history != null) {
+                    history.append(quality.getCallId(), CallHistory.Kind.METRICS, json);
                 }
-            };
+                mEventLoop.post(SdkEvent.mediaQuality(quality.snapshot()));
+            }
+        });
+    }
+
+    private void callStatus(SipCallSession session, int status) {
+        mEventLoop.post(SdkEvent.callStatus(session.getId(), status, session.callbacks));
+    }
+
+    private void endSession(SipCallSession session) {
+        mSessions.remove(session);
+        stopRecording(session);
+        stopMediaQuality(session);
+        if (mFeedbackChannel != null) {
+            mFeedbackChannel.detach(session.getId());
+        }
+        SetupTimeline timeline = session.getTimeline();
+        mSetupMetrics.record(timeline);
+        mEventLoop.post(SdkEvent.callTimeline(timeline));
+        CallHistory history = session.history;
+        if (history != null) {
+            history.append(session.getId(), CallHistory.Kind.METRICS, timeline.toJson());
         }
     }
 
-    private void createSipAudioCallListener() {
-        if (mSipAudioCallListener == null) {
-            mSipAudioCallListener = new SipAudioCall.Listener() {
-                @Override
-                public void onCallEstablished(SipAudioCall call) {
-                    // Start audio for call
-                    call.startAudio();
-
-                    // Enable speaker phone and turn up volume
-                    AudioManager am = (AudioManager) getApplicationContext().getSystemService(Context.AUDIO_SERVICE);
-                    am.setSpeakerphoneOn(true);
-                    call.setSpeakerMode(true);
-                    am.setStreamVolume(AudioManager.STREAM_VOICE_CALL, am.getStreamMaxVolume(AudioManager.STREAM_VOICE_CALL), 0);
-
-                    // If we are muted, disable mute.
-                    if (call.isMuted()) {
-                        call.toggleMute();
+    private RegistrationEngine.Registrar mRegistrar = new RegistrationEngine.Registrar() {
+        @Override
+        public void open(SipAccount account) throws SetupException {
+            mAccount = account;
+            mRegisterTimeline = new SetupTimeline(account.getUri(), SetupStage.REGISTER);
+            mTransport.register(account, REGISTRATION_EXPIRY_SECONDS, mTransportListener);
+        }
+
+        @Override
+        public void refresh(SipAccount account) throws SetupException {
+            mTransport.register(account, REGISTRATION_EXPIRY_SECONDS, mTransportListener);
+        }
+
+        @Override
+        public void close(SipAccount account) {
+            mTransport.close(account);
+        }
+    };
+
+    private SipTransport.RegistrationListener mTransportListener = new SipTransport.RegistrationListener() {
+        @Override
+        public void onRegistering(String localProfileUri) {
+            mRegistration.onRegistering(localProfileUri);
+        }
+
+        @Override
+        public void onRegistrationDone(String localProfileUri, long expiryTime) {
+            mRegistration.onRegistered(localProfileUri, expiryTime);
+        }
+
+        @Override
+        public void onRegistrationFailed(String localProfileUri, int errorCode, String errorMessage) {
+            mRegistration.onRegistrationFailed(localProfileUri, errorCode, errorMessage);
+        }
+    };
+
+    private RegistrationEngine.Listener mRegistrationListener = new RegistrationEngine.Listener() {
+        @Override
+        public void onRegistering(SipAccount account) {
+            SetupTimeline timeline = mRegisterTimeline;
+            if (timeline != null) {
+                timeline.mark(SetupStage.REGISTERING);
+            }
+            Log.i(TAG, "Registering with server...");
+            mEventLoop.post(SdkEvent.registerStatus(REGISTERING));
+        }
+
+        @Override
+        public void onRegistered(SipAccount account, boolean fresh) {
+            Log.i(TAG, fresh ? "Registered and ready." : "Still registered, ready.");
+            if (fresh) {
+                finishRegisterTimeline();
+                mHandover.onRegistered();
+                finishStartup();
+            }
+            mEventLoop.post(SdkEvent.registerStatus(REGISTERED));
+        }
+
+        @Override
+        public void onRegistrationFailed(SipAccount account, SetupException cause, long retryMillis) {
+            Log.i(TAG, "Registeration failed. " + cause.getMessage() + " " + Integer.toString(cause.getCode())
+                    + ", retrying in " + retryMillis + " ms");
+            mEventLoop.post(SdkEvent.registerStatus(REGISTERING_FAILED));
+        }
+    };
+
+    private void finishStartup() {
+        final StartupTrace trace = mStartup.getTrace();
+        if (trace.reached("registered")) {
+            return;
+        }
+        trace.mark("registered");
+        Log.i(TAG, (trace.isCold() ? "Cold" : "Warm") + " start, ready in "
+                + (trace.elapsedNanos("registered") / 1000000) + " ms: " + trace.toJson());
+        if (!mMetricsListeners.any(StartupCallbacks.class)) {
+            return;
+        }
+        mCallbackNotifier.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (MetricsCallbacks listener : mMetricsListeners) {
+                    if (listener instanceof StartupCallbacks) {
+                        ((StartupCallbacks) listener).startupTrace(trace);
                     }
-                    Log.d(TAG, "Call started.");
-                    activity.callStatus(CALL_INPROGRESS);
                 }
+            }
+        });
+    }
 
-                @Override
-                public void onCallEnded(SipAudioCall call) {
-                    call.close();
-                    Log.d(TAG, "Call ended.");
-                    activity.callStatus(CALL_ENDED);
-                    websocket.disconnect();
-                }
-            };
+    private void finishRegisterTimeline() {
+        SetupTimeline timeline = mRegisterTimeline;
+        mRegisterTimeline = null;
+        if (timeline != null) {
+            timeline.mark(SetupStage.REGISTERED);
+            mSetupMetrics.record(timeline);
+            mEventLoop.post(SdkEvent.registrationTimeline(timeline));
         }
     }
 
-    private void doRegister() {
-        try {
-            if (!mSipManager.isOpened(mSipProfile.getUriString())){
-                Intent intent = new Intent();
-                intent.setAction("android.halef.ets.org.INCOMING_CALL");
-                PendingIntent pendingIntent = PendingIntent.getBroadcast(this, 0, intent, Intent.FILL_IN_DATA);
-                mSipManager.open(mSipProfile, pendingIntent, null);
-                mSipManager.setRegistrationListener(mSipProfile.getUriString(), mSipRegistrationListener);
-            }
-        } catch(SipException se){
-            se.printStackTrace();
+    private void openFeedbackChannel() {
+        if (mFeedbackChannel == null) {
+            try {
+                FeedbackSocket socket = mFeedbackSocket.get();
+                mFeedbackChannel = new FeedbackChannel(socket, mFeedbackListener, mTimers,
+                        new Backoff(FEEDBACK_RETRY_BASE_MILLIS, FEEDBACK_RETRY_MAX_MILLIS));
+                mFeedbackChannel.setBinaryFraming(mBinaryFeedback);
+                mHandover.setFeedbackChannel(mFeedbackChannel);
+            } catch (SetupException e) {
+                Log.d(TAG, e.getMessage());
+                return;
+            }
         }
+        mFeedbackChannel.open();
     }
 
-    private String getCallUUID(){
-        String randomCode = "";
-        Random randomGenerator = new Random();
-        for (int idx = 0; idx < 9; ++idx){
-            int randomInt = randomGenerator.nextInt(10);
-            randomCode += String.valueOf(randomInt);
+    private FeedbackChannel.BinaryListener mFeedbackListener = new FeedbackChannel.BinaryListener() {
+        @Override
+        public void onChannelConnected(long latencyNanos) {
+            if (latencyNanos >= 0) {
+                mSetupMetrics.recordFeedbackConnect(latencyNanos);
+                Log.d(TAG, "Websocket connected in " + (latencyNanos / 1000000) + " ms.");
+            }
+            for (SipCallSession session : mSessions.all()) {
+                session.getTimeline().mark(SetupStage.WS_CONNECTED);
+            }
+            mHandover.onChannelConnected();
         }
-        return randomCode;
-    }
 
-    private void connectWebsocket() {
-        IO.Options options = new IO.Options();
-        options.path = "/messenger/socketio/socketio";
-        try {
-            websocket = IO.socket("https://external.halef-research.org", options);
-            websocket.on(Socket.EVENT_CONNECT, onWsConnect);
-            websocket.on(Socket.EVENT_DISCONNECT, onWsDisconnect);
-            websocket.on("message", onWsMessage);
-        } catch (java.net.URISyntaxException e) {
-            Log.d(TAG, "URISyntaxException");
+        @Override
+        public void onChannelDisconnected() {
+            Log.d(TAG, "Websocket disconnected, reconnecting.");
         }
-        websocket.connect();
-    }
 
-    private Emitter.Listener onWsConnect = new Emitter.Listener() {
         @Override
-        public void call(Object... args) {
-            Log.d(TAG, "Websocket connected.");
-            JSONObject obj = new JSONObject();
+        public void onSessionRegistered(String callUUID) {
+            SipCallSession session = mSessions.get(callUUID);
+            if (session != null) {
+                session.getTimeline().mark(SetupStage.WS_REGISTERED);
+            }
+        }
+
+        @Override
+        public void onFeedbackMessage(String callUUID, String message) {
+            deliverFeedback(callUUID, message);
+            if (!mFeedbackEventListeners.isEmpty() && !mFeedbackDecoder.offer(callUUID, message)) {
+                Log.w(TAG, "Feedback decoder saturated, dropped a message.");
+            }
+        }
+
+        @Override
+        public void onFeedbackBinary(String callUUID, byte[] message) {
+            String json;
             try {
-                obj.put("user", mCallUUID);
-            } catch (JSONException e) {
-                Log.e(TAG,e.getMessage());
+                json = Cbor.toJson(message);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Dropped a malformed binary feedback message: " + e.getMessage());
+                return;
+            }
+            deliverFeedback(callUUID, json);
+            if (!mFeedbackEventListeners.isEmpty() && !mFeedbackDecoder.offer(callUUID, message)) {
+                Log.w(TAG, "Feedback decoder saturated, dropped a message.");
+            }
+        }
+
+        private void deliverFeedback(String callUUID, String message) {
+            SipCallSession session = mSessions.get(callUUID);
+            if (session != null) {
+                session.getTimeline().mark(SetupStage.FIRST_MESSAGE);
+                CallHistory history = session.history;
+                if (history != null) {
+                    history.append(callUUID, CallHistory.Kind.FEEDBACK, message);
+                }
+            }
+            Log.d(TAG, "Websocket recevied message for " + callUUID);
+            SdkEvent event = SdkEvent.feedbackMessage(callUUID, message);
+            // Recorded here: batch listeners get feedback without an event through the loop.
+            SessionRecorder recorder = mSessionRecorder;
+            if (recorder != null) {
+                recorder.record(event);
+            }
+            mFeedbackBatcher.offer(callUUID, message);
+            if (mCallbacks.anyNot(FeedbackBatchCallbacks.class)) {
+                mEventLoop.post(event);
+            }
+        }
+    };
+
+    private FeedbackDecoder.Listener mFeedbackEventSink = new FeedbackDecoder.Listener() {
+        @Override
+        public void onFeedbackEvent(FeedbackEvent event) {
+            for (FeedbackEventCallbacks listener : mFeedbackEventListeners) {
+                listener.feedbackEvent(event);
+            }
+        }
+    };
+
+    private FeedbackBatcher.Sink mFeedbackSink = new FeedbackBatcher.Sink() {
+        @Override
+        public void onBatch(FeedbackBatch batch) {
+            if (batch.getDropped() > 0) {
+                Log.w(TAG, "Dropped " + batch.getDropped() + " feedback messages.");
+            }
+            for (Callbacks callbacks : mCallbacks) {
+                if (callbacks instanceof FeedbackBatchCallbacks) {
+                    ((FeedbackBatchCallbacks) callbacks).feedbackBatch(batch);
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                SipCallSession session = mSessions.get(batch.getCallUUID(i));
+                if (session != null && session.callbacks != null) {
+                    session.callbacks.feedbackMessage(session.getId(), batch.getMessage(i));
+                }
+            }
+        }
+    };
+
+    private final NetworkHandover.Listener mHandoverListener = new NetworkHandover.Listener() {
+        @Override
+        public void onHandover(final NetworkHandover.Report report) {
+            Log.i(TAG, "Moved to " + report.getNetwork() + " in " + (report.getTotalNanos() / 1000000) + " ms, "
+                    + report.getCallsMoved() + " calls moved, " + report.getCallsLost() + " lost.");
+            String json = report.toJson();
+            for (SipCallSession session : mSessions.all()) {
+                CallHistory history = session.history;
+                if (history != null) {
+                    history.append(session.getId(), CallHistory.Kind.METRICS, json);
+                }
+            }
+            if (!mMetricsListeners.any(HandoverCallbacks.class)) {
                 return;
             }
-            websocket.emit("register", obj);
+            mCallbackNotifier.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (MetricsCallbacks listener : mMetricsListeners) {
+                        if (listener instanceof HandoverCallbacks) {
+                            ((HandoverCallbacks) listener).networkHandover(report);
+                        }
+                    }
+                }
+            });
+        }
+    };
+
+    private final DialogCatalog.Listener mCatalogListener = new DialogCatalog.Listener() {
+        @Override
+        public void onCatalogChanged(final List<DialogApp> apps) {
+            if (mCatalogListeners.isEmpty()) {
+                return;
+            }
+            mCallbackNotifier.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (CatalogCallbacks listener : mCatalogListeners) {
+                        listener.catalogChanged(apps);
+                    }
+                }
+            });
+        }
+    };
+
+    /** Activities are held weakly and dropped once destroyed; anything else until removed. */
+    private <T> void addListener(ListenerRegistry<T> registry, T listener) {
+        if (listener instanceof Activity) {
+            registry.addWeak(listener);
+        } else {
+            registry.add(listener);
+        }
+    }
+
+    private void removeListener(Object listener) {
+        mCallbacks.remove(listener);
+        mMetricsListeners.remove(listener);
+        mFeedbackEventListeners.remove(listener);
+        mVoiceActivityListeners.remove(listener);
+        mCatalogListeners.remove(listener);
+    }
+
+    // Kept as Object so the service still loads on releases without lifecycle callbacks;
+    // null there, where activities only leave through unregisterActivity() or collection.
+    private Object mActivityLifecycle;
+
+    private final ActivityLifecycleHook.Listener mActivityDestroyed =
+            new ActivityLifecycleHook.Listener() {
+        @Override
+        public void activityDestroyed(Activity activity) {
+            removeListener(activity);
         }
     };
 
-    private Emitter.Listener onWsDisconnect = new Emitter.Listener() {
+    /** Runs handle listeners in line with the other callbacks. */
+    private final Executor mCallbackNotifier = new Executor() {
         @Override
-        public void call(Object... args) {
-            Log.d(TAG, "Websocket disconnected.");
+        public void execute(Runnable task) {
+            mEventLoop.post(SdkEvent.task(task));
         }
     };
 
-    private Emitter.Listener onWsMessage = new Emitter.Listener(){
+    private EventLoop.Dispatcher mEventDispatcher = new EventLoop.Dispatcher() {
         @Override
-        public void call(Object... args) {
-            Log.d(TAG, "Websocket recevied message");
-            //JSONObject data = (JSONObject) args[0];
-            String message = args[0].toString();
-            activity.feedbackMessage(message);
-            Log.d(TAG, message);
+        public void dispatch(SdkEvent event) {
+            SessionRecorder recorder = mSessionRecorder;
+            if (recorder != null && !event.isReplayed() && event.getType() != SdkEvent.Type.FEEDBACK_MESSAGE) {
+                recorder.record(event);
+            }
+            switch (event.getType()) {
+                case REGISTER_STATUS:
+                    for (Callbacks callbacks : mCallbacks) {
+                        callbacks.registerStatus(event.getStatus());
+                    }
+                    break;
+                case CALL_STATUS:
+                    for (Callbacks callbacks : mCallbacks) {
+                        callbacks.callStatus(event.getStatus());
+                    }
+                    SessionCallbacks sessionCallbacks = (SessionCallbacks) event.getTag();
+                    if (sessionCallbacks != null) {
+                        sessionCallbacks.callStatus(event.getCallId(), event.getStatus());
+                    }
+                    break;
+                case FEEDBACK_MESSAGE:
+                    if (event.isReplayed()) {
+                        // Live feedback went to the batcher when it came in.
+                        mFeedbackBatcher.offer(event.getCallId(), event.getMessage());
+                    }
+                    for (Callbacks callbacks : mCallbacks) {
+                        // Batch listeners got this message with its frame.
+                        if (!(callbacks instanceof FeedbackBatchCallbacks)) {
+                            callbacks.feedbackMessage(event.getMessage());
+                        }
+                    }
+                    break;
+                case DEBUG_MESSAGE:
+                    for (Callbacks callbacks : mCallbacks) {
+                        callbacks.debugMessage(event.getMessage());
+                    }
+                    break;
+                case CALL_TIMELINE:
+                    for (MetricsCallbacks listener : mMetricsListeners) {
+                        listener.callTimeline(event.getTimeline());
+                    }
+                    break;
+                case REGISTRATION_TIMELINE:
+                    for (MetricsCallbacks listener : mMetricsListeners) {
+                        listener.registrationTimeline(event.getTimeline());
+                    }
+                    break;
+                case SPEECH_STARTED:
+                    for (VoiceActivityCallbacks listener : mVoiceActivityListeners) {
+                        listener.speechStarted(event.getCallId());
+                    }
+                    break;
+                case SPEECH_ENDED:
+                    for (VoiceActivityCallbacks listener : mVoiceActivityListeners) {
+                        listener.speechEnded(event.getCallId(), event.getStatus());
+                    }
+                    break;
+                case MEDIA_QUALITY:
+                    for (MetricsCallbacks listener : mMetricsListeners) {
+                        if (listener instanceof MediaQualityCallbacks) {
+                            ((MediaQualityCallbacks) listener).mediaQuality((MediaQuality) event.getTag());
+                        }
+                    }
+                    break;
+                case MEDIA_SUMMARY:
+                    for (MetricsCallbacks listener : mMetricsListeners) {
+                        if (listener instanceof MediaQualityCallbacks) {
+                            ((MediaQualityCallbacks) listener).callMediaSummary((MediaQuality) event.getTag());
+                        }
+                    }
+                    break;
+                case TASK:
+                    ((Runnable) event.getTag()).run();
+                    break;
+            }
         }
     };
 }
@@ -0,0 +1,126 @@
+package org.ets.halefsdk;
+
+import android.util.Log;
+
+import org.ets.halefsdk.core.FeedbackSocket;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import io.socket.client.IO;
+import io.socket.client.Socket;
+import io.socket.emitter.Emitter;
+
+/**
+ * {@link FeedbackSocket} backed by the socket.io client. The socket is created once and
+ * survives between calls; socket.io's own reconnection is off because
+ * {@link org.ets.halefsdk.core.FeedbackChannel} reconnects, and resumes, itself.
+ */
+class SocketIoFeedbackSocket implements FeedbackSocket {
+    private static final String TAG = "SocketIoFeedbackSocket";
+
+    private final Socket socket;
+    private volatile Handler handler;
+
+    SocketIoFeedbackSocket(String uri, String path) throws java.net.URISyntaxException {
+        socket = IO.socket(uri, options(path));
+        socket.on(Socket.EVENT_CONNECT, onConnect);
+        socket.on(Socket.EVENT_DISCONNECT, onDisconnect);
+        socket.on("message", onMessage);
+        socket.on("encoding", onEncoding);
+    }
+
+    static IO.Options options(String path) {
+        IO.Options options = new IO.Options();
+        options.path = path;
+        options.reconnection = false;
+        return options;
+    }
+
+    @Override
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void connect() {
+        socket.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        socket.disconnect();
+    }
+
+    @Override
+    public boolean connected() {
+        return socket.connected();
+    }
+
+    @Override
+    public void emit(String event, String json) {
+        try {
+            socket.emit(event, new JSONObject(json));
+        } catch (JSONException e) {
+            Log.e(TAG, e.getMessage());
+        }
+    }
+
+    @Override
+    public void emit(String event, byte[] cbor) {
+        socket.emit(event, cbor);
+    }
+
+    final Emitter.Listener onConnect = new Emitter.Listener() {
+        @Override
+        public void call(Object... args) {
+            Handler h = handler;
+            if (h != null) {
+                h.onConnect();
+            }
+        }
+    };
+
+    final Emitter.Listener onDisconnect = new Emitter.Listener() {
+        @Override
+        public void call(Object... args) {
+            Handler h = handler;
+            if (h != null) {
+                h.onDisconnect();
+            }
+        }
+    };
+
+    final Emitter.Listener onMessage = new Emitter.Listener() {
+        @Override
+        public void call(Object... args) {
+            Handler h = handler;
+            if (h == null || args.length == 0) {
+                return;
+            }
+            if (args[0] instanceof byte[]) {
+                h.onBinaryMessage(null, (byte[]) args[0]);
+                return;
+            }
+            String user = null;
+            if (args[0] instanceof JSONObject) {
+                user = ((JSONObject) args[0]).optString("user", null);
+            }
+            h.onMessage(user, args[0].toString());
+        }
+    };
+
+    final Emitter.Listener onEncoding = new Emitter.Listener() {
+        @Override
+        public void call(Object... args) {
+            Handler h = handler;
+            if (h == null || args.length == 0) {
+                return;
+            }
+            if (args[0] instanceof JSONObject) {
+                h.onEncoding(((JSONObject) args[0]).optString("encoding", null));
+            } else {
+                h.onEncoding(String.valueOf(args[0]));
+            }
+        }
+    };
+}
@@ -0,0 +1,101 @@
+package org.ets.halefsdk;
+
+import org.ets.halefsdk.core.CallHistory;
+import org.ets.halefsdk.core.CallState;
+import org.ets.halefsdk.core.SessionRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SipCallSessionTest {
+
+    private File directory;
+    private CallHistory history;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        history = new CallHistory(directory);
+        history.open();
+    }
+
+    @After
+    public void tearDown() {
+        history.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static final class NoCallbacks implements SipClientService.SessionCallbacks {
+        @Override
+        public void callStatus(String callId, int status) {
+        }
+
+        @Override
+        public void feedbackMessage(String callId, String message) {
+        }
+    }
+
+    private List<String> states(String callUUID) throws IOException {
+        List<String> states = new ArrayList<String>();
+        for (CallHistory.Record record : history.read(callUUID, 0, 100).getRecords()) {
+            assertEquals(CallHistory.Kind.STATE, record.getKind());
+            states.add(record.getPayload());
+        }
+        return states;
+    }
+
+    @Test
+    public void overlappingSessionsRecordTheirOwnTransitions() throws Exception {
+        SipClientService.SessionCallbacks toA = new NoCallbacks();
+        SipClientService.SessionCallbacks toB = new NoCallbacks();
+        SessionRegistry<SipCallSession> sessions = new SessionRegistry<SipCallSession>();
+        SipCallSession a = new SipCallSession("111111111", "8000", toA, null);
+        SipCallSession b = new SipCallSession("222222222", "8000", toB, null);
+        a.history = history;
+        b.history = history;
+        sessions.add(a);
+        sessions.add(b);
+
+        assertTrue(sessions.get("111111111").moveTo(CallState.CALLING));
+        assertTrue(sessions.get("222222222").moveTo(CallState.CALLING));
+        assertTrue(sessions.get("111111111").moveTo(CallState.IN_PROGRESS));
+        assertTrue(sessions.get("222222222").moveTo(CallState.FAILED));
+        // Refused transitions leave no record.
+        assertFalse(sessions.get("222222222").moveTo(CallState.IN_PROGRESS));
+        assertTrue(sessions.get("111111111").moveTo(CallState.ENDED));
+        assertSame(toA, sessions.get("111111111").callbacks);
+        assertSame(toB, sessions.get("222222222").callbacks);
+        assertTrue(history.flush(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("CALLING", "IN_PROGRESS", "ENDED"), states("111111111"));
+        assertEquals(Arrays.asList("CALLING", "FAILED"), states("222222222"));
+    }
+
+    @Test
+    public void sessionWithoutHistoryStillMoves() throws Exception {
+        SipCallSession session = new SipCallSession("333333333", "8000", new NoCallbacks(), null);
+        assertTrue(session.moveTo(CallState.CALLING));
+        assertEquals(CallState.CALLING, session.getHandle().getState());
+        assertTrue(history.flush(5, TimeUnit.SECONDS));
+        assertTrue(states("333333333").isEmpty());
+    }
+}
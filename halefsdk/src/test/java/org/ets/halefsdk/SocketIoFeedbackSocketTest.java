@@ -0,0 +1,126 @@
+package org.ets.halefsdk;
+
+import org.ets.halefsdk.core.FeedbackSocket;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.socket.client.IO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SocketIoFeedbackSocketTest {
+
+    private static class Recorder implements FeedbackSocket.Handler {
+        final List<String> calls = new ArrayList<String>();
+        final List<String> users = new ArrayList<String>();
+        final List<Object> payloads = new ArrayList<Object>();
+
+        @Override
+        public void onConnect() {
+            calls.add("connect");
+        }
+
+        @Override
+        public void onDisconnect() {
+            calls.add("disconnect");
+        }
+
+        @Override
+        public void onMessage(String user, String message) {
+            calls.add("message");
+            users.add(user);
+            payloads.add(message);
+        }
+
+        @Override
+        public void onBinaryMessage(String user, byte[] message) {
+            calls.add("binary");
+            users.add(user);
+            payloads.add(message);
+        }
+
+        @Override
+        public void onEncoding(String encoding) {
+            calls.add("encoding");
+            payloads.add(encoding);
+        }
+    }
+
+    private SocketIoFeedbackSocket socket;
+    private Recorder handler;
+
+    @Before
+    public void setUp() throws Exception {
+        // Never connected: the listeners are driven directly, as socket.io would.
+        socket = new SocketIoFeedbackSocket("http://127.0.0.1:1", "/messenger");
+        handler = new Recorder();
+        socket.setHandler(handler);
+    }
+
+    @Test
+    public void leavesReconnectingToTheChannel() {
+        IO.Options options = SocketIoFeedbackSocket.options("/messenger");
+        assertFalse(options.reconnection);
+        assertEquals("/messenger", options.path);
+    }
+
+    @Test
+    public void passesJsonMessagesOnAsTextWithTheirUser() throws Exception {
+        socket.onMessage.call(new JSONObject("{\"user\":\"call-1\",\"text\":\"Hello\"}"));
+        assertEquals("call-1", handler.users.get(0));
+        JSONObject message = new JSONObject((String) handler.payloads.get(0));
+        assertEquals("call-1", message.optString("user", null));
+        assertEquals("Hello", message.optString("text", null));
+    }
+
+    @Test
+    public void messagesWithoutAUserHaveNone() throws Exception {
+        socket.onMessage.call(new JSONObject("{\"text\":\"Hello\"}"));
+        socket.onMessage.call("plain text");
+        assertNull(handler.users.get(0));
+        assertNull(handler.users.get(1));
+        assertEquals("plain text", handler.payloads.get(1));
+    }
+
+    @Test
+    public void binaryMessagesArePassedOnAsTheyAreWithoutAUser() {
+        byte[] cbor = {(byte) 0xa1, 0x64, 't', 'e', 'x', 't', 0x62, 'H', 'i'};
+        socket.onMessage.call((Object) cbor);
+        assertEquals("binary", handler.calls.get(0));
+        assertNull(handler.users.get(0));
+        assertSame(cbor, handler.payloads.get(0));
+    }
+
+    @Test
+    public void encodingIsReadFromAnObjectOrTakenAsIs() throws Exception {
+        socket.onEncoding.call(new JSONObject("{\"encoding\":\"cbor\"}"));
+        socket.onEncoding.call("json");
+        assertEquals("cbor", handler.payloads.get(0));
+        assertEquals("json", handler.payloads.get(1));
+    }
+
+    @Test
+    public void connectionChangesReachTheHandler() {
+        socket.onConnect.call();
+        socket.onDisconnect.call("transport close");
+        assertEquals("connect", handler.calls.get(0));
+        assertEquals("disconnect", handler.calls.get(1));
+    }
+
+    @Test
+    public void eventsWithoutAHandlerOrArgumentsAreIgnored() {
+        socket.onMessage.call();
+        socket.onEncoding.call();
+        socket.setHandler(null);
+        socket.onConnect.call();
+        socket.onMessage.call("plain text");
+        assertEquals(0, handler.calls.size());
+    }
+}
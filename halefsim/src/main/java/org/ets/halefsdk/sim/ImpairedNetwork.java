@@ -0,0 +1,293 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.FeedbackSocket;
+import org.ets.halefsdk.core.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process bad network between the SDK's transports and the local stand-ins: SIP goes
+ * through an {@link ImpairedSipRelay}, the feedback channel through a wrapped
+ * {@link FeedbackSocket}. Everything that crosses it is delayed, dropped, reordered or
+ * queued as the {@link NetworkProfile} says, each direction of each link drawing from its
+ * own random source derived from one seed. During an outage datagrams vanish, streams
+ * stall and the feedback socket is disconnected. Recovery is the time from
+ * the end of an outage to the feedback channel being connected again.
+ */
+public class ImpairedNetwork {
+    private final NetworkProfile profile;
+    private final long seed;
+    private final long epochNanos = System.nanoTime();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ImpairedNetwork");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private final List<LinkImpairment> links = new CopyOnWriteArrayList<LinkImpairment>();
+    private final List<Runnable> outageListeners = new CopyOnWriteArrayList<Runnable>();
+    private final AtomicInteger outages = new AtomicInteger();
+    private final LatencyHistogram recovery = new LatencyHistogram();
+
+    public ImpairedNetwork(NetworkProfile profile, long seed) {
+        this.profile = profile;
+        this.seed = seed;
+        long every = profile.getOutageEveryMillis();
+        if (every > 0) {
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    outages.incrementAndGet();
+                    for (Runnable listener : outageListeners) {
+                        listener.run();
+                    }
+                }
+            }, TimeUnit.MILLISECONDS.toNanos(every - profile.getOutageMillis()),
+                    TimeUnit.MILLISECONDS.toNanos(every), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public NetworkProfile getProfile() {
+        return profile;
+    }
+
+    /** A relay in front of the stand-in SIP server on {@code serverPort}; not started yet. */
+    public ImpairedSipRelay relay(int serverPort) throws IOException {
+        return new ImpairedSipRelay(this, serverPort);
+    }
+
+    /** {@code socket} as seen from the far side of this network. */
+    public FeedbackSocket wrap(FeedbackSocket socket) {
+        return new ImpairedSocket(socket);
+    }
+
+    public int getOutages() {
+        return outages.get();
+    }
+
+    /** Datagrams lost, to loss or to outages. */
+    public long getDropped() {
+        long dropped = 0;
+        for (LinkImpairment link : links) {
+            dropped += link.getDropped();
+        }
+        return dropped;
+    }
+
+    /** Stream segments that took a retransmission to get through. */
+    public long getRetransmitted() {
+        long retransmitted = 0;
+        for (LinkImpairment link : links) {
+            retransmitted += link.getRetransmitted();
+        }
+        return retransmitted;
+    }
+
+    public LatencyHistogram getRecovery() {
+        return recovery;
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /** The n-th link of the network gets the same random source on every run with the same seed. */
+    LinkImpairment newLink(boolean ordered) {
+        LinkImpairment link = new LinkImpairment(profile, seed * 1000003 + links.size(), epochNanos, ordered);
+        links.add(link);
+        return link;
+    }
+
+    /** Sends {@code arrival} across the ordered {@code link}, behind whatever is already on it. */
+    void send(LinkImpairment link, int bytes, Runnable arrival) {
+        at(link.send(bytes, System.nanoTime(), arrival), link.arrive);
+    }
+
+    void onOutage(Runnable listener) {
+        outageListeners.add(listener);
+    }
+
+    /** Runs {@code task} at {@code nanos} on the {@link System#nanoTime()} clock. */
+    void at(long nanos, Runnable task) {
+        try {
+            scheduler.schedule(task, nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed: the network is gone and takes everything in flight with it.
+        }
+    }
+
+    /**
+     * The socket on the far side of the network. Callbacks and emits cross it in order, one
+     * link each way; whatever is still in flight when the connection drops is lost, and the
+     * stand-in replays it on resume like the real messenger does.
+     */
+    private final class ImpairedSocket implements FeedbackSocket, FeedbackSocket.Handler {
+        private final FeedbackSocket socket;
+        private final LinkImpairment up = newLink(true);
+        private final LinkImpairment down = newLink(true);
+        private volatile Handler handler;
+        private volatile boolean connected;
+        /** Bumped on every disconnect, so nothing sent over an old connection arrives on a new one. */
+        private int connection;
+        /** When the outage that cut the connection ended, until it is back; 0 when not recovering. */
+        private long recoveringSince;
+
+        ImpairedSocket(FeedbackSocket socket) {
+            this.socket = socket;
+            socket.setHandler(this);
+            onOutage(new Runnable() {
+                @Override
+                public void run() {
+                    if (connected) {
+                        synchronized (ImpairedSocket.this) {
+                            recoveringSince = up.upAt(System.nanoTime());
+                        }
+                        ImpairedSocket.this.socket.disconnect();
+                    }
+                }
+            });
+        }
+
+        private synchronized int connection() {
+            return connection;
+        }
+
+        /** Something that crosses the network over the current connection, or not at all. */
+        private abstract class Crossing implements Runnable {
+            private final int sentOn = connection();
+
+            abstract void arrive();
+
+            @Override
+            public void run() {
+                if (sentOn == connection()) {
+                    arrive();
+                }
+            }
+        }
+
+        @Override
+        public void setHandler(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void connect() {
+            send(up, 64, new Runnable() {
+                @Override
+                public void run() {
+                    socket.connect();
+                }
+            });
+        }
+
+        @Override
+        public void disconnect() {
+            socket.disconnect();
+        }
+
+        @Override
+        public boolean connected() {
+            return connected;
+        }
+
+        @Override
+        public void emit(final String event, final String json) {
+            if (!connected) {
+                return;
+            }
+            send(up, json.length(), new Crossing() {
+                @Override
+                void arrive() {
+                    socket.emit(event, json);
+                }
+            });
+        }
+
+        @Override
+        public void emit(final String event, final byte[] cbor) {
+            if (!connected) {
+                return;
+            }
+            send(up, cbor.length, new Crossing() {
+                @Override
+                void arrive() {
+                    socket.emit(event, cbor);
+                }
+            });
+        }
+
+        @Override
+        public void onConnect() {
+            send(down, 64, new Crossing() {
+                @Override
+                void arrive() {
+                    connected = true;
+                    synchronized (ImpairedSocket.this) {
+                        if (recoveringSince > 0) {
+                            recovery.recordNanos(System.nanoTime() - recoveringSince);
+                            recoveringSince = 0;
+                        }
+                    }
+                    handler.onConnect();
+                }
+            });
+        }
+
+        @Override
+        public void onDisconnect() {
+            synchronized (this) {
+                connection++;
+            }
+            connected = false;
+            // The client finds out at once rather than a latency later; what matters is what it does next.
+            at(System.nanoTime(), new Runnable() {
+                @Override
+                public void run() {
+                    handler.onDisconnect();
+                }
+            });
+        }
+
+        @Override
+        public void onMessage(final String user, final String message) {
+            send(down, message.length(), new Crossing() {
+                @Override
+                void arrive() {
+                    handler.onMessage(user, message);
+                }
+            });
+        }
+
+        @Override
+        public void onBinaryMessage(final String user, final byte[] message) {
+            send(down, message.length, new Crossing() {
+                @Override
+                void arrive() {
+                    handler.onBinaryMessage(user, message);
+                }
+            });
+        }
+
+        @Override
+        public void onEncoding(final String encoding) {
+            send(down, 16, new Crossing() {
+                @Override
+                void arrive() {
+                    handler.onEncoding(encoding);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.ets.halefsdk.sim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Passes SIP between the user agent and a {@link StandInSipServer} across an
+ * {@link ImpairedNetwork}, over UDP and TCP on one loopback port, so the client points its
+ * account at {@link #getDomain()} instead of the server's. Each client address gets its own
+ * upstream socket and a link each way; a TCP connection is spliced to one of its own to the
+ * server. During an outage datagrams are lost and connections stall until it is over, as TCP
+ * rides out a short one. RTP does not go through here: the answer's SDP still points
+ * straight at the stand-in.
+ */
+public class ImpairedSipRelay {
+    private static final int MAX_DATAGRAM = 65535;
+
+    private final ImpairedNetwork network;
+    private final InetSocketAddress server;
+    private final DatagramSocket socket;
+    private final ServerSocket tcpSocket;
+    private final Map<SocketAddress, Flow> flows = new ConcurrentHashMap<SocketAddress, Flow>();
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private boolean started;
+
+    ImpairedSipRelay(ImpairedNetwork network, int serverPort) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.network = network;
+        this.server = new InetSocketAddress(loopback, serverPort);
+        this.socket = new DatagramSocket(new InetSocketAddress(loopback, 0));
+        this.tcpSocket = new ServerSocket(socket.getLocalPort(), 50, loopback);
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public String getDomain() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            daemon(udpLoop, "ImpairedSipRelay-udp");
+            daemon(tcpLoop, "ImpairedSipRelay-tcp");
+        }
+    }
+
+    public synchronized void close() {
+        socket.close();
+        closeQuietly(tcpSocket);
+        for (Flow flow : flows.values()) {
+            flow.upstream.close();
+        }
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private final Runnable udpLoop = new Runnable() {
+        @Override
+        public void run() {
+            byte[] buffer = new byte[MAX_DATAGRAM];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (!socket.isClosed()) {
+                try {
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+                    Flow flow = flows.get(packet.getSocketAddress());
+                    if (flow == null) {
+                        flow = new Flow(packet.getSocketAddress());
+                        flows.put(packet.getSocketAddress(), flow);
+                    }
+                    forward(Arrays.copyOf(buffer, packet.getLength()), flow.upstream, server, flow.up);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+    };
+
+    /** One client's datagrams: its own socket to the server, and what the server sends to it goes back. */
+    private final class Flow implements Runnable {
+        final SocketAddress client;
+        final DatagramSocket upstream;
+        final LinkImpairment up = network.newLink(false);
+        final LinkImpairment down = network.newLink(false);
+
+        Flow(SocketAddress client) throws IOException {
+            this.client = client;
+            this.upstream = new DatagramSocket(new InetSocketAddress(server.getAddress(), 0));
+            daemon(this, "ImpairedSipRelay-flow");
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[MAX_DATAGRAM];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (!upstream.isClosed()) {
+                try {
+                    packet.setLength(buffer.length);
+                    upstream.receive(packet);
+                    forward(Arrays.copyOf(buffer, packet.getLength()), socket, client, down);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void forward(final byte[] datagram, final DatagramSocket from, final SocketAddress to,
+                         LinkImpairment link) {
+        long at = link.deliverAt(datagram.length, System.nanoTime());
+        if (at < 0) {
+            return;
+        }
+        network.at(at, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    from.send(new DatagramPacket(datagram, datagram.length, to));
+                } catch (IOException e) {
+                    // Closed; the datagram is lost like any other.
+                }
+            }
+        });
+    }
+
+    private final Runnable tcpLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (!tcpSocket.isClosed()) {
+                try {
+                    final Socket client = tcpSocket.accept();
+                    final Socket upstream;
+                    try {
+                        upstream = new Socket(server.getAddress(), server.getPort());
+                    } catch (IOException e) {
+                        closeQuietly(client);
+                        continue;
+                    }
+                    client.setTcpNoDelay(true);
+                    upstream.setTcpNoDelay(true);
+                    connections.add(client);
+                    connections.add(upstream);
+                    final LinkImpairment up = network.newLink(true);
+                    final LinkImpairment down = network.newLink(true);
+                    daemon(new Runnable() {
+                        @Override
+                        public void run() {
+                            pump(client, upstream, up);
+                        }
+                    }, "ImpairedSipRelay-up");
+                    daemon(new Runnable() {
+                        @Override
+                        public void run() {
+                            pump(upstream, client, down);
+                        }
+                    }, "ImpairedSipRelay-down");
+                } catch (IOException e) {
+                    if (tcpSocket.isClosed()) {
+                        return;
+                    }
+                }
+            }
+        }
+    };
+
+    /** Copies one direction of a spliced connection; when either end goes, both do. */
+    private void pump(final Socket from, final Socket to, LinkImpairment link) {
+        try {
+            InputStream in = from.getInputStream();
+            final OutputStream out = to.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                final byte[] chunk = Arrays.copyOf(buffer, n);
+                network.send(link, n, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            out.write(chunk);
+                            out.flush();
+                        } catch (IOException e) {
+                            closeQuietly(from);
+                        }
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // Reset by either end.
+        }
+        // After whatever is still in flight.
+        network.send(link, 0, new Runnable() {
+            @Override
+            public void run() {
+                connections.remove(from);
+                connections.remove(to);
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package org.ets.halefsdk.sim;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One direction of an impaired link: decides when each packet, or chunk of a stream, comes
+ * out the other end. Every decision draws the same three numbers from the link's own seeded
+ * {@link Random}, so the n-th packet in a direction meets the same fate on every run with
+ * the same seed, however the threads around it are scheduled.
+ *
+ * <p>A datagram link drops and reorders. An ordered link stands for a TCP connection: a lost
+ * segment costs a retransmission instead, nothing overtakes anything, and during an outage
+ * data waits for the network to come back.
+ */
+final class LinkImpairment {
+    private static final long MIN_REORDER_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MIN_RETRANSMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final Random random;
+    private final long epochNanos;
+    private final boolean ordered;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double loss;
+    private final double reorder;
+    private final long bytesPerSecond;
+    private final long outageEveryNanos;
+    private final long outageNanos;
+    /** When the last packet finished going onto the wire, for the bandwidth cap. */
+    private long linkFreeNanos;
+    private long lastDeliveryNanos;
+    /** What an ordered link has in flight, oldest first. */
+    private final Queue<Runnable> inFlight = new ArrayDeque<Runnable>();
+    private long dropped;
+    private long retransmitted;
+
+    /** @param epochNanos where outages are counted from, so links of one network share them */
+    LinkImpairment(NetworkProfile profile, long seed, long epochNanos, boolean ordered) {
+        this.random = new Random(seed);
+        this.epochNanos = epochNanos;
+        this.ordered = ordered;
+        latencyNanos = TimeUnit.MILLISECONDS.toNanos(profile.getLatencyMillis());
+        jitterNanos = TimeUnit.MILLISECONDS.toNanos(profile.getJitterMillis());
+        loss = profile.getLoss();
+        reorder = profile.getReorder();
+        bytesPerSecond = profile.getBytesPerSecond();
+        outageEveryNanos = TimeUnit.MILLISECONDS.toNanos(profile.getOutageEveryMillis());
+        outageNanos = TimeUnit.MILLISECONDS.toNanos(profile.getOutageMillis());
+    }
+
+    /**
+     * @return when {@code bytes} sent at {@code nowNanos} arrive, on the
+     * {@link System#nanoTime()} clock, or -1 if they never do
+     */
+    synchronized long deliverAt(int bytes, long nowNanos) {
+        double fate = random.nextDouble();
+        double late = random.nextDouble();
+        double spread = random.nextDouble() * 2 - 1;
+        if (isDown(nowNanos)) {
+            if (!ordered) {
+                dropped++;
+                return -1;
+            }
+            nowNanos = upAt(nowNanos);
+        }
+        long transmit = bytesPerSecond > 0 ? bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond : 0;
+        linkFreeNanos = Math.max(nowNanos, linkFreeNanos) + transmit;
+        long at = Math.max(linkFreeNanos, linkFreeNanos + latencyNanos + (long) (jitterNanos * spread));
+        if (fate < loss) {
+            if (!ordered) {
+                dropped++;
+                return -1;
+            }
+            retransmitted++;
+            at += Math.max(MIN_RETRANSMIT_NANOS, 2 * (latencyNanos + 2 * jitterNanos));
+        } else if (!ordered && late < reorder) {
+            at += Math.max(MIN_REORDER_NANOS, 2 * jitterNanos);
+        }
+        if (ordered) {
+            at = Math.max(at, lastDeliveryNanos);
+            lastDeliveryNanos = at;
+        }
+        return at;
+    }
+
+    /**
+     * For an ordered link: puts {@code arrival} in flight and returns when it is due, as
+     * {@link #deliverAt} does. Whoever runs {@link #arrive} at that time runs the oldest
+     * arrival in flight, so two due at the same moment cannot swap places on the way out.
+     */
+    synchronized long send(int bytes, long nowNanos, Runnable arrival) {
+        long at = deliverAt(bytes, nowNanos);
+        inFlight.add(arrival);
+        return at;
+    }
+
+    final Runnable arrive = new Runnable() {
+        @Override
+        public void run() {
+            Runnable arrival;
+            synchronized (LinkImpairment.this) {
+                arrival = inFlight.poll();
+            }
+            if (arrival != null) {
+                arrival.run();
+            }
+        }
+    };
+
+    boolean isDown(long nowNanos) {
+        if (outageEveryNanos == 0) {
+            return false;
+        }
+        long t = nowNanos - epochNanos;
+        return t >= 0 && t % outageEveryNanos >= outageEveryNanos - outageNanos;
+    }
+
+    /** When the outage going on at {@code nowNanos} ends, or {@code nowNanos} if there is none. */
+    long upAt(long nowNanos) {
+        if (!isDown(nowNanos)) {
+            return nowNanos;
+        }
+        long t = nowNanos - epochNanos;
+        return epochNanos + t - t % outageEveryNanos + outageEveryNanos;
+    }
+
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    synchronized long getRetransmitted() {
+        return retransmitted;
+    }
+}
@@ -0,0 +1,651 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.Backoff;
+import org.ets.halefsdk.core.CallIds;
+import org.ets.halefsdk.core.CallState;
+import org.ets.halefsdk.core.Cbor;
+import org.ets.halefsdk.core.DialogApp;
+import org.ets.halefsdk.core.FeedbackChannel;
+import org.ets.halefsdk.core.FeedbackEvent;
+import org.ets.halefsdk.core.FeedbackParser;
+import org.ets.halefsdk.core.FeedbackSocket;
+import org.ets.halefsdk.core.LatencyHistogram;
+import org.ets.halefsdk.core.NetworkHandover;
+import org.ets.halefsdk.core.RegistrationEngine;
+import org.ets.halefsdk.core.SdkEvent;
+import org.ets.halefsdk.core.SessionRecorder;
+import org.ets.halefsdk.core.SessionRegistry;
+import org.ets.halefsdk.core.SetupException;
+import org.ets.halefsdk.core.SetupHandle;
+import org.ets.halefsdk.core.SetupMetrics;
+import org.ets.halefsdk.core.SetupStage;
+import org.ets.halefsdk.core.SipAccount;
+import org.ets.halefsdk.core.media.SilentAudioDevice;
+import org.ets.halefsdk.core.sip.NioSipUserAgent;
+import org.ets.halefsdk.core.sip.SipTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless load generator. Starts the SIP and feedback stand-ins, registers once and then
+ * places {@code --calls} calls, at most {@code --concurrency} at a time, through the same
+ * core pieces the SDK uses (the {@link NioSipUserAgent} over UDP or TCP with silent audio,
+ * call IDs, sessions, the shared {@link FeedbackChannel}, setup timelines). Each call waits
+ * for the scripted dialog to finish and hangs up. Reports
+ * calls per second, setup latency percentiles, feedback delivery latency and the error rate.
+ * With {@code --drop-every} the feedback stand-in drops its connections periodically, and
+ * a call only counts if its dialog still arrived complete and without duplicates.
+ * {@code --framing cbor} has the channel and the stand-in negotiate CBOR instead of JSON;
+ * the report then shows how many bytes each feedback message took on the wire.
+ * {@code --flip-every} simulates the device switching networks that often: each flip runs a
+ * {@link NetworkHandover}, which moves the registration, every established call and the
+ * feedback channel onto new sockets, and the report shows how long that took.
+ * {@code --record} writes every feedback message to a session recording, the way the SDK
+ * records what it hands its client, for {@link ReplayHarness} to play back.
+ * {@code --network} puts an {@link ImpairedNetwork} with that {@link NetworkProfile} between
+ * the client and both stand-ins, drawing from {@code --seed}; the report then shows what it
+ * dropped and, if the profile has outages, how long the feedback channel took to recover.
+ *
+ * <pre>
+ * ./gradlew :halefsim:loadTest -PharnessArgs="--calls 1000 --concurrency 100 --messages 8"
+ * </pre>
+ */
+public class LoadHarness {
+    private static final long RECONNECT_BASE_MILLIS = 20;
+    private static final long RECONNECT_MAX_MILLIS = 500;
+
+    static final class Options {
+        int calls = 200;
+        int concurrency = 20;
+        int messages = 6;
+        long messageIntervalMillis = 20;
+        long answerDelayMillis = 30;
+        long handshakeMillis = 50;
+        long callTimeoutMillis = 10000;
+        String extension = "7801";
+        NioSipUserAgent.Protocol transport = NioSipUserAgent.Protocol.UDP;
+        String password;
+        long dropEveryMillis;
+        String framing = FeedbackChannel.ENCODING_JSON;
+        long flipEveryMillis;
+        File record;
+        NetworkProfile network;
+        long seed = 1;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String name = args[i];
+                String value = args[i + 1];
+                if ("--calls".equals(name)) {
+                    options.calls = Integer.parseInt(value);
+                } else if ("--concurrency".equals(name)) {
+                    options.concurrency = Integer.parseInt(value);
+                } else if ("--messages".equals(name)) {
+                    options.messages = Math.max(2, Integer.parseInt(value));
+                } else if ("--message-interval".equals(name)) {
+                    options.messageIntervalMillis = Long.parseLong(value);
+                } else if ("--answer-delay".equals(name)) {
+                    options.answerDelayMillis = Long.parseLong(value);
+                } else if ("--handshake".equals(name)) {
+                    options.handshakeMillis = Long.parseLong(value);
+                } else if ("--timeout".equals(name)) {
+                    options.callTimeoutMillis = Long.parseLong(value);
+                } else if ("--extension".equals(name)) {
+                    options.extension = value;
+                } else if ("--transport".equals(name)) {
+                    options.transport = NioSipUserAgent.Protocol.valueOf(value.toUpperCase());
+                } else if ("--password".equals(name)) {
+                    options.password = value;
+                } else if ("--drop-every".equals(name)) {
+                    options.dropEveryMillis = Long.parseLong(value);
+                } else if ("--framing".equals(name)) {
+                    if (!FeedbackChannel.ENCODING_JSON.equals(value) && !FeedbackChannel.ENCODING_CBOR.equals(value)) {
+                        throw new IllegalArgumentException("Unknown framing " + value);
+                    }
+                    options.framing = value;
+                } else if ("--flip-every".equals(name)) {
+                    options.flipEveryMillis = Long.parseLong(value);
+                } else if ("--record".equals(name)) {
+                    options.record = new File(value);
+                } else if ("--network".equals(name)) {
+                    options.network = NetworkProfile.named(value);
+                } else if ("--seed".equals(name)) {
+                    options.seed = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            return options;
+        }
+    }
+
+    /** What one run measured. */
+    public static final class Report {
+        int calls;
+        int failed;
+        long elapsedNanos;
+        long messages;
+        long drops;
+        long replayed;
+        long duplicates;
+        String framing = FeedbackChannel.ENCODING_JSON;
+        long feedbackBytes;
+        int handovers;
+        int callsMoved;
+        int callsLost;
+        final LatencyHistogram handover = new LatencyHistogram();
+        String network;
+        int outages;
+        long datagramsDropped;
+        long retransmitted;
+        LatencyHistogram recovery = new LatencyHistogram();
+        final SetupMetrics setup = new SetupMetrics();
+        final LatencyHistogram delivery = new LatencyHistogram();
+
+        public int getCalls() {
+            return calls;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public double getCallsPerSecond() {
+            return elapsedNanos == 0 ? 0 : calls * 1e9 / elapsedNanos;
+        }
+
+        public double getErrorRate() {
+            return calls == 0 ? 0 : (double) failed / calls;
+        }
+
+        public SetupMetrics getSetupMetrics() {
+            return setup;
+        }
+
+        public LatencyHistogram getDeliveryLatency() {
+            return delivery;
+        }
+
+        /** Feedback connection drops, messages the stand-in sent again and duplicates dropped. */
+        public long getDrops() {
+            return drops;
+        }
+
+        public long getReplayed() {
+            return replayed;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /** The framing the feedback channel ended up using, and what it sent in it. */
+        public String getFraming() {
+            return framing;
+        }
+
+        public long getFeedbackBytes() {
+            return feedbackBytes;
+        }
+
+        /** Network flips handed over, and the established calls they moved or lost. */
+        public int getHandovers() {
+            return handovers;
+        }
+
+        public int getCallsMoved() {
+            return callsMoved;
+        }
+
+        public int getCallsLost() {
+            return callsLost;
+        }
+
+        public LatencyHistogram getHandoverLatency() {
+            return handover;
+        }
+
+        /** The impaired network's profile, or null when the client talked to the stand-ins directly. */
+        public String getNetwork() {
+            return network;
+        }
+
+        public int getOutages() {
+            return outages;
+        }
+
+        public long getDatagramsDropped() {
+            return datagramsDropped;
+        }
+
+        /** Time from the end of each outage to the feedback channel being connected again. */
+        public LatencyHistogram getRecovery() {
+            return recovery;
+        }
+
+        void print(PrintStream out) {
+            out.printf("calls: %d, failed: %d (%.2f%%), %.1f calls/s, %d feedback messages%n",
+                    calls, failed, getErrorRate() * 100, getCallsPerSecond(), messages);
+            out.printf("  %s framing, %d feedback bytes (%.1f per message)%n", framing, feedbackBytes,
+                    messages == 0 ? 0.0 : (double) feedbackBytes / messages);
+            if (drops > 0) {
+                out.printf("  %d feedback drops, %d messages replayed, %d duplicates dropped%n",
+                        drops, replayed, duplicates);
+            }
+            if (handovers > 0) {
+                out.printf("  %d network handovers, %d calls moved, %d lost%n", handovers, callsMoved, callsLost);
+                printRow(out, "network handover", handover);
+            }
+            if (network != null) {
+                out.printf("  %s network, %d datagrams dropped, %d segments retransmitted, %d outages%n",
+                        network, datagramsDropped, retransmitted, outages);
+            }
+            if (outages > 0) {
+                printRow(out, "feedback recovery", recovery);
+            }
+            printRow(out, "feedback delivery", delivery);
+            printRow(out, "feedback connect", setup.getFeedbackConnect());
+            for (SetupStage stage : new SetupStage[] { SetupStage.CALL_ESTABLISHED,
+                    SetupStage.WS_REGISTERED, SetupStage.FIRST_MESSAGE }) {
+                printRow(out, "setup " + stage.getLabel(), setup.get(stage));
+            }
+        }
+
+        private static void printRow(PrintStream out, String name, LatencyHistogram h) {
+            out.printf("  %-28s n=%-7d p50=%-9s p90=%-9s p99=%-9s max=%s%n", name, h.getCount(),
+                    ms(h.getPercentileMicros(0.5)), ms(h.getPercentileMicros(0.9)),
+                    ms(h.getPercentileMicros(0.99)), ms(h.getMaxMicros()));
+        }
+
+        static String ms(long micros) {
+            return String.format("%.2fms", micros / 1000.0);
+        }
+    }
+
+    private final Options options;
+    private final SessionRegistry<SimulatedCall> sessions = new SessionRegistry<SimulatedCall>();
+    private final CallIds callIds = new CallIds();
+    private final Report report = new Report();
+    private final AtomicInteger failed = new AtomicInteger();
+    private StandInSipServer sipServer;
+    private StandInFeedbackServer feedbackServer;
+    private ImpairedNetwork network;
+    private ImpairedSipRelay relay;
+    /** Where the client sends SIP: the stand-in, or the relay in front of it. */
+    private String domain;
+    private FeedbackChannel channel;
+    private ScheduledExecutorService timers;
+    private NioSipUserAgent userAgent;
+    private SipAccount account;
+    private RegistrationEngine registration;
+    private volatile NetworkHandover handover;
+    private SessionRecorder recorder;
+    private final DialogApp app;
+
+    LoadHarness(Options options) {
+        this.options = options;
+        app = new DialogApp(options.extension, null, null);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Report report = new LoadHarness(Options.parse(args)).run();
+        report.print(System.out);
+        System.exit(report.getFailed() == 0 ? 0 : 1);
+    }
+
+    Report run() throws IOException, InterruptedException {
+        feedbackServer = new StandInFeedbackServer(options.handshakeMillis);
+        sipServer = new StandInSipServer(0, options.answerDelayMillis, options.password,
+                new StandInSipServer.Listener() {
+                    @Override
+                    public void onCallAnswered(String callUUID) {
+                        feedbackServer.startDialog(callUUID, options.messages, options.messageIntervalMillis);
+                    }
+
+                    @Override
+                    public void onCallEnded(String callUUID) {
+                    }
+                });
+        domain = sipServer.getDomain();
+        FeedbackSocket socket = feedbackServer.newSocket();
+        if (options.network != null) {
+            network = new ImpairedNetwork(options.network, options.seed);
+            relay = network.relay(sipServer.getPort());
+            domain = relay.getDomain();
+            socket = network.wrap(socket);
+        }
+        timers = Executors.newSingleThreadScheduledExecutor();
+        channel = new FeedbackChannel(socket, channelListener, timers,
+                new Backoff(RECONNECT_BASE_MILLIS, RECONNECT_MAX_MILLIS));
+        boolean cbor = FeedbackChannel.ENCODING_CBOR.equals(options.framing);
+        feedbackServer.setBinaryFraming(cbor);
+        channel.setBinaryFraming(cbor);
+        if (options.dropEveryMillis > 0) {
+            timers.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    report.drops++;
+                    feedbackServer.dropConnections();
+                }
+            }, options.dropEveryMillis, options.dropEveryMillis, TimeUnit.MILLISECONDS);
+        }
+        sipServer.start();
+        if (relay != null) {
+            relay.start();
+        }
+        userAgent = new NioSipUserAgent(options.transport, SilentAudioDevice.FACTORY);
+        account = new SipAccount(domain, "harness", options.password);
+        registration = new RegistrationEngine(registrar, registrationListener, timers,
+                new Backoff(RECONNECT_BASE_MILLIS, RECONNECT_MAX_MILLIS), DIRECT, options.callTimeoutMillis);
+        if (options.record != null) {
+            recorder = new SessionRecorder(options.record);
+            recorder.open();
+        }
+        try {
+            register();
+            if (options.flipEveryMillis > 0) {
+                startFlipping();
+            }
+            channel.open();
+            runCalls();
+            report.framing = channel.isBinary() ? FeedbackChannel.ENCODING_CBOR : FeedbackChannel.ENCODING_JSON;
+        } finally {
+            registration.unregister();
+            userAgent.shutdown();
+            timers.shutdownNow();
+            channel.close();
+            sipServer.close();
+            feedbackServer.close();
+            if (network != null) {
+                relay.close();
+                network.close();
+            }
+            if (recorder != null) {
+                recorder.close();
+            }
+        }
+        report.failed = failed.get();
+        report.replayed = feedbackServer.getReplayed();
+        report.duplicates = channel.getDuplicates();
+        report.feedbackBytes = feedbackServer.getBytesSent();
+        if (network != null) {
+            report.network = options.network.getName();
+            report.outages = network.getOutages();
+            report.datagramsDropped = network.getDropped();
+            report.retransmitted = network.getRetransmitted();
+            report.recovery = network.getRecovery();
+        }
+        return report;
+    }
+
+    private void register() throws IOException, InterruptedException {
+        SetupHandle handle = registration.register(account);
+        try {
+            handle.get(options.callTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("REGISTER failed: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            throw new IOException("REGISTER failed: timed out");
+        }
+    }
+
+    /** Alternates between two made-up networks, the way a phone moves between Wi-Fi and cellular. */
+    private void startFlipping() {
+        final NetworkHandover flips = new NetworkHandover(registration, new NetworkHandover.Listener() {
+            @Override
+            public void onHandover(NetworkHandover.Report handover) {
+                synchronized (report) {
+                    report.handovers++;
+                    report.callsMoved += handover.getCallsMoved();
+                    report.callsLost += handover.getCallsLost();
+                }
+                if (!handover.isSuperseded()) {
+                    report.handover.recordNanos(handover.getTotalNanos());
+                }
+            }
+        });
+        flips.setTransport(userAgent);
+        flips.setFeedbackChannel(channel);
+        flips.onNetworkChanged("wifi");
+        handover = flips;
+        timers.scheduleAtFixedRate(new Runnable() {
+            private boolean cellular;
+
+            @Override
+            public void run() {
+                cellular = !cellular;
+                flips.onNetworkChanged(cellular ? "cellular" : "wifi");
+            }
+        }, options.flipEveryMillis, options.flipEveryMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    /** Registration goes through the engine, as in the SDK, so a handover can renew it. */
+    private final RegistrationEngine.Registrar registrar = new RegistrationEngine.Registrar() {
+        @Override
+        public void open(SipAccount account) {
+            userAgent.register(account, 3600, transportListener);
+        }
+
+        @Override
+        public void refresh(SipAccount account) {
+            userAgent.register(account, 3600, transportListener);
+        }
+
+        @Override
+        public void close(SipAccount account) {
+            userAgent.close(account);
+        }
+    };
+
+    private final SipTransport.RegistrationListener transportListener = new SipTransport.RegistrationListener() {
+        @Override
+        public void onRegistering(String localProfileUri) {
+            registration.onRegistering(localProfileUri);
+        }
+
+        @Override
+        public void onRegistrationDone(String localProfileUri, long expiryTime) {
+            registration.onRegistered(localProfileUri, expiryTime);
+        }
+
+        @Override
+        public void onRegistrationFailed(String localProfileUri, int errorCode, String errorMessage) {
+            registration.onRegistrationFailed(localProfileUri, errorCode, errorMessage);
+        }
+    };
+
+    private final RegistrationEngine.Listener registrationListener = new RegistrationEngine.Listener() {
+        @Override
+        public void onRegistering(SipAccount account) {
+        }
+
+        @Override
+        public void onRegistered(SipAccount account, boolean fresh) {
+            NetworkHandover flips = handover;
+            if (fresh && flips != null) {
+                flips.onRegistered();
+            }
+        }
+
+        @Override
+        public void onRegistrationFailed(SipAccount account, SetupException cause, long retryMillis) {
+        }
+    };
+
+    private void runCalls() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(options.concurrency);
+        final CountDownLatch done = new CountDownLatch(options.calls);
+        long start = System.nanoTime();
+        for (int i = 0; i < options.calls; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!placeCall()) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (SetupException e) {
+                        failed.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        failed.incrementAndGet();
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        report.elapsedNanos = System.nanoTime() - start;
+        report.calls = options.calls;
+        executor.shutdown();
+    }
+
+    /** One call, end to end, the way {@code SipClientService.call} drives it. */
+    private boolean placeCall() throws SetupException, InterruptedException {
+        SimulatedCall call;
+        do {
+            call = new SimulatedCall(callIds.next(), options.extension);
+        } while (!sessions.add(call));
+        String id = call.getId();
+        call.moveTo(CallState.CALLING);
+        channel.attach(id);
+        final CountDownLatch answered = new CountDownLatch(1);
+        SipTransport.Call sipCall = userAgent.makeCall(account,
+                app.dialString(id, domain), new SipTransport.CallListener() {
+                    @Override
+                    public void onCallEstablished(SipTransport.Call call) {
+                        answered.countDown();
+                    }
+
+                    @Override
+                    public void onCallEnded(SipTransport.Call call) {
+                    }
+
+                    @Override
+                    public void onError(SipTransport.Call call, int errorCode, String errorMessage) {
+                        answered.countDown();
+                    }
+                }, (int) Math.max(1, options.callTimeoutMillis / 1000));
+        try {
+            if (!answered.await(options.callTimeoutMillis, TimeUnit.MILLISECONDS) || !sipCall.isInCall()) {
+                call.moveTo(CallState.FAILED);
+                return false;
+            }
+            call.getTimeline().mark(SetupStage.CALL_ESTABLISHED);
+            call.moveTo(CallState.IN_PROGRESS);
+            sipCall.startAudio();
+            boolean finished = call.awaitEndOfDialog(options.messages, options.callTimeoutMillis);
+            sipCall.endCall();
+            call.moveTo(finished ? CallState.ENDED : CallState.FAILED);
+            return finished && call.getMessages() == options.messages;
+        } finally {
+            sipCall.close();
+            sessions.remove(call);
+            channel.detach(id);
+            report.setup.record(call.getTimeline());
+        }
+    }
+
+    private final FeedbackChannel.BinaryListener channelListener = new FeedbackChannel.BinaryListener() {
+        private final FeedbackParser parser = new FeedbackParser();
+
+        @Override
+        public void onChannelConnected(long latencyNanos) {
+            if (latencyNanos >= 0) {
+                report.setup.recordFeedbackConnect(latencyNanos);
+            }
+            NetworkHandover flips = handover;
+            if (flips != null) {
+                flips.onChannelConnected();
+            }
+        }
+
+        @Override
+        public void onChannelDisconnected() {
+        }
+
+        @Override
+        public void onSessionRegistered(String callUUID) {
+            SimulatedCall call = sessions.get(callUUID);
+            if (call != null) {
+                call.getTimeline().mark(SetupStage.WS_CONNECTED);
+                call.getTimeline().mark(SetupStage.WS_REGISTERED);
+            }
+        }
+
+        @Override
+        public void onFeedbackMessage(String callUUID, String message) {
+            // The stand-in delivers from a single thread, so the parser needs no locking.
+            long now = System.nanoTime();
+            SimulatedCall call = received(callUUID, now, sentNanos(message));
+            if (recorder != null) {
+                recorder.record(SdkEvent.feedbackMessage(callUUID, message));
+            }
+            if (call != null) {
+                FeedbackEvent event = new FeedbackEvent();
+                parser.parse(message, event);
+                call.onFeedbackEvent(event);
+            }
+        }
+
+        @Override
+        public void onFeedbackBinary(String callUUID, byte[] message) {
+            long now = System.nanoTime();
+            SimulatedCall call = received(callUUID, now, Cbor.longMember(message, "sentNanos"));
+            if (recorder != null) {
+                // The SDK hands its client JSON either way.
+                recorder.record(SdkEvent.feedbackMessage(callUUID, Cbor.toJson(message)));
+            }
+            if (call != null) {
+                FeedbackEvent event = new FeedbackEvent();
+                parser.parse(message, event);
+                call.onFeedbackEvent(event);
+            }
+        }
+
+        private SimulatedCall received(String callUUID, long now, long sent) {
+            if (sent > 0) {
+                report.delivery.recordNanos(now - sent);
+            }
+            report.messages++;
+            SimulatedCall call = sessions.get(callUUID);
+            if (call != null) {
+                call.getTimeline().mark(SetupStage.FIRST_MESSAGE);
+            }
+            return call;
+        }
+    };
+
+    static long sentNanos(String message) {
+        int key = message.indexOf("\"sentNanos\":");
+        if (key < 0) {
+            return -1;
+        }
+        int start = key + 12;
+        int end = start;
+        while (end < message.length() && (Character.isDigit(message.charAt(end)) || message.charAt(end) == '-')) {
+            end++;
+        }
+        return end == start ? -1 : Long.parseLong(message.substring(start, end));
+    }
+}
@@ -0,0 +1,110 @@
+package org.ets.halefsdk.sim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a simulated network misbehaves, for an {@link ImpairedNetwork}. Latency and jitter
+ * are one way; a packet takes the latency plus or minus up to the jitter. Loss and reorder
+ * are the chance per packet of it being dropped or held back behind the ones after it. A
+ * bandwidth cap queues what does not fit. With outages, the network goes away for
+ * {@code outageMillis} at the end of every {@code outageEveryMillis}.
+ */
+public final class NetworkProfile {
+    public static final NetworkProfile PERFECT = new NetworkProfile("perfect", 0, 0, 0, 0, 0, 0, 0);
+    public static final NetworkProfile WIFI = new NetworkProfile("wifi", 5, 3, 0.002, 0.001, 2500000, 0, 0);
+    public static final NetworkProfile LTE = new NetworkProfile("lte", 30, 10, 0.005, 0.005, 1250000, 0, 0);
+    public static final NetworkProfile THREE_G = new NetworkProfile("3g", 100, 40, 0.015, 0.01, 96000, 0, 0);
+    public static final NetworkProfile EDGE = new NetworkProfile("edge", 200, 80, 0.03, 0.02, 25000, 0, 0);
+    /** A phone on the move: decent most of the time, gone for a moment every few seconds. */
+    public static final NetworkProfile FLAKY = new NetworkProfile("flaky", 40, 20, 0.02, 0.01, 500000, 1500, 400);
+
+    private static final List<NetworkProfile> ALL = Collections.unmodifiableList(Arrays.asList(
+            PERFECT, WIFI, LTE, THREE_G, EDGE, FLAKY));
+
+    private final String name;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double loss;
+    private final double reorder;
+    private final long bytesPerSecond;
+    private final long outageEveryMillis;
+    private final long outageMillis;
+
+    /** @param bytesPerSecond 0 for no cap */
+    public NetworkProfile(String name, long latencyMillis, long jitterMillis, double loss, double reorder,
+                          long bytesPerSecond, long outageEveryMillis, long outageMillis) {
+        if (outageMillis >= outageEveryMillis && outageEveryMillis > 0) {
+            throw new IllegalArgumentException("An outage must be shorter than the time between outages");
+        }
+        this.name = name;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.loss = loss;
+        this.reorder = reorder;
+        this.bytesPerSecond = bytesPerSecond;
+        this.outageEveryMillis = outageEveryMillis;
+        this.outageMillis = outageEveryMillis > 0 ? outageMillis : 0;
+    }
+
+    /** The built-in profiles, from best to worst, then {@link #FLAKY}. */
+    public static List<NetworkProfile> all() {
+        return ALL;
+    }
+
+    public static NetworkProfile named(String name) {
+        for (NetworkProfile profile : ALL) {
+            if (profile.name.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown network " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public double getLoss() {
+        return loss;
+    }
+
+    public double getReorder() {
+        return reorder;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getOutageEveryMillis() {
+        return outageEveryMillis;
+    }
+
+    public long getOutageMillis() {
+        return outageMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(": ").append(latencyMillis).append("+-")
+                .append(jitterMillis).append("ms, ").append(String.format("%.1f%% loss, %.1f%% reorder",
+                        loss * 100, reorder * 100));
+        if (bytesPerSecond > 0) {
+            sb.append(", ").append(bytesPerSecond * 8 / 1000).append(" kbit/s");
+        }
+        if (outageEveryMillis > 0) {
+            sb.append(", ").append(outageMillis).append("ms outage every ").append(outageEveryMillis).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.EventLoop;
+import org.ets.halefsdk.core.LatencyHistogram;
+import org.ets.halefsdk.core.SdkEvent;
+import org.ets.halefsdk.core.SessionReplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Replays a session recording, from the SDK or from {@code LoadHarness --record}, into an
+ * {@link EventLoop} with a stand-in client, and reports how fast the client kept up. The
+ * loop dispatches on a separate thread, as it does on the main thread in the app, and
+ * {@code --consumer-micros} makes the client spend that long on each event, to see where
+ * it starts falling behind and dropping messages.
+ *
+ * <pre>
+ * ./gradlew :halefsim:replay -PreplayArgs="--file session.hsr --speed 0 --consumer-micros 200"
+ * </pre>
+ */
+public class ReplayHarness {
+
+    static final class Options {
+        File file;
+        /** 0 for as fast as possible. */
+        double speed = 1;
+        long consumerMicros;
+        int capacity = 512;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String name = args[i];
+                String value = args[i + 1];
+                if ("--file".equals(name)) {
+                    options.file = new File(value);
+                } else if ("--speed".equals(name)) {
+                    options.speed = Double.parseDouble(value);
+                } else if ("--consumer-micros".equals(name)) {
+                    options.consumerMicros = Long.parseLong(value);
+                } else if ("--capacity".equals(name)) {
+                    options.capacity = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            if (options.file == null) {
+                throw new IllegalArgumentException("--file is required");
+            }
+            return options;
+        }
+    }
+
+    private final Options options;
+    private LatencyHistogram dispatchLatency = new LatencyHistogram();
+
+    ReplayHarness(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ReplayHarness harness = new ReplayHarness(Options.parse(args));
+        SessionReplayer.Result result = harness.run();
+        harness.print(result, System.out);
+        System.exit(result.isDrained() ? 0 : 1);
+    }
+
+    SessionReplayer.Result run() throws IOException, InterruptedException {
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        EventLoop loop = new EventLoop(dispatcher, options.capacity, client);
+        dispatchLatency = loop.getDispatchLatency();
+        loop.start();
+        try {
+            return new SessionReplayer(options.file).replay(loop, options.speed);
+        } finally {
+            loop.stop();
+            client.shutdownNow();
+        }
+    }
+
+    void print(SessionReplayer.Result result, PrintStream out) {
+        out.printf("replayed %s at %s%n", options.file,
+                options.speed == SessionReplayer.AS_FAST_AS_POSSIBLE ? "full speed" : options.speed + "x");
+        out.println("  " + result);
+        out.printf("  %-28s n=%-7d p50=%-9s p90=%-9s p99=%-9s max=%s%n", "dispatch latency",
+                dispatchLatency.getCount(), ms(dispatchLatency.getPercentileMicros(0.5)),
+                ms(dispatchLatency.getPercentileMicros(0.9)), ms(dispatchLatency.getPercentileMicros(0.99)),
+                ms(dispatchLatency.getMaxMicros()));
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.2fms", micros / 1000.0);
+    }
+
+    private final EventLoop.Dispatcher dispatcher = new EventLoop.Dispatcher() {
+        @Override
+        public void dispatch(SdkEvent event) {
+            if (event.getType() == SdkEvent.Type.TASK) {
+                ((Runnable) event.getTag()).run();
+                return;
+            }
+            if (options.consumerMicros > 0) {
+                // Busy, like a client laying out a view, rather than asleep.
+                long until = System.nanoTime() + options.consumerMicros * 1000;
+                while (System.nanoTime() < until) {
+                    Thread.yield();
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,66 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.LatencyHistogram;
+import org.ets.halefsdk.core.SetupStage;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the {@link LoadHarness} once per {@link NetworkProfile}, with the same load and the
+ * same seed each time, and prints a line per profile: failed calls, call setup, feedback
+ * delivery and, on profiles with outages, how long the feedback channel took to come back
+ * after the network did. Any load harness option may be given; {@code --network} runs just
+ * that profile.
+ *
+ * <pre>
+ * ./gradlew :halefsim:scenarios -PscenarioArgs="--calls 100 --seed 7 --transport tcp"
+ * </pre>
+ */
+public class ScenarioSuite {
+    private static final String[] DEFAULTS = { "--calls", "40", "--concurrency", "10", "--seed", "1" };
+
+    public static void main(String[] args) throws Exception {
+        List<String> all = new ArrayList<String>(Arrays.asList(DEFAULTS));
+        all.addAll(Arrays.asList(args));
+        LoadHarness.Options options = LoadHarness.Options.parse(all.toArray(new String[all.size()]));
+        List<NetworkProfile> profiles = options.network != null
+                ? Collections.singletonList(options.network) : NetworkProfile.all();
+        System.out.printf("%d calls per profile, %s, seed %d%n", options.calls,
+                options.transport.name().toLowerCase(), options.seed);
+        System.out.printf("%-8s %6s  %-19s %-19s %-19s%n", "network", "failed",
+                "setup p50/p90", "delivery p50/p90", "recovery p50/max");
+        int failed = 0;
+        for (NetworkProfile profile : profiles) {
+            LoadHarness.Report report = run(options, profile);
+            print(report, System.out);
+            failed += report.getFailed();
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    static LoadHarness.Report run(LoadHarness.Options options, NetworkProfile profile)
+            throws IOException, InterruptedException {
+        options.network = profile;
+        return new LoadHarness(options).run();
+    }
+
+    static void print(LoadHarness.Report report, PrintStream out) {
+        LatencyHistogram setup = report.getSetupMetrics().get(SetupStage.CALL_ESTABLISHED);
+        LatencyHistogram delivery = report.getDeliveryLatency();
+        LatencyHistogram recovery = report.getRecovery();
+        out.printf("%-8s %6d  %-19s %-19s %-19s%n", report.getNetwork(), report.getFailed(),
+                pair(setup.getPercentileMicros(0.5), setup.getPercentileMicros(0.9)),
+                pair(delivery.getPercentileMicros(0.5), delivery.getPercentileMicros(0.9)),
+                recovery.getCount() == 0 ? "-"
+                        : pair(recovery.getPercentileMicros(0.5), recovery.getMaxMicros()));
+    }
+
+    private static String pair(long firstMicros, long secondMicros) {
+        return LoadHarness.Report.ms(firstMicros) + "/" + LoadHarness.Report.ms(secondMicros);
+    }
+}
@@ -0,0 +1,44 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.CallSession;
+import org.ets.halefsdk.core.FeedbackEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/** A harness call: the SDK's {@link CallSession} plus what the harness waits on. */
+class SimulatedCall extends CallSession {
+    private int messages;
+    private boolean endOfDialog;
+
+    SimulatedCall(String id, String extension) {
+        super(id, extension);
+    }
+
+    synchronized void onFeedbackEvent(FeedbackEvent event) {
+        messages++;
+        if (event.getType() == FeedbackEvent.Type.END_OF_DIALOG) {
+            endOfDialog = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits for the end of the dialog and for {@code total} messages in all: after a
+     * reconnect, the end can overtake the replay of what was missed before it.
+     */
+    synchronized boolean awaitEndOfDialog(int total, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!endOfDialog || messages < total) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    synchronized int getMessages() {
+        return messages;
+    }
+}
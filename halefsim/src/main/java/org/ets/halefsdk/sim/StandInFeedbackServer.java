@@ -0,0 +1,278 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.Cbor;
+import org.ets.halefsdk.core.FeedbackChannel;
+import org.ets.halefsdk.core.FeedbackSocket;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the HALEF socket.io messenger. It speaks the same contract the
+ * SDK relies on (connect, {@code register} with a call UUID, {@code message} events routed
+ * by {@code user}), with connects and deliveries happening asynchronously on the server's
+ * own thread, but without the engine.io wire protocol.
+ *
+ * {@link #startDialog} plays a short scripted dialog to a call: prompts, partial results,
+ * a score and finally an end-of-dialog event. Every message carries {@code seq} and the
+ * {@code sentNanos} it was sent at, so clients can measure delivery latency. Dialog
+ * messages are kept per call, so a client that registers with {@code resume} or emits
+ * {@code replay} gets what it missed sent again, like the messenger does.
+ *
+ * With {@link #setBinaryFraming} the server answers a client's {@code hello} offering CBOR
+ * and frames everything it sends that client as CBOR from then on; otherwise it ignores
+ * {@code hello}, like a messenger that predates it.
+ */
+public class StandInFeedbackServer {
+    private final long handshakeMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final List<StandInSocket> sockets = new CopyOnWriteArrayList<StandInSocket>();
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final AtomicInteger registrations = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private volatile boolean binaryFraming;
+    private final ConcurrentMap<String, List<String>> history = new ConcurrentHashMap<String, List<String>>();
+
+    public StandInFeedbackServer(long handshakeMillis) {
+        this.handshakeMillis = handshakeMillis;
+    }
+
+    public FeedbackSocket newSocket() {
+        StandInSocket socket = new StandInSocket();
+        sockets.add(socket);
+        return socket;
+    }
+
+    public int getHandshakes() {
+        return handshakes.get();
+    }
+
+    public int getRegistrations() {
+        return registrations.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    /** Messages sent again because a client resumed or asked for a replay. */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /** Whether to accept CBOR when a client offers it. */
+    public void setBinaryFraming(boolean enabled) {
+        binaryFraming = enabled;
+    }
+
+    /** Payload bytes sent, in whichever framing each client negotiated. */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Drops every connection, as a network outage would; clients have to reconnect. */
+    public void dropConnections() {
+        for (StandInSocket socket : sockets) {
+            socket.drop();
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        for (StandInSocket socket : sockets) {
+            socket.disconnect();
+        }
+    }
+
+    /**
+     * Plays a dialog of {@code messages} messages (at least two) to {@code callUUID}, one every
+     * {@code intervalMillis}; the last one is the end-of-dialog event.
+     */
+    public void startDialog(final String callUUID, final int messages, long intervalMillis) {
+        final List<String> sentSoFar = new CopyOnWriteArrayList<String>();
+        history.put(callUUID, sentSoFar);
+        for (int i = 0; i < messages; i++) {
+            final int seq = i;
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    String message = dialogMessage(callUUID, seq, messages);
+                    sentSoFar.add(message);
+                    send(callUUID, message);
+                }
+            }, intervalMillis * (i + 1), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Sends {@code callUUID}'s dialog messages from {@code from} on to one socket again. */
+    private void replay(final StandInSocket socket, final String callUUID, final long from) {
+        final List<String> sentSoFar = history.get(callUUID);
+        if (sentSoFar == null || from < 0) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = (int) from; i < sentSoFar.size(); i++) {
+                    if (!deliver(socket, callUUID, sentSoFar.get(i))) {
+                        return;
+                    }
+                    replayed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /** Sends {@code message} to every connected socket, tagged with {@code user}. */
+    public void send(String user, String message) {
+        for (StandInSocket socket : sockets) {
+            if (deliver(socket, user, message)) {
+                sent.incrementAndGet();
+            }
+        }
+    }
+
+    /** @return false if the socket is not connected */
+    private boolean deliver(StandInSocket socket, String user, String message) {
+        FeedbackSocket.Handler handler = socket.handler;
+        if (!socket.connected || handler == null) {
+            return false;
+        }
+        if (socket.binary) {
+            byte[] frame = Cbor.fromJson(message);
+            bytesSent.addAndGet(frame.length);
+            handler.onBinaryMessage(user, frame);
+        } else {
+            // Dialog messages are ASCII.
+            bytesSent.addAndGet(message.length());
+            handler.onMessage(user, message);
+        }
+        return true;
+    }
+
+    static String dialogMessage(String callUUID, int seq, int total) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("{\"user\":\"").append(callUUID).append("\",\"seq\":").append(seq);
+        if (seq == total - 1) {
+            sb.append(",\"type\":\"end\"");
+        } else if (seq == total - 2) {
+            sb.append(",\"type\":\"score\",\"name\":\"fluency\",\"score\":3.5");
+        } else if (seq % 2 == 0) {
+            sb.append(",\"type\":\"prompt\",\"text\":\"What would you like to order today?\"");
+        } else {
+            sb.append(",\"type\":\"partial\",\"result\":\"I would like a medium latte\"");
+        }
+        return sb.append(",\"sentNanos\":").append(System.nanoTime()).append('}').toString();
+    }
+
+    private class StandInSocket implements FeedbackSocket {
+        volatile Handler handler;
+        volatile boolean connected;
+        volatile boolean wanted;
+        volatile boolean binary;
+
+        @Override
+        public void setHandler(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void connect() {
+            wanted = true;
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (wanted && !connected) {
+                        handshakes.incrementAndGet();
+                        connected = true;
+                        handler.onConnect();
+                    }
+                }
+            }, handshakeMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void disconnect() {
+            drop();
+        }
+
+        void drop() {
+            wanted = false;
+            binary = false;
+            if (connected) {
+                connected = false;
+                handler.onDisconnect();
+            }
+        }
+
+        @Override
+        public boolean connected() {
+            return connected;
+        }
+
+        @Override
+        public void emit(String event, String json) {
+            if (!connected) {
+                return;
+            }
+            if ("hello".equals(event)) {
+                if (binaryFraming && json.contains("\"" + FeedbackChannel.ENCODING_CBOR + "\"")) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (connected) {
+                                binary = true;
+                                handler.onEncoding(FeedbackChannel.ENCODING_CBOR);
+                            }
+                        }
+                    });
+                }
+            } else if ("register".equals(event)) {
+                registrations.incrementAndGet();
+                // A first registration gets whatever the call was sent before it, too.
+                long resume = json.contains("\"resume\":") ? longMember(json, "resume") : -1;
+                replay(this, stringMember(json, "user"), resume + 1);
+            } else if ("replay".equals(event)) {
+                replay(this, stringMember(json, "user"), longMember(json, "from"));
+            }
+        }
+
+        @Override
+        public void emit(String event, byte[] cbor) {
+            emit(event, Cbor.toJson(cbor));
+        }
+    }
+
+    /** Good enough for the flat payloads clients emit. */
+    static String stringMember(String json, String name) {
+        int key = json.indexOf("\"" + name + "\":\"");
+        if (key < 0) {
+            return null;
+        }
+        int start = key + name.length() + 4;
+        int end = json.indexOf('"', start);
+        return end < 0 ? null : json.substring(start, end);
+    }
+
+    static long longMember(String json, String name) {
+        int key = json.indexOf("\"" + name + "\":");
+        if (key < 0) {
+            return -1;
+        }
+        int start = key + name.length() + 3;
+        int end = start;
+        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-')) {
+            end++;
+        }
+        return end == start ? -1 : Long.parseLong(json.substring(start, end));
+    }
+}
@@ -0,0 +1,436 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.CallIds;
+import org.ets.halefsdk.core.sip.DigestAuth;
+import org.ets.halefsdk.core.sip.SipMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the HALEF Asterisk box: a SIP registrar and user agent server over UDP and
+ * TCP on the loopback interface. REGISTER is accepted, INVITE is answered with 200 OK after
+ * a configurable delay (within a dialog, at once) and BYE is confirmed. With a password,
+ * REGISTER and INVITE are challenged with digest authentication first. The answer's SDP
+ * points at an RTP port that echoes every packet back. The {@link Listener} hears about
+ * answered and ended calls, keyed by the call UUID from the dial string, so a feedback
+ * stand-in can run the dialog. Like any user agent server, it sends its 200 OK to an INVITE
+ * again until the ACK comes, in case the answer was lost.
+ */
+public class StandInSipServer {
+
+    public interface Listener {
+        void onCallAnswered(String callUUID);
+        void onCallEnded(String callUUID);
+    }
+
+    /** Where a response goes: back to the datagram's sender or down the same connection. */
+    private interface Replier {
+        void send(SipMessage message) throws IOException;
+    }
+
+    public static final String REALM = "halef";
+    private static final int MAX_DATAGRAM = 65535;
+    private static final long T1_MILLIS = 500;
+    private static final long T2_MILLIS = 4000;
+
+    private final DatagramSocket socket;
+    private final ServerSocket tcpSocket;
+    private final DatagramSocket rtpSocket;
+    private final long answerDelayMillis;
+    private final String password;
+    private final Listener listener;
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger registers = new AtomicInteger();
+    private final AtomicInteger invites = new AtomicInteger();
+    private final AtomicInteger reinvites = new AtomicInteger();
+    private final AtomicInteger byes = new AtomicInteger();
+    private final AtomicInteger challenges = new AtomicInteger();
+    private final AtomicInteger rtpPackets = new AtomicInteger();
+    private final AtomicInteger tags = new AtomicInteger();
+    private final Map<String, String> latestInvites = new ConcurrentHashMap<String, String>();
+    /** The 200 OK each answered call got, by Call-ID, until it is acknowledged. */
+    private final ConcurrentMap<String, SipMessage> answers = new ConcurrentHashMap<String, SipMessage>();
+    private final Set<String> answered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> inviteBranches = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final String nonce = Long.toHexString(System.nanoTime());
+    private boolean started;
+
+    public StandInSipServer(int port, long answerDelayMillis, Listener listener) throws IOException {
+        this(port, answerDelayMillis, null, listener);
+    }
+
+    /** @param password when not null, every account must authenticate with it */
+    public StandInSipServer(int port, long answerDelayMillis, String password, Listener listener)
+            throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.socket = new DatagramSocket(new InetSocketAddress(loopback, port));
+        this.tcpSocket = new ServerSocket(socket.getLocalPort(), 50, loopback);
+        this.rtpSocket = new DatagramSocket(new InetSocketAddress(loopback, 0));
+        this.answerDelayMillis = answerDelayMillis;
+        this.password = password;
+        this.listener = listener;
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public String getDomain() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    public int getRegisters() {
+        return registers.get();
+    }
+
+    public int getInvites() {
+        return invites.get();
+    }
+
+    /** INVITEs within an established dialog, as sent after a network handover. */
+    public int getReinvites() {
+        return reinvites.get();
+    }
+
+    public int getByes() {
+        return byes.get();
+    }
+
+    /** 401 responses sent so far. */
+    public int getChallenges() {
+        return challenges.get();
+    }
+
+    /** RTP packets echoed so far. */
+    public int getRtpPackets() {
+        return rtpPackets.get();
+    }
+
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            daemon(udpLoop, "StandInSipServer-udp");
+            daemon(tcpLoop, "StandInSipServer-tcp");
+            daemon(rtpEcho, "StandInSipServer-rtp");
+        }
+    }
+
+    public synchronized void close() {
+        socket.close();
+        rtpSocket.close();
+        try {
+            tcpSocket.close();
+        } catch (IOException ignored) {
+        }
+        timers.shutdownNow();
+    }
+
+    private static void daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private final Runnable udpLoop = new Runnable() {
+        @Override
+        public void run() {
+            byte[] buffer = new byte[MAX_DATAGRAM];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (!socket.isClosed()) {
+                try {
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+                    SipMessage message = SipMessage.parse(buffer, 0, packet.getLength());
+                    if (message.isRequest()) {
+                        handle(message, datagramReplier(packet.getSocketAddress()));
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Not SIP; ignore it like a real proxy would.
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+    };
+
+    private Replier datagramReplier(final SocketAddress to) {
+        return new Replier() {
+            @Override
+            public void send(SipMessage message) throws IOException {
+                byte[] bytes = message.toBytes();
+                socket.send(new DatagramPacket(bytes, bytes.length, to));
+            }
+        };
+    }
+
+    private final Runnable tcpLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (!tcpSocket.isClosed()) {
+                try {
+                    final Socket connection = tcpSocket.accept();
+                    daemon(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(connection);
+                        }
+                    }, "StandInSipServer-conn");
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+    };
+
+    /** Reads Content-Length framed requests off one connection until it closes. */
+    private void serve(Socket connection) {
+        try {
+            connection.setTcpNoDelay(true);
+            InputStream in = connection.getInputStream();
+            final OutputStream out = connection.getOutputStream();
+            Replier replier = new Replier() {
+                @Override
+                public void send(SipMessage message) throws IOException {
+                    synchronized (out) {
+                        out.write(message.toBytes());
+                        out.flush();
+                    }
+                }
+            };
+            ByteArrayOutputStream head = new ByteArrayOutputStream(1024);
+            while (!tcpSocket.isClosed()) {
+                head.reset();
+                int matched = 0;
+                while (matched < 4) {
+                    int b = in.read();
+                    if (b < 0) {
+                        return;
+                    }
+                    if (head.size() == 0 && (b == '\r' || b == '\n')) {
+                        continue;
+                    }
+                    head.write(b);
+                    matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+                }
+                SipMessage headers = SipMessage.parse(head.toByteArray(), 0, head.size());
+                String length = headers.header("Content-Length");
+                byte[] message = head.toByteArray();
+                if (length != null && Integer.parseInt(length.trim()) > 0) {
+                    byte[] body = new byte[Integer.parseInt(length.trim())];
+                    int read = 0;
+                    while (read < body.length) {
+                        int n = in.read(body, read, body.length - read);
+                        if (n < 0) {
+                            return;
+                        }
+                        read += n;
+                    }
+                    head.write(body);
+                    message = head.toByteArray();
+                }
+                SipMessage request = SipMessage.parse(message, 0, message.length);
+                if (request.isRequest()) {
+                    handle(request, replier);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Garbage on a stream cannot be resynchronised; drop the connection.
+        } catch (IOException e) {
+            // Connection gone.
+        } finally {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final Runnable rtpEcho = new Runnable() {
+        @Override
+        public void run() {
+            byte[] buffer = new byte[MAX_DATAGRAM];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (!rtpSocket.isClosed()) {
+                try {
+                    packet.setLength(buffer.length);
+                    rtpSocket.receive(packet);
+                    rtpPackets.incrementAndGet();
+                    rtpSocket.send(packet);
+                } catch (IOException e) {
+                    if (rtpSocket.isClosed()) {
+                        return;
+                    }
+                }
+            }
+        }
+    };
+
+    private void handle(SipMessage request, Replier from) throws IOException {
+        String method = request.getMethod();
+        if (("REGISTER".equals(method) || "INVITE".equals(method)) && !authorized(request)) {
+            challenges.incrementAndGet();
+            SipMessage challenge = request.createResponse(401, "Unauthorized");
+            challenge.setHeader("To", request.header("To") + ";tag=si" + tags.incrementAndGet());
+            challenge.addHeader("WWW-Authenticate", "Digest realm=\"" + REALM + "\", nonce=\"" + nonce
+                    + "\", qop=\"auth\", algorithm=MD5");
+            from.send(challenge);
+            return;
+        }
+        if ("REGISTER".equals(method)) {
+            registers.incrementAndGet();
+            SipMessage ok = request.createResponse(200, "OK");
+            String contact = request.header("Contact");
+            if (contact != null) {
+                ok.addHeader("Contact", contact);
+            }
+            String expires = request.header("Expires");
+            ok.addHeader("Expires", expires != null ? expires : "3600");
+            from.send(ok);
+        } else if ("INVITE".equals(method) && SipMessage.param(request.header("To"), "tag") != null) {
+            // In-dialog: take the new offer as it is, at once. Our RTP echo answers whatever
+            // address the packets come from, so the media follows by itself.
+            if (inviteBranches.add(SipMessage.param(request.header("Via"), "branch"))) {
+                reinvites.incrementAndGet();
+            }
+            SipMessage ok = request.createResponse(200, "OK");
+            ok.addHeader("Contact", "<sip:halef@" + getDomain() + ">");
+            ok.setBody("application/sdp", sdp());
+            from.send(ok);
+        } else if ("INVITE".equals(method)) {
+            from.send(request.createResponse(100, "Trying"));
+            String branch = SipMessage.param(request.header("Via"), "branch");
+            if (inviteBranches.add(branch)) {
+                invites.incrementAndGet();
+                // A caller that sends a new INVITE for the same call, after moving networks,
+                // gets the answer there; the first one is dropped.
+                latestInvites.put(request.header("Call-ID"), branch);
+                answerLater(request, from);
+            } else {
+                // A retransmission: our answer may have been lost on the way.
+                SipMessage ok = answers.get(request.header("Call-ID"));
+                if (ok != null && branch.equals(SipMessage.param(ok.header("Via"), "branch"))) {
+                    from.send(ok);
+                }
+            }
+        } else if ("BYE".equals(method)) {
+            byes.incrementAndGet();
+            from.send(request.createResponse(200, "OK"));
+            String callUUID = callUUID(request.header("To"));
+            answers.remove(request.header("Call-ID"));
+            if (answered.remove(request.header("Call-ID")) && callUUID != null) {
+                listener.onCallEnded(callUUID);
+            }
+        } else if ("ACK".equals(method)) {
+            answers.remove(request.header("Call-ID"));
+        } else {
+            from.send(request.createResponse("OPTIONS".equals(method) ? 200 : 501,
+                    "OPTIONS".equals(method) ? "OK" : "Not Implemented"));
+        }
+    }
+
+    private boolean authorized(SipMessage request) {
+        if (password == null) {
+            return true;
+        }
+        String header = request.header("Authorization");
+        if (header == null) {
+            return false;
+        }
+        Map<String, String> params = DigestAuth.parse(header);
+        String expected = DigestAuth.response(params.get("username"), REALM, password, request.getMethod(),
+                params.get("uri"), nonce, params.get("nc"), params.get("cnonce"));
+        return expected.equals(params.get("response"));
+    }
+
+    private void answerLater(final SipMessage invite, final Replier from) {
+        timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                String callId = invite.header("Call-ID");
+                if (!SipMessage.param(invite.header("Via"), "branch").equals(latestInvites.get(callId))) {
+                    return;
+                }
+                latestInvites.remove(callId);
+                SipMessage ok = invite.createResponse(200, "OK");
+                ok.setHeader("To", invite.header("To") + ";tag=si" + tags.incrementAndGet());
+                ok.addHeader("Contact", "<sip:halef@" + getDomain() + ">");
+                ok.setBody("application/sdp", sdp());
+                answers.put(callId, ok);
+                try {
+                    from.send(ok);
+                } catch (IOException e) {
+                    return;
+                }
+                resendUntilAcknowledged(callId, ok, from, T1_MILLIS, 0);
+                // An answer can be lost with the network it went out on; the dialog started
+                // with the first one carries on.
+                String callUUID = callUUID(invite.getRequestUri());
+                if (answered.add(callId) && callUUID != null) {
+                    listener.onCallAnswered(callUUID);
+                }
+            }
+        }, answerDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** RFC 3261 13.3.1.4: the caller stopped retransmitting at our 100, so a lost 2xx is on us. */
+    private void resendUntilAcknowledged(final String callId, final SipMessage ok, final Replier from,
+                                         final long intervalMillis, final long elapsedMillis) {
+        if (elapsedMillis + intervalMillis >= 64 * T1_MILLIS) {
+            answers.remove(callId, ok);
+            return;
+        }
+        timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (answers.get(callId) != ok) {
+                    return;
+                }
+                try {
+                    from.send(ok);
+                } catch (IOException e) {
+                    return;
+                }
+                resendUntilAcknowledged(callId, ok, from, Math.min(2 * intervalMillis, T2_MILLIS),
+                        elapsedMillis + intervalMillis);
+            }
+        }, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private String sdp() {
+        return "v=0\r\n"
+                + "o=halef 0 0 IN IP4 127.0.0.1\r\n"
+                + "s=HALEF\r\n"
+                + "c=IN IP4 127.0.0.1\r\n"
+                + "t=0 0\r\n"
+                + "m=audio " + rtpSocket.getLocalPort() + " RTP/AVP 0\r\n"
+                + "a=rtpmap:0 PCMU/8000\r\n";
+    }
+
+    /** Dial strings are extension + "0000" + call UUID, so the UUID is the tail of the user. */
+    static String callUUID(String uri) {
+        String user = uri == null ? null : SipMessage.user(uri);
+        if (user == null || user.length() < CallIds.LENGTH) {
+            return null;
+        }
+        return user.substring(user.length() - CallIds.LENGTH);
+    }
+}
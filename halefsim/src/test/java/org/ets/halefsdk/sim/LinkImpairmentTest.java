@@ -0,0 +1,67 @@
+package org.ets.halefsdk.sim;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LinkImpairmentTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void sameSeedSameFates() {
+        LinkImpairment a = new LinkImpairment(NetworkProfile.EDGE, 42, 0, false);
+        LinkImpairment b = new LinkImpairment(NetworkProfile.EDGE, 42, 0, false);
+        LinkImpairment other = new LinkImpairment(NetworkProfile.EDGE, 43, 0, false);
+        boolean differs = false;
+        int lost = 0;
+        for (int i = 0; i < 20000; i++) {
+            long now = i * 100 * MS;
+            long at = a.deliverAt(200, now);
+            assertEquals(at, b.deliverAt(200, now));
+            differs |= at != other.deliverAt(200, now);
+            if (at < 0) {
+                lost++;
+            } else {
+                // 200 bytes at 25 kB/s, 200 ms +-80 ms, maybe held back.
+                assertTrue(at - now >= 128 * MS);
+                assertTrue(at - now <= 448 * MS);
+            }
+        }
+        assertTrue(differs);
+        assertEquals(lost, a.getDropped());
+        assertTrue("lost " + lost, lost > 20000 * 0.02 && lost < 20000 * 0.04);
+    }
+
+    @Test
+    public void orderedLinkQueuesAndNeverLosesOrOvertakes() {
+        LinkImpairment link = new LinkImpairment(NetworkProfile.EDGE, 7, 0, true);
+        long last = 0;
+        for (int i = 0; i < 1000; i++) {
+            long at = link.deliverAt(250, 0);
+            assertTrue(at >= last);
+            last = at;
+        }
+        // 250 kB through a 25 kB/s link.
+        assertTrue(last >= TimeUnit.SECONDS.toNanos(10));
+        assertTrue(link.getRetransmitted() > 0);
+        assertEquals(0, link.getDropped());
+    }
+
+    @Test
+    public void outagesDropDatagramsAndStallStreams() {
+        // 400 ms gone at the end of every 1500 ms.
+        LinkImpairment datagrams = new LinkImpairment(NetworkProfile.FLAKY, 1, 0, false);
+        LinkImpairment stream = new LinkImpairment(NetworkProfile.FLAKY, 1, 0, true);
+        assertFalse(datagrams.isDown(1000 * MS));
+        assertTrue(datagrams.isDown(1200 * MS));
+        assertEquals(1500 * MS, datagrams.upAt(1200 * MS));
+        assertEquals(-1, datagrams.deliverAt(100, 1200 * MS));
+        assertTrue(stream.deliverAt(100, 1200 * MS) >= 1500 * MS);
+        assertFalse(stream.isDown(1600 * MS));
+        assertTrue(stream.isDown(2700 * MS));
+    }
+}
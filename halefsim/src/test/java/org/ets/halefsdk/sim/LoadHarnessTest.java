@@ -0,0 +1,97 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.SetupStage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadHarnessTest {
+
+    @Test
+    public void smallRunCompletesEveryCall() throws Exception {
+        LoadHarness.Options options = LoadHarness.Options.parse(new String[] {
+                "--calls", "20", "--concurrency", "5", "--messages", "4",
+                "--message-interval", "5", "--answer-delay", "5", "--handshake", "5" });
+        LoadHarness.Report report = new LoadHarness(options).run();
+
+        assertEquals(0, report.getFailed());
+        assertEquals(20, report.getSetupMetrics().get(SetupStage.CALL_ESTABLISHED).getCount());
+        assertEquals(20, report.getSetupMetrics().get(SetupStage.FIRST_MESSAGE).getCount());
+        assertEquals(80, report.getDeliveryLatency().getCount());
+    }
+
+    @Test
+    public void authenticatesOverTcp() throws Exception {
+        LoadHarness.Options options = LoadHarness.Options.parse(new String[] {
+                "--calls", "5", "--concurrency", "5", "--messages", "2", "--message-interval", "5",
+                "--answer-delay", "5", "--handshake", "5", "--transport", "tcp", "--password", "secret" });
+        LoadHarness.Report report = new LoadHarness(options).run();
+
+        assertEquals(0, report.getFailed());
+        assertEquals(5, report.getSetupMetrics().get(SetupStage.CALL_ESTABLISHED).getCount());
+    }
+
+    @Test
+    public void dialogsSurviveFeedbackDrops() throws Exception {
+        LoadHarness.Options options = LoadHarness.Options.parse(new String[] {
+                "--calls", "10", "--concurrency", "5", "--messages", "12", "--message-interval", "10",
+                "--answer-delay", "5", "--handshake", "5", "--drop-every", "40" });
+        LoadHarness.Report report = new LoadHarness(options).run();
+
+        assertEquals(0, report.getFailed());
+        assertTrue(report.getDrops() > 0);
+        assertTrue(report.getReplayed() > 0);
+    }
+
+    @Test
+    public void callsSurviveNetworkFlips() throws Exception {
+        LoadHarness.Options options = LoadHarness.Options.parse(new String[] {
+                "--calls", "10", "--concurrency", "5", "--messages", "12", "--message-interval", "10",
+                "--answer-delay", "5", "--handshake", "5", "--transport", "tcp", "--password", "secret",
+                "--flip-every", "60" });
+        LoadHarness.Report report = new LoadHarness(options).run();
+
+        assertEquals(0, report.getFailed());
+        assertTrue(report.getHandovers() > 0);
+        assertTrue(report.getCallsMoved() > 0);
+        assertEquals(0, report.getCallsLost());
+        assertTrue(report.getHandoverLatency().getCount() > 0);
+    }
+
+    @Test
+    public void callsCompleteOnAFlakyNetwork() throws Exception {
+        LoadHarness.Options options = LoadHarness.Options.parse(new String[] {
+                "--calls", "10", "--concurrency", "2", "--messages", "20", "--message-interval", "20",
+                "--answer-delay", "5", "--handshake", "5", "--network", "flaky", "--seed", "3" });
+        LoadHarness.Report report = new LoadHarness(options).run();
+
+        assertEquals(0, report.getFailed());
+        assertEquals("flaky", report.getNetwork());
+        assertEquals(200, report.getDeliveryLatency().getCount());
+        // Every answer is at least a round trip of 40 +- 20 ms away.
+        assertTrue(report.getSetupMetrics().get(SetupStage.CALL_ESTABLISHED).getPercentileMicros(0.5) >= 40000);
+        assertTrue(report.getOutages() > 0);
+        assertTrue(report.getRecovery().getCount() > 0);
+    }
+
+    @Test
+    public void cborFramingIsNegotiatedAndSmaller() throws Exception {
+        String[] args = { "--calls", "5", "--concurrency", "5", "--messages", "4",
+                "--message-interval", "5", "--answer-delay", "5", "--handshake", "5", "--framing", "json" };
+        LoadHarness.Report json = new LoadHarness(LoadHarness.Options.parse(args)).run();
+        args[args.length - 1] = "cbor";
+        LoadHarness.Report cbor = new LoadHarness(LoadHarness.Options.parse(args)).run();
+
+        assertEquals(0, cbor.getFailed());
+        assertEquals("cbor", cbor.getFraming());
+        assertEquals(20, cbor.getDeliveryLatency().getCount());
+        assertTrue(cbor.getFeedbackBytes() < json.getFeedbackBytes());
+    }
+
+    @Test
+    public void callUUIDIsTheTailOfTheDialString() {
+        assertEquals("123456789", StandInSipServer.callUUID("<sip:78010000123456789@127.0.0.1:5060>"));
+        assertEquals(null, StandInSipServer.callUUID("sip:7801@127.0.0.1"));
+    }
+}
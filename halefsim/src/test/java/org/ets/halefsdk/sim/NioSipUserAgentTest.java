@@ -0,0 +1,375 @@
+package org.ets.halefsdk.sim;
+
+import org.ets.halefsdk.core.SipAccount;
+import org.ets.halefsdk.core.media.AudioDevice;
+import org.ets.halefsdk.core.media.MediaStats;
+import org.ets.halefsdk.core.media.SilentAudioDevice;
+import org.ets.halefsdk.core.sip.NioSipUserAgent;
+import org.ets.halefsdk.core.sip.SipMessage;
+import org.ets.halefsdk.core.sip.SipTransport;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class NioSipUserAgentTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final StandInSipServer.Listener QUIET = new StandInSipServer.Listener() {
+        @Override
+        public void onCallAnswered(String callUUID) {
+        }
+
+        @Override
+        public void onCallEnded(String callUUID) {
+        }
+    };
+
+    @Test
+    public void callCarriesAudioBothWaysAndHangsUp() throws Exception {
+        StandInSipServer server = new StandInSipServer(0, 5, "secret", QUIET);
+        server.start();
+        final SilentAudioDevice device = new SilentAudioDevice();
+        NioSipUserAgent userAgent = new NioSipUserAgent(NioSipUserAgent.Protocol.UDP, new AudioDevice.Factory() {
+            @Override
+            public AudioDevice open() {
+                return device;
+            }
+        });
+        final CountDownLatch established = new CountDownLatch(1);
+        final CountDownLatch ended = new CountDownLatch(1);
+        try {
+            SipAccount account = new SipAccount(server.getDomain(), "test", "secret");
+            SipTransport.Call call = userAgent.makeCall(account, "78010000123456789@" + server.getDomain(),
+                    new SipTransport.CallListener() {
+                        @Override
+                        public void onCallEstablished(SipTransport.Call call) {
+                            established.countDown();
+                        }
+
+                        @Override
+                        public void onCallEnded(SipTransport.Call call) {
+                            ended.countDown();
+                        }
+
+                        @Override
+                        public void onError(SipTransport.Call call, int errorCode, String errorMessage) {
+                        }
+                    }, 5);
+            assertTrue(established.await(5, TimeUnit.SECONDS));
+            assertEquals(1, server.getChallenges());
+            call.startAudio();
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((device.getFramesWritten() < 5 || server.getRtpPackets() < 5)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(device.getFramesWritten() >= 5);
+            assertTrue(server.getRtpPackets() >= 5);
+            MediaStats stats = new MediaStats();
+            assertTrue(call.readMediaStats(stats));
+            assertTrue(stats.packetsSent >= 5);
+            assertTrue(stats.roundTripMillis >= 0);
+
+            call.endCall();
+            assertTrue(ended.await(5, TimeUnit.SECONDS));
+            deadline = System.currentTimeMillis() + 5000;
+            while (server.getByes() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, server.getByes());
+        } finally {
+            userAgent.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void handoverMovesAnEstablishedCallOntoNewSockets() throws Exception {
+        StandInSipServer server = new StandInSipServer(0, 5, "secret", QUIET);
+        server.start();
+        NioSipUserAgent userAgent = new NioSipUserAgent(NioSipUserAgent.Protocol.UDP, SilentAudioDevice.FACTORY);
+        final CountDownLatch established = new CountDownLatch(1);
+        final CountDownLatch moved = new CountDownLatch(1);
+        final AtomicInteger lost = new AtomicInteger();
+        try {
+            SipAccount account = new SipAccount(server.getDomain(), "test", "secret");
+            SipTransport.Call call = userAgent.makeCall(account, "78010000123456789@" + server.getDomain(),
+                    new SipTransport.CallListener() {
+                        @Override
+                        public void onCallEstablished(SipTransport.Call call) {
+                            established.countDown();
+                        }
+
+                        @Override
+                        public void onCallEnded(SipTransport.Call call) {
+                        }
+
+                        @Override
+                        public void onError(SipTransport.Call call, int errorCode, String errorMessage) {
+                        }
+                    }, 5);
+            assertTrue(established.await(5, TimeUnit.SECONDS));
+            call.startAudio();
+            MediaStats before = new MediaStats();
+            call.readMediaStats(before);
+
+            assertTrue(userAgent.handOver(new SipTransport.HandoverListener() {
+                @Override
+                public void onHandoverStarted(int calls) {
+                }
+
+                @Override
+                public void onCallHandedOver(SipTransport.Call call, long elapsedNanos) {
+                    moved.countDown();
+                }
+
+                @Override
+                public void onCallHandoverFailed(SipTransport.Call call, int errorCode, String errorMessage) {
+                    lost.incrementAndGet();
+                }
+            }));
+            assertTrue(moved.await(5, TimeUnit.SECONDS));
+            assertEquals(0, lost.get());
+            assertEquals(1, server.getReinvites());
+            assertTrue(call.isInCall());
+
+            // The stream carries on from the new socket, echo and all.
+            int echoed = server.getRtpPackets();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getRtpPackets() < echoed + 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(server.getRtpPackets() >= echoed + 5);
+            MediaStats after = new MediaStats();
+            call.readMediaStats(after);
+            assertTrue(after.packetsReceived > before.packetsReceived);
+            assertTrue(after.packetsSent > before.packetsSent);
+        } finally {
+            userAgent.shutdown();
+            server.close();
+        }
+    }
+
+    /** A server side scripted by the test, one datagram at a time. */
+    private static final class ScriptedServer {
+        final DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketAddress client;
+
+        ScriptedServer() throws IOException {
+            socket.setSoTimeout(5000);
+        }
+
+        String getDomain() {
+            return "127.0.0.1:" + socket.getLocalPort();
+        }
+
+        /** The next request of {@code method}, skipping retransmissions and anything else. */
+        SipMessage next(String method) throws IOException {
+            byte[] buffer = new byte[65535];
+            long deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                client = packet.getSocketAddress();
+                SipMessage message = SipMessage.parse(buffer, 0, packet.getLength());
+                if (message.isRequest() && method.equals(message.getMethod())) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        void send(SipMessage message) throws IOException {
+            byte[] bytes = message.toBytes();
+            socket.send(new DatagramPacket(bytes, bytes.length, client));
+        }
+
+        void close() {
+            socket.close();
+        }
+    }
+
+    private static final SipTransport.CallListener IGNORED = new SipTransport.CallListener() {
+        @Override
+        public void onCallEstablished(SipTransport.Call call) {
+        }
+
+        @Override
+        public void onCallEnded(SipTransport.Call call) {
+        }
+
+        @Override
+        public void onError(SipTransport.Call call, int errorCode, String errorMessage) {
+        }
+    };
+
+    private static String cseqNumber(SipMessage message) {
+        String cseq = message.header("CSeq");
+        return cseq.substring(0, cseq.indexOf(' '));
+    }
+
+    @Test
+    public void cancelledCallAcknowledgesTheRequestTerminated() throws Exception {
+        ScriptedServer server = new ScriptedServer();
+        NioSipUserAgent userAgent = new NioSipUserAgent(NioSipUserAgent.Protocol.UDP, SilentAudioDevice.FACTORY);
+        try {
+            SipAccount account = new SipAccount(server.getDomain(), "test", null);
+            SipTransport.Call call = userAgent.makeCall(account, "78010000123456789@" + server.getDomain(),
+                    IGNORED, 5);
+            SipMessage invite = server.next("INVITE");
+            assertNotNull(invite);
+            server.send(invite.createResponse(100, "Trying"));
+
+            call.endCall();
+            SipMessage cancel = server.next("CANCEL");
+            assertNotNull(cancel);
+            server.send(cancel.createResponse(200, "OK"));
+            SipMessage terminated = invite.createResponse(487, "Request Terminated");
+            terminated.setHeader("To", invite.header("To") + ";tag=st1");
+            server.send(terminated);
+
+            SipMessage ack = server.next("ACK");
+            assertNotNull(ack);
+            assertEquals(invite.header("Via"), ack.header("Via"));
+            assertEquals(invite.getRequestUri(), ack.getRequestUri());
+            assertEquals(cseqNumber(invite) + " ACK", ack.header("CSeq"));
+            assertEquals("st1", SipMessage.param(ack.header("To"), "tag"));
+        } finally {
+            userAgent.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void answerThatCrossesTheCancelIsAcknowledgedAndHungUp() throws Exception {
+        ScriptedServer server = new ScriptedServer();
+        NioSipUserAgent userAgent = new NioSipUserAgent(NioSipUserAgent.Protocol.UDP, SilentAudioDevice.FACTORY);
+        try {
+            SipAccount account = new SipAccount(server.getDomain(), "test", null);
+            SipTransport.Call call = userAgent.makeCall(account, "78010000123456789@" + server.getDomain(),
+                    IGNORED, 5);
+            SipMessage invite = server.next("INVITE");
+            assertNotNull(invite);
+            server.send(invite.createResponse(100, "Trying"));
+
+            call.endCall();
+            SipMessage cancel = server.next("CANCEL");
+            assertNotNull(cancel);
+            // Too late: the call was answered before the CANCEL got here.
+            server.send(cancel.createResponse(481, "Call/Transaction Does Not Exist"));
+            SipMessage ok = invite.createResponse(200, "OK");
+            ok.setHeader("To", invite.header("To") + ";tag=st2");
+            ok.addHeader("Contact", "<sip:halef@" + server.getDomain() + ">");
+            ok.setBody("application/sdp", "v=0\r\n"
+                    + "o=halef 0 0 IN IP4 127.0.0.1\r\n"
+                    + "s=HALEF\r\n"
+                    + "c=IN IP4 127.0.0.1\r\n"
+                    + "t=0 0\r\n"
+                    + "m=audio 9 RTP/AVP 0\r\n");
+            server.send(ok);
+
+            SipMessage ack = server.next("ACK");
+            assertNotNull(ack);
+            assertEquals(cseqNumber(invite) + " ACK", ack.header("CSeq"));
+            assertEquals("st2", SipMessage.param(ack.header("To"), "tag"));
+            SipMessage bye = server.next("BYE");
+            assertNotNull(bye);
+            assertEquals("st2", SipMessage.param(bye.header("To"), "tag"));
+            server.send(bye.createResponse(200, "OK"));
+
+            // The answer retransmitted after all that is still acknowledged.
+            server.send(ok);
+            assertNotNull(server.next("ACK"));
+        } finally {
+            userAgent.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void oversizedContentLengthFailsTheCallAtOnce() throws Exception {
+        assertOversizedAnswerFailsTheCall("SIP/2.0 200 OK\r\nContent-Length: 70000\r\n\r\n");
+    }
+
+    @Test
+    public void headersThatFillTheBufferFailTheCallAtOnce() throws Exception {
+        char[] filler = new char[70000];
+        Arrays.fill(filler, 'x');
+        assertOversizedAnswerFailsTheCall("SIP/2.0 200 OK\r\nX-Filler: " + new String(filler));
+    }
+
+    /** Over TCP, {@code answer} must fail the INVITE as a transport error, not time out. */
+    private static void assertOversizedAnswerFailsTheCall(String answer) throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(5000);
+        NioSipUserAgent userAgent = new NioSipUserAgent(NioSipUserAgent.Protocol.TCP, SilentAudioDevice.FACTORY);
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicInteger code = new AtomicInteger();
+        Socket socket = null;
+        try {
+            String domain = "127.0.0.1:" + server.getLocalPort();
+            SipAccount account = new SipAccount(domain, "test", null);
+            userAgent.makeCall(account, "78010000123456789@" + domain, new SipTransport.CallListener() {
+                @Override
+                public void onCallEstablished(SipTransport.Call call) {
+                }
+
+                @Override
+                public void onCallEnded(SipTransport.Call call) {
+                }
+
+                @Override
+                public void onError(SipTransport.Call call, int errorCode, String errorMessage) {
+                    code.set(errorCode);
+                    failed.countDown();
+                }
+            }, 30);
+            socket = server.accept();
+            socket.setSoTimeout(5000);
+            InputStream in = socket.getInputStream();
+            byte[] invite = new byte[7];
+            int read = 0;
+            while (read < invite.length) {
+                int n = in.read(invite, read, invite.length - read);
+                assertTrue(n > 0);
+                read += n;
+            }
+            assertEquals("INVITE ", new String(invite, ASCII));
+            OutputStream out = socket.getOutputStream();
+            out.write(answer.getBytes(ASCII));
+            out.flush();
+
+            assertTrue(failed.await(5, TimeUnit.SECONDS));
+            assertEquals(NioSipUserAgent.ERROR_TRANSPORT, code.get());
+        } finally {
+            userAgent.shutdown();
+            if (socket != null) {
+                socket.close();
+            }
+            server.close();
+        }
+    }
+}